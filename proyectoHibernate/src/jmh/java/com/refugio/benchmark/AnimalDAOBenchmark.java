@@ -0,0 +1,150 @@
+package com.refugio.benchmark;
+
+import com.refugio.dao.AnimalDAO;
+import com.refugio.dao.FamiliaDAO;
+import com.refugio.dao.HibernateUtil;
+import com.refugio.model.Animal;
+import com.refugio.model.EstadoAnimal;
+import com.refugio.model.Familia;
+import org.hibernate.Session;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.persistence.OptimisticLockException;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Mide las operaciones más usadas de {@link AnimalDAO} y {@link FamiliaDAO} sobre una base de datos H2 en memoria
+ * con el número de animales indicado por {@link #filas}.
+ * Cada combinación de benchmark y tamaño se ejecuta en su propia JVM, con la base de datos recién cargada.
+ * Las operaciones de escritura eligen animales y familias al azar; {@link #saveAnimal()} hace crecer la tabla
+ * durante la medición. Con varios hilos, dos cambios del mismo animal pueden chocar: el DAO no los repite,
+ * así que se cuentan en {@link Conflictos} en lugar de detener la ejecución.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class AnimalDAOBenchmark {
+
+    /**
+     * Número de animales con los que se carga la base de datos.
+     */
+    @Param({"1000", "100000", "1000000"})
+    public int filas;
+
+    /**
+     * Cambios descartados por un conflicto de versión con otro hilo, que JMH muestra junto a cada resultado.
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Conflictos {
+
+        public long conflictos;
+
+        @Setup(Level.Iteration)
+        public void reiniciar() {
+            conflictos = 0;
+        }
+    }
+
+    private AnimalDAO animalDAO;
+    private FamiliaDAO familiaDAO;
+    private long primerAnimalId;
+    private long ultimoAnimalId;
+    private long primeraFamiliaId;
+    private long ultimaFamiliaId;
+
+    /**
+     * Configura la base de datos en memoria y la carga con {@link #filas} animales.
+     */
+    @Setup(Level.Trial)
+    public void preparar() {
+        BaseDatosEnMemoria.configurar();
+        animalDAO = new AnimalDAO();
+        familiaDAO = new FamiliaDAO();
+
+        BaseDatosEnMemoria.cargar(animalDAO, filas);
+
+        try (Session session = HibernateUtil.getSessionFactory().openSession()) {
+            Object[] animales = session.createQuery("SELECT MIN(a.id), MAX(a.id) FROM Animal a", Object[].class)
+                    .getSingleResult();
+            Object[] familias = session.createQuery("SELECT MIN(f.id), MAX(f.id) FROM Familia f", Object[].class)
+                    .getSingleResult();
+            primerAnimalId = (Long) animales[0];
+            ultimoAnimalId = (Long) animales[1];
+            primeraFamiliaId = (Long) familias[0];
+            ultimaFamiliaId = (Long) familias[1];
+        }
+    }
+
+    /**
+     * Cierra la {@link org.hibernate.SessionFactory} y con ella el pool de conexiones.
+     */
+    @TearDown(Level.Trial)
+    public void terminar() {
+        HibernateUtil.getSessionFactory().close();
+    }
+
+    @Benchmark
+    public void saveAnimal() {
+        int numero = ThreadLocalRandom.current().nextInt(filas);
+        Animal animal = BaseDatosEnMemoria.crearAnimal(numero);
+        Familia familia = animal.getFamilia();
+        animalDAO.saveAnimal(animal, familia.getNombre(), familia.getEdad(), familia.getCiudad());
+    }
+
+    @Benchmark
+    public List<Animal> findByEspecie() {
+        return animalDAO.findByEspecie("Especie " + ThreadLocalRandom.current().nextInt(BaseDatosEnMemoria.ESPECIES));
+    }
+
+    @Benchmark
+    public List<Animal> findAll() {
+        return animalDAO.findAll();
+    }
+
+    @Benchmark
+    public void updateEstado(Conflictos conflictos) {
+        EstadoAnimal[] estados = EstadoAnimal.values();
+        try {
+            animalDAO.updateEstado(animalAlAzar(), estados[ThreadLocalRandom.current().nextInt(estados.length)]);
+        } catch (OptimisticLockException e) {
+            conflictos.conflictos++;
+        }
+    }
+
+    @Benchmark
+    public void updateFamilia(Conflictos conflictos) {
+        try {
+            animalDAO.updateFamilia(animalAlAzar(), "Familia " + ThreadLocalRandom.current().nextInt(BaseDatosEnMemoria.FAMILIAS), 40, "Sevilla");
+        } catch (OptimisticLockException e) {
+            conflictos.conflictos++;
+        }
+    }
+
+    @Benchmark
+    public Familia findFamiliaById() {
+        return familiaDAO.findById(ThreadLocalRandom.current().nextLong(primeraFamiliaId, ultimaFamiliaId + 1));
+    }
+
+    private long animalAlAzar() {
+        return ThreadLocalRandom.current().nextLong(primerAnimalId, ultimoAnimalId + 1);
+    }
+}
@@ -0,0 +1,95 @@
+package com.refugio.benchmark;
+
+import com.refugio.dao.AnimalDAO;
+import com.refugio.model.Animal;
+import com.refugio.model.EstadoAnimal;
+import com.refugio.model.Familia;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Apunta Hibernate a una base de datos H2 en memoria en modo MySQL, con el índice de texto completo
+ * también en memoria, mediante las propiedades de sistema
+ * que {@link com.refugio.dao.HibernateUtil} aplica sobre {@code hibernate.cfg.xml}, y la carga con animales de prueba.
+ * Las propiedades ya indicadas con {@code -D} se respetan, de modo que los mismos benchmarks pueden
+ * lanzarse contra un MySQL real.
+ */
+final class BaseDatosEnMemoria {
+
+    /**
+     * Número de especies distintas entre las que se reparten los animales.
+     */
+    static final int ESPECIES = 100;
+
+    /**
+     * Número de familias distintas entre las que se reparten los animales.
+     */
+    static final int FAMILIAS = 1000;
+
+    /**
+     * Animales que se insertan en cada transacción durante la carga.
+     */
+    private static final int TAMANO_CARGA = 10_000;
+
+    private BaseDatosEnMemoria() {
+    }
+
+    /**
+     * Establece las propiedades de conexión. Debe llamarse antes del primer acceso a la {@code SessionFactory}.
+     */
+    static void configurar() {
+        definir("hibernate.connection.url", "jdbc:h2:mem:refugio;MODE=MySQL;DB_CLOSE_DELAY=-1");
+        definir("hibernate.connection.driver_class", "org.h2.Driver");
+        definir("hibernate.connection.username", "sa");
+        definir("hibernate.connection.password", "");
+        definir("hibernate.dialect", "org.hibernate.dialect.H2Dialect");
+        definir("hibernate.hbm2ddl.auto", "create");
+        definir("hibernate.search.backend.directory.type", "local-heap");
+    }
+
+    /**
+     * Inserta el número de animales indicado, repartidos entre {@value #ESPECIES} especies y {@value #FAMILIAS} familias.
+     *
+     * @param animalDAO el DAO con el que se insertan los animales.
+     * @param filas     el número de animales a insertar.
+     */
+    static void cargar(AnimalDAO animalDAO, int filas) {
+        for (int desde = 0; desde < filas; desde += TAMANO_CARGA) {
+            int hasta = Math.min(desde + TAMANO_CARGA, filas);
+            List<Animal> lote = new ArrayList<>(hasta - desde);
+            for (int i = desde; i < hasta; i++) {
+                lote.add(crearAnimal(i));
+            }
+            animalDAO.saveAnimals(lote, 1000);
+        }
+    }
+
+    /**
+     * Crea un animal de prueba con su familia asignada.
+     *
+     * @param numero el número del animal, del que se derivan su especie y su familia.
+     * @return el animal creado.
+     */
+    static Animal crearAnimal(int numero) {
+        Familia familia = new Familia();
+        familia.setNombre("Familia " + (numero % FAMILIAS));
+        familia.setEdad(40);
+        familia.setCiudad("Sevilla");
+
+        Animal animal = new Animal();
+        animal.setNombre("Animal " + numero);
+        animal.setEspecie("Especie " + (numero % ESPECIES));
+        animal.setEdad(numero % 15);
+        animal.setDescripcion("Animal de prueba de rendimiento");
+        animal.setEstado(EstadoAnimal.RECIEN_ABANDONADO);
+        animal.setFamilia(familia);
+        return animal;
+    }
+
+    private static void definir(String nombre, String valor) {
+        if (System.getProperty(nombre) == null) {
+            System.setProperty(nombre, valor);
+        }
+    }
+}
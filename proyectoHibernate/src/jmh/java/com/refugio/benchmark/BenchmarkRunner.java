@@ -0,0 +1,45 @@
+package com.refugio.benchmark;
+
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * Ejecuta los benchmarks con varios números de hilos y guarda los resultados de cada ejecución en JSON,
+ * en {@code target/jmh/resultados-<hilos>-hilos.json}, para poder comparar versiones.
+ * Argumentos opcionales:
+ * <ol>
+ *     <li>números de hilos separados por comas (por defecto {@code 1,4,16});</li>
+ *     <li>expresión regular de los benchmarks a ejecutar (por defecto todos los de {@link AnimalDAOBenchmark});</li>
+ *     <li>tamaños de la tabla separados por comas (por defecto los de {@link AnimalDAOBenchmark#filas}).</li>
+ * </ol>
+ */
+public class BenchmarkRunner {
+
+    public static void main(String[] args) throws RunnerException, IOException {
+        String[] hilos = (args.length > 0 ? args[0] : "1,4,16").split(",");
+        String benchmarks = args.length > 1 ? args[1] : AnimalDAOBenchmark.class.getSimpleName();
+        Path directorio = Paths.get("target", "jmh");
+        Files.createDirectories(directorio);
+
+        for (String numeroHilos : hilos) {
+            int numero = Integer.parseInt(numeroHilos.trim());
+            ChainedOptionsBuilder opciones = new OptionsBuilder()
+                    .include(benchmarks)
+                    .threads(numero)
+                    .resultFormat(ResultFormatType.JSON)
+                    .result(directorio.resolve("resultados-" + numero + "-hilos.json").toString());
+            if (args.length > 2) {
+                opciones.param("filas", args[2].split(","));
+            }
+            new Runner(opciones.build()).run();
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package com.refugio.benchmark;
+
+import com.refugio.dao.AnimalDAO;
+import com.refugio.dao.HibernateUtil;
+import com.refugio.model.Animal;
+import org.hibernate.Session;
+import org.hibernate.query.Query;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compara la lectura de todos los animales con una sesión normal, con una sesión de solo lectura
+ * y con la sesión sin estado que usa {@link AnimalDAO#findAll()}.
+ * Para ver también la memoria reservada por operación, lanzar con el perfilador de GC
+ * ({@code java -jar target/benchmarks.jar LecturaBenchmark -prof gc}) y consultar {@code gc.alloc.rate.norm}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class LecturaBenchmark {
+
+    /**
+     * Número de animales con los que se carga la base de datos.
+     */
+    @Param({"10000", "100000"})
+    public int filas;
+
+    private AnimalDAO animalDAO;
+
+    /**
+     * Configura la base de datos en memoria y la carga con {@link #filas} animales.
+     */
+    @Setup(Level.Trial)
+    public void preparar() {
+        BaseDatosEnMemoria.configurar();
+        animalDAO = new AnimalDAO();
+        BaseDatosEnMemoria.cargar(animalDAO, filas);
+    }
+
+    /**
+     * Cierra la {@link org.hibernate.SessionFactory} y con ella el pool de conexiones.
+     */
+    @TearDown(Level.Trial)
+    public void terminar() {
+        HibernateUtil.getSessionFactory().close();
+    }
+
+    @Benchmark
+    public List<Animal> sesionCompleta() {
+        try (Session session = HibernateUtil.getSessionFactory().openSession()) {
+            return session.createQuery("FROM Animal", Animal.class).list();
+        }
+    }
+
+    @Benchmark
+    public List<Animal> sesionSoloLectura() {
+        try (Session session = HibernateUtil.openReadOnlySession()) {
+            Query<Animal> query = session.createQuery("FROM Animal", Animal.class);
+            query.setFetchSize(500);
+            return query.list();
+        }
+    }
+
+    @Benchmark
+    public List<Animal> sesionSinEstado() {
+        return animalDAO.findAll();
+    }
+}
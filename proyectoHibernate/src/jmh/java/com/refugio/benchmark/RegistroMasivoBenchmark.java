@@ -0,0 +1,85 @@
+package com.refugio.benchmark;
+
+import com.refugio.dao.AnimalDAO;
+import com.refugio.dao.HibernateUtil;
+import com.refugio.model.Animal;
+import com.refugio.model.Familia;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compara el registro animal a animal ({@link AnimalDAO#saveAnimal}) con el registro por lotes
+ * ({@link AnimalDAO#saveAnimals}) sobre la base de datos en memoria de {@link BaseDatosEnMemoria}.
+ * Cada operación registra {@link #tamanoLote} animales nuevos, así que la tabla crece durante la medición.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class RegistroMasivoBenchmark {
+
+    /**
+     * Número de animales que se registran en cada operación, y tamaño del lote de {@link AnimalDAO#saveAnimals}.
+     */
+    @Param({"50"})
+    public int tamanoLote;
+
+    private AnimalDAO animalDAO;
+
+    /**
+     * Configura la base de datos en memoria, vacía.
+     */
+    @Setup(Level.Trial)
+    public void preparar() {
+        BaseDatosEnMemoria.configurar();
+        animalDAO = new AnimalDAO();
+    }
+
+    /**
+     * Cierra la {@link org.hibernate.SessionFactory} y con ella el pool de conexiones.
+     */
+    @TearDown(Level.Trial)
+    public void terminar() {
+        HibernateUtil.getSessionFactory().close();
+    }
+
+    @Benchmark
+    public void unoAUno() {
+        for (Animal animal : crearAnimales()) {
+            Familia familia = animal.getFamilia();
+            animalDAO.saveAnimal(animal, familia.getNombre(), familia.getEdad(), familia.getCiudad());
+        }
+    }
+
+    @Benchmark
+    public int porLotes() {
+        return animalDAO.saveAnimals(crearAnimales(), tamanoLote);
+    }
+
+    private List<Animal> crearAnimales() {
+        int primero = ThreadLocalRandom.current().nextInt(BaseDatosEnMemoria.FAMILIAS);
+        List<Animal> animales = new ArrayList<>(tamanoLote);
+        for (int i = 0; i < tamanoLote; i++) {
+            animales.add(BaseDatosEnMemoria.crearAnimal(primero + i));
+        }
+        return animales;
+    }
+}
@@ -0,0 +1,615 @@
+package com.refugio.api;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.refugio.dao.Metricas;
+import com.refugio.model.Animal;
+import com.refugio.model.AnimalResumen;
+import com.refugio.model.CambioEstado;
+import com.refugio.model.EstadoAnimal;
+import com.refugio.model.Familia;
+import com.refugio.model.ResultadoBusqueda;
+import com.refugio.service.AnimalService;
+import com.refugio.service.AnimalServiceAsync;
+import com.refugio.service.FamiliaServiceAsync;
+import com.refugio.service.NoEncontradoException;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.hibernate.Hibernate;
+import org.hibernate.proxy.HibernateProxy;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * API HTTP con JSON sobre los servicios de animales y familias, para atender a la vez a muchos puestos y clientes web.
+ * Usa el servidor HTTP del JDK con un hilo virtual por petición. Las operaciones se lanzan en los servicios
+ * asíncronos ({@link AnimalServiceAsync} y {@link FamiliaServiceAsync}), cuyo ejecutor compartido limita cuántas
+ * usan la base de datos a la vez al tamaño del pool: las peticiones que no caben esperan sin ocupar hilos
+ * de plataforma, y cuando ya esperan demasiadas se responde {@code 503} de inmediato. Una petición que tarda
+ * más que el tiempo máximo se responde con {@code 504}, pero su operación no se interrumpe: sigue en el ejecutor hasta
+ * terminar, y una lectura puede estar compartida con otras peticiones ({@link com.refugio.service.ConsultasCompartidas}).
+ * Por eso un {@code 504} en una escritura significa que no se sabe si se ha aplicado: el cliente debe consultar
+ * el recurso antes de repetirla. La duración de cada petición se publica en
+ * {@link Metricas} por ruta, método y código de estado.
+ * <p>
+ * Rutas:
+ * <ul>
+ *     <li>{@code GET /animales?despues=<id>&tamano=<n>}: página de animales por ID, a continuación de {@code despues};
+ *     la respuesta indica en {@code siguiente} el valor de {@code despues} para la página siguiente.</li>
+ *     <li>{@code GET /animales?especie=<especie>&despues=<id>&tamano=<n>} y {@code GET /animales?estado=<ESTADO>&...}:
+ *     resúmenes de los animales de una especie o en un estado, por páginas igual que el listado anterior;
+ *     los dos filtros no se pueden combinar.</li>
+ *     <li>{@code GET /animales/buscar?texto=<palabras>&pagina=<n>}: búsqueda de texto completo, hasta la página
+ *     {@value AnimalService#PAGINA_MAXIMA_BUSQUEDA}.</li>
+ *     <li>{@code POST /animales}: registra un animal; el cuerpo lleva {@code nombre}, {@code especie}, {@code edad},
+ *     {@code descripcion}, {@code estado} (por defecto {@code RECIEN_ABANDONADO}) y {@code familia}
+ *     con {@code nombre}, {@code edad} y {@code ciudad}.</li>
+ *     <li>{@code PUT /animales/<id>/estado}: cambia el estado; el cuerpo lleva {@code estado}.</li>
+ *     <li>{@code PUT /animales/<id>/familia}: cambia la familia; el cuerpo lleva {@code nombre}, {@code edad}
+ *     y {@code ciudad}.</li>
+ *     <li>{@code GET /animales/<id>/historial}: historial de cambios de estado.</li>
+ *     <li>{@code GET /familias/<id>}: datos de una familia.</li>
+ * </ul>
+ * Los errores se responden con {@code {"error": "<mensaje>"}}: {@code 400} si la petición no es válida
+ * (también si un texto no cabe en su columna), {@code 404} si el animal o la familia no existen
+ * ({@link NoEncontradoException}), {@code 409} si el cambio no está permitido (por ejemplo, pasar un animal
+ * a una familia de otro shard) o ha chocado con otro a la vez, y {@code 500} si la base de datos lo rechaza
+ * por otro motivo.
+ */
+public class ServidorApi implements AutoCloseable {
+
+    /**
+     * Tamaño de página por defecto de los listados.
+     */
+    private static final int TAMANO_PAGINA = 20;
+
+    /**
+     * Tamaño de página máximo de los listados.
+     */
+    private static final int TAMANO_PAGINA_MAXIMO = 100;
+
+    /**
+     * Longitud máxima de los campos de texto, la de sus columnas en la base de datos.
+     */
+    private static final int LONGITUD_TEXTO_MAXIMA = 255;
+
+    /**
+     * Longitud máxima de la descripción de un animal, la de su columna en la base de datos.
+     */
+    private static final int LONGITUD_DESCRIPCION_MAXIMA = 500;
+
+    /**
+     * Tamaño máximo, en bytes, del cuerpo de una petición.
+     */
+    private static final int TAMANO_CUERPO_MAXIMO = 64 * 1024;
+
+    /**
+     * Conexiones que pueden esperar a ser aceptadas, para los picos de muchos clientes a la vez.
+     */
+    private static final int CONEXIONES_EN_ESPERA = 1024;
+
+    /**
+     * Segundos que se pide esperar a los clientes antes de reintentar cuando la base de datos está saturada.
+     */
+    private static final String REINTENTAR_TRAS = "1";
+
+    private final ObjectMapper json = new ObjectMapper();
+    private final AnimalServiceAsync animalService;
+    private final FamiliaServiceAsync familiaService;
+
+    /**
+     * Tiempo máximo de cada petición, incluida la espera por la base de datos.
+     */
+    private final Duration timeout;
+
+    private final List<Ruta> rutas = new ArrayList<>();
+    private final ExecutorService hilos = Executors.newVirtualThreadPerTaskExecutor();
+    private final HttpServer servidor;
+
+    /**
+     * Arranca la API en un puerto con los servicios y el ejecutor compartido por defecto.
+     *
+     * @param puerto  el puerto en el que escucha el servidor.
+     * @param timeout el tiempo máximo de cada petición.
+     * @throws IOException si no se puede abrir el puerto.
+     */
+    public ServidorApi(int puerto, Duration timeout) throws IOException {
+        this(puerto, timeout, new AnimalServiceAsync(), new FamiliaServiceAsync());
+    }
+
+    /**
+     * Arranca la API en un puerto con los servicios indicados.
+     *
+     * @param puerto         el puerto en el que escucha el servidor, o 0 para uno libre cualquiera.
+     * @param timeout        el tiempo máximo de cada petición.
+     * @param animalService  el servicio de animales.
+     * @param familiaService el servicio de familias.
+     * @throws IOException si no se puede abrir el puerto.
+     */
+    public ServidorApi(int puerto, Duration timeout, AnimalServiceAsync animalService,
+                       FamiliaServiceAsync familiaService) throws IOException {
+        this.timeout = timeout;
+        this.animalService = animalService;
+        this.familiaService = familiaService;
+
+        ruta("GET", "/animales", this::listarAnimales);
+        ruta("GET", "/animales/buscar", this::buscarAnimales);
+        ruta("POST", "/animales", this::registrarAnimal);
+        ruta("PUT", "/animales/{id}/estado", this::actualizarEstado);
+        ruta("PUT", "/animales/{id}/familia", this::actualizarFamilia);
+        ruta("GET", "/animales/{id}/historial", this::obtenerHistorial);
+        ruta("GET", "/familias/{id}", this::obtenerFamilia);
+
+        servidor = HttpServer.create(new InetSocketAddress(puerto), CONEXIONES_EN_ESPERA);
+        servidor.createContext("/", this::atender);
+        servidor.setExecutor(hilos);
+        servidor.start();
+    }
+
+    /**
+     * Obtiene el puerto en el que escucha el servidor.
+     *
+     * @return el puerto.
+     */
+    public int getPuerto() {
+        return servidor.getAddress().getPort();
+    }
+
+    /**
+     * Deja de aceptar peticiones y espera como mucho un segundo a que terminen las que están en curso.
+     */
+    @Override
+    public void close() {
+        servidor.stop(1);
+        hilos.shutdown();
+    }
+
+    private void ruta(String metodo, String plantilla, Manejador manejador) {
+        rutas.add(new Ruta(metodo, plantilla, manejador));
+    }
+
+    /**
+     * Atiende una petición: busca su ruta, la ejecuta, envía la respuesta y mide cuánto ha tardado.
+     *
+     * @param intercambio la petición y su respuesta.
+     */
+    private void atender(HttpExchange intercambio) {
+        long inicio = System.nanoTime();
+        String metodo = intercambio.getRequestMethod();
+        String ruta = "desconocida";
+        int estado = 500;
+        try {
+            Respuesta respuesta;
+            try {
+                String camino = intercambio.getRequestURI().getPath();
+                Ruta elegida = null;
+                Matcher coincidencia = null;
+                boolean otroMetodo = false;
+                for (Ruta candidata : rutas) {
+                    Matcher m = candidata.patron.matcher(camino);
+                    if (m.matches()) {
+                        if (candidata.metodo.equals(metodo)) {
+                            elegida = candidata;
+                            coincidencia = m;
+                            break;
+                        }
+                        otroMetodo = true;
+                    }
+                }
+                if (elegida == null) {
+                    throw new PeticionNoValida(otroMetodo ? 405 : 404, otroMetodo ? "Método no permitido" : "Ruta desconocida");
+                }
+                ruta = elegida.plantilla;
+                respuesta = elegida.manejador.atender(new Peticion(intercambio, coincidencia));
+            } catch (Exception e) {
+                respuesta = error(e);
+            }
+            estado = respuesta.estado;
+            enviar(intercambio, respuesta);
+        } catch (IOException e) {
+            // El cliente ha cerrado la conexión antes de recibir la respuesta
+        } finally {
+            intercambio.close();
+            Metricas.registrarPeticion(ruta, metodo, estado, System.nanoTime() - inicio);
+        }
+    }
+
+    private void enviar(HttpExchange intercambio, Respuesta respuesta) throws IOException {
+        if (respuesta.estado == 503) {
+            intercambio.getResponseHeaders().set("Retry-After", REINTENTAR_TRAS);
+        }
+        if (respuesta.cuerpo == null) {
+            intercambio.sendResponseHeaders(respuesta.estado, -1);
+            return;
+        }
+        byte[] cuerpo = json.writeValueAsBytes(respuesta.cuerpo);
+        intercambio.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        intercambio.sendResponseHeaders(respuesta.estado, cuerpo.length);
+        try (OutputStream salida = intercambio.getResponseBody()) {
+            salida.write(cuerpo);
+        }
+    }
+
+    /**
+     * Traduce una excepción de una petición a su respuesta de error.
+     *
+     * @param e la excepción.
+     * @return la respuesta de error.
+     */
+    private Respuesta error(Exception e) {
+        int estado;
+        if (e instanceof PeticionNoValida) {
+            estado = ((PeticionNoValida) e).estado;
+        } else if (e instanceof JsonProcessingException) {
+            estado = 400;
+        } else if (e instanceof NoEncontradoException) {
+            estado = 404;
+        } else if (e instanceof IllegalArgumentException) {
+            estado = 400;
+        } else if (e instanceof IllegalStateException) {
+            estado = 409;
+        } else if (e instanceof RejectedExecutionException) {
+            estado = 503;
+        } else if (e instanceof TimeoutException) {
+            estado = 504;
+        } else {
+            e.printStackTrace();
+            estado = 500;
+        }
+        ObjectNode cuerpo = json.createObjectNode();
+        cuerpo.put("error", e.getMessage() != null && estado != 500 ? e.getMessage() : "Error interno");
+        return new Respuesta(estado, cuerpo);
+    }
+
+    /**
+     * Espera el resultado de una operación de un servicio como mucho el tiempo máximo de las peticiones.
+     * Si se agota, deja de esperar sin cancelar la operación, que sigue hasta terminar.
+     *
+     * @param operacion la operación en curso.
+     * @param <T>       el tipo del resultado.
+     * @return el resultado de la operación.
+     * @throws Exception la excepción con la que ha terminado la operación.
+     */
+    private <T> T esperar(CompletableFuture<T> operacion) throws Exception {
+        try {
+            return operacion.get(timeout.toNanos(), TimeUnit.NANOSECONDS);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof Exception) {
+                throw (Exception) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    private Respuesta listarAnimales(Peticion peticion) throws Exception {
+        String especie = peticion.parametro("especie");
+        String estado = peticion.parametro("estado");
+        Long despues = peticion.parametroLong("despues");
+        int tamano = peticion.tamanoPagina();
+        ObjectNode cuerpo = json.createObjectNode();
+        ArrayNode lista = cuerpo.putArray("animales");
+        Long ultimo;
+        int recibidos;
+        if (especie != null && estado != null) {
+            throw new PeticionNoValida(400, "No se puede filtrar a la vez por especie y por estado");
+        }
+        if (especie == null && estado == null) {
+            List<Animal> animales = esperar(animalService.obtenerAnimalesDespuesDe(despues, tamano));
+            animales.forEach(animal -> lista.add(animal(animal)));
+            recibidos = animales.size();
+            ultimo = recibidos > 0 ? animales.get(recibidos - 1).getId() : null;
+        } else {
+            List<AnimalResumen> resumenes = especie != null
+                    ? esperar(animalService.buscarResumenPorEspecie(especie, despues, tamano))
+                    : esperar(animalService.buscarPorEstado(estadoAnimal(estado), despues, tamano));
+            for (AnimalResumen resumen : resumenes) {
+                lista.addObject()
+                        .put("id", resumen.getId())
+                        .put("nombre", resumen.getNombre())
+                        .put("especie", resumen.getEspecie())
+                        .put("edad", resumen.getEdad())
+                        .put("estado", resumen.getEstado().name());
+            }
+            recibidos = resumenes.size();
+            ultimo = recibidos > 0 ? resumenes.get(recibidos - 1).getId() : null;
+        }
+        if (recibidos == tamano) {
+            cuerpo.put("siguiente", ultimo);
+        } else {
+            cuerpo.putNull("siguiente");
+        }
+        return new Respuesta(200, cuerpo);
+    }
+
+    private Respuesta buscarAnimales(Peticion peticion) throws Exception {
+        String texto = peticion.parametro("texto");
+        if (texto == null || texto.trim().isEmpty()) {
+            throw new PeticionNoValida(400, "Falta el parámetro texto");
+        }
+        ResultadoBusqueda resultado = esperar(animalService.buscarTexto(texto, peticion.pagina()));
+        ObjectNode cuerpo = json.createObjectNode();
+        ArrayNode lista = cuerpo.putArray("animales");
+        resultado.getAnimales().forEach(animal -> lista.add(animal(animal)));
+        cuerpo.put("pagina", resultado.getPagina());
+        cuerpo.put("tamanoPagina", resultado.getTamanoPagina());
+        cuerpo.put("total", resultado.getTotal());
+        return new Respuesta(200, cuerpo);
+    }
+
+    private Respuesta registrarAnimal(Peticion peticion) throws Exception {
+        JsonNode datos = peticion.cuerpo();
+        JsonNode familia = datos.path("familia");
+        Animal animal = new Animal();
+        animal.setNombre(texto(datos, "nombre"));
+        animal.setEspecie(texto(datos, "especie"));
+        animal.setEdad(entero(datos, "edad"));
+        animal.setDescripcion(datos.path("descripcion").isTextual() ? datos.get("descripcion").asText() : null);
+        if (animal.getDescripcion() != null && animal.getDescripcion().length() > LONGITUD_DESCRIPCION_MAXIMA) {
+            throw new PeticionNoValida(400, "El campo descripcion admite como mucho " + LONGITUD_DESCRIPCION_MAXIMA
+                    + " caracteres");
+        }
+        animal.setEstado(datos.hasNonNull("estado")
+                ? estadoAnimal(datos.get("estado").asText()) : EstadoAnimal.RECIEN_ABANDONADO);
+        if (!esperar(animalService.registrarAnimal(animal, texto(familia, "nombre"), entero(familia, "edad"),
+                texto(familia, "ciudad")))) {
+            // El DAO ya ha registrado el error
+            throw new PeticionNoValida(500, "No se ha podido registrar el animal");
+        }
+        return new Respuesta(201, animal(animal));
+    }
+
+    private Respuesta actualizarEstado(Peticion peticion) throws Exception {
+        long id = peticion.id();
+        EstadoAnimal estado = estadoAnimal(texto(peticion.cuerpo(), "estado"));
+        esperar(animalService.actualizarEstado(id, estado));
+        return new Respuesta(204, null);
+    }
+
+    private Respuesta actualizarFamilia(Peticion peticion) throws Exception {
+        long id = peticion.id();
+        JsonNode familia = peticion.cuerpo();
+        esperar(animalService.actualizarFamilia(id, texto(familia, "nombre"), entero(familia, "edad"),
+                texto(familia, "ciudad")));
+        return new Respuesta(204, null);
+    }
+
+    private Respuesta obtenerHistorial(Peticion peticion) throws Exception {
+        List<CambioEstado> cambios = esperar(animalService.obtenerHistorialEstados(peticion.id()));
+        ObjectNode cuerpo = json.createObjectNode();
+        ArrayNode lista = cuerpo.putArray("cambios");
+        for (CambioEstado cambio : cambios) {
+            ObjectNode nodo = lista.addObject();
+            if (cambio.getEstadoAnterior() != null) {
+                nodo.put("estadoAnterior", cambio.getEstadoAnterior().name());
+            } else {
+                nodo.putNull("estadoAnterior");
+            }
+            nodo.put("estadoNuevo", cambio.getEstadoNuevo().name());
+            nodo.put("fecha", cambio.getFecha().toString());
+        }
+        return new Respuesta(200, cuerpo);
+    }
+
+    private Respuesta obtenerFamilia(Peticion peticion) throws Exception {
+        Familia familia = esperar(familiaService.obtenerFamiliaPorId(peticion.id()));
+        if (familia == null) {
+            throw new PeticionNoValida(404, "No existe ninguna familia con ID " + peticion.id());
+        }
+        return new Respuesta(200, familia(familia));
+    }
+
+    /**
+     * Convierte un animal a JSON. La familia se incluye entera solo si está cargada; si no, solo su ID.
+     *
+     * @param animal el animal.
+     * @return el animal en JSON.
+     */
+    private ObjectNode animal(Animal animal) {
+        ObjectNode nodo = json.createObjectNode()
+                .put("id", animal.getId())
+                .put("nombre", animal.getNombre())
+                .put("especie", animal.getEspecie())
+                .put("edad", animal.getEdad())
+                .put("descripcion", animal.getDescripcion())
+                .put("estado", animal.getEstado() != null ? animal.getEstado().name() : null);
+        Familia familia = animal.getFamilia();
+        if (familia == null) {
+            nodo.putNull("familia");
+        } else if (Hibernate.isInitialized(familia)) {
+            nodo.set("familia", familia(familia));
+        } else {
+            // Leer el ID del proxy sin cargarlo, porque su sesión ya está cerrada
+            Object id = ((HibernateProxy) familia).getHibernateLazyInitializer().getIdentifier();
+            nodo.putObject("familia").put("id", (Long) id);
+        }
+        return nodo;
+    }
+
+    private ObjectNode familia(Familia familia) {
+        return json.createObjectNode()
+                .put("id", familia.getId())
+                .put("nombre", familia.getNombre())
+                .put("edad", familia.getEdad())
+                .put("ciudad", familia.getCiudad());
+    }
+
+    private static String texto(JsonNode datos, String campo) {
+        JsonNode valor = datos.get(campo);
+        if (valor == null || !valor.isTextual() || valor.asText().trim().isEmpty()) {
+            throw new PeticionNoValida(400, "Falta el campo " + campo);
+        }
+        if (valor.asText().trim().length() > LONGITUD_TEXTO_MAXIMA) {
+            throw new PeticionNoValida(400, "El campo " + campo + " admite como mucho " + LONGITUD_TEXTO_MAXIMA
+                    + " caracteres");
+        }
+        return valor.asText().trim();
+    }
+
+    private static int entero(JsonNode datos, String campo) {
+        JsonNode valor = datos.get(campo);
+        if (valor == null || !valor.canConvertToInt() || !valor.isIntegralNumber()) {
+            throw new PeticionNoValida(400, "El campo " + campo + " debe ser un número entero");
+        }
+        return valor.asInt();
+    }
+
+    private static EstadoAnimal estadoAnimal(String nombre) {
+        try {
+            return EstadoAnimal.valueOf(nombre.trim().toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            throw new PeticionNoValida(400, "Estado desconocido: " + nombre);
+        }
+    }
+
+    /**
+     * Operación de una ruta.
+     */
+    @FunctionalInterface
+    private interface Manejador {
+        Respuesta atender(Peticion peticion) throws Exception;
+    }
+
+    /**
+     * Ruta de la API: un método y una plantilla de camino, en la que {@code {id}} representa un ID.
+     */
+    private static final class Ruta {
+
+        final String metodo;
+        final String plantilla;
+        final Pattern patron;
+        final Manejador manejador;
+
+        Ruta(String metodo, String plantilla, Manejador manejador) {
+            this.metodo = metodo;
+            this.plantilla = plantilla;
+            this.patron = Pattern.compile(plantilla.replace("{id}", "([^/]+)"));
+            this.manejador = manejador;
+        }
+    }
+
+    /**
+     * Respuesta de una ruta: el código de estado y el cuerpo en JSON, o {@code null} si no tiene cuerpo.
+     */
+    private static final class Respuesta {
+
+        final int estado;
+        final JsonNode cuerpo;
+
+        Respuesta(int estado, JsonNode cuerpo) {
+            this.estado = estado;
+            this.cuerpo = cuerpo;
+        }
+    }
+
+    /**
+     * Error de una petición que se responde con un código de estado concreto.
+     */
+    private static final class PeticionNoValida extends RuntimeException {
+
+        private static final long serialVersionUID = 1L;
+
+        final int estado;
+
+        PeticionNoValida(int estado, String mensaje) {
+            super(mensaje);
+            this.estado = estado;
+        }
+    }
+
+    /**
+     * Datos de una petición: el ID de la ruta, los parámetros de la consulta y el cuerpo en JSON.
+     */
+    private final class Peticion {
+
+        private final HttpExchange intercambio;
+        private final Matcher ruta;
+        private final Map<String, String> parametros = new HashMap<>();
+
+        Peticion(HttpExchange intercambio, Matcher ruta) {
+            this.intercambio = intercambio;
+            this.ruta = ruta;
+            String consulta = intercambio.getRequestURI().getRawQuery();
+            if (consulta != null) {
+                for (String par : consulta.split("&")) {
+                    int igual = par.indexOf('=');
+                    if (igual > 0) {
+                        parametros.put(URLDecoder.decode(par.substring(0, igual), StandardCharsets.UTF_8),
+                                URLDecoder.decode(par.substring(igual + 1), StandardCharsets.UTF_8));
+                    }
+                }
+            }
+        }
+
+        long id() {
+            try {
+                return Long.parseLong(ruta.group(1));
+            } catch (NumberFormatException e) {
+                throw new PeticionNoValida(400, "ID no válido: " + ruta.group(1));
+            }
+        }
+
+        String parametro(String nombre) {
+            String valor = parametros.get(nombre);
+            return valor != null && !valor.trim().isEmpty() ? valor.trim() : null;
+        }
+
+        Long parametroLong(String nombre) {
+            String valor = parametro(nombre);
+            try {
+                return valor != null ? Long.valueOf(valor) : null;
+            } catch (NumberFormatException e) {
+                throw new PeticionNoValida(400, "El parámetro " + nombre + " debe ser un número");
+            }
+        }
+
+        int pagina() {
+            Long pagina = parametroLong("pagina");
+            if (pagina != null && (pagina < 1 || pagina > AnimalService.PAGINA_MAXIMA_BUSQUEDA)) {
+                throw new PeticionNoValida(400, "La página debe estar entre 1 y " + AnimalService.PAGINA_MAXIMA_BUSQUEDA);
+            }
+            return pagina != null ? pagina.intValue() : 1;
+        }
+
+        int tamanoPagina() {
+            Long tamano = parametroLong("tamano");
+            if (tamano != null && (tamano < 1 || tamano > TAMANO_PAGINA_MAXIMO)) {
+                throw new PeticionNoValida(400, "El tamaño de página debe estar entre 1 y " + TAMANO_PAGINA_MAXIMO);
+            }
+            return tamano != null ? tamano.intValue() : TAMANO_PAGINA;
+        }
+
+        JsonNode cuerpo() throws IOException {
+            byte[] bytes = intercambio.getRequestBody().readNBytes(TAMANO_CUERPO_MAXIMO + 1);
+            if (bytes.length > TAMANO_CUERPO_MAXIMO) {
+                throw new PeticionNoValida(413, "El cuerpo de la petición es demasiado grande");
+            }
+            JsonNode datos = json.readTree(bytes);
+            if (datos == null || !datos.isObject()) {
+                throw new PeticionNoValida(400, "El cuerpo debe ser un objeto JSON");
+            }
+            return datos;
+        }
+    }
+}
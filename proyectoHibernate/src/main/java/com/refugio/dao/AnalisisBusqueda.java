@@ -0,0 +1,35 @@
+package com.refugio.dao;
+
+import org.apache.lucene.analysis.core.LowerCaseFilterFactory;
+import org.apache.lucene.analysis.core.StopFilterFactory;
+import org.apache.lucene.analysis.es.SpanishLightStemFilterFactory;
+import org.apache.lucene.analysis.miscellaneous.ASCIIFoldingFilterFactory;
+import org.apache.lucene.analysis.standard.StandardTokenizerFactory;
+import org.hibernate.search.backend.lucene.analysis.LuceneAnalysisConfigurationContext;
+import org.hibernate.search.backend.lucene.analysis.LuceneAnalysisConfigurer;
+
+/**
+ * Define el analizador {@value #ESPANOL} con el que se indexan y se buscan los textos de los animales.
+ * Pasa el texto a minúsculas, quita las tildes y las palabras vacías del español ("con", "de", "el"...)
+ * y reduce cada palabra a su raíz, de modo que "perra blanca" encuentra "perro blanco".
+ * Se configura en {@code hibernate.cfg.xml} con la propiedad {@code hibernate.search.backend.analysis.configurer}.
+ */
+public class AnalisisBusqueda implements LuceneAnalysisConfigurer {
+
+    /**
+     * Nombre del analizador para textos en español.
+     */
+    public static final String ESPANOL = "espanol";
+
+    @Override
+    public void configure(LuceneAnalysisConfigurationContext contexto) {
+        contexto.analyzer(ESPANOL).custom()
+                .tokenizer(StandardTokenizerFactory.class)
+                .tokenFilter(LowerCaseFilterFactory.class)
+                .tokenFilter(StopFilterFactory.class)
+                        .param("words", "org/apache/lucene/analysis/snowball/spanish_stop.txt")
+                        .param("format", "snowball")
+                .tokenFilter(ASCIIFoldingFilterFactory.class)
+                .tokenFilter(SpanishLightStemFilterFactory.class);
+    }
+}
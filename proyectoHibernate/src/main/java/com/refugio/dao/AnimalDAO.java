@@ -1,19 +1,166 @@
 package com.refugio.dao;
 
 import com.refugio.model.Animal;
+import com.refugio.model.AnimalResumen;
+import com.refugio.model.CambioEstado;
+import com.refugio.model.EstadoAnimal;
 import com.refugio.model.Familia;
+import com.refugio.model.ResultadoBusqueda;
+import org.hibernate.ScrollMode;
+import org.hibernate.ScrollableResults;
 import org.hibernate.Session;
+import org.hibernate.StaleStateException;
+import org.hibernate.StatelessSession;
 import org.hibernate.Transaction;
+import org.hibernate.dialect.MySQLDialect;
+import org.hibernate.cache.spi.CacheImplementor;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.engine.spi.SessionImplementor;
+import org.hibernate.engine.spi.SharedSessionContractImplementor;
+import org.hibernate.exception.ConstraintViolationException;
+import org.hibernate.exception.LockAcquisitionException;
 import org.hibernate.query.Query;
+import org.hibernate.search.engine.search.query.SearchResult;
+import org.hibernate.search.engine.search.predicate.dsl.PredicateFinalStep;
+import org.hibernate.search.engine.search.predicate.dsl.SearchPredicateFactory;
+import org.hibernate.search.mapper.orm.Search;
 
+import javax.persistence.LockModeType;
+import javax.persistence.OptimisticLockException;
+import java.io.Serializable;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.function.Consumer;
+import java.util.function.Function;
 
 /**
  * Clase que proporciona acceso a los datos relacionados con los animales y las familias en la base de datos.
  * Utiliza Hibernate para realizar operaciones CRUD.
+ * La duración de cada operación se registra en {@link Metricas} con el nombre {@code AnimalDAO.<método>}.
+ * Las consultas usan sesiones de solo lectura ({@link HibernateUtil#openReadOnlySession(String)}) o sin estado,
+ * que no guardan copias de las entidades para detectar cambios.
+ * Los listados y recorridos leen de las réplicas del shard si las hay ({@link HibernateUtil#openReplicaSession(String)});
+ * las lecturas de las que depende una escritura, como {@link #findEstadoById(Long)}, y la búsqueda de texto completo
+ * van siempre al primario.
+ * Cada escritura actualiza al confirmarse los {@link ContadoresAnimales} en memoria, y cada cambio de estado
+ * se anota en el {@link HistorialEstados}, que lo escribe en segundo plano.
+ * Las escrituras que chocan con otra transacción por la versión de un animal o una familia
+ * lanzan {@link OptimisticLockException} para que la capa de servicio las repita.
+ * Con varios shards ({@link HibernateUtil}), cada escritura va al shard de la familia o, si se conoce el ID,
+ * al shard del ID; las consultas sobre todos los animales se lanzan en paralelo en todos los shards y se juntan
+ * sus resultados, que siguen ordenados por ID porque los IDs de cada shard son mayores que los de los anteriores.
  */
 public class AnimalDAO {
 
+    /**
+     * Proyección HQL con los datos de {@link AnimalResumen}.
+     */
+    private static final String SELECT_RESUMEN =
+            "SELECT new com.refugio.model.AnimalResumen(a.id, a.nombre, a.especie, a.edad, a.estado) FROM Animal a";
+
+    /**
+     * Número de filas que se piden al driver JDBC en cada viaje al recorrer tablas completas.
+     */
+    private static final int TAMANO_LECTURA = 500;
+
+    /**
+     * Región de la caché de consultas para las búsquedas por especie.
+     * Hibernate invalida sus resultados en cuanto se escribe en la tabla de animales.
+     */
+    private static final String REGION_POR_ESPECIE = "animalesPorEspecie";
+
+    /**
+     * Espacio de consultas con el que se sincronizan las sentencias {@code UPDATE} por ID. No coincide con el
+     * de ninguna entidad, para que Hibernate no vacíe la región de caché de los animales entera; el animal
+     * actualizado se desaloja por separado.
+     */
+    private static final String ESPACIO_UPDATE_POR_ID = "animales_por_id";
+
+    /**
+     * Espacio de consultas con el que se sincroniza la inserción de familias de MySQL. Tampoco coincide con el de
+     * la entidad: la familia insertada es nueva, así que no hay nada suyo en la caché que invalidar.
+     */
+    private static final String ESPACIO_INSERT_FAMILIA = "familias_insertadas";
+
+    /**
+     * SQLSTATE estándar de las violaciones de una restricción de unicidad.
+     */
+    private static final String SQLSTATE_CLAVE_DUPLICADA = "23505";
+
+    /**
+     * Código de error de MySQL para una clave única duplicada, que devuelve con el SQLSTATE genérico 23000.
+     */
+    private static final int ERROR_MYSQL_CLAVE_DUPLICADA = 1062;
+
+    /**
+     * Índice de nombre a ID de las familias, compartido por todas las instancias del DAO.
+     */
+    private static final IndiceFamilias indiceFamilias = new IndiceFamilias();
+
+    /**
+     * Número de animales por especie, estado y ciudad, compartido por todas las instancias del DAO
+     * y actualizado al confirmarse cada escritura. Lo lee y lo concilia {@link EstadisticasDAO}.
+     */
+    static final ContadoresAnimales contadores = new ContadoresAnimales();
+
+    /**
+     * Historial de los cambios de estado de los animales, que se escribe en segundo plano.
+     */
+    static final HistorialEstados historial = new HistorialEstados();
+
+    /**
+     * Número máximo de intentos de una escritura que choca con otra transacción concurrente.
+     */
+    private static final int MAX_INTENTOS = 3;
+
+    /**
+     * Número máximo de animales que se actualizan en cada sentencia y transacción de una actualización masiva.
+     */
+    private static final int TAMANO_BLOQUE_MASIVO = 500;
+
+    /**
+     * Peso del nombre frente a la descripción al ordenar los resultados de la búsqueda de texto completo.
+     */
+    private static final float PESO_NOMBRE = 2.0f;
+
+    /**
+     * Número de hilos que cargan animales de la base de datos al reconstruir el índice de texto completo.
+     */
+    private static final int HILOS_REINDEXADO = 4;
+
+    /**
+     * Nombres de las columnas de las filas que recorre {@link #forEachFila(Consumer)}, en el mismo orden.
+     */
+    public static final List<String> COLUMNAS_FILA =
+            List.of("id", "nombre", "especie", "edad", "descripcion", "estado", "familia_id");
+
+    /**
+     * Si las familias nuevas se crean con {@code INSERT ... ON DUPLICATE KEY UPDATE}, o {@code null}
+     * para hacerlo solo cuando la base de datos es MySQL.
+     */
+    private final Boolean insertarFamiliasSinConflicto;
+
+    public AnimalDAO() {
+        this(null);
+    }
+
+    /**
+     * Crea un DAO que crea las familias nuevas con {@code INSERT ... ON DUPLICATE KEY UPDATE} o sin él,
+     * sea cual sea la base de datos. Sirve para probar esa sentencia con H2 en modo MySQL.
+     *
+     * @param insertarFamiliasSinConflicto si se usa la sentencia, o {@code null} para usarla solo con MySQL.
+     */
+    AnimalDAO(Boolean insertarFamiliasSinConflicto) {
+        this.insertarFamiliasSinConflicto = insertarFamiliasSinConflicto;
+    }
+
     /**
      * Guarda un nuevo animal en la base de datos. Si la familia asociada no existe, la crea.
      *
@@ -21,113 +168,944 @@ public class AnimalDAO {
      * @param nombreFamilia  el nombre de la familia que acoge al animal.
      * @param edadFamilia    la edad del responsable de la familia.
      * @param ciudadFamilia  la ciudad donde reside la familia.
+     * @return {@code true} si el animal se ha guardado, o {@code false} si la transacción se ha deshecho.
+     * El ID se asigna al animal antes de confirmar, así que no indica por sí solo que se haya guardado.
+     * @throws OptimisticLockException si otra transacción ha modificado la familia a la vez.
      */
-    public void saveAnimal(Animal animal, String nombreFamilia, int edadFamilia, String ciudadFamilia) {
-        Session session = HibernateUtil.getSessionFactory().openSession();
-        Transaction transaction = null;
-        try {
-            transaction = session.beginTransaction();
+    public boolean saveAnimal(Animal animal, String nombreFamilia, int edadFamilia, String ciudadFamilia) {
+        return Metricas.medir("AnimalDAO.saveAnimal", () -> {
+            try {
+                executeWithRetry(findShard(nombreFamilia, ciudadFamilia), session -> {
+                    // Buscar o crear la familia
+                    Familia familia = findOrCreateFamilia(session, nombreFamilia, edadFamilia, ciudadFamilia);
 
-            // Buscar o crear la familia
-            Familia familia = findOrCreateFamilia(session, nombreFamilia, edadFamilia, ciudadFamilia);
+                    // Asignar la familia al animal y guardar el animal
+                    animal.setFamilia(familia);
+                    session.save(animal);
+                    contadores.alConfirmar(session).animalGuardado(animal.getEspecie(), animal.getEstado(), familia.getCiudad());
+                    return null;
+                });
+                return true;
+            } catch (OptimisticLockException e) {
+                throw e;
+            } catch (Exception e) {
+                e.printStackTrace();
+                return false;
+            }
+        });
+    }
 
-            // Asignar la familia al animal y guardar el animal
-            animal.setFamilia(familia);
-            session.save(animal);
+    /**
+     * Guarda una lista de animales en una única transacción, usando el tamaño de lote JDBC
+     * configurado en {@code hibernate.jdbc.batch_size}.
+     *
+     * @param animales los animales que se van a guardar, cada uno con su familia asignada.
+     * @return el número de animales guardados, o 0 si la transacción se ha deshecho.
+     * @see #saveAnimals(List, int)
+     */
+    public int saveAnimals(List<Animal> animales) {
+        SessionFactoryImplementor sessionFactory = HibernateUtil.getSessionFactory().unwrap(SessionFactoryImplementor.class);
+        return saveAnimals(animales, Math.max(1, sessionFactory.getSessionFactoryOptions().getJdbcBatchSize()));
+    }
 
-            transaction.commit();
-        } catch (Exception e) {
-            if (transaction != null) transaction.rollback();
-            e.printStackTrace();
-        } finally {
-            session.close();
+    /**
+     * Guarda una lista de animales en una única transacción, enviando las inserciones en lotes JDBC.
+     * Cada animal debe llevar asignada una {@link Familia} con el nombre, la edad y la ciudad de la familia
+     * que lo acoge; cada familia se busca o crea una sola vez por nombre dentro de la operación.
+     * La sesión se vacía y se limpia cada {@code tamanoLote} animales para mantener acotada la memoria.
+     * Con varios shards, los animales de cada shard se guardan en una transacción distinta, una tras otra;
+     * si una falla, las de los shards anteriores quedan confirmadas y se devuelven sus animales guardados,
+     * sin indicar cuáles son. Para poder repetir una operación fallida sin duplicar animales, hay que guardar
+     * por separado los de cada shard, agrupándolos con {@link #findShard(Familia)}.
+     *
+     * @param animales   los animales que se van a guardar, cada uno con su familia asignada.
+     * @param tamanoLote el número de inserciones que se envían en cada lote JDBC.
+     * @return el número de animales guardados, o 0 si la transacción se ha deshecho.
+     * @throws OptimisticLockException si otra transacción ha modificado alguna de las familias a la vez
+     *                                 antes de confirmar ningún shard, de modo que se puede repetir la operación.
+     */
+    public int saveAnimals(List<Animal> animales, int tamanoLote) {
+        return Metricas.medir("AnimalDAO.saveAnimals", () -> {
+            int guardados = 0;
+            try {
+                // Animales de cada shard, en el orden de la lista
+                Map<String, List<Animal>> porShard = new LinkedHashMap<>();
+                for (Animal animal : animales) {
+                    if (animal.getFamilia() == null) {
+                        throw new IllegalArgumentException("El animal " + animal.getNombre() + " no tiene familia asignada");
+                    }
+                    Familia familia = animal.getFamilia();
+                    porShard.computeIfAbsent(findShard(familia), k -> new ArrayList<>()).add(animal);
+                }
+
+                for (Map.Entry<String, List<Animal>> shard : porShard.entrySet()) {
+                    guardados += saveAnimals(shard.getKey(), shard.getValue(), tamanoLote);
+                }
+                return guardados;
+            } catch (OptimisticLockException e) {
+                if (guardados == 0) {
+                    throw e;
+                }
+                // Repetir la operación duplicaría los animales de los shards ya confirmados
+                e.printStackTrace();
+                return guardados;
+            } catch (Exception e) {
+                e.printStackTrace();
+                return guardados;
+            }
+        });
+    }
+
+    /**
+     * Guarda en un shard una lista de animales en una única transacción, enviando las inserciones en lotes JDBC.
+     *
+     * @param shard      el shard de las familias de los animales.
+     * @param animales   los animales que se van a guardar, cada uno con su familia asignada.
+     * @param tamanoLote el número de inserciones que se envían en cada lote JDBC.
+     * @return el número de animales guardados.
+     */
+    private int saveAnimals(String shard, List<Animal> animales, int tamanoLote) {
+        // Datos de la familia de cada animal, que se sustituyen por la familia persistente al guardarlo
+        List<Familia> datosFamilias = new ArrayList<>(animales.size());
+        for (Animal animal : animales) {
+            datosFamilias.add(animal.getFamilia());
         }
+
+        return executeWithRetry(shard, session -> {
+            session.setJdbcBatchSize(tamanoLote);
+            ContadoresAnimales.Cambios cambios = contadores.alConfirmar(session);
+
+            // Familias ya resueltas en esta operación, por nombre
+            Map<String, Familia> familias = new HashMap<>();
+            int guardados = 0;
+            for (Animal animal : animales) {
+                Familia datosFamilia = datosFamilias.get(guardados);
+                Familia familia = familias.get(datosFamilia.getNombre());
+                if (familia == null) {
+                    familia = findOrCreateFamilia(session, datosFamilia.getNombre(), datosFamilia.getEdad(), datosFamilia.getCiudad());
+                    familias.put(familia.getNombre(), familia);
+                }
+
+                animal.setFamilia(familia);
+                session.save(animal);
+                cambios.animalGuardado(animal.getEspecie(), animal.getEstado(), familia.getCiudad());
+
+                // Enviar el lote y liberar la memoria de la sesión
+                if (++guardados % tamanoLote == 0) {
+                    session.flush();
+                    session.clear();
+                }
+            }
+            return guardados;
+        });
     }
 
     /**
      * Busca y devuelve una lista de animales según su especie.
      *
      * @param especie la especie de los animales a buscar.
-     * @return una lista de animales que coinciden con la especie proporcionada.
+     * @return una lista de animales, ordenados por ID, que coinciden con la especie proporcionada.
      */
     public List<Animal> findByEspecie(String especie) {
-        try (Session session = HibernateUtil.getSessionFactory().openSession()) {
-            Query<Animal> query = session.createQuery("FROM Animal WHERE especie = :especie", Animal.class);
-            query.setParameter("especie", especie);
-            return query.list();
+        return Metricas.medir("AnimalDAO.findByEspecie", () -> juntar(HibernateUtil.consultarShards(shard -> {
+            try (Session session = HibernateUtil.openReplicaSession(shard)) {
+                Query<Animal> query = session.createQuery("FROM Animal WHERE especie = :especie ORDER BY id", Animal.class);
+                query.setParameter("especie", especie);
+                query.setCacheable(true);
+                query.setCacheRegion(REGION_POR_ESPECIE);
+                return query.list();
+            }
+        })));
+    }
+
+    /**
+     * Busca los animales de una especie trayendo también su familia en la misma consulta.
+     * Es la variante a usar cuando se va a acceder a {@link Animal#getFamilia()} fuera de la sesión.
+     *
+     * @param especie la especie de los animales a buscar.
+     * @return una lista de animales, con su familia ya cargada, que coinciden con la especie proporcionada.
+     */
+    public List<Animal> findByEspecieWithFamilia(String especie) {
+        return Metricas.medir("AnimalDAO.findByEspecieWithFamilia", () -> juntar(HibernateUtil.consultarShards(shard -> {
+            try (Session session = HibernateUtil.openReplicaSession(shard)) {
+                Query<Animal> query = session.createQuery(
+                        "SELECT a FROM Animal a JOIN FETCH a.familia WHERE a.especie = :especie ORDER BY a.id", Animal.class);
+                query.setParameter("especie", especie);
+                return query.list();
+            }
+        })));
+    }
+
+    /**
+     * Busca los animales de una especie y devuelve solo los datos necesarios para listarlos.
+     *
+     * @param especie la especie de los animales a buscar.
+     * @return una lista de resúmenes de los animales que coinciden con la especie proporcionada.
+     */
+    public List<AnimalResumen> findResumenByEspecie(String especie) {
+        return Metricas.medir("AnimalDAO.findResumenByEspecie", () -> juntar(HibernateUtil.consultarShards(shard -> {
+            try (Session session = HibernateUtil.openReplicaSession(shard)) {
+                Query<AnimalResumen> query = session.createQuery(
+                        SELECT_RESUMEN + " WHERE a.especie = :especie ORDER BY a.id", AnimalResumen.class);
+                query.setParameter("especie", especie);
+                query.setCacheable(true);
+                query.setCacheRegion(REGION_POR_ESPECIE);
+                return query.list();
+            }
+        })));
+    }
+
+    /**
+     * Busca los animales que se encuentran en un estado concreto.
+     * La consulta usa el índice sobre la columna {@code estado_codigo}.
+     *
+     * @param estado el estado de los animales a buscar.
+     * @return una lista con el resumen de los animales en ese estado.
+     */
+    public List<AnimalResumen> findResumenByEstado(EstadoAnimal estado) {
+        return Metricas.medir("AnimalDAO.findResumenByEstado", () -> juntar(HibernateUtil.consultarShards(shard -> {
+            try (Session session = HibernateUtil.openReplicaSession(shard)) {
+                Query<AnimalResumen> query = session.createQuery(
+                        SELECT_RESUMEN + " WHERE a.estado = :estado ORDER BY a.id", AnimalResumen.class);
+                query.setParameter("estado", estado);
+                return query.list();
+            }
+        })));
+    }
+
+    /**
+     * Devuelve una página de resúmenes de los animales de una especie, ordenados por ID y empezando justo después
+     * del ID indicado (paginación por clave). La consulta usa el índice sobre {@code (especie, id)}, de modo que
+     * cada página lee solo sus filas, sin cargar ni ordenar todos los animales de la especie.
+     *
+     * @param especie      la especie de los animales.
+     * @param ultimoId     el ID del último animal de la página anterior, o {@code null} para obtener la primera página.
+     * @param tamanoPagina el número máximo de animales de la página.
+     * @return los resúmenes de la página; una lista con menos de {@code tamanoPagina} indica que no hay más.
+     */
+    public List<AnimalResumen> findResumenByEspecieAfter(String especie, Long ultimoId, int tamanoPagina) {
+        return Metricas.medir("AnimalDAO.findResumenByEspecieAfter",
+                () -> findResumenAfter("a.especie = :valor", especie, true, ultimoId, tamanoPagina));
+    }
+
+    /**
+     * Devuelve una página de resúmenes de los animales en un estado, ordenados por ID y empezando justo después
+     * del ID indicado (paginación por clave). La consulta usa el índice sobre la columna {@code estado_codigo},
+     * que incluye el ID.
+     *
+     * @param estado       el estado de los animales.
+     * @param ultimoId     el ID del último animal de la página anterior, o {@code null} para obtener la primera página.
+     * @param tamanoPagina el número máximo de animales de la página.
+     * @return los resúmenes de la página; una lista con menos de {@code tamanoPagina} indica que no hay más.
+     */
+    public List<AnimalResumen> findResumenByEstadoAfter(EstadoAnimal estado, Long ultimoId, int tamanoPagina) {
+        return Metricas.medir("AnimalDAO.findResumenByEstadoAfter",
+                () -> findResumenAfter("a.estado = :valor", estado, false, ultimoId, tamanoPagina));
+    }
+
+    /**
+     * Recorre los shards como {@link #findAllAfter(Long, int)} para obtener una página de resúmenes filtrada.
+     *
+     * @param condicion    la condición HQL sobre el animal {@code a}, con el parámetro {@code :valor}.
+     * @param valor        el valor del parámetro.
+     * @param cacheable    si la página se guarda en la caché de consultas de la especie.
+     * @param ultimoId     el ID del último animal de la página anterior, o {@code null} para la primera página.
+     * @param tamanoPagina el número máximo de animales de la página.
+     * @return los resúmenes de la página.
+     */
+    private static List<AnimalResumen> findResumenAfter(String condicion, Object valor, boolean cacheable,
+                                                        Long ultimoId, int tamanoPagina) {
+        List<String> shards = HibernateUtil.getShards();
+        List<AnimalResumen> pagina = new ArrayList<>();
+        int primero = ultimoId != null ? shards.indexOf(HibernateUtil.getShardPorId(ultimoId)) : 0;
+        for (int i = primero; i < shards.size() && pagina.size() < tamanoPagina; i++) {
+            try (Session session = HibernateUtil.openReplicaSession(shards.get(i))) {
+                Query<AnimalResumen> query = session.createQuery(
+                        SELECT_RESUMEN + " WHERE " + condicion + " AND a.id > :ultimoId ORDER BY a.id", AnimalResumen.class);
+                query.setParameter("valor", valor);
+                query.setParameter("ultimoId", ultimoId != null ? ultimoId : 0L);
+                query.setMaxResults(tamanoPagina - pagina.size());
+                if (cacheable) {
+                    query.setCacheable(true);
+                    query.setCacheRegion(REGION_POR_ESPECIE);
+                }
+                pagina.addAll(query.list());
+            }
         }
+        return pagina;
+    }
+
+    /**
+     * Obtiene el estado actual de un animal.
+     * El animal se lee de la caché de segundo nivel cuando está disponible.
+     *
+     * @param id el ID del animal.
+     * @return el estado del animal, o {@code null} si no existe.
+     */
+    public EstadoAnimal findEstadoById(Long id) {
+        return Metricas.medir("AnimalDAO.findEstadoById", () -> {
+            try (Session session = HibernateUtil.openReadOnlySession(HibernateUtil.getShardPorId(id))) {
+                Animal animal = session.get(Animal.class, id);
+                return animal != null ? animal.getEstado() : null;
+            }
+        });
+    }
+
+    /**
+     * Obtiene el historial de cambios de estado de un animal, del más antiguo al más reciente.
+     * Antes de consultarlo se espera a que se escriban los cambios pendientes, para que incluya los últimos.
+     *
+     * @param id el ID del animal.
+     * @return los cambios de estado del animal, vacío si no tiene o no existe.
+     */
+    public List<CambioEstado> findHistorialEstados(Long id) {
+        return Metricas.medir("AnimalDAO.findHistorialEstados", () -> {
+            historial.vaciar();
+            try (Session session = HibernateUtil.openReadOnlySession(HibernateUtil.getShardPorId(id))) {
+                return session.createQuery("FROM CambioEstado WHERE animalId = :id ORDER BY fecha, id", CambioEstado.class)
+                        .setParameter("id", id)
+                        .list();
+            }
+        });
     }
 
     /**
-     * Actualiza el estado de un animal en la base de datos.
+     * Actualiza el estado de un animal en la base de datos con una única sentencia {@code UPDATE},
+     * sin consultar antes el animal.
+     * Si el animal está en la caché de segundo nivel, se modifica la entidad cacheada: solo se escriben el estado
+     * y la versión, se actualiza su entrada en la caché y, conociendo el estado anterior, se ajustan los contadores
+     * y se anota el cambio completo en el historial. Si no está, se actualiza directamente por ID
+     * ({@link #updatePorId(Session, Long, String, Object, String, Object)}); el cambio se anota sin el estado
+     * anterior, que no se llega a leer, y los contadores quedan pendientes de conciliar.
+     * No se comprueba si el cambio de estado está permitido; para eso está {@link #updateEstado(Long, EstadoAnimal, EstadoAnimal)}.
      *
      * @param id          el ID del animal cuyo estado se va a actualizar.
      * @param nuevoEstado el nuevo estado del animal.
+     * @throws OptimisticLockException si otra transacción ha modificado el animal a la vez.
+     */
+    public void updateEstado(Long id, EstadoAnimal nuevoEstado) {
+        Metricas.medir("AnimalDAO.updateEstado", () -> {
+            try {
+                executeWithRetry(HibernateUtil.getShardPorId(id), session -> {
+                    if (!enCache(session, id)) {
+                        if (updatePorId(session, id, "estado_codigo", nuevoEstado.getCodigo(),
+                                "estado_codigo <> :condicion", nuevoEstado.getCodigo()) > 0) {
+                            contadores.alConfirmar(session).cambioDesconocido();
+                            historial.alConfirmar(session).estadoCambiado(id, null, nuevoEstado);
+                        }
+                        return null;
+                    }
+                    Animal animal = session.get(Animal.class, id);
+                    if (animal == null || animal.getEstado() == nuevoEstado) {
+                        return null;
+                    }
+                    EstadoAnimal estadoAnterior = animal.getEstado();
+                    animal.setEstado(nuevoEstado);
+                    contadores.alConfirmar(session).estadoCambiado(estadoAnterior, nuevoEstado, 1);
+                    historial.alConfirmar(session).estadoCambiado(id, estadoAnterior, nuevoEstado);
+                    return null;
+                });
+            } catch (OptimisticLockException e) {
+                throw e;
+            } catch (Exception e) {
+                e.printStackTrace();
+            } finally {
+                historial.esperar();
+            }
+        });
+    }
+
+    /**
+     * Cambia el estado de un animal solo si sigue en el estado esperado, con una única sentencia {@code UPDATE}.
+     * El animal no se bloquea: si otra transacción lo modifica entre la lectura y la escritura,
+     * la versión ya no coincide y el cambio falla, de modo que dos cambios simultáneos
+     * no pueden partir del mismo estado. Si el animal no está en la caché de segundo nivel, no se consulta:
+     * la sentencia lleva el estado esperado en su condición y no cambia nada si ya es otro.
+     *
+     * @param id           el ID del animal cuyo estado se va a actualizar.
+     * @param estadoActual el estado en el que debe encontrarse el animal.
+     * @param nuevoEstado  el nuevo estado del animal.
+     * @return {@code true} si se ha cambiado el estado, {@code false} si el animal no existe o estaba en otro estado.
+     * @throws OptimisticLockException si otra transacción ha modificado el animal a la vez.
+     */
+    public boolean updateEstado(Long id, EstadoAnimal estadoActual, EstadoAnimal nuevoEstado) {
+        return Metricas.medir("AnimalDAO.updateEstadoCondicional", () -> {
+            try {
+                return executeWithRetry(HibernateUtil.getShardPorId(id), session -> {
+                    if (!enCache(session, id)) {
+                        if (updatePorId(session, id, "estado_codigo", nuevoEstado.getCodigo(),
+                                "estado_codigo = :condicion", estadoActual.getCodigo()) == 0) {
+                            return false;
+                        }
+                    } else {
+                        Animal animal = session.get(Animal.class, id);
+                        if (animal == null || animal.getEstado() != estadoActual) {
+                            return false;
+                        }
+                        animal.setEstado(nuevoEstado);
+                    }
+                    contadores.alConfirmar(session).estadoCambiado(estadoActual, nuevoEstado, 1);
+                    historial.alConfirmar(session).estadoCambiado(id, estadoActual, nuevoEstado);
+                    return true;
+                });
+            } catch (OptimisticLockException e) {
+                throw e;
+            } catch (Exception e) {
+                e.printStackTrace();
+                return false;
+            } finally {
+                historial.esperar();
+            }
+        });
+    }
+
+    /**
+     * Cambia el estado de varios animales sin cargarlos, con sentencias {@code UPDATE} masivas
+     * de hasta {@value #TAMANO_BLOQUE_MASIVO} animales, cada una en su propia transacción.
+     * Solo se actualizan los animales cuyo estado actual permite pasar al nuevo estado; el resto se ignoran.
+     * Antes de cada sentencia se leen, bloqueando sus filas, los estados y las versiones de los animales que van
+     * a cambiar, para contar los cambios y anotarlos en el historial; cada animal se actualiza solo si sigue en la
+     * versión leída y, si alguno ha cambiado, el bloque se deshace.
+     * Hibernate invalida la región de caché de los animales y los resultados cacheados de las consultas sobre su tabla.
+     * Si un bloque falla, los bloques anteriores quedan confirmados y se devuelve cuántos animales se actualizaron.
+     *
+     * @param ids         los IDs de los animales a actualizar.
+     * @param nuevoEstado el nuevo estado de los animales.
+     * @return el número de animales actualizados.
      */
-    public void updateEstado(Long id, String nuevoEstado) {
-        Transaction transaction = null;
-        try (Session session = HibernateUtil.getSessionFactory().openSession()) {
-            transaction = session.beginTransaction();
+    public int updateEstadoMasivo(Collection<Long> ids, EstadoAnimal nuevoEstado) {
+        return Metricas.medir("AnimalDAO.updateEstadoMasivo", () -> {
+            // IDs de cada shard
+            Map<String, List<Long>> porShard = new LinkedHashMap<>();
+            for (Long id : ids) {
+                porShard.computeIfAbsent(HibernateUtil.getShardPorId(id), k -> new ArrayList<>()).add(id);
+            }
+            Collection<EstadoAnimal> origenes = nuevoEstado.getEstadosOrigen();
+            int actualizados = 0;
+            try {
+                for (Map.Entry<String, List<Long>> shard : porShard.entrySet()) {
+                    List<Long> pendientes = shard.getValue();
+                    for (int desde = 0; desde < pendientes.size(); desde += TAMANO_BLOQUE_MASIVO) {
+                        List<Long> bloque = pendientes.subList(desde, Math.min(desde + TAMANO_BLOQUE_MASIVO, pendientes.size()));
+                        actualizados += executeWithRetry(shard.getKey(), session -> {
+                            List<Object[]> estados = session
+                                    .createQuery("SELECT a.id, a.estado, a.version FROM Animal a "
+                                            + "WHERE a.id IN (:ids) AND a.estado IN (:origenes)", Object[].class)
+                                    .setParameterList("ids", bloque)
+                                    .setParameterList("origenes", origenes)
+                                    .setLockMode(LockModeType.PESSIMISTIC_WRITE)
+                                    .list();
+                            if (estados.isEmpty()) {
+                                return 0;
+                            }
+                            Map<Long, Long> versiones = new HashMap<>();
+                            ContadoresAnimales.Cambios cambiosContadores = contadores.alConfirmar(session);
+                            HistorialEstados.Cambios cambiosHistorial = historial.alConfirmar(session);
+                            for (Object[] fila : estados) {
+                                versiones.put((Long) fila[0], (Long) fila[2]);
+                                cambiosContadores.estadoCambiado((EstadoAnimal) fila[1], nuevoEstado, 1);
+                                cambiosHistorial.estadoCambiado((Long) fila[0], (EstadoAnimal) fila[1], nuevoEstado);
+                            }
+                            return updateEstadoVersionado(session, versiones, nuevoEstado);
+                        });
+                    }
+                }
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+            historial.esperar();
+            return actualizados;
+        });
+    }
 
-            // Buscar el animal por ID
-            Animal animal = session.get(Animal.class, id);
-            if (animal != null) {
-                animal.setEstado(nuevoEstado);
-                session.update(animal);
+    /**
+     * Cambia el estado de todos los animales de una especie que se encuentran en un estado concreto,
+     * por ejemplo para marcar como vacunados a todos los perros recién abandonados.
+     * Los animales se recorren por ID en bloques de {@value #TAMANO_BLOQUE_MASIVO}; cada bloque se lee bloqueando
+     * sus filas y se actualiza con sentencias {@code UPDATE} masivas en la misma transacción, sin cargar ninguna
+     * entidad y solo si cada animal sigue en la versión leída, y sus cambios se anotan en el historial.
+     * Con varios shards, cada shard se recorre en paralelo.
+     * Si un bloque falla, los bloques anteriores quedan confirmados y se devuelve cuántos animales se actualizaron.
+     *
+     * @param especie      la especie de los animales a actualizar.
+     * @param estadoActual el estado en el que deben encontrarse los animales.
+     * @param nuevoEstado  el nuevo estado de los animales.
+     * @return el número de animales actualizados.
+     */
+    public int updateEstadoByEspecie(String especie, EstadoAnimal estadoActual, EstadoAnimal nuevoEstado) {
+        return Metricas.medir("AnimalDAO.updateEstadoByEspecie", () -> {
+            int actualizados = 0;
+            for (int actualizadosShard : HibernateUtil.consultarShards(
+                    shard -> updateEstadoByEspecie(shard, especie, estadoActual, nuevoEstado))) {
+                actualizados += actualizadosShard;
             }
+            return actualizados;
+        });
+    }
 
-            transaction.commit();
+    /**
+     * Cambia el estado de todos los animales de una especie de un shard que se encuentran en un estado concreto.
+     *
+     * @param shard        el shard.
+     * @param especie      la especie de los animales a actualizar.
+     * @param estadoActual el estado en el que deben encontrarse los animales.
+     * @param nuevoEstado  el nuevo estado de los animales.
+     * @return el número de animales actualizados en el shard.
+     */
+    private int updateEstadoByEspecie(String shard, String especie, EstadoAnimal estadoActual, EstadoAnimal nuevoEstado) {
+        int actualizados = 0;
+        try {
+            Long ultimoId = 0L;
+            while (true) {
+                Long desdeId = ultimoId;
+                List<Long> bloque = executeWithRetry(shard, session -> {
+                    List<Object[]> filas = session
+                            .createQuery("SELECT a.id, a.version FROM Animal a WHERE a.especie = :especie AND a.estado = :estado "
+                                    + "AND a.id > :ultimoId ORDER BY a.id", Object[].class)
+                            .setParameter("especie", especie)
+                            .setParameter("estado", estadoActual)
+                            .setParameter("ultimoId", desdeId)
+                            .setMaxResults(TAMANO_BLOQUE_MASIVO)
+                            .setLockMode(LockModeType.PESSIMISTIC_WRITE)
+                            .list();
+                    List<Long> ids = new ArrayList<>(filas.size());
+                    if (filas.isEmpty()) {
+                        return ids;
+                    }
+                    Map<Long, Long> versiones = new HashMap<>();
+                    for (Object[] fila : filas) {
+                        ids.add((Long) fila[0]);
+                        versiones.put((Long) fila[0], (Long) fila[1]);
+                    }
+                    updateEstadoVersionado(session, versiones, nuevoEstado);
+                    contadores.alConfirmar(session).estadoCambiado(estadoActual, nuevoEstado, ids.size());
+                    HistorialEstados.Cambios cambios = historial.alConfirmar(session);
+                    for (Long id : ids) {
+                        cambios.estadoCambiado(id, estadoActual, nuevoEstado);
+                    }
+                    return ids;
+                });
+                if (bloque.isEmpty()) {
+                    break;
+                }
+                actualizados += bloque.size();
+                ultimoId = bloque.get(bloque.size() - 1);
+            }
         } catch (Exception e) {
-            if (transaction != null) transaction.rollback();
             e.printStackTrace();
         }
+        // Aquí y no en el método público, porque con varios shards cada uno se actualiza en su propio hilo
+        historial.esperar();
+        return actualizados;
+    }
+
+    /**
+     * Indica si un animal está en la caché de segundo nivel, de modo que cargarlo no consulta la base de datos.
+     *
+     * @param session la sesión del shard del animal.
+     * @param id      el ID del animal.
+     * @return {@code true} si el animal está en la caché.
+     */
+    private static boolean enCache(Session session, Long id) {
+        return session.getSessionFactory().getCache().containsEntity(Animal.class, id);
+    }
+
+    /**
+     * Cambia una columna de un animal con una sentencia {@code UPDATE ... WHERE id = :id}, sin cargarlo,
+     * e incrementa su versión para que fallen las transacciones que lo tenían leído.
+     * La sentencia se sincroniza con {@value #ESPACIO_UPDATE_POR_ID}, de modo que Hibernate no vacía la región
+     * de caché de los animales entera como con una sentencia masiva; al terminar la transacción se desalojan
+     * solo este animal y los resultados cacheados de las búsquedas por especie.
+     *
+     * @param session        la sesión con la transacción en curso.
+     * @param id             el ID del animal.
+     * @param columna        la columna que se cambia.
+     * @param valor          el nuevo valor de la columna.
+     * @param condicion      la condición SQL adicional sobre la fila, con el parámetro {@code :condicion}.
+     * @param valorCondicion el valor del parámetro de la condición.
+     * @return 1 si se ha cambiado el animal, o 0 si no existe o no cumple la condición.
+     */
+    private static int updatePorId(Session session, Long id, String columna, Object valor,
+                                   String condicion, Object valorCondicion) {
+        int actualizados = session.createNativeQuery("UPDATE animales SET " + columna + " = :valor, version = version + 1"
+                        + " WHERE id = :id AND " + condicion)
+                .addSynchronizedQuerySpace(ESPACIO_UPDATE_POR_ID)
+                .setParameter("valor", valor)
+                .setParameter("id", id)
+                .setParameter("condicion", valorCondicion)
+                .executeUpdate();
+        if (actualizados > 0) {
+            session.unwrap(SessionImplementor.class).getActionQueue().registerProcess((exito, sesion) -> {
+                CacheImplementor cache = sesion.getFactory().getCache();
+                cache.evictEntityData(Animal.class, id);
+                cache.evictQueryRegion(REGION_POR_ESPECIE);
+            });
+        }
+        return actualizados;
     }
 
     /**
-     * Actualiza los datos de la familia que acoge a un animal.
+     * Cambia el estado de animales ya leídos con bloqueo, solo si cada uno sigue en la versión leída.
+     * Los animales se agrupan por versión para actualizar cada grupo con una sola sentencia {@code UPDATE} masiva.
+     *
+     * @param session     la sesión con la transacción en curso.
+     * @param versiones   la versión leída de cada animal, indexada por su ID.
+     * @param nuevoEstado el nuevo estado de los animales.
+     * @return el número de animales actualizados.
+     * @throws OptimisticLockException si alguno de los animales ha cambiado desde que se leyó.
+     */
+    private static int updateEstadoVersionado(Session session, Map<Long, Long> versiones, EstadoAnimal nuevoEstado) {
+        Map<Long, List<Long>> porVersion = new HashMap<>();
+        versiones.forEach((id, version) -> porVersion.computeIfAbsent(version, k -> new ArrayList<>()).add(id));
+        int actualizados = 0;
+        for (Map.Entry<Long, List<Long>> grupo : porVersion.entrySet()) {
+            actualizados += session
+                    .createQuery("UPDATE VERSIONED Animal SET estado = :estado WHERE id IN (:ids) AND version = :version")
+                    .setParameter("estado", nuevoEstado)
+                    .setParameterList("ids", grupo.getValue())
+                    .setParameter("version", grupo.getKey())
+                    .executeUpdate();
+        }
+        if (actualizados != versiones.size()) {
+            throw new OptimisticLockException((versiones.size() - actualizados)
+                    + " animales se han modificado a la vez desde otra transacción");
+        }
+        return actualizados;
+    }
+
+    /**
+     * Actualiza los datos de la familia que acoge a un animal. Solo se escriben la familia y la versión del animal,
+     * con una única sentencia {@code UPDATE} y sin consultar antes el animal: si está en la caché de segundo nivel
+     * se modifica la entidad cacheada y se ajustan los contadores por ciudad; si no, se actualiza directamente
+     * por ID y los contadores quedan pendientes de conciliar, porque no se sabe de qué ciudad sale.
      *
      * @param id           el ID del animal cuyo dato de familia se va a actualizar.
      * @param nombreFamilia el nombre de la nueva familia.
      * @param edadFamilia   la edad del responsable de la nueva familia.
      * @param ciudadFamilia la ciudad de la nueva familia.
+     * @throws OptimisticLockException si otra transacción ha modificado el animal o la familia a la vez.
+     * @throws IllegalStateException   si la nueva familia está en otro shard que el animal.
      */
     public void updateFamilia(Long id, String nombreFamilia, int edadFamilia, String ciudadFamilia) {
-        Transaction transaction = null;
-        try (Session session = HibernateUtil.getSessionFactory().openSession()) {
-            transaction = session.beginTransaction();
-
-            // Buscar el animal por ID
-            Animal animal = session.get(Animal.class, id);
-            if (animal != null) {
-                // Buscar o crear la familia
-                Familia familia = findOrCreateFamilia(session, nombreFamilia, edadFamilia, ciudadFamilia);
-
-                // Asignar la familia al animal y actualizar
-                animal.setFamilia(familia);
-                session.update(animal);
+        Metricas.medir("AnimalDAO.updateFamilia", () -> {
+            // Un animal no puede pasar de un shard a otro: la familia debe estar en su misma base de datos
+            String shard = HibernateUtil.getShardPorId(id);
+            if (!shard.equals(findShard(nombreFamilia, ciudadFamilia))) {
+                throw new IllegalStateException("La familia " + nombreFamilia + " está en otro shard que el animal " + id);
             }
+            try {
+                executeWithRetry(shard, session -> {
+                    if (!enCache(session, id)) {
+                        Familia familia = findOrCreateFamilia(session, nombreFamilia, edadFamilia, ciudadFamilia);
+                        // La sentencia por ID no vacía antes los cambios pendientes,
+                        // así que la familia recién creada se inserta antes de referenciarla
+                        session.flush();
+                        if (updatePorId(session, id, "familia_id", familia.getId(),
+                                "familia_id <> :condicion", familia.getId()) > 0) {
+                            contadores.alConfirmar(session).cambioDesconocido();
+                        }
+                        return null;
+                    }
+                    Animal animal = session.get(Animal.class, id);
+                    if (animal == null) {
+                        return null;
+                    }
+                    Familia anterior = animal.getFamilia();
+                    String ciudadAnterior = anterior.getCiudad();
 
-            transaction.commit();
-        } catch (Exception e) {
-            if (transaction != null) transaction.rollback();
-            e.printStackTrace();
-        }
+                    // Buscar o crear la familia
+                    Familia familia = findOrCreateFamilia(session, nombreFamilia, edadFamilia, ciudadFamilia);
+                    if (!familia.getId().equals(anterior.getId())) {
+                        animal.setFamilia(familia);
+                        contadores.alConfirmar(session).ciudadCambiada(ciudadAnterior, familia.getCiudad(), 1);
+                    }
+                    return null;
+                });
+            } catch (OptimisticLockException e) {
+                throw e;
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        });
     }
 
     /**
      * Devuelve una lista de todos los animales almacenados en la base de datos.
+     * Se usa una sesión sin estado: los animales no pasan por la caché de primer ni de segundo nivel
+     * y las filas se leen en bloques de {@value #TAMANO_LECTURA}, de modo que la memoria usada
+     * es solo la de la propia lista.
      *
      * @return una lista de todos los animales.
      */
     public List<Animal> findAll() {
-        try (Session session = HibernateUtil.getSessionFactory().openSession()) {
-            Query<Animal> query = session.createQuery("FROM Animal", Animal.class);
-            return query.list();
+        return Metricas.medir("AnimalDAO.findAll", () -> juntar(HibernateUtil.consultarShards(shard -> {
+            try (StatelessSession session = HibernateUtil.getReplicaSessionFactory(shard).openStatelessSession()) {
+                Query<Animal> query = session.createQuery("FROM Animal", Animal.class);
+                query.setFetchSize(TAMANO_LECTURA);
+                return query.list();
+            }
+        })));
+    }
+
+    /**
+     * Recorre todos los animales almacenados en la base de datos, en orden de ID, sin cargarlos todos en memoria.
+     * Los animales se leen con un cursor de solo avance en bloques de {@value #TAMANO_LECTURA} filas
+     * y la sesión se limpia tras cada bloque, de modo que la memoria usada no depende del tamaño de la tabla.
+     * La sesión es de solo lectura pero no sin estado, para que el consumidor pueda acceder a la familia de cada animal.
+     *
+     * @param consumidor la acción que se ejecuta con cada animal leído.
+     */
+    public void forEachAnimal(Consumer<Animal> consumidor) {
+        Metricas.medir("AnimalDAO.forEachAnimal", () -> {
+            // Los shards se recorren uno tras otro, en el orden de sus IDs
+            for (String shard : HibernateUtil.getShards()) {
+                try (Session session = HibernateUtil.openReplicaSession(shard)) {
+                    Query<Animal> query = session.createQuery("FROM Animal ORDER BY id", Animal.class);
+                    query.setFetchSize(TAMANO_LECTURA);
+
+                    try (ScrollableResults resultados = query.scroll(ScrollMode.FORWARD_ONLY)) {
+                        int leidos = 0;
+                        while (resultados.next()) {
+                            consumidor.accept((Animal) resultados.get(0));
+
+                            // Liberar los animales ya procesados
+                            if (++leidos % TAMANO_LECTURA == 0) {
+                                session.clear();
+                            }
+                        }
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Recorre los resúmenes de todos los animales, en orden de ID, sin cargarlos todos en memoria.
+     * Al ser una proyección, no se crean entidades ni se carga ninguna familia.
+     *
+     * @param consumidor la acción que se ejecuta con cada resumen leído.
+     */
+    public void forEachResumen(Consumer<AnimalResumen> consumidor) {
+        Metricas.medir("AnimalDAO.forEachResumen", () -> {
+            // Los shards se recorren uno tras otro, en el orden de sus IDs
+            for (String shard : HibernateUtil.getShards()) {
+                try (Session session = HibernateUtil.openReplicaSession(shard)) {
+                    Query<AnimalResumen> query = session.createQuery(SELECT_RESUMEN + " ORDER BY a.id", AnimalResumen.class);
+                    query.setFetchSize(TAMANO_LECTURA);
+
+                    try (ScrollableResults resultados = query.scroll(ScrollMode.FORWARD_ONLY)) {
+                        while (resultados.next()) {
+                            consumidor.accept((AnimalResumen) resultados.get(0));
+                        }
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Recorre los datos de todos los animales como filas de valores, en orden de ID, por ejemplo para exportarlos.
+     * Se usa una sesión sin estado con un cursor de solo avance: no se crean entidades, la familia no se une
+     * (se lee su ID de la columna {@code familia_id}) y no se guarda ninguna fila, de modo que la memoria usada
+     * no depende del tamaño de la tabla. Las columnas son las de {@link #COLUMNAS_FILA}.
+     *
+     * @param consumidor la acción que se ejecuta con cada fila leída.
+     */
+    public void forEachFila(Consumer<Object[]> consumidor) {
+        Metricas.medir("AnimalDAO.forEachFila", () -> {
+            // Los shards se recorren uno tras otro, en el orden de sus IDs
+            for (String shard : HibernateUtil.getShards()) {
+                try (StatelessSession session = HibernateUtil.getReplicaSessionFactory(shard).openStatelessSession()) {
+                    Query<Object[]> query = session.createQuery(
+                            "SELECT a.id, a.nombre, a.especie, a.edad, a.descripcion, a.estado, a.familia.id "
+                                    + "FROM Animal a ORDER BY a.id", Object[].class);
+                    query.setFetchSize(TAMANO_LECTURA);
+                    query.setReadOnly(true);
+
+                    try (ScrollableResults resultados = query.scroll(ScrollMode.FORWARD_ONLY)) {
+                        while (resultados.next()) {
+                            consumidor.accept(resultados.get());
+                        }
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Devuelve una página de animales ordenados por ID, empezando justo después del ID indicado (paginación por clave).
+     * A diferencia de la paginación por desplazamiento, el coste de cada página no crece con su posición.
+     *
+     * @param ultimoId     el ID del último animal de la página anterior, o {@code null} para obtener la primera página.
+     * @param tamanoPagina el número máximo de animales de la página.
+     * @return los animales de la página; una lista vacía indica que no hay más.
+     */
+    public List<Animal> findAllAfter(Long ultimoId, int tamanoPagina) {
+        return Metricas.medir("AnimalDAO.findAllAfter", () -> {
+            // Los IDs de cada shard son mayores que los del anterior: se sigue por el shard del último ID
+            // y, si no llega para completar la página, por los siguientes
+            List<String> shards = HibernateUtil.getShards();
+            List<Animal> pagina = new ArrayList<>();
+            int primero = ultimoId != null ? shards.indexOf(HibernateUtil.getShardPorId(ultimoId)) : 0;
+            for (int i = primero; i < shards.size() && pagina.size() < tamanoPagina; i++) {
+                try (Session session = HibernateUtil.openReplicaSession(shards.get(i))) {
+                    Query<Animal> query = session.createQuery("FROM Animal WHERE id > :ultimoId ORDER BY id", Animal.class);
+                    query.setParameter("ultimoId", ultimoId != null ? ultimoId : 0L);
+                    query.setMaxResults(tamanoPagina - pagina.size());
+                    pagina.addAll(query.list());
+                }
+            }
+            return pagina;
+        });
+    }
+
+    /**
+     * Busca animales por palabras de su nombre o su descripción en el índice de texto completo,
+     * sin recorrer la tabla. Los resultados se ordenan por relevancia: pesan más los animales que contienen
+     * más palabras de la búsqueda, y las coincidencias en el nombre más que las de la descripción.
+     * Los animales de la página se cargan después por ID, aprovechando la caché de segundo nivel.
+     *
+     * @param texto        las palabras a buscar, por ejemplo "perro blanco con mancha".
+     * @param pagina       el número de la página, empezando por 1.
+     * @param tamanoPagina el número máximo de animales por página.
+     * @return la página de resultados, con el número total de animales encontrados.
+     */
+    public ResultadoBusqueda searchByTexto(String texto, int pagina, int tamanoPagina) {
+        return Metricas.medir("AnimalDAO.searchByTexto", () -> {
+            if (HibernateUtil.getShards().size() == 1) {
+                try (Session session = HibernateUtil.openReadOnlySession()) {
+                    SearchResult<Animal> resultado = Search.session(session).search(Animal.class)
+                            .where(f -> coincidencias(f, texto))
+                            .fetch((pagina - 1) * tamanoPagina, tamanoPagina);
+                    return new ResultadoBusqueda(resultado.hits(), resultado.total().hitCount(), pagina, tamanoPagina);
+                }
+            }
+
+            // Cada shard tiene su propio índice: se piden a todos los mejores resultados hasta el final de la página
+            // y se ordenan juntos por relevancia
+            List<SearchResult<List<?>>> resultados = HibernateUtil.consultarShards(shard -> {
+                try (Session session = HibernateUtil.openReadOnlySession(shard)) {
+                    return Search.session(session).search(Animal.class)
+                            .select(f -> f.composite(f.entity(), f.score()))
+                            .where(f -> coincidencias(f, texto))
+                            .fetch(pagina * tamanoPagina);
+                }
+            });
+            long total = 0;
+            List<List<?>> aciertos = new ArrayList<>();
+            for (SearchResult<List<?>> resultado : resultados) {
+                total += resultado.total().hitCount();
+                aciertos.addAll(resultado.hits());
+            }
+            aciertos.sort(Comparator.comparing((List<?> acierto) -> (Float) acierto.get(1)).reversed());
+
+            List<Animal> animales = new ArrayList<>();
+            for (int i = (pagina - 1) * tamanoPagina; i < Math.min(pagina * tamanoPagina, aciertos.size()); i++) {
+                animales.add((Animal) aciertos.get(i).get(0));
+            }
+            return new ResultadoBusqueda(animales, total, pagina, tamanoPagina);
+        });
+    }
+
+    /**
+     * Condición de la búsqueda de texto completo: alguna de las palabras en el nombre o en la descripción.
+     *
+     * @param f     la factoría de condiciones de la búsqueda.
+     * @param texto las palabras a buscar.
+     * @return la condición.
+     */
+    private static PredicateFinalStep coincidencias(SearchPredicateFactory f, String texto) {
+        return f.match()
+                .field("nombre").boost(PESO_NOMBRE)
+                .field("descripcion")
+                .matching(texto);
+    }
+
+    /**
+     * Vuelve a generar el índice de texto completo a partir de todos los animales de la base de datos.
+     * Necesario la primera vez, para indexar los animales registrados antes de activar la búsqueda,
+     * y si el índice se ha perdido o se ha modificado la tabla sin pasar por Hibernate.
+     * Mientras se reconstruye, las búsquedas pueden devolver resultados incompletos.
+     */
+    public void rebuildIndex() {
+        Metricas.medir("AnimalDAO.rebuildIndex", () -> HibernateUtil.consultarShards(shard -> {
+            try (Session session = HibernateUtil.getSessionFactory(shard).openSession()) {
+                Search.session(session).massIndexer(Animal.class)
+                        .threadsToLoadObjects(HILOS_REINDEXADO)
+                        .batchSizeToLoadObjects(TAMANO_LECTURA)
+                        .startAndWait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                e.printStackTrace();
+            }
+            return null;
+        }));
+    }
+
+    /**
+     * Obtiene el shard en el que se guardan los animales de una familia: el de la familia si ya existe
+     * o, si no, el que corresponde a su ciudad.
+     *
+     * @param familia la familia, de la que basta con el nombre y la ciudad.
+     * @return el nombre del shard.
+     */
+    public String findShard(Familia familia) {
+        return findShard(familia.getNombre(), familia.getCiudad());
+    }
+
+    /**
+     * Obtiene el shard de una familia: el del ID de la familia si ya existe y, si no, el de su ciudad.
+     * El ID se busca primero en el índice en memoria y, con varios shards, por nombre en todos ellos,
+     * de modo que una familia que se ha mudado a una ciudad de otro shard sigue en el suyo.
+     *
+     * @param nombreFamilia el nombre de la familia.
+     * @param ciudadFamilia la ciudad de la familia.
+     * @return el nombre del shard.
+     */
+    private String findShard(String nombreFamilia, String ciudadFamilia) {
+        List<String> shards = HibernateUtil.getShards();
+        if (shards.size() == 1 || nombreFamilia == null) {
+            return shards.get(0);
+        }
+        Long id = indiceFamilias.buscar(nombreFamilia);
+        if (id == null) {
+            for (Familia familia : HibernateUtil.consultarShards(shard -> {
+                try (Session session = HibernateUtil.openReadOnlySession(shard)) {
+                    return session.bySimpleNaturalId(Familia.class).load(nombreFamilia);
+                }
+            })) {
+                if (familia != null) {
+                    indiceFamilias.registrar(familia);
+                    id = familia.getId();
+                }
+            }
+        }
+        return id != null ? HibernateUtil.getShardPorId(id) : HibernateUtil.getShardPorCiudad(ciudadFamilia);
+    }
+
+    /**
+     * Junta en una lista los resultados de cada shard, en el orden de los shards.
+     *
+     * @param listas los resultados de cada shard.
+     * @param <T>    el tipo de los resultados.
+     * @return todos los resultados.
+     */
+    private static <T> List<T> juntar(List<List<T>> listas) {
+        if (listas.size() == 1) {
+            return listas.get(0);
+        }
+        List<T> todos = new ArrayList<>();
+        for (List<T> lista : listas) {
+            todos.addAll(lista);
         }
+        return todos;
     }
 
     /**
      * Busca una familia por su nombre. Si no existe, crea una nueva familia.
+     * El nombre se resuelve primero con el índice en memoria y después por identificador natural,
+     * de modo que normalmente la familia sale de la caché de segundo nivel sin consultar la base de datos.
+     * La familia existente solo se modifica, y por tanto solo se actualiza, si su edad o su ciudad han cambiado.
      *
      * @param session      la sesión de Hibernate actual.
      * @param nombreFamilia el nombre de la familia a buscar o crear.
@@ -141,25 +1119,173 @@ public class AnimalDAO {
             throw new IllegalArgumentException("El nombre de la familia no puede ser nulo o vacío");
         }
 
-        // Buscar la familia existente
-        Query<Familia> query = session.createQuery("FROM Familia WHERE nombre = :nombre", Familia.class);
-        query.setParameter("nombre", nombreFamilia);
-        Familia familia = query.uniqueResult();
+        // Buscar la familia por su ID en el índice en memoria
+        Familia familia = null;
+        Long id = indiceFamilias.buscar(nombreFamilia);
+        if (id != null) {
+            familia = session.get(Familia.class, id);
+            if (familia == null) {
+                indiceFamilias.eliminar(nombreFamilia);
+            }
+        }
 
+        // Buscar la familia por su nombre
         if (familia == null) {
-            // Crear una nueva familia si no existe
+            familia = session.bySimpleNaturalId(Familia.class).load(nombreFamilia);
+            if (familia != null) {
+                indiceFamilias.registrar(familia);
+            }
+        }
+
+        if (familia == null && insertaFamiliasSinConflicto(session)) {
+            // Crear la familia en una sola sentencia o, si otra transacción se ha adelantado, leer la suya,
+            // que se actualiza abajo como cualquier familia existente
+            familia = insertFamiliaSiNoExiste(session, nombreFamilia, edadFamilia, ciudadFamilia);
+            indiceFamilias.registrarAlConfirmar(session, familia);
+        } else if (familia == null) {
+            // Crear una nueva familia si no existe; si otra transacción la crea a la vez,
+            // la restricción de unicidad hace fallar esta y executeWithRetry la repite
             familia = new Familia();
             familia.setNombre(nombreFamilia);
             familia.setEdad(edadFamilia);
             familia.setCiudad(ciudadFamilia);
             session.save(familia); // Guardar la nueva familia
-        } else {
-            // Actualizar los detalles de la familia existente si es necesario
+            indiceFamilias.registrarAlConfirmar(session, familia);
+            return familia;
+        }
+
+        // Actualizar los detalles de la familia existente solo si han cambiado; Hibernate comprueba su versión
+        // al escribirla, así que si otra transacción la ha modificado desde que se leyó, esta falla
+        if (familia.getEdad() != edadFamilia) {
             familia.setEdad(edadFamilia);
+        }
+        if (!Objects.equals(familia.getCiudad(), ciudadFamilia)) {
+            // Todos los animales de la familia cambian de ciudad; se cuentan con el índice de su clave ajena
+            long animales = session.createQuery("SELECT COUNT(a) FROM Animal a WHERE a.familia = :familia", Long.class)
+                    .setParameter("familia", familia)
+                    .uniqueResult();
+            contadores.alConfirmar(session).ciudadCambiada(familia.getCiudad(), ciudadFamilia, animales);
             familia.setCiudad(ciudadFamilia);
-            session.update(familia);
         }
 
         return familia;
     }
+
+    private boolean insertaFamiliasSinConflicto(Session session) {
+        if (insertarFamiliasSinConflicto != null) {
+            return insertarFamiliasSinConflicto;
+        }
+        return session.getSessionFactory().unwrap(SessionFactoryImplementor.class)
+                .getJdbcServices().getDialect() instanceof MySQLDialect;
+    }
+
+    /**
+     * Inserta una familia si no existe otra con el mismo nombre, con una única sentencia
+     * {@code INSERT ... ON DUPLICATE KEY UPDATE} de MySQL que no puede fallar por la restricción de unicidad
+     * aunque varias transacciones registren la misma familia a la vez. Si ya existe, la sentencia no la modifica:
+     * sus datos se cambian después a través de la entidad, con la comprobación de versión de Hibernate.
+     * La sentencia no invalida la región de caché de las familias ni las consultas cacheadas.
+     *
+     * @param session       la sesión de Hibernate actual.
+     * @param nombreFamilia el nombre de la familia.
+     * @param edadFamilia   la edad del responsable de la familia.
+     * @param ciudadFamilia la ciudad de la familia.
+     * @return la familia insertada o la que ya existía.
+     */
+    private Familia insertFamiliaSiNoExiste(Session session, String nombreFamilia, int edadFamilia, String ciudadFamilia) {
+        SharedSessionContractImplementor sessionImplementor = session.unwrap(SharedSessionContractImplementor.class);
+        Serializable id = sessionImplementor.getFactory().getMetamodel().entityPersister(Familia.class)
+                .getIdentifierGenerator().generate(sessionImplementor, null);
+
+        session.createNativeQuery("INSERT INTO familias (id, nombre, edad, ciudad, version) VALUES (:id, :nombre, :edad, :ciudad, 0) "
+                        + "ON DUPLICATE KEY UPDATE id = id")
+                .setParameter("id", id)
+                .setParameter("nombre", nombreFamilia)
+                .setParameter("edad", edadFamilia)
+                .setParameter("ciudad", ciudadFamilia)
+                .addSynchronizedQuerySpace(ESPACIO_INSERT_FAMILIA)
+                .executeUpdate();
+
+        // Lectura con bloqueo para ver la fila aunque la haya confirmado otra transacción después de empezar esta
+        return session.createQuery("FROM Familia WHERE nombre = :nombre", Familia.class)
+                .setParameter("nombre", nombreFamilia)
+                .setLockMode(LockModeType.PESSIMISTIC_READ)
+                .uniqueResult();
+    }
+
+    /**
+     * Ejecuta una operación de escritura en su propia sesión y transacción sobre un shard.
+     * Si la transacción falla por un conflicto con otra transacción concurrente (una violación de la restricción
+     * de unicidad o un interbloqueo), se deshace y se repite con una sesión nueva, hasta {@value #MAX_INTENTOS} veces.
+     * Los conflictos de versión no se repiten aquí: se lanzan como {@link OptimisticLockException}
+     * para que la capa de servicio vuelva a leer los datos y decida si el cambio sigue siendo válido.
+     *
+     * @param shard     el shard en el que se ejecuta la operación.
+     * @param operacion la operación a ejecutar con la sesión.
+     * @param <T>       el tipo del resultado de la operación.
+     * @return el resultado de la operación.
+     * @throws OptimisticLockException si otra transacción ha modificado alguna de las entidades escritas.
+     * @throws RuntimeException         si la operación falla por otro motivo o se agotan los intentos.
+     */
+    private <T> T executeWithRetry(String shard, Function<Session, T> operacion) {
+        for (int intento = 1; ; intento++) {
+            Session session = HibernateUtil.getSessionFactory(shard).openSession();
+            Transaction transaction = null;
+            try {
+                transaction = session.beginTransaction();
+                T resultado = operacion.apply(session);
+                transaction.commit();
+                HibernateUtil.registrarEscritura(shard);
+                return resultado;
+            } catch (RuntimeException e) {
+                if (transaction != null && transaction.getStatus().canRollback()) transaction.rollback();
+                if (esConflictoDeVersion(e)) {
+                    throw e instanceof OptimisticLockException ? (OptimisticLockException) e : new OptimisticLockException(e);
+                }
+                if (intento >= MAX_INTENTOS || !esConflictoConcurrente(e)) {
+                    throw e;
+                }
+            } finally {
+                session.close();
+            }
+        }
+    }
+
+    /**
+     * Indica si una excepción se debe a un conflicto con otra transacción concurrente.
+     *
+     * @param e la excepción a examinar.
+     * @return {@code true} si la causa es una violación de unicidad o un interbloqueo. Las demás restricciones
+     * (columnas obligatorias, claves ajenas) fallarían igual al repetir la transacción.
+     */
+    private static boolean esConflictoConcurrente(Throwable e) {
+        for (Throwable causa = e; causa != null; causa = causa.getCause()) {
+            if (causa instanceof ConstraintViolationException && esClaveDuplicada((ConstraintViolationException) causa)
+                    || causa instanceof LockAcquisitionException) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean esClaveDuplicada(ConstraintViolationException e) {
+        SQLException sqlException = e.getSQLException();
+        return sqlException != null && (SQLSTATE_CLAVE_DUPLICADA.equals(sqlException.getSQLState())
+                || sqlException.getErrorCode() == ERROR_MYSQL_CLAVE_DUPLICADA);
+    }
+
+    /**
+     * Indica si una excepción se debe a que otra transacción ha modificado una entidad versionada.
+     *
+     * @param e la excepción a examinar.
+     * @return {@code true} si la causa es un conflicto de versión.
+     */
+    private static boolean esConflictoDeVersion(Throwable e) {
+        for (Throwable causa = e; causa != null; causa = causa.getCause()) {
+            if (causa instanceof OptimisticLockException || causa instanceof StaleStateException) {
+                return true;
+            }
+        }
+        return false;
+    }
 }
@@ -0,0 +1,353 @@
+package com.refugio.dao;
+
+import com.refugio.model.EstadoAnimal;
+import org.hibernate.Session;
+
+import javax.transaction.Status;
+import javax.transaction.Synchronization;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Número de animales por especie, por estado y por ciudad de la familia que los acoge, mantenido en memoria.
+ * {@link AnimalDAO} suma los cambios de cada escritura al confirmarse su transacción, de modo que los totales
+ * se leen sin consultar la base de datos. Los contadores son {@link LongAdder}, que admiten muchas escrituras
+ * simultáneas sin que los hilos compitan por el mismo valor.
+ * Casi todas las escrituras conocen los valores anteriores de lo que cambian, así que los contadores solo se desajustan
+ * al arrancar, porque no contienen los animales registrados antes; cuando se cambia por ID un animal que no estaba
+ * en la caché, porque no se sabe de qué estado o ciudad sale; o si una transacción se confirma mientras
+ * {@link EstadisticasDAO#reconcileCounters()} los vuelve a calcular con la base de datos, porque no se sabe
+ * si las consultas de la conciliación la han visto.
+ */
+public class ContadoresAnimales {
+
+    /**
+     * Contadores actuales. La conciliación los sustituye todos a la vez.
+     */
+    private volatile Totales totales = new Totales(new ConcurrentHashMap<>(), nuevosContadoresEstado(),
+            new ConcurrentHashMap<>());
+
+    /**
+     * Cerrojo que impide sustituir los contadores mientras una transacción suma sus cambios, para que los sume
+     * todos a los anteriores o todos a los nuevos. Las transacciones lo comparten y la conciliación lo toma en exclusiva.
+     */
+    private final ReadWriteLock cerrojo = new ReentrantReadWriteLock();
+
+    /**
+     * Indica si hay una conciliación en curso: ha empezado a consultar la base de datos y aún no ha sustituido
+     * los contadores.
+     */
+    private volatile boolean conciliando;
+
+    /**
+     * Indica si los contadores pueden no coincidir con la base de datos. Empiezan desajustados
+     * porque no contienen los animales registrados antes de arrancar la aplicación.
+     */
+    private final AtomicBoolean desajustados = new AtomicBoolean(true);
+
+    ContadoresAnimales() {
+    }
+
+    /**
+     * Obtiene el número de animales de una especie.
+     *
+     * @param especie la especie.
+     * @return el número de animales de la especie.
+     */
+    public long getPorEspecie(String especie) {
+        LongAdder contador = totales.porEspecie.get(especie);
+        return contador != null ? contador.sum() : 0;
+    }
+
+    /**
+     * Obtiene el número de animales en un estado.
+     *
+     * @param estado el estado.
+     * @return el número de animales en el estado.
+     */
+    public long getPorEstado(EstadoAnimal estado) {
+        return totales.porEstado[estado.ordinal()].sum();
+    }
+
+    /**
+     * Obtiene el número de animales acogidos por familias de una ciudad.
+     *
+     * @param ciudad la ciudad.
+     * @return el número de animales de la ciudad.
+     */
+    public long getPorCiudad(String ciudad) {
+        LongAdder contador = totales.porCiudad.get(ciudad);
+        return contador != null ? contador.sum() : 0;
+    }
+
+    /**
+     * Obtiene el número de animales de cada especie, ordenadas alfabéticamente.
+     *
+     * @return los animales por especie.
+     */
+    public Map<String, Long> getPorEspecie() {
+        return copiar(totales.porEspecie);
+    }
+
+    /**
+     * Obtiene el número de animales en cada estado.
+     *
+     * @return los animales por estado, con todos los estados.
+     */
+    public Map<EstadoAnimal, Long> getPorEstado() {
+        LongAdder[] contadores = totales.porEstado;
+        Map<EstadoAnimal, Long> copia = new EnumMap<>(EstadoAnimal.class);
+        for (EstadoAnimal estado : EstadoAnimal.values()) {
+            copia.put(estado, contadores[estado.ordinal()].sum());
+        }
+        return copia;
+    }
+
+    /**
+     * Obtiene el número de animales acogidos en cada ciudad, ordenadas alfabéticamente.
+     *
+     * @return los animales por ciudad.
+     */
+    public Map<String, Long> getPorCiudad() {
+        return copiar(totales.porCiudad);
+    }
+
+    /**
+     * Obtiene el número total de animales.
+     *
+     * @return el número total de animales.
+     */
+    public long getTotal() {
+        long total = 0;
+        for (LongAdder contador : totales.porEstado) {
+            total += contador.sum();
+        }
+        return total;
+    }
+
+    /**
+     * Indica si los contadores pueden no coincidir con la base de datos hasta la próxima conciliación.
+     *
+     * @return {@code true} si hace falta conciliar los contadores.
+     */
+    public boolean isDesajustados() {
+        return desajustados.get();
+    }
+
+    /**
+     * Prepara la acumulación de los cambios de una transacción, que se suman a los contadores
+     * solo si la transacción se confirma.
+     *
+     * @param session la sesión con la transacción en curso.
+     * @return los cambios de la transacción.
+     */
+    Cambios alConfirmar(Session session) {
+        Cambios cambios = new Cambios();
+        session.getTransaction().registerSynchronization(cambios);
+        return cambios;
+    }
+
+    /**
+     * Empieza una conciliación: los desajustes que se produzcan a partir de ahora
+     * se corregirán en la siguiente.
+     */
+    void empezarConciliacion() {
+        conciliando = true;
+        desajustados.set(false);
+    }
+
+    /**
+     * Deja pendiente la conciliación que no se ha podido completar.
+     */
+    void alFallarConciliacion() {
+        conciliando = false;
+        desajustados.set(true);
+    }
+
+    /**
+     * Sustituye los contadores por los totales calculados en la base de datos.
+     * Las transacciones que se confirman a la vez suman sus cambios a los contadores anteriores, que se descartan,
+     * o a los nuevos, pero nunca a parte de cada uno.
+     *
+     * @param especies los animales por especie.
+     * @param estados  los animales por estado.
+     * @param ciudades los animales por ciudad.
+     * @return la suma de las diferencias, en valor absoluto, entre los contadores y la base de datos.
+     */
+    long conciliar(Map<String, Long> especies, Map<EstadoAnimal, Long> estados, Map<String, Long> ciudades) {
+        LongAdder[] nuevosEstados = nuevosContadoresEstado();
+        estados.forEach((estado, total) -> nuevosEstados[estado.ordinal()].add(total));
+        Totales nuevos = new Totales(contadores(especies), nuevosEstados, contadores(ciudades));
+
+        cerrojo.writeLock().lock();
+        try {
+            long diferencia = diferencia(getPorEspecie(), especies) + diferencia(getPorEstado(), estados)
+                    + diferencia(getPorCiudad(), ciudades);
+            totales = nuevos;
+            conciliando = false;
+            return diferencia;
+        } finally {
+            cerrojo.writeLock().unlock();
+        }
+    }
+
+    private static LongAdder[] nuevosContadoresEstado() {
+        LongAdder[] contadores = new LongAdder[EstadoAnimal.values().length];
+        for (int i = 0; i < contadores.length; i++) {
+            contadores[i] = new LongAdder();
+        }
+        return contadores;
+    }
+
+    private static ConcurrentMap<String, LongAdder> contadores(Map<String, Long> totales) {
+        ConcurrentMap<String, LongAdder> contadores = new ConcurrentHashMap<>();
+        totales.forEach((clave, total) -> contadores.computeIfAbsent(clave, k -> new LongAdder()).add(total));
+        return contadores;
+    }
+
+    private static Map<String, Long> copiar(Map<String, LongAdder> contadores) {
+        Map<String, Long> copia = new TreeMap<>();
+        contadores.forEach((clave, contador) -> {
+            long total = contador.sum();
+            if (total != 0) {
+                copia.put(clave, total);
+            }
+        });
+        return copia;
+    }
+
+    private static <K> long diferencia(Map<K, Long> memoria, Map<K, Long> baseDatos) {
+        long diferencia = 0;
+        for (Map.Entry<K, Long> entrada : baseDatos.entrySet()) {
+            diferencia += Math.abs(entrada.getValue() - memoria.getOrDefault(entrada.getKey(), 0L));
+        }
+        for (Map.Entry<K, Long> entrada : memoria.entrySet()) {
+            if (!baseDatos.containsKey(entrada.getKey())) {
+                diferencia += Math.abs(entrada.getValue());
+            }
+        }
+        return diferencia;
+    }
+
+    private static void sumar(ConcurrentMap<String, LongAdder> contadores, String clave, long cantidad) {
+        if (clave != null) {
+            contadores.computeIfAbsent(clave, k -> new LongAdder()).add(cantidad);
+        }
+    }
+
+    /**
+     * Cambios en los contadores hechos por una transacción. Se acumulan sin sincronización, porque cada
+     * transacción pertenece a un solo hilo, y se suman a los contadores compartidos al confirmarse.
+     */
+    class Cambios implements Synchronization {
+
+        private final Map<String, Long> especies = new HashMap<>();
+        private final long[] estados = new long[EstadoAnimal.values().length];
+        private final Map<String, Long> ciudades = new HashMap<>();
+        private boolean desconocido;
+
+        /**
+         * Cuenta un animal nuevo.
+         *
+         * @param especie la especie del animal.
+         * @param estado  el estado del animal.
+         * @param ciudad  la ciudad de la familia que lo acoge.
+         */
+        void animalGuardado(String especie, EstadoAnimal estado, String ciudad) {
+            especies.merge(especie, 1L, Long::sum);
+            estados[estado.ordinal()]++;
+            ciudades.merge(ciudad, 1L, Long::sum);
+        }
+
+        /**
+         * Pasa animales de un estado a otro.
+         *
+         * @param anterior el estado en el que estaban los animales.
+         * @param nuevo    el nuevo estado de los animales.
+         * @param animales el número de animales que han cambiado de estado.
+         */
+        void estadoCambiado(EstadoAnimal anterior, EstadoAnimal nuevo, long animales) {
+            estados[anterior.ordinal()] -= animales;
+            estados[nuevo.ordinal()] += animales;
+        }
+
+        /**
+         * Pasa animales de la ciudad de una familia a la de otra.
+         *
+         * @param anterior la ciudad de la que salen los animales.
+         * @param nueva    la ciudad a la que llegan los animales.
+         * @param animales el número de animales que han cambiado de ciudad.
+         */
+        void ciudadCambiada(String anterior, String nueva, long animales) {
+            if (!Objects.equals(anterior, nueva)) {
+                ciudades.merge(anterior, -animales, Long::sum);
+                ciudades.merge(nueva, animales, Long::sum);
+            }
+        }
+
+        /**
+         * Anota un cambio del que no se conocen los valores anteriores, por lo que los contadores
+         * quedan desajustados hasta la próxima conciliación.
+         */
+        void cambioDesconocido() {
+            desconocido = true;
+        }
+
+        @Override
+        public void beforeCompletion() {
+        }
+
+        @Override
+        public void afterCompletion(int status) {
+            if (status != Status.STATUS_COMMITTED) {
+                return;
+            }
+            if (desconocido) {
+                desajustados.set(true);
+            }
+            cerrojo.readLock().lock();
+            try {
+                Totales actuales = totales;
+                especies.forEach((especie, cantidad) -> sumar(actuales.porEspecie, especie, cantidad));
+                for (int i = 0; i < estados.length; i++) {
+                    if (estados[i] != 0) {
+                        actuales.porEstado[i].add(estados[i]);
+                    }
+                }
+                ciudades.forEach((ciudad, cantidad) -> sumar(actuales.porCiudad, ciudad, cantidad));
+                if (conciliando) {
+                    // La conciliación en curso puede haber leído la base de datos antes o después de esta transacción
+                    desajustados.set(true);
+                }
+            } finally {
+                cerrojo.readLock().unlock();
+            }
+        }
+    }
+
+    /**
+     * Contadores por especie, por estado (indexados por ordinal) y por ciudad.
+     */
+    private static final class Totales {
+
+        final ConcurrentMap<String, LongAdder> porEspecie;
+        final LongAdder[] porEstado;
+        final ConcurrentMap<String, LongAdder> porCiudad;
+
+        Totales(ConcurrentMap<String, LongAdder> porEspecie, LongAdder[] porEstado,
+                ConcurrentMap<String, LongAdder> porCiudad) {
+            this.porEspecie = porEspecie;
+            this.porEstado = porEstado;
+            this.porCiudad = porCiudad;
+        }
+    }
+}
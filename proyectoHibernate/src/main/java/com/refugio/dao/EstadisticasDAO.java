@@ -0,0 +1,180 @@
+package com.refugio.dao;
+
+import com.refugio.model.EstadoAnimal;
+import org.hibernate.Session;
+import org.hibernate.Transaction;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Clase que proporciona los totales de animales por especie, por estado y por ciudad.
+ * Los totales se calculan en la base de datos con consultas {@code GROUP BY}, que solo devuelven una fila por grupo,
+ * o se leen de los {@link ContadoresAnimales} que {@link AnimalDAO} mantiene en memoria.
+ * Las consultas de totales leen de las réplicas si las hay; la conciliación de los contadores lee del primario,
+ * que es donde se cuentan las escrituras.
+ */
+public class EstadisticasDAO {
+
+    /**
+     * Obtiene los contadores en memoria, compartidos por todas las instancias de {@link AnimalDAO}.
+     *
+     * @return los contadores de animales.
+     */
+    public ContadoresAnimales getContadores() {
+        return AnimalDAO.contadores;
+    }
+
+    /**
+     * Cuenta en la base de datos los animales de cada especie.
+     *
+     * @return los animales por especie, ordenadas alfabéticamente.
+     */
+    public Map<String, Long> countByEspecie() {
+        return Metricas.medir("EstadisticasDAO.countByEspecie", () -> sumar(HibernateUtil.consultarShards(shard -> {
+            try (Session session = HibernateUtil.openReplicaSession(shard)) {
+                return contarPorEspecie(session);
+            }
+        })));
+    }
+
+    /**
+     * Cuenta en la base de datos los animales en cada estado. La consulta usa el índice sobre {@code estado_codigo}.
+     *
+     * @return los animales por estado, con todos los estados.
+     */
+    public Map<EstadoAnimal, Long> countByEstado() {
+        return Metricas.medir("EstadisticasDAO.countByEstado", () -> sumar(HibernateUtil.consultarShards(shard -> {
+            try (Session session = HibernateUtil.openReplicaSession(shard)) {
+                return contarPorEstado(session);
+            }
+        })));
+    }
+
+    /**
+     * Cuenta en la base de datos los animales acogidos en cada ciudad, según la ciudad de su familia.
+     *
+     * @return los animales por ciudad, ordenadas alfabéticamente.
+     */
+    public Map<String, Long> countByCiudad() {
+        return Metricas.medir("EstadisticasDAO.countByCiudad", () -> sumar(HibernateUtil.consultarShards(shard -> {
+            try (Session session = HibernateUtil.openReplicaSession(shard)) {
+                return contarPorCiudad(session);
+            }
+        })));
+    }
+
+    /**
+     * Vuelve a calcular los contadores en memoria con la base de datos, para corregir los cambios que no se han
+     * podido contar y los que se hayan perdido. Las tres consultas se hacen en la misma transacción,
+     * de modo que los totales corresponden al mismo momento. Con varios shards, cada shard se consulta en paralelo
+     * en su propia transacción y los totales se suman.
+     *
+     * @return la suma de las diferencias corregidas, en valor absoluto; 0 si los contadores eran correctos.
+     */
+    public long reconcileCounters() {
+        return Metricas.medir("EstadisticasDAO.reconcileCounters", () -> {
+            ContadoresAnimales contadores = getContadores();
+            contadores.empezarConciliacion();
+            try {
+                List<ConteoShard> conteos = HibernateUtil.consultarShards(EstadisticasDAO::contarShard);
+                List<Map<String, Long>> especies = new ArrayList<>();
+                List<Map<EstadoAnimal, Long>> estados = new ArrayList<>();
+                List<Map<String, Long>> ciudades = new ArrayList<>();
+                for (ConteoShard conteo : conteos) {
+                    especies.add(conteo.especies);
+                    estados.add(conteo.estados);
+                    ciudades.add(conteo.ciudades);
+                }
+                return contadores.conciliar(sumar(especies), sumar(estados), sumar(ciudades));
+            } catch (RuntimeException e) {
+                // La conciliación queda pendiente para el siguiente intento
+                contadores.alFallarConciliacion();
+                throw e;
+            }
+        });
+    }
+
+    /**
+     * Hace las tres consultas de totales de un shard en una misma transacción.
+     *
+     * @param shard el shard.
+     * @return los totales del shard.
+     */
+    private static ConteoShard contarShard(String shard) {
+        Transaction transaction = null;
+        try (Session session = HibernateUtil.openReadOnlySession(shard)) {
+            transaction = session.beginTransaction();
+            ConteoShard conteo = new ConteoShard(contarPorEspecie(session), contarPorEstado(session), contarPorCiudad(session));
+            transaction.commit();
+            return conteo;
+        } catch (RuntimeException e) {
+            if (transaction != null && transaction.getStatus().canRollback()) transaction.rollback();
+            throw e;
+        }
+    }
+
+    private static Map<String, Long> contarPorEspecie(Session session) {
+        return agrupar(session.createQuery(
+                "SELECT a.especie, COUNT(a) FROM Animal a GROUP BY a.especie", Object[].class).list());
+    }
+
+    private static Map<EstadoAnimal, Long> contarPorEstado(Session session) {
+        Map<EstadoAnimal, Long> totales = new EnumMap<>(EstadoAnimal.class);
+        for (EstadoAnimal estado : EstadoAnimal.values()) {
+            totales.put(estado, 0L);
+        }
+        for (Object[] fila : session.createQuery(
+                "SELECT a.estado, COUNT(a) FROM Animal a GROUP BY a.estado", Object[].class).list()) {
+            totales.put((EstadoAnimal) fila[0], (Long) fila[1]);
+        }
+        return totales;
+    }
+
+    private static Map<String, Long> contarPorCiudad(Session session) {
+        return agrupar(session.createQuery(
+                "SELECT f.ciudad, COUNT(a) FROM Animal a JOIN a.familia f GROUP BY f.ciudad", Object[].class).list());
+    }
+
+    /**
+     * Suma los totales de cada shard. Con un solo shard devuelve sus totales tal cual.
+     *
+     * @param totales los totales de cada shard, con el mismo tipo de mapa.
+     * @param <K>     el tipo de la clave de los totales.
+     * @return los totales de todos los shards.
+     */
+    private static <K> Map<K, Long> sumar(List<Map<K, Long>> totales) {
+        Map<K, Long> suma = totales.get(0);
+        for (int i = 1; i < totales.size(); i++) {
+            totales.get(i).forEach((clave, total) -> suma.merge(clave, total, Long::sum));
+        }
+        return suma;
+    }
+
+    private static Map<String, Long> agrupar(List<Object[]> filas) {
+        Map<String, Long> totales = new TreeMap<>();
+        for (Object[] fila : filas) {
+            totales.put((String) fila[0], (Long) fila[1]);
+        }
+        return totales;
+    }
+
+    /**
+     * Totales de animales de un shard.
+     */
+    private static final class ConteoShard {
+
+        final Map<String, Long> especies;
+        final Map<EstadoAnimal, Long> estados;
+        final Map<String, Long> ciudades;
+
+        ConteoShard(Map<String, Long> especies, Map<EstadoAnimal, Long> estados, Map<String, Long> ciudades) {
+            this.especies = especies;
+            this.estados = estados;
+            this.ciudades = ciudades;
+        }
+    }
+}
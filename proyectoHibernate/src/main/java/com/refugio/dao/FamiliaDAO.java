@@ -1,18 +1,70 @@
 package com.refugio.dao;
 
 import com.refugio.model.Familia;
+import org.hibernate.ScrollMode;
+import org.hibernate.ScrollableResults;
 import org.hibernate.Session;
+import org.hibernate.StatelessSession;
+import org.hibernate.query.Query;
+
+import java.util.List;
+import java.util.function.Consumer;
 
 /** Clase para gestionar operaciones relacionadas con Familias en la base de datos. */
 public class FamiliaDAO {
+
+    /**
+     * Nombres de las columnas de las filas que recorre {@link #forEachFila(Consumer)}, en el mismo orden.
+     */
+    public static final List<String> COLUMNAS_FILA = List.of("id", "nombre", "edad", "ciudad");
+
+    /**
+     * Número de filas que se piden al driver JDBC en cada viaje al recorrer la tabla.
+     */
+    private static final int TAMANO_LECTURA = 500;
+
     /**
      * Busca una familia en la base de datos por su ID.
      * @param id el ID de la familia a buscar.
-     * @return la familia encontrada o null si no existe.
+     * @return la familia encontrada o null si no existe, también si el ID no corresponde a ningún shard.
      */
     public Familia findById(long id) {
-        try (Session session = HibernateUtil.getSessionFactory().openSession()) {
-            return session.get(Familia.class, id);
-        }
+        return Metricas.medir("FamiliaDAO.findById", () -> {
+            String shard;
+            try {
+                shard = HibernateUtil.getShardPorId(id);
+            } catch (IllegalArgumentException e) {
+                // Ningún shard genera ese ID, así que la familia no puede existir
+                return null;
+            }
+            try (Session session = HibernateUtil.openReplicaSession(shard)) {
+                return session.get(Familia.class, id);
+            }
+        });
+    }
+
+    /**
+     * Recorre los datos de todas las familias como filas de valores, en orden de ID, sin cargarlas en memoria.
+     * Las columnas son las de {@link #COLUMNAS_FILA}.
+     * @param consumidor la acción que se ejecuta con cada fila leída.
+     */
+    public void forEachFila(Consumer<Object[]> consumidor) {
+        Metricas.medir("FamiliaDAO.forEachFila", () -> {
+            // Los shards se recorren uno tras otro, en el orden de sus IDs
+            for (String shard : HibernateUtil.getShards()) {
+                try (StatelessSession session = HibernateUtil.getReplicaSessionFactory(shard).openStatelessSession()) {
+                    Query<Object[]> query = session.createQuery(
+                            "SELECT f.id, f.nombre, f.edad, f.ciudad FROM Familia f ORDER BY f.id", Object[].class);
+                    query.setFetchSize(TAMANO_LECTURA);
+                    query.setReadOnly(true);
+
+                    try (ScrollableResults resultados = query.scroll(ScrollMode.FORWARD_ONLY)) {
+                        while (resultados.next()) {
+                            consumidor.accept(resultados.get());
+                        }
+                    }
+                }
+            }
+        });
     }
 }
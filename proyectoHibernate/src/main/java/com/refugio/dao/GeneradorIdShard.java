@@ -0,0 +1,38 @@
+package com.refugio.dao;
+
+import org.hibernate.MappingException;
+import org.hibernate.engine.config.spi.ConfigurationService;
+import org.hibernate.engine.spi.SharedSessionContractImplementor;
+import org.hibernate.id.enhanced.SequenceStyleGenerator;
+import org.hibernate.internal.util.config.ConfigurationHelper;
+import org.hibernate.service.ServiceRegistry;
+import org.hibernate.type.Type;
+
+import java.io.Serializable;
+import java.util.Properties;
+
+/**
+ * Generador de IDs de animales y familias: toma el valor de la secuencia pooled del shard, como
+ * {@link SequenceStyleGenerator}, y le suma el índice del shard desplazado a los bits altos
+ * (véase {@link HibernateUtil}). En el primer shard, y por tanto sin shards, los IDs son los de la secuencia.
+ */
+public class GeneradorIdShard extends SequenceStyleGenerator {
+
+    /**
+     * Valor que se suma a cada ID de la secuencia: el índice del shard en los bits altos.
+     */
+    private long desplazamiento;
+
+    @Override
+    public void configure(Type type, Properties params, ServiceRegistry serviceRegistry) throws MappingException {
+        super.configure(type, params, serviceRegistry);
+        int indice = ConfigurationHelper.getInt(HibernateUtil.PROPIEDAD_INDICE_SHARD,
+                serviceRegistry.getService(ConfigurationService.class).getSettings(), 0);
+        desplazamiento = (long) indice << HibernateUtil.BITS_SECUENCIA;
+    }
+
+    @Override
+    public Serializable generate(SharedSessionContractImplementor session, Object object) {
+        return (Long) super.generate(session, object) + desplazamiento;
+    }
+}
@@ -1,40 +1,731 @@
 package com.refugio.dao;
 
+import org.hibernate.FlushMode;
+import org.hibernate.Session;
 import org.hibernate.SessionFactory;
 import org.hibernate.cfg.Configuration;
+import org.hibernate.engine.jdbc.connections.spi.ConnectionProvider;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.stat.CacheRegionStatistics;
+import org.hibernate.stat.Statistics;
+
+import javax.cache.Caching;
+import javax.cache.spi.CachingProvider;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
 
 /**
- * Clase de utilidad para configurar y proporcionar la {@link SessionFactory} de Hibernate.
+ * Clase de utilidad para configurar y proporcionar las {@link SessionFactory} de Hibernate.
  * Se encarga de inicializar y gestionar la configuración de Hibernate para el acceso a la base de datos.
+ * <p>
+ * Los datos pueden repartirse entre varias bases de datos (shards), cada una con su propia {@link SessionFactory}.
+ * Los shards se declaran con la propiedad {@value #PROPIEDAD_SHARDS} (por ejemplo {@code norte,sur}) y cada uno
+ * sobrescribe la configuración común con las propiedades {@code refugio.shard.<shard>.<propiedad>}, por ejemplo
+ * {@code refugio.shard.sur.hibernate.connection.url}. Cada familia, con sus animales, vive en el shard de su ciudad:
+ * el indicado en {@code refugio.shard.<shard>.ciudades} o, si la ciudad no aparece en ninguno, el que resulta
+ * de su código hash. Los IDs llevan el índice del shard en sus {@value #BITS_SHARD} bits altos, de modo que
+ * los IDs son únicos entre shards, el shard de un animal o una familia se deduce de su ID y los IDs de cada shard
+ * son mayores que los de los shards anteriores. Sin {@value #PROPIEDAD_SHARDS} hay un único shard,
+ * {@value #SHARD_PRINCIPAL}, con la configuración de siempre.
+ * <p>
+ * Cada shard puede tener réplicas de lectura, declaradas en su propiedad {@value #PROPIEDAD_REPLICAS} (con varios
+ * shards, {@code refugio.shard.<shard>.refugio.replicas}). Cada réplica toma la configuración de su shard sobrescrita
+ * con las propiedades {@code refugio.replica.<réplica>.<propiedad>}, por ejemplo
+ * {@code refugio.replica.norte2.hibernate.connection.url}, y no crea el esquema, no indexa para la búsqueda
+ * de texto completo ni usa la caché de segundo nivel, que no se enteraría de las escrituras en el primario.
+ * Las consultas que toleran datos con un pequeño retraso leen de las réplicas con {@link #openReplicaSession(String)},
+ * que reparte las lecturas entre las réplicas al día, y un hilo que acaba de escribir en un shard lee de su primario
+ * durante un tiempo para ver sus propios cambios.
+ * <p>
+ * Las {@link SessionFactory} se construyen la primera vez que se usan o, si se llama antes a
+ * {@link #iniciarEnSegundoPlano()}, en un hilo aparte mientras el programa hace otras cosas; en ambos casos
+ * solo espera quien necesita la base de datos. Con el perfil de arranque rápido ({@value #PROPIEDAD_ARRANQUE}
+ * {@code = rapido}) el arranque no toca la base de datos: no sincroniza el esquema, que se actualiza o valida aparte
+ * con {@link #actualizarEsquema(boolean)}, ni consulta los metadatos JDBC, ni espera a la primera conexión del pool.
  */
 public class HibernateUtil {
 
     /**
-     * Instancia única de la {@link SessionFactory}.
+     * Prefijos de las propiedades de sistema que sobrescriben la configuración de Hibernate.
+     */
+    private static final String[] PREFIJOS_PROPIEDADES = {"hibernate.", "refugio."};
+
+    /**
+     * Propiedad con los nombres de los shards, separados por comas.
+     */
+    public static final String PROPIEDAD_SHARDS = "refugio.shards";
+
+    /**
+     * Prefijo de las propiedades propias de cada shard, seguido del nombre del shard y un punto.
+     */
+    private static final String PREFIJO_SHARD = "refugio.shard.";
+
+    /**
+     * Propiedad de cada shard con las ciudades que se guardan en él, separadas por comas.
+     */
+    private static final String CIUDADES_SHARD = "ciudades";
+
+    /**
+     * Propiedad con la que cada {@link SessionFactory} conoce su índice de shard, para generar los IDs.
+     */
+    static final String PROPIEDAD_INDICE_SHARD = "refugio.shard_indice";
+
+    /**
+     * Propiedad de cada shard con los nombres de sus réplicas de lectura, separados por comas.
+     */
+    public static final String PROPIEDAD_REPLICAS = "refugio.replicas";
+
+    /**
+     * Prefijo de las propiedades propias de cada réplica, seguido del nombre de la réplica y un punto.
+     */
+    private static final String PREFIJO_REPLICA = "refugio.replica.";
+
+    /**
+     * Propiedad con el retraso máximo, en milisegundos, con el que una réplica sigue recibiendo lecturas.
+     */
+    private static final String RETRASO_MAXIMO_REPLICAS = "refugio.replicas.retraso_maximo_ms";
+
+    /**
+     * Propiedad con el tiempo, en milisegundos, durante el que un hilo lee del primario el shard en el que acaba
+     * de escribir. Por defecto es el retraso máximo de las réplicas; 0 lo desactiva.
+     */
+    private static final String LECTURA_PROPIA_REPLICAS = "refugio.replicas.lectura_propia_ms";
+
+    /**
+     * Propiedad con el intervalo, en milisegundos, entre las mediciones del retraso de las réplicas.
+     */
+    private static final String INTERVALO_REPLICAS = "refugio.replicas.intervalo_ms";
+
+    /**
+     * Propiedad con la consulta que devuelve el retraso de una réplica, en segundos.
+     * Por defecto la de MySQL, {@code SHOW REPLICA STATUS}.
+     */
+    private static final String CONSULTA_RETRASO_REPLICAS = "refugio.replicas.consulta_retraso";
+
+    /**
+     * Propiedad con el perfil de arranque: {@value #ARRANQUE_RAPIDO} o, por defecto, el de siempre,
+     * que sincroniza el esquema con {@code hibernate.hbm2ddl.auto}.
+     */
+    public static final String PROPIEDAD_ARRANQUE = "refugio.arranque";
+
+    /**
+     * Perfil de arranque que no abre ninguna conexión al construir las {@link SessionFactory}.
      */
-    private static final SessionFactory sessionFactory = buildSessionFactory();
+    public static final String ARRANQUE_RAPIDO = "rapido";
 
     /**
-     * Construye la {@link SessionFactory} utilizando la configuración especificada en el archivo `hibernate.cfg.xml`.
+     * Nombre del único shard cuando no se declaran shards.
+     */
+    public static final String SHARD_PRINCIPAL = "principal";
+
+    /**
+     * Bits altos de los IDs que indican el shard; los {@value #BITS_SECUENCIA} bits bajos son el valor de la secuencia.
+     */
+    static final int BITS_SHARD = 15;
+
+    /**
+     * Bits bajos de los IDs que toma el valor de la secuencia de cada shard.
+     */
+    static final int BITS_SECUENCIA = 63 - BITS_SHARD;
+
+    /**
+     * Nombres de los shards, en el orden de sus índices.
+     */
+    private static final List<String> shards = new ArrayList<>();
+
+    /**
+     * Ciudades asignadas explícitamente a un shard, en minúsculas. Concurrente porque se lee desde cualquier hilo
+     * mientras se terminan de configurar los shards.
+     */
+    private static final Map<String, String> shardPorCiudad = new ConcurrentHashMap<>();
+
+    /**
+     * Réplicas de lectura de los shards que las tienen. Concurrente porque la tarea que mide los retrasos la recorre
+     * mientras se siguen añadiendo las réplicas de los demás shards.
+     */
+    private static final Map<String, ReplicasShard> replicasPorShard = new ConcurrentHashMap<>();
+
+    /**
+     * Momento, en {@link System#nanoTime()}, hasta el que el hilo lee del primario cada shard en el que ha escrito.
+     * Los hilos heredan una copia de los del hilo que los crea, de modo que las consultas lanzadas en paralelo en
+     * todos los shards siguen viendo las escrituras del hilo que las lanza.
+     */
+    private static final InheritableThreadLocal<Map<String, Long>> lecturasPropias = new InheritableThreadLocal<>() {
+        @Override
+        protected Map<String, Long> initialValue() {
+            return new HashMap<>();
+        }
+
+        @Override
+        protected Map<String, Long> childValue(Map<String, Long> padre) {
+            return new HashMap<>(padre);
+        }
+    };
+
+    /**
+     * Una {@link SessionFactory} por shard, disponibles cuando termina el arranque.
+     */
+    private static final CompletableFuture<Map<String, SessionFactory>> sessionFactories = new CompletableFuture<>();
+
+    /**
+     * Indica si algún hilo ha empezado ya a construir las {@link SessionFactory}.
+     */
+    private static final AtomicBoolean arranqueEmpezado = new AtomicBoolean();
+
+    /**
+     * Duración del arranque en milisegundos, o -1 mientras no ha terminado.
+     */
+    private static volatile long duracionArranqueMillis = -1;
+
+    /**
+     * Empieza a construir las {@link SessionFactory} en un hilo aparte, {@code refugio-arranque}, si no se han
+     * empezado a construir ya. Los métodos de la clase esperan a que termine.
+     */
+    public static void iniciarEnSegundoPlano() {
+        if (arranqueEmpezado.compareAndSet(false, true)) {
+            Thread hilo = new Thread(HibernateUtil::arrancar, "refugio-arranque");
+            hilo.setDaemon(true);
+            hilo.start();
+        }
+    }
+
+    /**
+     * Obtiene las {@link SessionFactory} de los shards, construyéndolas en este hilo si nadie ha empezado aún
+     * o esperando a que termine el hilo que las está construyendo.
      *
-     * @return una instancia de {@link SessionFactory}.
-     * @throws ExceptionInInitializerError si ocurre algún error al inicializar la {@link SessionFactory}.
+     * @return las {@link SessionFactory} indexadas por shard, en el orden de los shards.
+     * @throws IllegalStateException si no se han podido construir.
+     */
+    private static Map<String, SessionFactory> sessionFactories() {
+        if (!sessionFactories.isDone() && arranqueEmpezado.compareAndSet(false, true)) {
+            arrancar();
+        }
+        try {
+            return sessionFactories.join();
+        } catch (CompletionException e) {
+            throw new IllegalStateException("No se ha podido iniciar Hibernate", e.getCause());
+        }
+    }
+
+    /**
+     * Construye las {@link SessionFactory}, mide cuánto tarda y avisa a quienes esperan.
      */
-    private static SessionFactory buildSessionFactory() {
+    private static void arrancar() {
+        long inicio = System.nanoTime();
         try {
-            return new Configuration().configure().buildSessionFactory();
+            Map<String, SessionFactory> factories = buildSessionFactories();
+            long duracion = System.nanoTime() - inicio;
+            duracionArranqueMillis = TimeUnit.NANOSECONDS.toMillis(duracion);
+            Metricas.registrarArranque("hibernate", duracion);
+            sessionFactories.complete(factories);
         } catch (Throwable ex) {
+            sessionFactories.completeExceptionally(ex);
+        }
+    }
+
+    /**
+     * Indica si las {@link SessionFactory} ya están construidas, sin esperar a que lo estén.
+     *
+     * @return {@code true} si el arranque ha terminado bien.
+     */
+    public static boolean isIniciado() {
+        return sessionFactories.isDone() && !sessionFactories.isCompletedExceptionally();
+    }
+
+    /**
+     * Obtiene cuánto tardó en construir las {@link SessionFactory}, sin esperar a que terminen.
+     *
+     * @return la duración del arranque en milisegundos, o -1 si aún no ha terminado.
+     */
+    public static long getDuracionArranqueMillis() {
+        return duracionArranqueMillis;
+    }
+
+    /**
+     * Construye una {@link SessionFactory} por shard utilizando la configuración especificada en el archivo `hibernate.cfg.xml`.
+     * Las propiedades de sistema que empiezan por {@code hibernate.} o {@code refugio.} tienen prioridad sobre las
+     * del archivo, lo que permite dimensionar el pool por despliegue (por ejemplo {@code -Dhibernate.hikari.maximumPoolSize=20}).
+     * Las estadísticas de cada {@link SessionFactory} se publican en {@link Metricas}.
+     *
+     * @return las {@link SessionFactory} indexadas por shard, en el orden de los shards.
+     * @throws RuntimeException si ocurre algún error al inicializar alguna {@link SessionFactory}.
+     */
+    private static Map<String, SessionFactory> buildSessionFactories() {
+        try {
+            shards.addAll(leerShards());
+            if (shards.size() == 1 && shards.get(0).equals(SHARD_PRINCIPAL)) {
+                Configuration configuration = leerConfiguracion();
+                SessionFactory factory = configuration.buildSessionFactory();
+                Metricas.registrarHibernate(factory, "refugio");
+                crearReplicas(SHARD_PRINCIPAL, configuration, factory);
+                return Collections.singletonMap(SHARD_PRINCIPAL, factory);
+            }
+
+            Map<String, SessionFactory> factories = new LinkedHashMap<>();
+            for (int indice = 0; indice < shards.size(); indice++) {
+                String shard = shards.get(indice);
+                Configuration configuration = configurarShard(shard, indice);
+                SessionFactory factory = configuration.buildSessionFactory();
+                Metricas.registrarHibernate(factory, "refugio-" + shard);
+                crearReplicas(shard, configuration, factory);
+                factories.put(shard, factory);
+            }
+            return factories;
+        } catch (RuntimeException ex) {
             System.err.println("Initial SessionFactory creation failed." + ex);
-            throw new ExceptionInInitializerError(ex);
+            throw ex;
+        }
+    }
+
+    /**
+     * Lee los nombres de los shards declarados en {@value #PROPIEDAD_SHARDS}.
+     *
+     * @return los nombres de los shards, o solo {@value #SHARD_PRINCIPAL} si no se declaran.
+     * @throws IllegalArgumentException si se declaran más shards de los que caben en los IDs.
+     */
+    private static List<String> leerShards() {
+        String declarados = leerConfiguracion().getProperty(PROPIEDAD_SHARDS);
+        if (declarados == null || declarados.trim().isEmpty()) {
+            return Collections.singletonList(SHARD_PRINCIPAL);
+        }
+        List<String> nombres = new ArrayList<>();
+        for (String shard : declarados.split(",")) {
+            if (!shard.trim().isEmpty()) {
+                nombres.add(shard.trim());
+            }
+        }
+        if (nombres.size() > 1 << BITS_SHARD) {
+            throw new IllegalArgumentException("Demasiados shards: " + nombres.size());
         }
+        return nombres;
     }
 
     /**
-     * Proporciona la instancia única de {@link SessionFactory}.
+     * Actualiza o valida el esquema de la base de datos de cada shard, como paso aparte del arranque
+     * para poder arrancar con el perfil rápido, que no lo toca. Las réplicas no se tocan: reciben
+     * los cambios de su primario.
+     *
+     * @param soloValidar {@code true} para solo comprobar que el esquema corresponde a las entidades.
+     * @throws RuntimeException si el esquema no se puede actualizar o no es válido.
+     */
+    public static void actualizarEsquema(boolean soloValidar) {
+        List<String> nombres = leerShards();
+        for (int indice = 0; indice < nombres.size(); indice++) {
+            Configuration configuration = nombres.get(indice).equals(SHARD_PRINCIPAL) && nombres.size() == 1
+                    ? leerConfiguracion() : configurarShard(nombres.get(indice), indice);
+            configuration.setProperty("hibernate.hbm2ddl.auto", soloValidar ? "validate" : "update");
+            // Para el esquema basta con el mapeo y una conexión
+            configuration.setProperty("hibernate.temp.use_jdbc_metadata_defaults", "true");
+            configuration.setProperty("hibernate.search.enabled", "false");
+            configuration.setProperty("hibernate.cache.use_second_level_cache", "false");
+            configuration.setProperty("hibernate.cache.use_query_cache", "false");
+            configuration.setProperty("hibernate.hikari.minimumIdle", "1");
+            configuration.buildSessionFactory().close();
+        }
+    }
+
+    /**
+     * Lee {@code hibernate.cfg.xml}, le aplica el perfil de arranque y después las propiedades de sistema,
+     * que pueden sobrescribir lo que fija el perfil.
+     *
+     * @return la configuración común a todos los shards.
+     */
+    private static Configuration leerConfiguracion() {
+        Configuration configuration = new Configuration().configure();
+        String arranque = System.getProperty(PROPIEDAD_ARRANQUE, configuration.getProperty(PROPIEDAD_ARRANQUE));
+        if (ARRANQUE_RAPIDO.equalsIgnoreCase(arranque)) {
+            // El esquema se sincroniza aparte, con actualizarEsquema
+            configuration.setProperty("hibernate.hbm2ddl.auto", "none");
+            // Hibernate no abre una conexión para leer los metadatos JDBC: se fía del dialecto configurado
+            configuration.setProperty("hibernate.temp.use_jdbc_metadata_defaults", "false");
+            // El pool se crea sin esperar a la primera conexión, que se abre al usarlo
+            configuration.setProperty("hibernate.hikari.initializationFailTimeout", "-1");
+            // Hibernate Search no indexa con Jandex las clases del programa para buscar sus anotaciones
+            configuration.setProperty("hibernate.search.mapping.build_missing_discovered_jandex_indexes", "false");
+        }
+        for (String nombre : System.getProperties().stringPropertyNames()) {
+            for (String prefijo : PREFIJOS_PROPIEDADES) {
+                if (nombre.startsWith(prefijo)) {
+                    configuration.setProperty(nombre, System.getProperty(nombre));
+                }
+            }
+        }
+        return configuration;
+    }
+
+    /**
+     * Prepara la configuración de un shard: la común, sobrescrita con las propiedades propias del shard.
+     * Cada shard tiene además su propio gestor de caché (para que las consultas cacheadas de un shard no se sirvan
+     * en otro), su propio directorio de índices de texto completo y su propio nombre de pool.
+     *
+     * @param shard  el nombre del shard.
+     * @param indice el índice del shard.
+     * @return la configuración del shard.
+     */
+    private static Configuration configurarShard(String shard, int indice) {
+        Configuration configuration = leerConfiguracion();
+        configuration.setProperty(PROPIEDAD_INDICE_SHARD, String.valueOf(indice));
+        // Hibernate solo admite como URI de la caché un recurso, que sería el mismo gestor para todos los shards
+        CachingProvider proveedor = Caching.getCachingProvider(configuration.getProperty("hibernate.javax.cache.provider"));
+        configuration.getProperties().put("hibernate.javax.cache.cache_manager",
+                proveedor.getCacheManager(URI.create("refugio:" + shard), proveedor.getDefaultClassLoader()));
+        configuration.setProperty("hibernate.hikari.poolName", "refugio-" + shard);
+        String indices = configuration.getProperty("hibernate.search.backend.directory.root");
+        configuration.setProperty("hibernate.search.backend.directory.root", (indices != null ? indices : "indices") + "/" + shard);
+
+        String prefijo = PREFIJO_SHARD + shard + ".";
+        for (String nombre : configuration.getProperties().stringPropertyNames()) {
+            if (!nombre.startsWith(prefijo)) {
+                continue;
+            }
+            String propiedad = nombre.substring(prefijo.length());
+            String valor = configuration.getProperty(nombre);
+            if (propiedad.equals(CIUDADES_SHARD)) {
+                for (String ciudad : valor.split(",")) {
+                    if (!ciudad.trim().isEmpty()) {
+                        shardPorCiudad.put(normalizarCiudad(ciudad), shard);
+                    }
+                }
+            } else {
+                configuration.setProperty(propiedad, valor);
+            }
+        }
+        return configuration;
+    }
+
+    /**
+     * Crea las réplicas de lectura de un shard, si tiene, y mide su retraso antes de que empiecen a recibir lecturas.
+     * La primera réplica creada arranca además la tarea que vuelve a medir el retraso de todas periódicamente.
+     *
+     * @param shard         el nombre del shard.
+     * @param configuration la configuración del shard.
+     * @param primario      la {@link SessionFactory} del primario del shard.
+     */
+    private static void crearReplicas(String shard, Configuration configuration, SessionFactory primario) {
+        String declaradas = configuration.getProperty(PROPIEDAD_REPLICAS);
+        if (declaradas == null || declaradas.trim().isEmpty()) {
+            return;
+        }
+        long retrasoMaximo = Long.parseLong(configuration.getProperties().getProperty(RETRASO_MAXIMO_REPLICAS, "5000"));
+        long lecturaPropia = Long.parseLong(configuration.getProperties()
+                .getProperty(LECTURA_PROPIA_REPLICAS, String.valueOf(retrasoMaximo)));
+        ReplicasShard replicas = new ReplicasShard(primario, retrasoMaximo, lecturaPropia,
+                configuration.getProperties().getProperty(CONSULTA_RETRASO_REPLICAS, "SHOW REPLICA STATUS"));
+        for (String replica : declaradas.split(",")) {
+            if (!replica.trim().isEmpty()) {
+                SessionFactory factory = configurarReplica(configuration, replica.trim()).buildSessionFactory();
+                Metricas.registrarHibernate(factory, "refugio-" + replica.trim());
+                replicas.anadir(replica.trim(), factory);
+            }
+        }
+        replicas.comprobarRetrasos();
+
+        if (replicasPorShard.isEmpty()) {
+            long intervalo = Long.parseLong(configuration.getProperties().getProperty(INTERVALO_REPLICAS, "1000"));
+            ScheduledExecutorService comprobador = Executors.newSingleThreadScheduledExecutor(tarea -> {
+                Thread hilo = new Thread(tarea, "refugio-replicas");
+                hilo.setDaemon(true);
+                return hilo;
+            });
+            comprobador.scheduleWithFixedDelay(() -> replicasPorShard.values().forEach(ReplicasShard::comprobarRetrasos),
+                    intervalo, intervalo, TimeUnit.MILLISECONDS);
+        }
+        replicasPorShard.put(shard, replicas);
+    }
+
+    /**
+     * Prepara la configuración de una réplica: la de su shard, sobrescrita con las propiedades propias de la réplica.
+     * La réplica no toca el esquema, no indexa para la búsqueda de texto completo y no usa la caché de segundo nivel,
+     * salvo que sus propiedades digan lo contrario.
+     *
+     * @param primario la configuración del shard.
+     * @param replica  el nombre de la réplica.
+     * @return la configuración de la réplica.
+     */
+    private static Configuration configurarReplica(Configuration primario, String replica) {
+        Configuration configuration = new Configuration().configure();
+        Properties propiedades = new Properties();
+        propiedades.putAll(primario.getProperties());
+        propiedades.remove("hibernate.javax.cache.cache_manager");
+        configuration.addProperties(propiedades);
+        configuration.setProperty("hibernate.hbm2ddl.auto", "none");
+        configuration.setProperty("hibernate.search.enabled", "false");
+        configuration.setProperty("hibernate.cache.use_second_level_cache", "false");
+        configuration.setProperty("hibernate.cache.use_query_cache", "false");
+        configuration.setProperty("hibernate.hikari.poolName", "refugio-" + replica);
+        configuration.setProperty("hibernate.hikari.readOnly", "true");
+
+        String prefijo = PREFIJO_REPLICA + replica + ".";
+        for (String nombre : configuration.getProperties().stringPropertyNames()) {
+            if (nombre.startsWith(prefijo)) {
+                configuration.setProperty(nombre.substring(prefijo.length()), configuration.getProperty(nombre));
+            }
+        }
+        return configuration;
+    }
+
+    /**
+     * Proporciona la {@link SessionFactory} del primer shard, la única cuando no se declaran shards.
      *
      * @return la instancia de {@link SessionFactory}.
      */
     public static SessionFactory getSessionFactory() {
-        return sessionFactory;
+        return sessionFactories().get(shards.get(0));
+    }
+
+    /**
+     * Proporciona la {@link SessionFactory} de un shard.
+     *
+     * @param shard el nombre del shard.
+     * @return la {@link SessionFactory} del shard.
+     * @throws IllegalArgumentException si el shard no existe.
+     */
+    public static SessionFactory getSessionFactory(String shard) {
+        SessionFactory factory = sessionFactories().get(shard);
+        if (factory == null) {
+            throw new IllegalArgumentException("Shard desconocido: " + shard);
+        }
+        return factory;
+    }
+
+    /**
+     * Proporciona la {@link SessionFactory} en la que leer de un shard: una de sus réplicas al día o, si no tiene,
+     * ninguna está al día o el hilo acaba de escribir en el shard, la del primario.
+     *
+     * @param shard el nombre del shard.
+     * @return la {@link SessionFactory} en la que leer.
+     * @throws IllegalArgumentException si el shard no existe.
+     */
+    public static SessionFactory getReplicaSessionFactory(String shard) {
+        sessionFactories();
+        ReplicasShard replicas = replicasPorShard.get(shard);
+        if (replicas == null) {
+            return getSessionFactory(shard);
+        }
+        Map<String, Long> escrituras = lecturasPropias.get();
+        Long limite = escrituras.get(shard);
+        if (limite != null) {
+            if (System.nanoTime() - limite < 0) {
+                return replicas.getPrimario();
+            }
+            escrituras.remove(shard);
+        }
+        return replicas.elegir();
+    }
+
+    /**
+     * Anota que el hilo acaba de confirmar una escritura en un shard, para que sus lecturas de ese shard
+     * vayan al primario hasta que las réplicas hayan podido recibirla.
+     *
+     * @param shard el nombre del shard.
+     */
+    static void registrarEscritura(String shard) {
+        ReplicasShard replicas = replicasPorShard.get(shard);
+        if (replicas != null && replicas.getLecturaPropiaMillis() > 0) {
+            lecturasPropias.get().put(shard, System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(replicas.getLecturaPropiaMillis()));
+        }
+    }
+
+    /**
+     * Indica si el hilo ha escrito hace poco en algún shard con réplicas y, por tanto, lee de su primario
+     * para ver sus propios cambios.
+     *
+     * @return {@code true} si alguna lectura del hilo va al primario por una escritura reciente.
+     */
+    public static boolean isLecturaPropia() {
+        long ahora = System.nanoTime();
+        for (long limite : lecturasPropias.get().values()) {
+            if (ahora - limite < 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Proporciona los nombres de los shards, en el orden de sus índices y, por tanto, de sus IDs.
+     *
+     * @return los nombres de los shards.
+     */
+    public static List<String> getShards() {
+        sessionFactories();
+        return Collections.unmodifiableList(shards);
+    }
+
+    /**
+     * Obtiene el shard en el que se guardan las familias de una ciudad y sus animales.
+     *
+     * @param ciudad la ciudad de la familia.
+     * @return el nombre del shard.
+     */
+    public static String getShardPorCiudad(String ciudad) {
+        sessionFactories();
+        if (shards.size() == 1 || ciudad == null) {
+            return shards.get(0);
+        }
+        String ciudadNormalizada = normalizarCiudad(ciudad);
+        String shard = shardPorCiudad.get(ciudadNormalizada);
+        return shard != null ? shard : shards.get(Math.floorMod(ciudadNormalizada.hashCode(), shards.size()));
+    }
+
+    /**
+     * Obtiene el shard en el que está guardado un animal o una familia a partir de su ID.
+     *
+     * @param id el ID del animal o de la familia.
+     * @return el nombre del shard.
+     * @throws IllegalArgumentException si el ID no corresponde a ningún shard.
+     */
+    public static String getShardPorId(long id) {
+        sessionFactories();
+        int indice = (int) (id >>> BITS_SECUENCIA);
+        if (id < 0 || indice >= shards.size()) {
+            throw new IllegalArgumentException("El ID " + id + " no corresponde a ningún shard");
+        }
+        return shards.get(indice);
+    }
+
+    /**
+     * Ejecuta una consulta en todos los shards a la vez, cada uno en su propio hilo virtual, y espera los resultados.
+     * Con un único shard la consulta se ejecuta directamente en el hilo que llama.
+     *
+     * @param consulta la consulta a ejecutar, que recibe el nombre del shard.
+     * @param <T>      el tipo del resultado de la consulta.
+     * @return los resultados de cada shard, en el orden de los shards.
+     * @throws RuntimeException la excepción de la primera consulta que falla.
+     */
+    public static <T> List<T> consultarShards(Function<String, T> consulta) {
+        sessionFactories();
+        if (shards.size() == 1) {
+            return Collections.singletonList(consulta.apply(shards.get(0)));
+        }
+        try (ExecutorService ejecutor = Executors.newVirtualThreadPerTaskExecutor()) {
+            List<Future<T>> consultas = new ArrayList<>(shards.size());
+            for (String shard : shards) {
+                consultas.add(ejecutor.submit(() -> consulta.apply(shard)));
+            }
+            List<T> resultados = new ArrayList<>(shards.size());
+            for (Future<T> resultado : consultas) {
+                resultados.add(resultado.get());
+            }
+            return resultados;
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            if (e.getCause() instanceof Error) {
+                throw (Error) e.getCause();
+            }
+            throw new IllegalStateException(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Consulta interrumpida", e);
+        }
+    }
+
+    private static String normalizarCiudad(String ciudad) {
+        return ciudad.trim().toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * Abre una sesión de solo lectura en el primer shard, para consultas cuyos resultados solo se muestran.
+     *
+     * @return una sesión de solo lectura que debe cerrarse al terminar.
+     * @see #openReadOnlySession(String)
+     */
+    public static Session openReadOnlySession() {
+        return abrirSoloLectura(getSessionFactory());
+    }
+
+    /**
+     * Abre una sesión de solo lectura en un shard, para consultas cuyos resultados solo se muestran.
+     * Las entidades cargadas no guardan una copia de su estado para detectar cambios y la sesión nunca
+     * se vacía contra la base de datos, pero sigue usando la caché de segundo nivel y la de consultas.
+     *
+     * @param shard el nombre del shard.
+     * @return una sesión de solo lectura que debe cerrarse al terminar.
+     */
+    public static Session openReadOnlySession(String shard) {
+        return abrirSoloLectura(getSessionFactory(shard));
+    }
+
+    /**
+     * Abre una sesión de solo lectura en una réplica de un shard, elegida con {@link #getReplicaSessionFactory(String)},
+     * para consultas que toleran no ver las escrituras más recientes de otros hilos.
+     *
+     * @param shard el nombre del shard.
+     * @return una sesión de solo lectura que debe cerrarse al terminar.
+     * @see #openReadOnlySession(String)
+     */
+    public static Session openReplicaSession(String shard) {
+        return abrirSoloLectura(getReplicaSessionFactory(shard));
+    }
+
+    private static Session abrirSoloLectura(SessionFactory factory) {
+        Session session = factory.openSession();
+        session.setDefaultReadOnly(true);
+        session.setHibernateFlushMode(FlushMode.MANUAL);
+        return session;
+    }
+
+    /**
+     * Proporciona las métricas en vivo del pool de conexiones del primer shard.
+     *
+     * @return las métricas del pool, o {@code null} si no se usa {@link PooledConnectionProvider}.
+     */
+    public static PoolMetrics getPoolMetrics() {
+        return getPoolMetrics(getShards().get(0));
+    }
+
+    /**
+     * Proporciona las métricas en vivo del pool de conexiones del primario de un shard.
+     *
+     * @param shard el nombre del shard.
+     * @return las métricas del pool, o {@code null} si no se usa {@link PooledConnectionProvider}.
+     * @throws IllegalArgumentException si el shard no existe.
+     */
+    public static PoolMetrics getPoolMetrics(String shard) {
+        ConnectionProvider provider = getSessionFactory(shard).unwrap(SessionFactoryImplementor.class)
+                .getServiceRegistry().getService(ConnectionProvider.class);
+        if (provider == null || !provider.isUnwrappableAs(PooledConnectionProvider.class)) {
+            return null;
+        }
+        return provider.unwrap(PooledConnectionProvider.class).getMetrics();
+    }
+
+    /**
+     * Proporciona las estadísticas de cada región de la caché de segundo nivel y de consultas del primer shard:
+     * aciertos, fallos, inserciones y número de entradas en memoria.
+     *
+     * @return las estadísticas indexadas por nombre de región.
+     */
+    public static Map<String, CacheRegionStatistics> getCacheStatistics() {
+        Statistics statistics = getSessionFactory().getStatistics();
+        Map<String, CacheRegionStatistics> regiones = new TreeMap<>();
+        for (String region : statistics.getSecondLevelCacheRegionNames()) {
+            CacheRegionStatistics estadisticasRegion = statistics.getCacheRegionStatistics(region);
+            if (estadisticasRegion != null) {
+                regiones.put(region, estadisticasRegion);
+            }
+        }
+        return regiones;
     }
 }
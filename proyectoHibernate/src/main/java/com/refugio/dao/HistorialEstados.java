@@ -0,0 +1,373 @@
+package com.refugio.dao;
+
+import com.refugio.model.CambioEstado;
+import com.refugio.model.EstadoAnimal;
+import org.hibernate.Session;
+import org.hibernate.Transaction;
+
+import javax.transaction.Status;
+import javax.transaction.Synchronization;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Escritor del historial de cambios de estado de los animales ({@link CambioEstado}).
+ * {@link AnimalDAO} anota los cambios de cada transacción y, al confirmarse, los deja en una cola en memoria;
+ * un hilo aparte los escribe en la tabla {@code historial_estados} por grupos, con una sola transacción por shard
+ * para todos los cambios que han llegado durante el intervalo de escritura, de modo que el historial no añade
+ * una inserción ni una confirmación a cada cambio de estado.
+ * <p>
+ * Se configura con propiedades de Hibernate (o de sistema):
+ * {@value #INTERVALO} (milisegundos que espera un cambio a que se junten más, 200 por defecto),
+ * {@value #TAMANO_GRUPO} (cambios por transacción como mucho, 500 por defecto),
+ * {@value #CAPACIDAD} (transacciones pendientes como mucho, 10000 por defecto; con la cola llena, las escrituras
+ * esperan) y {@value #DURABILIDAD}: con {@code asincrona} (por defecto) las escrituras no esperan al historial
+ * y los cambios pendientes se pierden si el proceso muere; con {@code grupo} cada escritura espera,
+ * después de confirmarse y de cerrar su sesión, a que su grupo se haya escrito.
+ * <p>
+ * El hilo escritor arranca con el primer cambio, así que crear la clase no abre la base de datos. Al salir
+ * de la aplicación se le pide que escriba lo que quede en la cola y termine, y se le espera como mucho
+ * {@value #ESPERA_MAXIMA_SEGUNDOS} segundos; los cambios que se confirmen después se pierden.
+ */
+public class HistorialEstados {
+
+    /**
+     * Logger de los cambios del historial que no se han podido escribir.
+     */
+    private static final Logger LOG = Logger.getLogger("com.refugio.historial");
+
+    private static final String INTERVALO = "refugio.historial.intervalo_ms";
+    private static final String TAMANO_GRUPO = "refugio.historial.tamano_grupo";
+    private static final String CAPACIDAD = "refugio.historial.capacidad";
+    private static final String DURABILIDAD = "refugio.historial.durabilidad";
+
+    /**
+     * Veces que se intenta escribir un grupo antes de descartarlo.
+     */
+    private static final int MAX_INTENTOS = 3;
+
+    /**
+     * Cuánto esperan a que se escriba su grupo las escrituras con durabilidad {@link Durabilidad#GRUPO},
+     * y la aplicación al hilo escritor al salir.
+     */
+    private static final long ESPERA_MAXIMA_SEGUNDOS = 30;
+
+    /**
+     * Marca que pide al hilo escritor que termine tras escribir los grupos anteriores.
+     */
+    private static final Grupo FIN = new Grupo(List.of(), new CompletableFuture<>());
+
+    /**
+     * Garantía que se da a quien cambia el estado de un animal sobre la escritura de su historial.
+     */
+    public enum Durabilidad {
+        /**
+         * La escritura no espera al historial; los cambios pendientes se pierden si el proceso muere.
+         */
+        ASINCRONA,
+        /**
+         * La escritura espera a que su grupo de cambios esté confirmado en la base de datos.
+         */
+        GRUPO
+    }
+
+    private volatile Escritor escritor;
+
+    /**
+     * Último grupo de cambios que el hilo ha dejado en la cola, al que espera con {@link #esperar()}.
+     */
+    private final ThreadLocal<CompletableFuture<Void>> pendiente = new ThreadLocal<>();
+
+    HistorialEstados() {
+    }
+
+    /**
+     * Prepara la acumulación de los cambios de estado de una transacción, que se dejan en la cola
+     * solo si la transacción se confirma.
+     *
+     * @param session la sesión con la transacción en curso.
+     * @return los cambios de la transacción.
+     */
+    Cambios alConfirmar(Session session) {
+        Cambios cambios = new Cambios();
+        session.getTransaction().registerSynchronization(cambios);
+        return cambios;
+    }
+
+    /**
+     * Con durabilidad {@link Durabilidad#GRUPO}, espera a que se escriban los últimos cambios que ha dejado en la cola
+     * el hilo. Debe llamarse sin ninguna sesión abierta, para no retener una conexión que el hilo escritor
+     * puede necesitar.
+     */
+    void esperar() {
+        CompletableFuture<Void> escritura = pendiente.get();
+        if (escritura == null) {
+            return;
+        }
+        pendiente.remove();
+        if (getEscritor().durabilidad == Durabilidad.GRUPO) {
+            try {
+                escritura.get(ESPERA_MAXIMA_SEGUNDOS, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Espera a que se escriban todos los cambios que hay ahora en la cola, por ejemplo antes de leer el historial.
+     */
+    void vaciar() {
+        Escritor actual = escritor;
+        if (actual == null) {
+            return;
+        }
+        CompletableFuture<Void> marca = new CompletableFuture<>();
+        try {
+            actual.cola.put(new Grupo(List.of(), marca));
+            marca.get(ESPERA_MAXIMA_SEGUNDOS, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Obtiene el número de cambios en la cola, pendientes de escribir.
+     *
+     * @return los cambios pendientes.
+     */
+    public int getPendientes() {
+        Escritor actual = escritor;
+        return actual != null ? actual.pendientes() : 0;
+    }
+
+    private Escritor getEscritor() {
+        Escritor actual = escritor;
+        if (actual == null) {
+            synchronized (this) {
+                actual = escritor;
+                if (actual == null) {
+                    actual = new Escritor(HibernateUtil.getSessionFactory().getProperties());
+                    actual.start();
+                    escritor = actual;
+                }
+            }
+        }
+        return actual;
+    }
+
+    /**
+     * Cambios de estado de una transacción. Se acumulan sin sincronización, porque cada transacción
+     * pertenece a un solo hilo, y se dejan en la cola al confirmarse.
+     */
+    class Cambios implements Synchronization {
+
+        private final List<CambioEstado> cambios = new ArrayList<>();
+
+        /**
+         * Anota el cambio de estado de un animal.
+         *
+         * @param animalId el ID del animal.
+         * @param anterior el estado del que sale, o {@code null} si no se conoce.
+         * @param nuevo    el estado al que pasa.
+         */
+        void estadoCambiado(long animalId, EstadoAnimal anterior, EstadoAnimal nuevo) {
+            cambios.add(new CambioEstado(animalId, anterior, nuevo, Instant.now()));
+        }
+
+        @Override
+        public void beforeCompletion() {
+        }
+
+        @Override
+        public void afterCompletion(int status) {
+            if (status != Status.STATUS_COMMITTED || cambios.isEmpty()) {
+                return;
+            }
+            CompletableFuture<Void> escritura = new CompletableFuture<>();
+            try {
+                getEscritor().cola.put(new Grupo(cambios, escritura));
+                pendiente.set(escritura);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                LOG.severe("Se han perdido " + cambios.size() + " cambios del historial de estados");
+            }
+        }
+    }
+
+    /**
+     * Cambios de una transacción, con el aviso que se completa cuando están escritos.
+     * Un grupo sin cambios solo sirve para esperar a que se escriban los anteriores.
+     */
+    private static final class Grupo {
+
+        final List<CambioEstado> cambios;
+        final CompletableFuture<Void> escrito;
+
+        Grupo(List<CambioEstado> cambios, CompletableFuture<Void> escrito) {
+            this.cambios = cambios;
+            this.escrito = escrito;
+        }
+    }
+
+    /**
+     * Hilo que escribe los cambios de la cola.
+     */
+    private static final class Escritor extends Thread {
+
+        final BlockingQueue<Grupo> cola;
+        final Durabilidad durabilidad;
+        private final long intervaloNanos;
+        private final int tamanoGrupo;
+
+        Escritor(Map<String, Object> propiedades) {
+            super("refugio-historial");
+            setDaemon(true);
+            cola = new LinkedBlockingQueue<>(Integer.parseInt(propiedad(propiedades, CAPACIDAD, "10000")));
+            durabilidad = Durabilidad.valueOf(propiedad(propiedades, DURABILIDAD, "asincrona").toUpperCase(Locale.ROOT));
+            intervaloNanos = TimeUnit.MILLISECONDS.toNanos(Long.parseLong(propiedad(propiedades, INTERVALO, "200")));
+            tamanoGrupo = Integer.parseInt(propiedad(propiedades, TAMANO_GRUPO, "500"));
+            // Al salir de la aplicación el hilo escribe los cambios que queden en la cola y termina
+            Runtime.getRuntime().addShutdownHook(new Thread(this::terminar, "refugio-historial-cierre"));
+        }
+
+        private static String propiedad(Map<String, Object> propiedades, String nombre, String porDefecto) {
+            Object valor = propiedades.get(nombre);
+            return valor != null ? valor.toString().trim() : porDefecto;
+        }
+
+        int pendientes() {
+            int pendientes = 0;
+            for (Grupo grupo : cola) {
+                pendientes += grupo.cambios.size();
+            }
+            return pendientes;
+        }
+
+        @Override
+        public void run() {
+            boolean fin = false;
+            while (!fin) {
+                List<Grupo> grupos = new ArrayList<>();
+                try {
+                    Grupo primero = cola.take();
+                    fin = primero == FIN;
+                    if (!fin) {
+                        grupos.add(primero);
+                    }
+                    int cambios = primero.cambios.size();
+                    long limite = System.nanoTime() + intervaloNanos;
+                    while (!fin && cambios < tamanoGrupo) {
+                        Grupo siguiente = cola.poll(limite - System.nanoTime(), TimeUnit.NANOSECONDS);
+                        if (siguiente == null) {
+                            break;
+                        }
+                        fin = siguiente == FIN;
+                        if (!fin) {
+                            grupos.add(siguiente);
+                            cambios += siguiente.cambios.size();
+                        }
+                    }
+                } catch (InterruptedException e) {
+                    // El hilo es un demonio y no se interrumpe; si ocurre, se escribe lo que ya se ha sacado de la cola
+                }
+                escribir(grupos);
+            }
+        }
+
+        /**
+         * Pide al hilo que escriba los grupos que quedan en la cola y termine, y lo espera.
+         */
+        private void terminar() {
+            if (!isAlive()) {
+                return;
+            }
+            try {
+                cola.put(FIN);
+                join(TimeUnit.SECONDS.toMillis(ESPERA_MAXIMA_SEGUNDOS));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            if (isAlive()) {
+                LOG.severe("Se han perdido " + pendientes() + " cambios del historial de estados al salir");
+            }
+        }
+
+        /**
+         * Escribe los cambios de varios grupos, en una transacción por shard, y avisa a quienes esperan.
+         * Si un shard falla tras {@value #MAX_INTENTOS} intentos, sus cambios se descartan y solo los grupos
+         * con cambios en ese shard terminan con error.
+         *
+         * @param grupos los grupos a escribir.
+         */
+        private void escribir(List<Grupo> grupos) {
+            Map<String, List<CambioEstado>> porShard = new LinkedHashMap<>();
+            for (Grupo grupo : grupos) {
+                for (CambioEstado cambio : grupo.cambios) {
+                    porShard.computeIfAbsent(HibernateUtil.getShardPorId(cambio.getAnimalId()), k -> new ArrayList<>()).add(cambio);
+                }
+            }
+            Map<String, RuntimeException> fallos = new HashMap<>();
+            for (Map.Entry<String, List<CambioEstado>> shard : porShard.entrySet()) {
+                try {
+                    escribir(shard.getKey(), shard.getValue());
+                } catch (RuntimeException e) {
+                    LOG.log(Level.SEVERE, "Se han perdido " + shard.getValue().size()
+                            + " cambios del historial de estados del shard " + shard.getKey(), e);
+                    fallos.put(shard.getKey(), e);
+                }
+            }
+            for (Grupo grupo : grupos) {
+                RuntimeException fallo = null;
+                for (CambioEstado cambio : grupo.cambios) {
+                    fallo = fallos.get(HibernateUtil.getShardPorId(cambio.getAnimalId()));
+                    if (fallo != null) {
+                        break;
+                    }
+                }
+                if (fallo == null) {
+                    grupo.escrito.complete(null);
+                } else {
+                    grupo.escrito.completeExceptionally(fallo);
+                }
+            }
+        }
+
+        private static void escribir(String shard, List<CambioEstado> cambios) {
+            for (int intento = 1; ; intento++) {
+                Transaction transaction = null;
+                try (Session session = HibernateUtil.getSessionFactory(shard).openSession()) {
+                    session.setJdbcBatchSize(Math.min(cambios.size(), 1000));
+                    transaction = session.beginTransaction();
+                    // Cada intento guarda copias nuevas, porque el anterior ha dejado asignados los IDs
+                    for (CambioEstado cambio : cambios) {
+                        session.persist(new CambioEstado(cambio.getAnimalId(), cambio.getEstadoAnterior(),
+                                cambio.getEstadoNuevo(), cambio.getFecha()));
+                    }
+                    transaction.commit();
+                    return;
+                } catch (RuntimeException e) {
+                    if (transaction != null && transaction.getStatus().canRollback()) transaction.rollback();
+                    if (intento >= MAX_INTENTOS) {
+                        throw e;
+                    }
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package com.refugio.dao;
+
+import com.refugio.model.Familia;
+import org.hibernate.Session;
+
+import javax.transaction.Status;
+import javax.transaction.Synchronization;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Índice en memoria del nombre de cada familia a su ID, compartido por todos los hilos.
+ * Con el ID, Hibernate obtiene la familia de la caché de segundo nivel sin consultar la base de datos,
+ * lo que evita buscarla por nombre en cada registro de un animal.
+ */
+class IndiceFamilias {
+
+    /**
+     * IDs de las familias indexados por nombre.
+     */
+    private final ConcurrentMap<String, Long> ids = new ConcurrentHashMap<>();
+
+    /**
+     * Busca el ID de una familia por su nombre.
+     *
+     * @param nombre el nombre de la familia.
+     * @return el ID de la familia, o {@code null} si no está en el índice.
+     */
+    Long buscar(String nombre) {
+        return ids.get(nombre);
+    }
+
+    /**
+     * Añade al índice una familia que ya existe en la base de datos.
+     *
+     * @param familia la familia a indexar.
+     */
+    void registrar(Familia familia) {
+        ids.put(familia.getNombre(), familia.getId());
+    }
+
+    /**
+     * Añade al índice una familia recién creada en cuanto se confirme la transacción de la sesión,
+     * de modo que nunca se indexe una familia que luego se deshace.
+     *
+     * @param session la sesión en la que se ha creado la familia.
+     * @param familia la familia a indexar.
+     */
+    void registrarAlConfirmar(Session session, Familia familia) {
+        String nombre = familia.getNombre();
+        Long id = familia.getId();
+        session.getTransaction().registerSynchronization(new Synchronization() {
+            @Override
+            public void beforeCompletion() {
+            }
+
+            @Override
+            public void afterCompletion(int status) {
+                if (status == Status.STATUS_COMMITTED) {
+                    ids.put(nombre, id);
+                }
+            }
+        });
+    }
+
+    /**
+     * Elimina una familia del índice, por ejemplo cuando su ID ya no existe en la base de datos.
+     *
+     * @param nombre el nombre de la familia.
+     */
+    void eliminar(String nombre) {
+        ids.remove(nombre);
+    }
+}
@@ -0,0 +1,250 @@
+package com.refugio.dao;
+
+import com.sun.net.httpserver.HttpServer;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.prometheus.PrometheusConfig;
+import io.micrometer.prometheus.PrometheusMeterRegistry;
+import io.prometheus.client.exporter.common.TextFormat;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.HibernateMetrics;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Registro de métricas de la aplicación, exportables en el formato de texto de Prometheus.
+ * Incluye la duración de cada operación de los DAO (con histograma para calcular percentiles),
+ * la duración de cada sentencia SQL, la de cada petición a la API HTTP, la del arranque, el estado del pool de conexiones, el retraso de las réplicas, los conflictos de versión
+ * y sus reintentos, las lecturas juntadas con otras iguales y las estadísticas de Hibernate: consultas, cargas de entidades, flushes
+ * y aciertos y fallos de la caché.
+ */
+public final class Metricas {
+
+    /**
+     * Nombre de la métrica con la duración de las operaciones de los DAO.
+     */
+    private static final String OPERACIONES_DAO = "refugio.dao";
+
+    /**
+     * Registro en el que se guardan todas las métricas.
+     */
+    private static final PrometheusMeterRegistry registro = new PrometheusMeterRegistry(PrometheusConfig.DEFAULT);
+
+    /**
+     * Temporizadores de las operaciones de los DAO, indexados por nombre de operación.
+     */
+    private static final ConcurrentMap<String, Timer> temporizadores = new ConcurrentHashMap<>();
+
+    /**
+     * Temporizadores de las peticiones a la API HTTP, indexados por método, ruta y código de estado.
+     */
+    private static final ConcurrentMap<String, Timer> peticiones = new ConcurrentHashMap<>();
+
+    private Metricas() {
+    }
+
+    /**
+     * Proporciona el registro de métricas, por ejemplo para añadir métricas propias.
+     *
+     * @return el registro de métricas.
+     */
+    public static PrometheusMeterRegistry getRegistro() {
+        return registro;
+    }
+
+    /**
+     * Ejecuta una operación de un DAO midiendo su duración.
+     *
+     * @param operacion el nombre de la operación (por ejemplo {@code AnimalDAO.findByEspecie}).
+     * @param accion    la operación a ejecutar.
+     * @param <T>       el tipo del resultado.
+     * @return el resultado de la operación.
+     */
+    public static <T> T medir(String operacion, Supplier<T> accion) {
+        return temporizador(operacion).record(accion);
+    }
+
+    /**
+     * Ejecuta una operación de un DAO que no devuelve resultado midiendo su duración.
+     *
+     * @param operacion el nombre de la operación.
+     * @param accion    la operación a ejecutar.
+     */
+    public static void medir(String operacion, Runnable accion) {
+        temporizador(operacion).record(accion);
+    }
+
+    /**
+     * Obtiene el temporizador de una operación, creándolo la primera vez.
+     *
+     * @param operacion el nombre de la operación.
+     * @return el temporizador de la operación.
+     */
+    private static Timer temporizador(String operacion) {
+        Timer temporizador = temporizadores.get(operacion);
+        if (temporizador == null) {
+            temporizador = temporizadores.computeIfAbsent(operacion, nombre -> Timer.builder(OPERACIONES_DAO)
+                    .description("Duración de las operaciones de los DAO")
+                    .tag("operacion", nombre)
+                    .publishPercentileHistogram()
+                    .register(registro));
+        }
+        return temporizador;
+    }
+
+    /**
+     * Cuenta un conflicto de versión (bloqueo optimista) en una operación.
+     *
+     * @param operacion el nombre de la operación.
+     */
+    public static void registrarConflicto(String operacion) {
+        contador("refugio.conflictos", "Conflictos de versión en las escrituras", operacion).increment();
+    }
+
+    /**
+     * Cuenta un reintento de una operación tras un conflicto de versión.
+     *
+     * @param operacion el nombre de la operación.
+     */
+    public static void registrarReintento(String operacion) {
+        contador("refugio.reintentos", "Reintentos de las escrituras tras un conflicto de versión", operacion).increment();
+    }
+
+    /**
+     * Cuenta una lectura que se ha juntado con otra igual en curso en lugar de consultar la base de datos.
+     *
+     * @param operacion el nombre de la operación.
+     */
+    public static void registrarConsultaCompartida(String operacion) {
+        contador("refugio.consultas.compartidas", "Lecturas servidas por otra igual en curso", operacion).increment();
+    }
+
+    private static Counter contador(String nombre, String descripcion, String operacion) {
+        return Counter.builder(nombre)
+                .description(descripcion)
+                .tag("operacion", operacion)
+                .register(registro);
+    }
+
+    /**
+     * Publica las estadísticas de Hibernate de la {@link SessionFactory} indicada.
+     *
+     * @param sessionFactory la {@link SessionFactory} con las estadísticas activadas.
+     * @param nombre         el nombre con el que se distinguen sus métricas de las de otros shards.
+     */
+    static void registrarHibernate(SessionFactory sessionFactory, String nombre) {
+        new HibernateMetrics(sessionFactory, nombre, Tags.empty()).bindTo(registro);
+    }
+
+    /**
+     * Publica el estado del pool de conexiones, con su nombre en la etiqueta {@code pool}.
+     *
+     * @param nombre el nombre del pool.
+     * @param pool   las métricas del pool.
+     */
+    static void registrarPool(String nombre, PoolMetrics pool) {
+        Tags tags = Tags.of("pool", nombre);
+        Gauge.builder("refugio.pool.conexiones.activas", pool, PoolMetrics::getConexionesActivas).tags(tags).register(registro);
+        Gauge.builder("refugio.pool.conexiones.inactivas", pool, PoolMetrics::getConexionesInactivas).tags(tags).register(registro);
+        Gauge.builder("refugio.pool.conexiones.maximas", pool, PoolMetrics::getConexionesMaximas).tags(tags).register(registro);
+        Gauge.builder("refugio.pool.hilos.espera", pool, PoolMetrics::getHilosEnEspera).tags(tags).register(registro);
+        Gauge.builder("refugio.pool.adquisicion.media", pool, PoolMetrics::getLatenciaMediaAdquisicionMillis)
+                .baseUnit("milliseconds").tags(tags).register(registro);
+        FunctionCounter.builder("refugio.pool.adquisiciones", pool, PoolMetrics::getAdquisiciones).tags(tags).register(registro);
+        FunctionCounter.builder("refugio.pool.timeouts", pool, PoolMetrics::getTimeouts).tags(tags).register(registro);
+    }
+
+    /**
+     * Publica el retraso de una réplica de lectura, con su nombre en la etiqueta {@code replica}.
+     *
+     * @param nombre  el nombre de la réplica.
+     * @param retraso el último retraso medido, en milisegundos, o -1 si la réplica no está disponible.
+     */
+    static void registrarReplica(String nombre, Supplier<Number> retraso) {
+        Gauge.builder("refugio.replica.retraso", retraso)
+                .description("Retraso de la réplica respecto al primario (-1 si no está disponible)")
+                .baseUnit("milliseconds").tag("replica", nombre).register(registro);
+    }
+
+    /**
+     * Registra la duración de una petición a la API HTTP, con su ruta, su método y el código de estado
+     * de la respuesta en las etiquetas {@code ruta}, {@code metodo} y {@code estado}.
+     *
+     * @param ruta   la plantilla de la ruta (por ejemplo {@code /animales/{id}/estado}), no la ruta pedida,
+     *               para que no haya una serie por cada ID.
+     * @param metodo el método HTTP.
+     * @param estado el código de estado de la respuesta.
+     * @param nanos  la duración de la petición en nanosegundos.
+     */
+    public static void registrarPeticion(String ruta, String metodo, int estado, long nanos) {
+        String clave = metodo + " " + ruta + " " + estado;
+        Timer temporizador = peticiones.get(clave);
+        if (temporizador == null) {
+            temporizador = peticiones.computeIfAbsent(clave, k -> Timer.builder("refugio.http.peticiones")
+                    .description("Duración de las peticiones a la API HTTP")
+                    .tag("ruta", ruta)
+                    .tag("metodo", metodo)
+                    .tag("estado", String.valueOf(estado))
+                    .publishPercentileHistogram()
+                    .register(registro));
+        }
+        temporizador.record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Registra cuánto ha tardado una fase del arranque, con su nombre en la etiqueta {@code fase}
+     * (por ejemplo {@code hibernate} para la construcción de las {@link SessionFactory}).
+     *
+     * @param fase  el nombre de la fase.
+     * @param nanos la duración de la fase en nanosegundos.
+     */
+    public static void registrarArranque(String fase, long nanos) {
+        Timer.builder("refugio.arranque")
+                .description("Duración de las fases del arranque")
+                .tag("fase", fase)
+                .register(registro)
+                .record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Exporta todas las métricas en el formato de texto de Prometheus.
+     *
+     * @return las métricas en formato Prometheus.
+     */
+    public static String exportar() {
+        return registro.scrape();
+    }
+
+    /**
+     * Arranca un servidor HTTP que publica las métricas en {@code /metrics} para que Prometheus las recoja.
+     *
+     * @param puerto el puerto en el que escucha el servidor.
+     * @return el servidor arrancado.
+     * @throws IOException si no se puede abrir el puerto.
+     */
+    public static HttpServer iniciarServidor(int puerto) throws IOException {
+        HttpServer servidor = HttpServer.create(new InetSocketAddress(puerto), 0);
+        servidor.createContext("/metrics", intercambio -> {
+            byte[] cuerpo = exportar().getBytes(StandardCharsets.UTF_8);
+            intercambio.getResponseHeaders().set("Content-Type", TextFormat.CONTENT_TYPE_004);
+            intercambio.sendResponseHeaders(200, cuerpo.length);
+            try (OutputStream salida = intercambio.getResponseBody()) {
+                salida.write(cuerpo);
+            }
+        });
+        servidor.setExecutor(Executors.newVirtualThreadPerTaskExecutor());
+        servidor.start();
+        return servidor;
+    }
+}
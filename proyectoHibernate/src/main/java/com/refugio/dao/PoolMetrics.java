@@ -0,0 +1,175 @@
+package com.refugio.dao;
+
+import com.zaxxer.hikari.HikariPoolMXBean;
+import com.zaxxer.hikari.metrics.IMetricsTracker;
+import com.zaxxer.hikari.metrics.MetricsTrackerFactory;
+import com.zaxxer.hikari.metrics.PoolStats;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Métricas en vivo del pool de conexiones.
+ * Recoge la latencia de adquisición de conexiones y los timeouts notificados por HikariCP,
+ * y consulta el estado actual del pool (activas, inactivas, en espera) a través de su MXBean.
+ */
+public class PoolMetrics implements MetricsTrackerFactory {
+
+    /**
+     * Número de conexiones entregadas por el pool.
+     */
+    private final LongAdder adquisiciones = new LongAdder();
+
+    /**
+     * Tiempo total, en nanosegundos, que los hilos han esperado para obtener una conexión.
+     */
+    private final LongAdder nanosAdquisicion = new LongAdder();
+
+    /**
+     * Mayor tiempo de espera observado, en nanosegundos.
+     */
+    private final LongAccumulator maxNanosAdquisicion = new LongAccumulator(Long::max, 0);
+
+    /**
+     * Número de peticiones que agotaron el tiempo de espera sin obtener conexión.
+     */
+    private final LongAdder timeouts = new LongAdder();
+
+    /**
+     * Tamaño máximo configurado para el pool.
+     */
+    private final int conexionesMaximas;
+
+    /**
+     * MXBean del pool, disponible una vez arrancado.
+     */
+    private volatile HikariPoolMXBean pool;
+
+    /**
+     * Crea las métricas para un pool con el tamaño máximo indicado.
+     *
+     * @param conexionesMaximas el tamaño máximo del pool.
+     */
+    public PoolMetrics(int conexionesMaximas) {
+        this.conexionesMaximas = conexionesMaximas;
+    }
+
+    /**
+     * Asocia las métricas al pool ya arrancado para poder consultar su estado en vivo.
+     *
+     * @param pool el MXBean del pool.
+     */
+    void vincular(HikariPoolMXBean pool) {
+        this.pool = pool;
+    }
+
+    /**
+     * Crea el receptor de eventos que HikariCP invoca en cada adquisición de conexión.
+     *
+     * @param poolName  el nombre del pool.
+     * @param poolStats estadísticas del pool (no utilizadas, se consulta el MXBean).
+     * @return el receptor de eventos.
+     */
+    @Override
+    public IMetricsTracker create(String poolName, PoolStats poolStats) {
+        return new IMetricsTracker() {
+            @Override
+            public void recordConnectionAcquiredNanos(long elapsedAcquiredNanos) {
+                adquisiciones.increment();
+                nanosAdquisicion.add(elapsedAcquiredNanos);
+                maxNanosAdquisicion.accumulate(elapsedAcquiredNanos);
+            }
+
+            @Override
+            public void recordConnectionTimeout() {
+                timeouts.increment();
+            }
+        };
+    }
+
+    /**
+     * Obtiene el número de conexiones prestadas en este momento.
+     *
+     * @return las conexiones activas.
+     */
+    public int getConexionesActivas() {
+        HikariPoolMXBean actual = pool;
+        return actual != null ? actual.getActiveConnections() : 0;
+    }
+
+    /**
+     * Obtiene el número de conexiones abiertas y disponibles en el pool.
+     *
+     * @return las conexiones inactivas.
+     */
+    public int getConexionesInactivas() {
+        HikariPoolMXBean actual = pool;
+        return actual != null ? actual.getIdleConnections() : 0;
+    }
+
+    /**
+     * Obtiene el número de hilos esperando a que quede libre una conexión.
+     *
+     * @return los hilos en espera.
+     */
+    public int getHilosEnEspera() {
+        HikariPoolMXBean actual = pool;
+        return actual != null ? actual.getThreadsAwaitingConnection() : 0;
+    }
+
+    /**
+     * Obtiene el tamaño máximo configurado para el pool.
+     *
+     * @return el número máximo de conexiones.
+     */
+    public int getConexionesMaximas() {
+        return conexionesMaximas;
+    }
+
+    /**
+     * Obtiene el número de conexiones entregadas desde el arranque.
+     *
+     * @return el número de adquisiciones.
+     */
+    public long getAdquisiciones() {
+        return adquisiciones.sum();
+    }
+
+    /**
+     * Obtiene el número de peticiones que no obtuvieron conexión a tiempo.
+     *
+     * @return el número de timeouts.
+     */
+    public long getTimeouts() {
+        return timeouts.sum();
+    }
+
+    /**
+     * Obtiene la latencia media de adquisición de conexiones.
+     *
+     * @return la latencia media en milisegundos.
+     */
+    public double getLatenciaMediaAdquisicionMillis() {
+        long total = adquisiciones.sum();
+        return total == 0 ? 0.0 : nanosAdquisicion.sum() / (double) total / TimeUnit.MILLISECONDS.toNanos(1);
+    }
+
+    /**
+     * Obtiene la mayor latencia de adquisición observada.
+     *
+     * @return la latencia máxima en milisegundos.
+     */
+    public double getLatenciaMaximaAdquisicionMillis() {
+        return maxNanosAdquisicion.get() / (double) TimeUnit.MILLISECONDS.toNanos(1);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("activas=%d, inactivas=%d, en espera=%d, máximo=%d, adquisiciones=%d, timeouts=%d, "
+                        + "latencia media=%.3f ms, latencia máxima=%.3f ms",
+                getConexionesActivas(), getConexionesInactivas(), getHilosEnEspera(), conexionesMaximas,
+                getAdquisiciones(), getTimeouts(), getLatenciaMediaAdquisicionMillis(),
+                getLatenciaMaximaAdquisicionMillis());
+    }
+}
@@ -0,0 +1,156 @@
+package com.refugio.dao;
+
+import com.zaxxer.hikari.HikariConfig;
+import com.zaxxer.hikari.HikariDataSource;
+import net.ttddyy.dsproxy.support.ProxyDataSourceBuilder;
+import org.hibernate.cfg.AvailableSettings;
+import org.hibernate.engine.jdbc.connections.spi.ConnectionProvider;
+import org.hibernate.internal.util.config.ConfigurationHelper;
+import org.hibernate.service.UnknownUnwrapTypeException;
+import org.hibernate.service.spi.Configurable;
+import org.hibernate.service.spi.Stoppable;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Map;
+import java.util.Properties;
+import javax.sql.DataSource;
+
+/**
+ * Proveedor de conexiones de Hibernate respaldado por un pool HikariCP.
+ * Sustituye al pool interno de Hibernate, pensado solo para pruebas, por un pool con tamaño mínimo y máximo,
+ * tiempo máximo de espera, detección de fugas y métricas en vivo.
+ *
+ * <p>Los datos de conexión se leen de las propiedades {@code hibernate.connection.*} y la configuración del pool
+ * de las propiedades {@code hibernate.hikari.*} (por ejemplo {@code hibernate.hikari.maximumPoolSize}),
+ * que pueden fijarse en {@code hibernate.cfg.xml} o como propiedades de sistema.</p>
+ *
+ * <p>Las conexiones se entregan envueltas por {@link RegistroConsultas}, que mide cada sentencia y registra las que
+ * tardan más de {@code refugio.umbral_consulta_lenta_ms} milisegundos (200 por defecto).
+ * Con un umbral negativo las conexiones se entregan sin envolver.</p>
+ */
+public class PooledConnectionProvider implements ConnectionProvider, Configurable, Stoppable {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Prefijo de las propiedades que se trasladan a la configuración de HikariCP.
+     */
+    private static final String PREFIJO_HIKARI = "hibernate.hikari.";
+
+    /**
+     * Propiedad con la duración, en milisegundos, a partir de la cual una sentencia se registra como lenta.
+     */
+    private static final String UMBRAL_CONSULTA_LENTA = "refugio.umbral_consulta_lenta_ms";
+
+    /**
+     * Pool de conexiones.
+     */
+    private transient HikariDataSource dataSource;
+
+    /**
+     * Origen de las conexiones entregadas a Hibernate: el pool, envuelto o no por el registro de consultas.
+     */
+    private transient DataSource conexiones;
+
+    /**
+     * Métricas del pool.
+     */
+    private transient PoolMetrics metrics;
+
+    /**
+     * Configura y arranca el pool a partir de las propiedades de Hibernate.
+     *
+     * @param configurationValues las propiedades de configuración de Hibernate.
+     */
+    @Override
+    @SuppressWarnings("rawtypes")
+    public void configure(Map configurationValues) {
+        Map<?, ?> valores = configurationValues;
+        Properties propiedadesPool = new Properties();
+        for (Map.Entry<?, ?> valor : valores.entrySet()) {
+            String nombre = valor.getKey().toString();
+            if (nombre.startsWith(PREFIJO_HIKARI)) {
+                propiedadesPool.setProperty(nombre.substring(PREFIJO_HIKARI.length()), valor.getValue().toString());
+            }
+        }
+
+        HikariConfig config = new HikariConfig(propiedadesPool);
+        config.setJdbcUrl(ConfigurationHelper.getString(AvailableSettings.URL, valores));
+        config.setUsername(ConfigurationHelper.getString(AvailableSettings.USER, valores));
+        config.setPassword(ConfigurationHelper.getString(AvailableSettings.PASS, valores, ""));
+        String driver = ConfigurationHelper.getString(AvailableSettings.DRIVER, valores);
+        if (driver != null) {
+            config.setDriverClassName(driver);
+        }
+        config.setAutoCommit(ConfigurationHelper.getBoolean(AvailableSettings.AUTOCOMMIT, valores));
+        if (config.getPoolName() == null) {
+            config.setPoolName("refugio");
+        }
+
+        metrics = new PoolMetrics(config.getMaximumPoolSize());
+        config.setMetricsTrackerFactory(metrics);
+        dataSource = new HikariDataSource(config);
+        metrics.vincular(dataSource.getHikariPoolMXBean());
+        Metricas.registrarPool(config.getPoolName(), metrics);
+
+        long umbral = ConfigurationHelper.getLong(UMBRAL_CONSULTA_LENTA, valores, 200);
+        conexiones = umbral < 0 ? dataSource : ProxyDataSourceBuilder.create("refugio", dataSource)
+                .listener(new RegistroConsultas(umbral))
+                .build();
+    }
+
+    /**
+     * Obtiene las métricas en vivo del pool.
+     *
+     * @return las métricas del pool.
+     */
+    public PoolMetrics getMetrics() {
+        return metrics;
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        return conexiones.getConnection();
+    }
+
+    @Override
+    public void closeConnection(Connection conn) throws SQLException {
+        conn.close();
+    }
+
+    @Override
+    public boolean supportsAggressiveRelease() {
+        return false;
+    }
+
+    @Override
+    @SuppressWarnings("rawtypes")
+    public boolean isUnwrappableAs(Class unwrapType) {
+        Class<?> tipo = unwrapType;
+        return tipo.isAssignableFrom(getClass())
+                || tipo.isAssignableFrom(HikariDataSource.class);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> T unwrap(Class<T> unwrapType) {
+        if (unwrapType.isAssignableFrom(getClass())) {
+            return (T) this;
+        }
+        if (unwrapType.isAssignableFrom(HikariDataSource.class)) {
+            return (T) dataSource;
+        }
+        throw new UnknownUnwrapTypeException(unwrapType);
+    }
+
+    /**
+     * Cierra el pool y todas sus conexiones.
+     */
+    @Override
+    public void stop() {
+        if (dataSource != null) {
+            dataSource.close();
+        }
+    }
+}
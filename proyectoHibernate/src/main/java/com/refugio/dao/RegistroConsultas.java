@@ -0,0 +1,76 @@
+package com.refugio.dao;
+
+import io.micrometer.core.instrument.Timer;
+import net.ttddyy.dsproxy.ExecutionInfo;
+import net.ttddyy.dsproxy.QueryInfo;
+import net.ttddyy.dsproxy.listener.QueryExecutionListener;
+import net.ttddyy.dsproxy.listener.logging.DefaultQueryLogEntryCreator;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+/**
+ * Mide la duración de cada sentencia SQL y registra, con sus parámetros, las que superan un umbral.
+ * Sustituye a {@code hibernate.show_sql}: en lugar de imprimir todas las sentencias, solo deja constancia
+ * de las lentas, en el logger {@code com.refugio.consultas_lentas} con nivel {@code WARNING}.
+ */
+class RegistroConsultas implements QueryExecutionListener {
+
+    /**
+     * Logger de las consultas lentas.
+     */
+    private static final Logger LOG = Logger.getLogger("com.refugio.consultas_lentas");
+
+    /**
+     * Duración, en milisegundos, a partir de la cual una sentencia se considera lenta.
+     */
+    private final long umbralMillis;
+
+    /**
+     * Duración de las sentencias que terminan correctamente.
+     */
+    private final Timer correctas;
+
+    /**
+     * Duración de las sentencias que terminan con error.
+     */
+    private final Timer fallidas;
+
+    /**
+     * Formato del registro de cada sentencia lenta.
+     */
+    private final DefaultQueryLogEntryCreator formato = new DefaultQueryLogEntryCreator();
+
+    /**
+     * Crea el registro con el umbral indicado.
+     *
+     * @param umbralMillis la duración mínima, en milisegundos, de las sentencias que se registran.
+     */
+    RegistroConsultas(long umbralMillis) {
+        this.umbralMillis = umbralMillis;
+        this.correctas = temporizador("correcta");
+        this.fallidas = temporizador("error");
+    }
+
+    private static Timer temporizador(String resultado) {
+        return Timer.builder("refugio.sql")
+                .description("Duración de las sentencias SQL")
+                .tag("resultado", resultado)
+                .publishPercentileHistogram()
+                .register(Metricas.getRegistro());
+    }
+
+    @Override
+    public void beforeQuery(ExecutionInfo ejecucion, List<QueryInfo> consultas) {
+    }
+
+    @Override
+    public void afterQuery(ExecutionInfo ejecucion, List<QueryInfo> consultas) {
+        long duracion = ejecucion.getElapsedTime();
+        (ejecucion.isSuccess() ? correctas : fallidas).record(duracion, TimeUnit.MILLISECONDS);
+        if (duracion >= umbralMillis) {
+            LOG.warning(formato.getLogEntry(ejecucion, consultas, false, true, false));
+        }
+    }
+}
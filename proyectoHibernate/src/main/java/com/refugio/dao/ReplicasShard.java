@@ -0,0 +1,178 @@
+package com.refugio.dao;
+
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Réplicas de lectura de un shard. Las lecturas se reparten por turnos entre las réplicas disponibles;
+ * una réplica deja de recibirlas mientras no responde o va más retrasada que el máximo permitido,
+ * y si no queda ninguna se lee del primario. El retraso de cada réplica se mide periódicamente
+ * con {@link #comprobarRetrasos()}.
+ */
+final class ReplicasShard {
+
+    /**
+     * Columnas con el retraso, en segundos, en la respuesta de {@code SHOW REPLICA STATUS} (MySQL 8.0.22 o posterior)
+     * y de {@code SHOW SLAVE STATUS} (versiones anteriores).
+     */
+    private static final String[] COLUMNAS_RETRASO = {"Seconds_Behind_Source", "Seconds_Behind_Master"};
+
+    private final SessionFactory primario;
+    private final List<Replica> replicas = new ArrayList<>();
+
+    /**
+     * Retraso máximo, en milisegundos, con el que una réplica sigue recibiendo lecturas.
+     */
+    private final long retrasoMaximoMillis;
+
+    /**
+     * Tiempo, en milisegundos, durante el que un hilo lee del primario el shard en el que acaba de escribir.
+     */
+    private final long lecturaPropiaMillis;
+
+    /**
+     * Consulta que devuelve el retraso de una réplica en segundos.
+     */
+    private final String consultaRetraso;
+
+    private final AtomicInteger turno = new AtomicInteger();
+
+    /**
+     * Crea las réplicas de un shard, sin réplicas todavía.
+     *
+     * @param primario            la {@link SessionFactory} del primario del shard.
+     * @param retrasoMaximoMillis el retraso máximo con el que una réplica sigue recibiendo lecturas.
+     * @param lecturaPropiaMillis el tiempo durante el que un hilo lee del primario tras escribir en el shard.
+     * @param consultaRetraso     la consulta que devuelve el retraso de una réplica en segundos.
+     */
+    ReplicasShard(SessionFactory primario, long retrasoMaximoMillis, long lecturaPropiaMillis, String consultaRetraso) {
+        this.primario = primario;
+        this.retrasoMaximoMillis = retrasoMaximoMillis;
+        this.lecturaPropiaMillis = lecturaPropiaMillis;
+        this.consultaRetraso = consultaRetraso;
+    }
+
+    /**
+     * Añade una réplica, que empieza a recibir lecturas cuando se ha medido su retraso.
+     *
+     * @param nombre  el nombre de la réplica.
+     * @param factory la {@link SessionFactory} de la réplica.
+     */
+    void anadir(String nombre, SessionFactory factory) {
+        Replica replica = new Replica(nombre, factory);
+        replicas.add(replica);
+        Metricas.registrarReplica(nombre, () -> replica.retrasoMillis);
+    }
+
+    SessionFactory getPrimario() {
+        return primario;
+    }
+
+    long getLecturaPropiaMillis() {
+        return lecturaPropiaMillis;
+    }
+
+    /**
+     * Elige dónde leer: la siguiente réplica por turno que esté al día o, si ninguna lo está, el primario.
+     *
+     * @return la {@link SessionFactory} en la que leer.
+     */
+    SessionFactory elegir() {
+        int total = replicas.size();
+        int inicio = Math.floorMod(turno.getAndIncrement(), total);
+        for (int i = 0; i < total; i++) {
+            Replica replica = replicas.get((inicio + i) % total);
+            long retraso = replica.retrasoMillis;
+            if (retraso >= 0 && retraso <= retrasoMaximoMillis) {
+                return replica.factory;
+            }
+        }
+        return primario;
+    }
+
+    /**
+     * Mide el retraso de cada réplica. Las que no responden quedan sin lecturas hasta la siguiente comprobación.
+     */
+    void comprobarRetrasos() {
+        for (Replica replica : replicas) {
+            try {
+                replica.retrasoMillis = medirRetraso(replica.factory);
+                replica.caida = false;
+            } catch (RuntimeException e) {
+                replica.retrasoMillis = -1;
+                if (!replica.caida) {
+                    // Solo se avisa al caer, no en cada comprobación
+                    Throwable causa = e;
+                    while (causa.getCause() != null) {
+                        causa = causa.getCause();
+                    }
+                    System.err.println("La réplica " + replica.nombre + " no responde: " + causa.getMessage());
+                    replica.caida = true;
+                }
+            }
+        }
+    }
+
+    /**
+     * Mide el retraso de una réplica. Si la consulta no devuelve filas el servidor no está replicando
+     * de ningún otro y se considera al día.
+     *
+     * @param factory la {@link SessionFactory} de la réplica.
+     * @return el retraso en milisegundos, o -1 si la replicación está parada.
+     */
+    private long medirRetraso(SessionFactory factory) {
+        try (Session session = factory.openSession()) {
+            return session.doReturningWork(conexion -> {
+                try (Statement sentencia = conexion.createStatement();
+                     ResultSet resultado = sentencia.executeQuery(consultaRetraso)) {
+                    if (!resultado.next()) {
+                        return 0L;
+                    }
+                    long segundos = resultado.getLong(columnaRetraso(resultado.getMetaData()));
+                    // Sin valor, la replicación está parada
+                    return resultado.wasNull() ? -1L : segundos * 1000;
+                }
+            });
+        }
+    }
+
+    private static int columnaRetraso(ResultSetMetaData columnas) throws SQLException {
+        for (int i = 1; i <= columnas.getColumnCount(); i++) {
+            for (String nombre : COLUMNAS_RETRASO) {
+                if (nombre.equalsIgnoreCase(columnas.getColumnLabel(i))) {
+                    return i;
+                }
+            }
+        }
+        return 1;
+    }
+
+    private static final class Replica {
+
+        final String nombre;
+        final SessionFactory factory;
+
+        /**
+         * Último retraso medido, en milisegundos, o -1 si la réplica no está disponible o aún no se ha medido.
+         */
+        volatile long retrasoMillis = -1;
+
+        /**
+         * Indica si la última medición falló. Solo lo usa el hilo que mide los retrasos.
+         */
+        boolean caida;
+
+        Replica(String nombre, SessionFactory factory) {
+            this.nombre = nombre;
+            this.factory = factory;
+        }
+    }
+}
@@ -1,10 +1,32 @@
 package com.refugio.main;
 
+import com.refugio.api.ServidorApi;
+import com.refugio.dao.HibernateUtil;
+import com.refugio.dao.Metricas;
 import com.refugio.model.Animal;
+import com.refugio.model.AnimalResumen;
+import com.refugio.model.CambioEstado;
+import com.refugio.model.ErrorImportacion;
+import com.refugio.model.EstadoAnimal;
+import com.refugio.model.ResultadoBusqueda;
+import com.refugio.model.ResultadoImportacion;
 import com.refugio.service.AnimalService;
+import com.refugio.service.EstadisticasService;
+import com.refugio.service.ExportacionService;
+import com.refugio.service.FormatoExportacion;
+import com.refugio.service.ImportacionService;
 
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
 import java.util.List;
+import java.util.Map;
 import java.util.Scanner;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Clase principal que ejecuta el programa del refugio de animales.
@@ -14,21 +36,71 @@ public class App {
 
     /**
      * Método principal que inicia el programa y gestiona la interacción con el usuario.
+     * Si se indica la propiedad de sistema {@code refugio.metricas.puerto}, las métricas se publican
+     * en ese puerto para Prometheus mientras el programa está en marcha.
+     * <p>
+     * Hibernate arranca en segundo plano mientras se muestra el menú, y solo se espera a que termine
+     * al usar la base de datos por primera vez; el programa informa de cuánto han tardado el menú y la base de datos.
+     * Con el argumento {@code --actualizar-esquema} o {@code --validar-esquema} el programa solo actualiza o valida
+     * el esquema y termina, el paso previo a arrancar con el perfil rápido ({@code -Drefugio.arranque=rapido}).
+     * Si se indica la propiedad de sistema {@code refugio.api.puerto}, en lugar del menú se sirve en ese puerto
+     * la API HTTP ({@link ServidorApi}), con el tiempo máximo por petición de {@code refugio.api.timeout_ms}
+     * (10 segundos por defecto), hasta que se detiene el proceso.
      *
-     * @param args argumentos pasados desde la línea de comandos (no utilizados en este programa).
+     * @param args {@code --actualizar-esquema} o {@code --validar-esquema}, o ninguno para el menú.
      */
     public static void main(String[] args) {
+        if (args.length > 0) {
+            prepararEsquema(args[0]);
+            return;
+        }
+        long inicio = System.nanoTime();
+        HibernateUtil.iniciarEnSegundoPlano();
+
+        HttpServer servidorMetricas = null;
+        String puertoMetricas = System.getProperty("refugio.metricas.puerto");
+        if (puertoMetricas != null) {
+            try {
+                servidorMetricas = Metricas.iniciarServidor(Integer.parseInt(puertoMetricas));
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+
+        String puertoApi = System.getProperty("refugio.api.puerto");
+        if (puertoApi != null) {
+            servirApi(Integer.parseInt(puertoApi), servidorMetricas);
+            return;
+        }
+
         AnimalService animalService = new AnimalService();
+        EstadisticasService estadisticasService = new EstadisticasService();
+        estadisticasService.iniciar();
         Scanner scanner = new Scanner(System.in);
         int opcion;
 
+        long arranqueMenu = System.nanoTime() - inicio;
+        Metricas.registrarArranque("menu", arranqueMenu);
+        System.out.println("Menú listo en " + TimeUnit.NANOSECONDS.toMillis(arranqueMenu) + " ms");
+        boolean baseDatosAvisada = false;
+
         do {
+            if (!baseDatosAvisada && HibernateUtil.isIniciado()) {
+                System.out.println("Base de datos lista en " + HibernateUtil.getDuracionArranqueMillis() + " ms");
+                baseDatosAvisada = true;
+            }
             System.out.println("\n=== MENÚ REFUGIO DE ANIMALES ===");
             System.out.println("1. Registrar nuevo animal");
             System.out.println("2. Buscar animales por especie");
             System.out.println("3. Actualizar estado de un animal");
             System.out.println("4. Actualizar familia de un animal");
             System.out.println("5. Ver todos los animales");
+            System.out.println("6. Buscar animales por nombre o descripción");
+            System.out.println("7. Reconstruir el índice de búsqueda");
+            System.out.println("8. Ver estadísticas del refugio");
+            System.out.println("9. Exportar animales y familias");
+            System.out.println("10. Importar animales desde un fichero CSV");
+            System.out.println("11. Ver historial de estados de un animal");
             System.out.println("0. Salir");
             System.out.print("Seleccione una opción: ");
 
@@ -50,6 +122,26 @@ public class App {
                 case 5:
                     mostrarTodosLosAnimales(animalService);
                     break;
+                case 6:
+                    buscarPorTexto(scanner, animalService);
+                    break;
+                case 7:
+                    System.out.println("Reconstruyendo el índice de búsqueda...");
+                    animalService.reconstruirIndiceBusqueda();
+                    System.out.println("Índice reconstruido.");
+                    break;
+                case 8:
+                    mostrarEstadisticas(estadisticasService);
+                    break;
+                case 9:
+                    exportarDatos(scanner);
+                    break;
+                case 10:
+                    importarAnimales(scanner);
+                    break;
+                case 11:
+                    mostrarHistorialEstados(scanner, animalService);
+                    break;
                 case 0:
                     System.out.println("¡Hasta luego!");
                     break;
@@ -59,6 +151,62 @@ public class App {
         } while (opcion != 0);
 
         scanner.close();
+        estadisticasService.close();
+        if (servidorMetricas != null) {
+            servidorMetricas.stop(0);
+        }
+    }
+
+    /**
+     * Arranca la API HTTP y la deja atendiendo peticiones en su propio hilo hasta que se detiene el proceso,
+     * momento en el que se cierran la API y el servidor de métricas.
+     *
+     * @param puerto           el puerto de la API.
+     * @param servidorMetricas el servidor de métricas, o {@code null} si no se ha arrancado.
+     */
+    private static void servirApi(int puerto, HttpServer servidorMetricas) {
+        Duration timeout = Duration.ofMillis(Long.getLong("refugio.api.timeout_ms", 10000));
+        try {
+            ServidorApi api = new ServidorApi(puerto, timeout);
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                api.close();
+                if (servidorMetricas != null) {
+                    servidorMetricas.stop(0);
+                }
+            }, "refugio-api-cierre"));
+            System.out.println("API escuchando en el puerto " + api.getPuerto());
+        } catch (IOException e) {
+            e.printStackTrace();
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Actualiza o valida el esquema de la base de datos, según el argumento, e informa de cuánto ha tardado.
+     * Si el esquema no es válido o no se puede actualizar, el programa termina con código 1.
+     *
+     * @param argumento {@code --actualizar-esquema} o {@code --validar-esquema}.
+     */
+    private static void prepararEsquema(String argumento) {
+        boolean soloValidar;
+        if (argumento.equals("--actualizar-esquema")) {
+            soloValidar = false;
+        } else if (argumento.equals("--validar-esquema")) {
+            soloValidar = true;
+        } else {
+            System.err.println("Argumento no válido: " + argumento + " (use --actualizar-esquema o --validar-esquema)");
+            System.exit(2);
+            return;
+        }
+        long inicio = System.nanoTime();
+        try {
+            HibernateUtil.actualizarEsquema(soloValidar);
+            System.out.println((soloValidar ? "Esquema válido" : "Esquema actualizado") + " en "
+                    + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - inicio) + " ms");
+        } catch (RuntimeException e) {
+            e.printStackTrace();
+            System.exit(1);
+        }
     }
 
     /**
@@ -93,10 +241,13 @@ public class App {
         animal.setEspecie(especie);
         animal.setEdad(edad);
         animal.setDescripcion(descripcion);
-        animal.setEstado("recién abandonado");
+        animal.setEstado(EstadoAnimal.RECIEN_ABANDONADO);
 
-        animalService.registrarAnimal(animal, nombreFamilia, edadFamilia, ciudadFamilia);
-        System.out.println("Animal registrado correctamente.");
+        if (animalService.registrarAnimal(animal, nombreFamilia, edadFamilia, ciudadFamilia)) {
+            System.out.println("Animal registrado correctamente.");
+        } else {
+            System.out.println("No se ha podido registrar el animal.");
+        }
     }
 
     /**
@@ -108,13 +259,13 @@ public class App {
     private static void buscarPorEspecie(Scanner scanner, AnimalService animalService) {
         System.out.print("\nIngrese la especie a buscar: ");
         String especieBuscar = scanner.nextLine();
-        List<Animal> animales = animalService.buscarPorEspecie(especieBuscar);
+        List<AnimalResumen> animales = animalService.buscarResumenPorEspecie(especieBuscar);
 
         if (animales.isEmpty()) {
             System.out.println("No se encontraron animales de esta especie.");
         } else {
             System.out.println("\nAnimales encontrados:");
-            for (Animal animal : animales) {
+            for (AnimalResumen animal : animales) {
                 System.out.println("ID: " + animal.getId() +
                         ", Nombre: " + animal.getNombre() +
                         ", Edad: " + animal.getEdad() +
@@ -123,6 +274,50 @@ public class App {
         }
     }
 
+    /**
+     * Busca animales por palabras de su nombre o su descripción y muestra los resultados página a página,
+     * del más al menos relevante.
+     *
+     * @param scanner       la instancia de Scanner para leer la entrada del usuario.
+     * @param animalService el servicio que gestiona las operaciones de animales.
+     */
+    private static void buscarPorTexto(Scanner scanner, AnimalService animalService) {
+        System.out.print("\nIngrese el texto a buscar: ");
+        String texto = scanner.nextLine();
+
+        try {
+            int pagina = 1;
+            while (true) {
+                ResultadoBusqueda resultado = animalService.buscarTexto(texto, pagina);
+                if (resultado.getTotal() == 0) {
+                    System.out.println("No se encontraron animales.");
+                    return;
+                }
+
+                System.out.println("\nAnimales encontrados: " + resultado.getTotal() +
+                        " (página " + pagina + " de " + resultado.getTotalPaginas() + ")");
+                for (Animal animal : resultado.getAnimales()) {
+                    System.out.println("ID: " + animal.getId() +
+                            ", Nombre: " + animal.getNombre() +
+                            ", Especie: " + animal.getEspecie() +
+                            ", Estado: " + animal.getEstado() +
+                            ", Descripción: " + animal.getDescripcion());
+                }
+
+                if (pagina >= resultado.getTotalPaginas()) {
+                    return;
+                }
+                System.out.print("Pulse Intro para ver la siguiente página o escriba 0 para volver: ");
+                if (scanner.nextLine().trim().equals("0")) {
+                    return;
+                }
+                pagina++;
+            }
+        } catch (IllegalArgumentException e) {
+            System.out.println(e.getMessage());
+        }
+    }
+
     /**
      * Actualiza el estado de un animal en el sistema.
      *
@@ -132,11 +327,37 @@ public class App {
     private static void actualizarEstadoAnimal(Scanner scanner, AnimalService animalService) {
         System.out.print("\nIngrese el ID del animal: ");
         Long id = Long.parseLong(scanner.nextLine());
-        System.out.print("Ingrese el nuevo estado: ");
-        String nuevoEstado = scanner.nextLine();
+        for (EstadoAnimal estado : EstadoAnimal.values()) {
+            System.out.println(estado.getCodigo() + ". " + estado.getDescripcion());
+        }
+        System.out.print("Seleccione el nuevo estado: ");
 
-        animalService.actualizarEstado(id, nuevoEstado);
-        System.out.println("Estado actualizado correctamente.");
+        try {
+            EstadoAnimal nuevoEstado = EstadoAnimal.desdeCodigo(Integer.parseInt(scanner.nextLine()));
+            animalService.actualizarEstado(id, nuevoEstado);
+            System.out.println("Estado actualizado correctamente.");
+        } catch (IllegalArgumentException | IllegalStateException e) {
+            System.out.println(e.getMessage());
+        }
+    }
+
+    /**
+     * Muestra los cambios de estado de un animal, del más antiguo al más reciente.
+     *
+     * @param scanner       la instancia de Scanner para leer la entrada del usuario.
+     * @param animalService el servicio que gestiona las operaciones de animales.
+     */
+    private static void mostrarHistorialEstados(Scanner scanner, AnimalService animalService) {
+        System.out.print("\nIngrese el ID del animal: ");
+        Long id = Long.parseLong(scanner.nextLine());
+
+        List<CambioEstado> historial = animalService.obtenerHistorialEstados(id);
+        if (historial.isEmpty()) {
+            System.out.println("El animal no tiene cambios de estado.");
+        }
+        for (CambioEstado cambio : historial) {
+            System.out.println(cambio);
+        }
     }
 
     /**
@@ -155,8 +376,95 @@ public class App {
         System.out.print("Ingrese la ciudad de la familia: ");
         String ciudadFamilia = scanner.nextLine();
 
-        animalService.actualizarFamilia(id, nombreFamilia, edadFamilia, ciudadFamilia);
-        System.out.println("Familia actualizada correctamente.");
+        try {
+            animalService.actualizarFamilia(id, nombreFamilia, edadFamilia, ciudadFamilia);
+            System.out.println("Familia actualizada correctamente.");
+        } catch (IllegalArgumentException | IllegalStateException e) {
+            System.out.println(e.getMessage());
+        }
+    }
+
+    /**
+     * Muestra el número de animales del refugio por estado, por especie y por ciudad de acogida.
+     * Los totales salen de los contadores en memoria, sin consultar la base de datos.
+     *
+     * @param estadisticasService el servicio que proporciona los totales.
+     */
+    private static void mostrarEstadisticas(EstadisticasService estadisticasService) {
+        System.out.println("\n=== ESTADÍSTICAS DEL REFUGIO ===");
+        System.out.println("Total de animales: " + estadisticasService.obtenerTotal());
+
+        System.out.println("\nPor estado:");
+        for (Map.Entry<EstadoAnimal, Long> total : estadisticasService.obtenerPorEstado().entrySet()) {
+            System.out.println("  " + total.getKey() + ": " + total.getValue());
+        }
+        System.out.println("\nPor especie:");
+        for (Map.Entry<String, Long> total : estadisticasService.obtenerPorEspecie().entrySet()) {
+            System.out.println("  " + total.getKey() + ": " + total.getValue());
+        }
+        System.out.println("\nPor ciudad de acogida:");
+        for (Map.Entry<String, Long> total : estadisticasService.obtenerPorCiudad().entrySet()) {
+            System.out.println("  " + total.getKey() + ": " + total.getValue());
+        }
+    }
+
+    /**
+     * Exporta los animales y las familias a dos ficheros en el directorio indicado por el usuario.
+     *
+     * @param scanner el objeto Scanner para leer la entrada del usuario.
+     */
+    private static void exportarDatos(Scanner scanner) {
+        System.out.print("Formato (csv o json): ");
+        String respuesta = scanner.nextLine().trim();
+        FormatoExportacion formato = null;
+        for (FormatoExportacion f : FormatoExportacion.values()) {
+            if (f.getExtension().equalsIgnoreCase(respuesta)) {
+                formato = f;
+            }
+        }
+        if (formato == null) {
+            System.out.println("Formato no válido.");
+            return;
+        }
+        System.out.print("Directorio de destino: ");
+        Path directorio = Paths.get(scanner.nextLine().trim());
+        System.out.print("¿Comprimir con gzip? (s/n): ");
+        String sufijo = scanner.nextLine().trim().equalsIgnoreCase("s") ? ".gz" : "";
+
+        ExportacionService exportacionService = new ExportacionService();
+        try {
+            long animales = exportacionService.exportarAnimales(
+                    directorio.resolve("animales." + formato.getExtension() + sufijo), formato);
+            long familias = exportacionService.exportarFamilias(
+                    directorio.resolve("familias." + formato.getExtension() + sufijo), formato);
+            System.out.println("Exportados " + animales + " animales y " + familias + " familias.");
+        } catch (IOException e) {
+            System.out.println("No se ha podido exportar: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Importa los animales de un fichero CSV y muestra el resumen y las filas rechazadas.
+     *
+     * @param scanner el objeto Scanner para leer la entrada del usuario.
+     */
+    private static void importarAnimales(Scanner scanner) {
+        System.out.println("Columnas: " + String.join(",", ImportacionService.COLUMNAS));
+        System.out.print("Fichero CSV: ");
+        Path fichero = Paths.get(scanner.nextLine().trim());
+
+        try {
+            ResultadoImportacion resultado = new ImportacionService().importar(fichero);
+            for (ErrorImportacion error : resultado.getErrores()) {
+                System.out.println(error);
+            }
+            if (resultado.getTotalErrores() > resultado.getErrores().size()) {
+                System.out.println("... y " + (resultado.getTotalErrores() - resultado.getErrores().size()) + " errores más");
+            }
+            System.out.println(resultado);
+        } catch (IOException | IllegalArgumentException e) {
+            System.out.println("No se ha podido importar: " + e.getMessage());
+        }
     }
 
     /**
@@ -165,19 +473,22 @@ public class App {
      * @param animalService el servicio que gestiona las operaciones de animales.
      */
     private static void mostrarTodosLosAnimales(AnimalService animalService) {
-        List<Animal> animales = animalService.obtenerTodosLosAnimales();
+        AtomicLong mostrados = new AtomicLong();
 
-        if (animales.isEmpty()) {
-            System.out.println("\nNo hay animales registrados.");
-        } else {
-            System.out.println("\n=== LISTA DE TODOS LOS ANIMALES ===");
-            for (Animal animal : animales) {
-                System.out.println("ID: " + animal.getId() +
-                        ", Nombre: " + animal.getNombre() +
-                        ", Especie: " + animal.getEspecie() +
-                        ", Edad: " + animal.getEdad() +
-                        ", Estado: " + animal.getEstado());
+        // Los animales se imprimen según se leen, sin esperar a tener la tabla completa
+        animalService.recorrerResumenAnimales(animal -> {
+            if (mostrados.getAndIncrement() == 0) {
+                System.out.println("\n=== LISTA DE TODOS LOS ANIMALES ===");
             }
+            System.out.println("ID: " + animal.getId() +
+                    ", Nombre: " + animal.getNombre() +
+                    ", Especie: " + animal.getEspecie() +
+                    ", Edad: " + animal.getEdad() +
+                    ", Estado: " + animal.getEstado());
+        });
+
+        if (mostrados.get() == 0) {
+            System.out.println("\nNo hay animales registrados.");
         }
     }
 }
@@ -1,28 +1,58 @@
 package com.refugio.model;
 
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
+import org.hibernate.annotations.DynamicUpdate;
+import org.hibernate.annotations.GenericGenerator;
+import org.hibernate.annotations.Parameter;
+import org.hibernate.search.mapper.pojo.mapping.definition.annotation.FullTextField;
+import org.hibernate.search.mapper.pojo.mapping.definition.annotation.Indexed;
+
 import javax.persistence.*;
 
 /**
  * Representa un animal registrado en el refugio.
  * Contiene información básica como nombre, especie, edad, descripción y estado.
  * Además, tiene una relación con la familia que lo acoge.
+ * Se guarda en la región "animales" de la caché de segundo nivel.
+ * Las actualizaciones solo escriben las columnas modificadas y fallan si otra transacción
+ * ha modificado el animal desde que se leyó (bloqueo optimista por versión).
+ * Su nombre y su descripción se indexan en el índice de texto completo "animales", que Hibernate Search
+ * actualiza al confirmar cada transacción que guarda o modifica un animal a través de la sesión.
  */
 @Entity
-@Table(name = "animales")
+@Table(name = "animales", indexes = {
+        @Index(name = "idx_animales_estado", columnList = "estado_codigo"),
+        @Index(name = "idx_animales_especie_estado", columnList = "especie, estado_codigo"),
+        @Index(name = "idx_animales_especie_id", columnList = "especie, id")
+})
+@Cacheable
+@Cache(usage = CacheConcurrencyStrategy.READ_WRITE, region = "animales")
+@DynamicUpdate
+@Indexed(index = "animales")
 public class Animal {
 
     /**
      * ID único del animal.
-     * Generado automáticamente por la base de datos.
+     * Generado mediante una secuencia con optimizador pooled, que reserva bloques de IDs
+     * para que Hibernate pueda agrupar las inserciones en lotes JDBC.
+     * Sus bits altos indican el shard en el que está guardado (véase {@link com.refugio.dao.HibernateUtil}).
      */
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "animales_seq")
+    @GenericGenerator(name = "animales_seq", strategy = "com.refugio.dao.GeneradorIdShard", parameters = {
+            @Parameter(name = "sequence_name", value = "animales_seq"),
+            @Parameter(name = "increment_size", value = "50"),
+            @Parameter(name = "optimizer", value = "pooled")
+    })
     private Long id;
 
     /**
      * Nombre del animal.
      * No puede ser nulo.
+     * Se indexa para la búsqueda de texto completo con el analizador "espanol".
      */
+    @FullTextField(analyzer = "espanol")
     @Column(nullable = false)
     private String nombre;
 
@@ -43,26 +73,39 @@ public class Animal {
     /**
      * Descripción del animal (e.g., comportamiento o características).
      * Longitud máxima de 500 caracteres.
+     * Se indexa para la búsqueda de texto completo con el analizador "espanol".
      */
+    @FullTextField(analyzer = "espanol")
     @Column(length = 500)
     private String descripcion;
 
     /**
-     * Estado actual del animal (e.g., "recién abandonado", "adoptado").
+     * Estado actual del animal (e.g., recién abandonado, adoptado).
+     * Se guarda como un código numérico de un byte en la columna indexada "estado_codigo".
      * No puede ser nulo.
      */
-    @Column(nullable = false)
-    private String estado;
+    @Convert(converter = EstadoAnimalConverter.class)
+    @Column(name = "estado_codigo", nullable = false)
+    private EstadoAnimal estado;
 
     /**
      * Familia que acoge al animal.
-     * Relación de muchos a uno con la tabla "familias".
+     * Relación de muchos a uno con la tabla "familias", cargada de forma perezosa:
+     * las consultas que necesiten la familia deben traerla con {@code JOIN FETCH}.
      * No puede ser nulo.
      */
-    @ManyToOne
+    @ManyToOne(fetch = FetchType.LAZY)
     @JoinColumn(name = "familia_id", nullable = false)
     private Familia familia;
 
+    /**
+     * Versión del animal, que Hibernate incrementa en cada actualización.
+     * Una actualización basada en una versión anterior falla con {@link OptimisticLockException}.
+     */
+    @Version
+    @Column(nullable = false)
+    private long version;
+
     // Getters y Setters
 
     /**
@@ -160,7 +203,7 @@ public class Animal {
      *
      * @return el estado del animal.
      */
-    public String getEstado() {
+    public EstadoAnimal getEstado() {
         return estado;
     }
 
@@ -169,7 +212,7 @@ public class Animal {
      *
      * @param estado el nuevo estado del animal.
      */
-    public void setEstado(String estado) {
+    public void setEstado(EstadoAnimal estado) {
         this.estado = estado;
     }
 
@@ -190,4 +233,13 @@ public class Animal {
     public void setFamilia(Familia familia) {
         this.familia = familia;
     }
+
+    /**
+     * Obtiene la versión del animal. Solo la modifica Hibernate.
+     *
+     * @return la versión del animal.
+     */
+    public long getVersion() {
+        return version;
+    }
 }
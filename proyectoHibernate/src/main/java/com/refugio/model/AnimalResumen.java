@@ -0,0 +1,95 @@
+package com.refugio.model;
+
+/**
+ * Vista reducida de un animal con los datos que se muestran en los listados.
+ * Se obtiene con una consulta de proyección, sin cargar la entidad {@link Animal} ni su familia.
+ */
+public class AnimalResumen {
+
+    /**
+     * ID único del animal.
+     */
+    private final Long id;
+
+    /**
+     * Nombre del animal.
+     */
+    private final String nombre;
+
+    /**
+     * Especie del animal.
+     */
+    private final String especie;
+
+    /**
+     * Edad del animal en años.
+     */
+    private final int edad;
+
+    /**
+     * Estado actual del animal.
+     */
+    private final EstadoAnimal estado;
+
+    /**
+     * Crea el resumen de un animal. Lo invocan las consultas HQL con {@code SELECT new}.
+     *
+     * @param id      el ID del animal.
+     * @param nombre  el nombre del animal.
+     * @param especie la especie del animal.
+     * @param edad    la edad del animal.
+     * @param estado  el estado actual del animal.
+     */
+    public AnimalResumen(Long id, String nombre, String especie, int edad, EstadoAnimal estado) {
+        this.id = id;
+        this.nombre = nombre;
+        this.especie = especie;
+        this.edad = edad;
+        this.estado = estado;
+    }
+
+    /**
+     * Obtiene el ID único del animal.
+     *
+     * @return el ID del animal.
+     */
+    public Long getId() {
+        return id;
+    }
+
+    /**
+     * Obtiene el nombre del animal.
+     *
+     * @return el nombre del animal.
+     */
+    public String getNombre() {
+        return nombre;
+    }
+
+    /**
+     * Obtiene la especie del animal.
+     *
+     * @return la especie del animal.
+     */
+    public String getEspecie() {
+        return especie;
+    }
+
+    /**
+     * Obtiene la edad del animal en años.
+     *
+     * @return la edad del animal.
+     */
+    public int getEdad() {
+        return edad;
+    }
+
+    /**
+     * Obtiene el estado actual del animal.
+     *
+     * @return el estado del animal.
+     */
+    public EstadoAnimal getEstado() {
+        return estado;
+    }
+}
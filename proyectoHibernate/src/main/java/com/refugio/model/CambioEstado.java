@@ -0,0 +1,134 @@
+package com.refugio.model;
+
+import org.hibernate.annotations.GenericGenerator;
+import org.hibernate.annotations.Immutable;
+import org.hibernate.annotations.Parameter;
+
+import javax.persistence.*;
+import java.time.Instant;
+
+/**
+ * Representa un cambio de estado de un animal en el historial de su ciclo de vida.
+ * Los cambios solo se añaden, nunca se modifican, y se guardan en el mismo shard que el animal.
+ * No se relacionan con {@link Animal} para que guardarlos no obligue a cargar el animal.
+ */
+@Entity
+@Immutable
+@Table(name = "historial_estados", indexes = @Index(name = "idx_historial_animal_fecha", columnList = "animal_id, fecha"))
+public class CambioEstado {
+
+    /**
+     * ID único del cambio.
+     * Generado mediante una secuencia con optimizador pooled, como los de los animales,
+     * para que los cambios se inserten en lotes JDBC.
+     */
+    @Id
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "historial_estados_seq")
+    @GenericGenerator(name = "historial_estados_seq", strategy = "com.refugio.dao.GeneradorIdShard", parameters = {
+            @Parameter(name = "sequence_name", value = "historial_estados_seq"),
+            @Parameter(name = "increment_size", value = "50"),
+            @Parameter(name = "optimizer", value = "pooled")
+    })
+    private Long id;
+
+    /**
+     * ID del animal que ha cambiado de estado.
+     */
+    @Column(name = "animal_id", nullable = false)
+    private long animalId;
+
+    /**
+     * Estado del que sale el animal, guardado como su código numérico.
+     * Es nulo si no se conoce.
+     */
+    @Convert(converter = EstadoAnimalConverter.class)
+    @Column(name = "estado_anterior_codigo")
+    private EstadoAnimal estadoAnterior;
+
+    /**
+     * Estado al que pasa el animal, guardado como su código numérico.
+     * No puede ser nulo.
+     */
+    @Convert(converter = EstadoAnimalConverter.class)
+    @Column(name = "estado_nuevo_codigo", nullable = false)
+    private EstadoAnimal estadoNuevo;
+
+    /**
+     * Momento en el que se hizo el cambio.
+     * No puede ser nulo.
+     */
+    @Column(nullable = false)
+    private Instant fecha;
+
+    /**
+     * Constructor para Hibernate.
+     */
+    protected CambioEstado() {
+    }
+
+    /**
+     * Crea un cambio de estado.
+     *
+     * @param animalId       el ID del animal.
+     * @param estadoAnterior el estado del que sale el animal, o {@code null} si no se conoce.
+     * @param estadoNuevo    el estado al que pasa el animal.
+     * @param fecha          el momento en el que se hizo el cambio.
+     */
+    public CambioEstado(long animalId, EstadoAnimal estadoAnterior, EstadoAnimal estadoNuevo, Instant fecha) {
+        this.animalId = animalId;
+        this.estadoAnterior = estadoAnterior;
+        this.estadoNuevo = estadoNuevo;
+        this.fecha = fecha;
+    }
+
+    /**
+     * Obtiene el ID único del cambio.
+     *
+     * @return el ID del cambio.
+     */
+    public Long getId() {
+        return id;
+    }
+
+    /**
+     * Obtiene el ID del animal que ha cambiado de estado.
+     *
+     * @return el ID del animal.
+     */
+    public long getAnimalId() {
+        return animalId;
+    }
+
+    /**
+     * Obtiene el estado del que sale el animal.
+     *
+     * @return el estado anterior, o {@code null} si no se conoce.
+     */
+    public EstadoAnimal getEstadoAnterior() {
+        return estadoAnterior;
+    }
+
+    /**
+     * Obtiene el estado al que pasa el animal.
+     *
+     * @return el nuevo estado.
+     */
+    public EstadoAnimal getEstadoNuevo() {
+        return estadoNuevo;
+    }
+
+    /**
+     * Obtiene el momento en el que se hizo el cambio.
+     *
+     * @return la fecha del cambio.
+     */
+    public Instant getFecha() {
+        return fecha;
+    }
+
+    @Override
+    public String toString() {
+        return fecha + ": " + (estadoAnterior != null ? estadoAnterior.getDescripcion() + " -> " : "")
+                + estadoNuevo.getDescripcion();
+    }
+}
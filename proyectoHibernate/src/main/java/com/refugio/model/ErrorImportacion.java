@@ -0,0 +1,51 @@
+package com.refugio.model;
+
+/**
+ * Fila de un fichero de importación que no se ha podido registrar, con el motivo.
+ */
+public class ErrorImportacion {
+
+    /**
+     * Número de la línea del fichero en la que empieza la fila, contando desde 1.
+     */
+    private final long linea;
+
+    /**
+     * Motivo por el que no se ha registrado la fila.
+     */
+    private final String mensaje;
+
+    /**
+     * Crea el error de una fila.
+     *
+     * @param linea   el número de la línea en la que empieza la fila.
+     * @param mensaje el motivo por el que no se ha registrado la fila.
+     */
+    public ErrorImportacion(long linea, String mensaje) {
+        this.linea = linea;
+        this.mensaje = mensaje;
+    }
+
+    /**
+     * Obtiene el número de la línea del fichero en la que empieza la fila.
+     *
+     * @return el número de la línea, contando desde 1.
+     */
+    public long getLinea() {
+        return linea;
+    }
+
+    /**
+     * Obtiene el motivo por el que no se ha registrado la fila.
+     *
+     * @return el mensaje de error.
+     */
+    public String getMensaje() {
+        return mensaje;
+    }
+
+    @Override
+    public String toString() {
+        return "Línea " + linea + ": " + mensaje;
+    }
+}
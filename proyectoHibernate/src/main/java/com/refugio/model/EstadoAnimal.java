@@ -0,0 +1,142 @@
+package com.refugio.model;
+
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Estados por los que pasa un animal desde que llega al refugio.
+ * Cada estado se guarda en la base de datos con un código numérico de un byte
+ * y solo puede cambiar a los estados permitidos por {@link #puedeCambiarA(EstadoAnimal)}.
+ */
+public enum EstadoAnimal {
+
+    /**
+     * El animal acaba de llegar al refugio.
+     */
+    RECIEN_ABANDONADO(1, "recién abandonado"),
+
+    /**
+     * El animal está recibiendo tratamiento veterinario.
+     */
+    EN_TRATAMIENTO(2, "en tratamiento"),
+
+    /**
+     * El animal ya ha recibido sus vacunas.
+     */
+    VACUNADO(3, "vacunado"),
+
+    /**
+     * El animal vive temporalmente con una familia de acogida.
+     */
+    ACOGIDA(4, "acogida"),
+
+    /**
+     * El animal ha sido adoptado.
+     */
+    ADOPTADO(5, "adoptado");
+
+    /**
+     * Estados a los que puede pasar cada estado.
+     */
+    private static final Map<EstadoAnimal, Set<EstadoAnimal>> TRANSICIONES = new EnumMap<>(EstadoAnimal.class);
+
+    static {
+        TRANSICIONES.put(RECIEN_ABANDONADO, EnumSet.of(EN_TRATAMIENTO, VACUNADO, ACOGIDA));
+        TRANSICIONES.put(EN_TRATAMIENTO, EnumSet.of(VACUNADO, ACOGIDA));
+        TRANSICIONES.put(VACUNADO, EnumSet.of(EN_TRATAMIENTO, ACOGIDA, ADOPTADO));
+        // Una familia de acogida o de adopción puede devolver el animal al refugio
+        TRANSICIONES.put(ACOGIDA, EnumSet.of(RECIEN_ABANDONADO, EN_TRATAMIENTO, VACUNADO, ADOPTADO));
+        TRANSICIONES.put(ADOPTADO, EnumSet.of(RECIEN_ABANDONADO));
+    }
+
+    /**
+     * Código con el que se guarda el estado en la columna {@code estado_codigo}.
+     */
+    private final byte codigo;
+
+    /**
+     * Descripción del estado que se muestra al usuario.
+     */
+    private final String descripcion;
+
+    EstadoAnimal(int codigo, String descripcion) {
+        this.codigo = (byte) codigo;
+        this.descripcion = descripcion;
+    }
+
+    /**
+     * Obtiene el código con el que se guarda el estado en la base de datos.
+     *
+     * @return el código del estado.
+     */
+    public byte getCodigo() {
+        return codigo;
+    }
+
+    /**
+     * Obtiene la descripción del estado.
+     *
+     * @return la descripción del estado.
+     */
+    public String getDescripcion() {
+        return descripcion;
+    }
+
+    /**
+     * Indica si un animal en este estado puede pasar al estado indicado.
+     *
+     * @param nuevoEstado el estado al que se quiere cambiar.
+     * @return {@code true} si la transición está permitida.
+     */
+    public boolean puedeCambiarA(EstadoAnimal nuevoEstado) {
+        return TRANSICIONES.get(this).contains(nuevoEstado);
+    }
+
+    /**
+     * Obtiene los estados a los que puede pasar un animal en este estado.
+     *
+     * @return los estados siguientes permitidos.
+     */
+    public Set<EstadoAnimal> getEstadosSiguientes() {
+        return Collections.unmodifiableSet(TRANSICIONES.get(this));
+    }
+
+    /**
+     * Obtiene los estados desde los que un animal puede pasar a este estado.
+     *
+     * @return los estados de origen permitidos.
+     */
+    public Set<EstadoAnimal> getEstadosOrigen() {
+        Set<EstadoAnimal> origenes = EnumSet.noneOf(EstadoAnimal.class);
+        for (Map.Entry<EstadoAnimal, Set<EstadoAnimal>> transicion : TRANSICIONES.entrySet()) {
+            if (transicion.getValue().contains(this)) {
+                origenes.add(transicion.getKey());
+            }
+        }
+        return origenes;
+    }
+
+    /**
+     * Obtiene el estado correspondiente a un código de la base de datos.
+     *
+     * @param codigo el código del estado.
+     * @return el estado con ese código.
+     * @throws IllegalArgumentException si ningún estado tiene ese código.
+     */
+    public static EstadoAnimal desdeCodigo(int codigo) {
+        for (EstadoAnimal estado : values()) {
+            if (estado.codigo == codigo) {
+                return estado;
+            }
+        }
+        throw new IllegalArgumentException("Código de estado desconocido: " + codigo);
+    }
+
+    @Override
+    public String toString() {
+        return descripcion;
+    }
+}
@@ -0,0 +1,21 @@
+package com.refugio.model;
+
+import javax.persistence.AttributeConverter;
+import javax.persistence.Converter;
+
+/**
+ * Convierte un {@link EstadoAnimal} en el código numérico que se guarda en la columna {@code estado_codigo}, y viceversa.
+ */
+@Converter
+public class EstadoAnimalConverter implements AttributeConverter<EstadoAnimal, Byte> {
+
+    @Override
+    public Byte convertToDatabaseColumn(EstadoAnimal estado) {
+        return estado != null ? estado.getCodigo() : null;
+    }
+
+    @Override
+    public EstadoAnimal convertToEntityAttribute(Byte codigo) {
+        return codigo != null ? EstadoAnimal.desdeCodigo(codigo) : null;
+    }
+}
@@ -1,5 +1,13 @@
 package com.refugio.model;
 
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
+import org.hibernate.annotations.DynamicUpdate;
+import org.hibernate.annotations.GenericGenerator;
+import org.hibernate.annotations.NaturalId;
+import org.hibernate.annotations.NaturalIdCache;
+import org.hibernate.annotations.Parameter;
+
 import javax.persistence.*;
 import java.util.List;
 
@@ -7,23 +15,40 @@ import java.util.List;
  * Representa una familia que acoge animales en el refugio.
  * Contiene información básica de la familia, como nombre, edad del responsable y ciudad.
  * También tiene una relación con los animales acogidos por esta familia.
+ * Se guarda en la región "familias" de la caché de segundo nivel, y la resolución de su nombre a su ID
+ * en la región "familiasPorNombre".
+ * Las actualizaciones solo escriben las columnas modificadas y fallan si otra transacción
+ * ha modificado la familia desde que se leyó (bloqueo optimista por versión).
  */
 @Entity
-@Table(name = "familias")
+@Table(name = "familias", uniqueConstraints = @UniqueConstraint(name = "uk_familias_nombre", columnNames = "nombre"))
+@Cacheable
+@Cache(usage = CacheConcurrencyStrategy.READ_WRITE, region = "familias")
+@NaturalIdCache(region = "familiasPorNombre")
+@DynamicUpdate
 public class Familia {
 
     /**
      * ID único de la familia.
-     * Generado automáticamente por la base de datos.
+     * Generado mediante una secuencia con optimizador pooled, que reserva bloques de IDs
+     * para que Hibernate pueda agrupar las inserciones en lotes JDBC.
+     * Sus bits altos indican el shard en el que está guardado (véase {@link com.refugio.dao.HibernateUtil}).
      */
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "familias_seq")
+    @GenericGenerator(name = "familias_seq", strategy = "com.refugio.dao.GeneradorIdShard", parameters = {
+            @Parameter(name = "sequence_name", value = "familias_seq"),
+            @Parameter(name = "increment_size", value = "50"),
+            @Parameter(name = "optimizer", value = "pooled")
+    })
     private Long id;
 
     /**
      * Nombre del responsable de la familia.
+     * Identifica a la familia de forma natural: es único y no cambia una vez creada.
      * No puede ser nulo.
      */
+    @NaturalId
     @Column(nullable = false)
     private String nombre;
 
@@ -48,6 +73,14 @@ public class Familia {
     @OneToMany(mappedBy = "familia", cascade = CascadeType.ALL)
     private List<Animal> animales;
 
+    /**
+     * Versión de la familia, que Hibernate incrementa en cada actualización.
+     * Una actualización basada en una versión anterior falla con {@link OptimisticLockException}.
+     */
+    @Version
+    @Column(nullable = false)
+    private long version;
+
     // Getters y Setters
 
     /**
@@ -139,4 +172,13 @@ public class Familia {
     public void setAnimales(List<Animal> animales) {
         this.animales = animales;
     }
+
+    /**
+     * Obtiene la versión de la familia. Solo la modifica Hibernate.
+     *
+     * @return la versión de la familia.
+     */
+    public long getVersion() {
+        return version;
+    }
 }
@@ -0,0 +1,89 @@
+package com.refugio.model;
+
+import java.util.List;
+
+/**
+ * Página de resultados de una búsqueda de texto completo, con los animales ordenados por relevancia.
+ */
+public class ResultadoBusqueda {
+
+    /**
+     * Animales de la página, del más al menos relevante.
+     */
+    private final List<Animal> animales;
+
+    /**
+     * Número total de animales que coinciden con la búsqueda, en todas las páginas.
+     */
+    private final long total;
+
+    /**
+     * Número de la página, empezando por 1.
+     */
+    private final int pagina;
+
+    /**
+     * Número máximo de animales por página.
+     */
+    private final int tamanoPagina;
+
+    /**
+     * Crea una página de resultados.
+     *
+     * @param animales     los animales de la página, del más al menos relevante.
+     * @param total        el número total de animales que coinciden con la búsqueda.
+     * @param pagina       el número de la página, empezando por 1.
+     * @param tamanoPagina el número máximo de animales por página.
+     */
+    public ResultadoBusqueda(List<Animal> animales, long total, int pagina, int tamanoPagina) {
+        this.animales = animales;
+        this.total = total;
+        this.pagina = pagina;
+        this.tamanoPagina = tamanoPagina;
+    }
+
+    /**
+     * Obtiene los animales de la página, del más al menos relevante.
+     *
+     * @return los animales de la página.
+     */
+    public List<Animal> getAnimales() {
+        return animales;
+    }
+
+    /**
+     * Obtiene el número total de animales que coinciden con la búsqueda.
+     *
+     * @return el número total de resultados.
+     */
+    public long getTotal() {
+        return total;
+    }
+
+    /**
+     * Obtiene el número de la página, empezando por 1.
+     *
+     * @return el número de la página.
+     */
+    public int getPagina() {
+        return pagina;
+    }
+
+    /**
+     * Obtiene el número máximo de animales por página.
+     *
+     * @return el tamaño de la página.
+     */
+    public int getTamanoPagina() {
+        return tamanoPagina;
+    }
+
+    /**
+     * Obtiene el número de páginas necesarias para mostrar todos los resultados.
+     *
+     * @return el número total de páginas.
+     */
+    public int getTotalPaginas() {
+        return (int) ((total + tamanoPagina - 1) / tamanoPagina);
+    }
+}
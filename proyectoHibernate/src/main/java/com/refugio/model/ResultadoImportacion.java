@@ -0,0 +1,132 @@
+package com.refugio.model;
+
+import java.time.Duration;
+import java.util.List;
+
+/**
+ * Resumen de la importación de un fichero de animales: cuántas filas se han leído, registrado,
+ * omitido por estar ya registradas en una importación anterior y rechazado, y a qué velocidad.
+ */
+public class ResultadoImportacion {
+
+    /**
+     * Número de filas de datos leídas del fichero, sin contar la cabecera ni las líneas vacías.
+     */
+    private final long filasLeidas;
+
+    /**
+     * Número de animales registrados en esta importación.
+     */
+    private final long filasImportadas;
+
+    /**
+     * Número de filas que no se han vuelto a registrar porque ya lo hizo una importación interrumpida.
+     */
+    private final long filasOmitidas;
+
+    /**
+     * Número total de filas rechazadas.
+     */
+    private final long totalErrores;
+
+    /**
+     * Errores de las filas rechazadas, ordenados por línea. Puede no contener todos si hay demasiados.
+     */
+    private final List<ErrorImportacion> errores;
+
+    /**
+     * Tiempo que ha tardado la importación.
+     */
+    private final Duration duracion;
+
+    /**
+     * Crea el resumen de una importación.
+     *
+     * @param filasLeidas     el número de filas de datos leídas.
+     * @param filasImportadas el número de animales registrados.
+     * @param filasOmitidas   el número de filas ya registradas en una importación anterior.
+     * @param totalErrores    el número total de filas rechazadas.
+     * @param errores         los errores de las filas rechazadas, ordenados por línea.
+     * @param duracion        el tiempo que ha tardado la importación.
+     */
+    public ResultadoImportacion(long filasLeidas, long filasImportadas, long filasOmitidas, long totalErrores,
+                                List<ErrorImportacion> errores, Duration duracion) {
+        this.filasLeidas = filasLeidas;
+        this.filasImportadas = filasImportadas;
+        this.filasOmitidas = filasOmitidas;
+        this.totalErrores = totalErrores;
+        this.errores = errores;
+        this.duracion = duracion;
+    }
+
+    /**
+     * Obtiene el número de filas de datos leídas del fichero.
+     *
+     * @return el número de filas leídas.
+     */
+    public long getFilasLeidas() {
+        return filasLeidas;
+    }
+
+    /**
+     * Obtiene el número de animales registrados en esta importación.
+     *
+     * @return el número de filas importadas.
+     */
+    public long getFilasImportadas() {
+        return filasImportadas;
+    }
+
+    /**
+     * Obtiene el número de filas omitidas porque ya las registró una importación interrumpida del mismo fichero.
+     *
+     * @return el número de filas omitidas.
+     */
+    public long getFilasOmitidas() {
+        return filasOmitidas;
+    }
+
+    /**
+     * Obtiene el número total de filas rechazadas.
+     *
+     * @return el número de errores.
+     */
+    public long getTotalErrores() {
+        return totalErrores;
+    }
+
+    /**
+     * Obtiene los errores de las filas rechazadas, ordenados por línea.
+     * Si hay muchos, solo contiene los primeros; el total es {@link #getTotalErrores()}.
+     *
+     * @return los errores de la importación.
+     */
+    public List<ErrorImportacion> getErrores() {
+        return errores;
+    }
+
+    /**
+     * Obtiene el tiempo que ha tardado la importación.
+     *
+     * @return la duración de la importación.
+     */
+    public Duration getDuracion() {
+        return duracion;
+    }
+
+    /**
+     * Obtiene el número de animales registrados por segundo.
+     *
+     * @return las filas importadas por segundo.
+     */
+    public double getFilasPorSegundo() {
+        long nanos = duracion.toNanos();
+        return nanos > 0 ? filasImportadas * 1_000_000_000.0 / nanos : 0;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d filas leídas, %d importadas, %d omitidas, %d con errores en %.1f s (%.0f filas/s)",
+                filasLeidas, filasImportadas, filasOmitidas, totalErrores, duracion.toMillis() / 1000.0, getFilasPorSegundo());
+    }
+}
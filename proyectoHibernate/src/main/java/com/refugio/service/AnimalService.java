@@ -2,25 +2,51 @@ package com.refugio.service;
 
 import com.refugio.dao.AnimalDAO;
 import com.refugio.model.Animal;
+import com.refugio.model.AnimalResumen;
+import com.refugio.model.CambioEstado;
+import com.refugio.model.EstadoAnimal;
+import com.refugio.model.ResultadoBusqueda;
 
+import java.util.Collection;
 import java.util.List;
+import java.util.function.Consumer;
 
 /**
  * Servicio que proporciona métodos para gestionar animales en el refugio.
  * Actúa como un intermediario entre el controlador y el DAO.
+ * Las escrituras que chocan con otra modificación simultánea del mismo animal o familia se repiten
+ * automáticamente con {@link ReintentosOptimistas}. Las búsquedas iguales que llegan a la vez se juntan en una sola
+ * consulta con {@link ConsultasCompartidas}, y cada escritura hace que las búsquedas posteriores vuelvan a consultar.
  */
 public class AnimalService {
 
+    /**
+     * Número de animales por página en la búsqueda de texto completo.
+     */
+    public static final int TAMANO_PAGINA_BUSQUEDA = 10;
+
+    /**
+     * Última página que se puede pedir en la búsqueda de texto completo. Cada shard devuelve todos los resultados
+     * hasta el final de la página pedida, así que las páginas más lejanas se limitan a los primeros 10 000.
+     */
+    public static final int PAGINA_MAXIMA_BUSQUEDA = 1000;
+
     /**
      * DAO para realizar operaciones relacionadas con animales.
      */
     private AnimalDAO animalDAO;
 
+    /**
+     * Búsquedas en curso, compartidas con los demás servicios.
+     */
+    private final ConsultasCompartidas consultas;
+
     /**
      * Constructor que inicializa el DAO de animales.
      */
     public AnimalService() {
         this.animalDAO = new AnimalDAO();
+        this.consultas = ConsultasCompartidas.compartidas();
     }
 
     /**
@@ -31,9 +57,62 @@ public class AnimalService {
      * @param nombreFamilia  el nombre de la familia que acoge al animal.
      * @param edadFamilia    la edad del responsable de la familia.
      * @param ciudadFamilia  la ciudad donde reside la familia.
+     * @return {@code true} si el animal se ha registrado, o {@code false} si no se ha podido guardar,
+     * por ejemplo porque algún dato no cabe en su columna.
+     * @throws IllegalStateException si la familia se sigue modificando a la vez tras varios intentos.
      */
-    public void registrarAnimal(Animal animal, String nombreFamilia, int edadFamilia, String ciudadFamilia) {
-        animalDAO.saveAnimal(animal, nombreFamilia, edadFamilia, ciudadFamilia);
+    public boolean registrarAnimal(Animal animal, String nombreFamilia, int edadFamilia, String ciudadFamilia) {
+        try {
+            return ReintentosOptimistas.ejecutar("AnimalService.registrarAnimal",
+                    () -> animalDAO.saveAnimal(animal, nombreFamilia, edadFamilia, ciudadFamilia));
+        } finally {
+            consultas.olvidar();
+        }
+    }
+
+    /**
+     * Registra de una vez una lista de animales, por ejemplo una camada o un traslado desde otro refugio.
+     * Cada animal debe llevar asignada una familia con su nombre, edad y ciudad; si no existe, se crea.
+     * Las inserciones se envían en lotes JDBC dentro de una única transacción.
+     *
+     * @param animales los animales a registrar.
+     * @return el número de animales registrados.
+     * @throws IllegalStateException si alguna familia se sigue modificando a la vez tras varios intentos.
+     */
+    public int registrarAnimales(List<Animal> animales) {
+        try {
+            return ReintentosOptimistas.ejecutar("AnimalService.registrarAnimales", () -> animalDAO.saveAnimals(animales));
+        } finally {
+            consultas.olvidar();
+        }
+    }
+
+    /**
+     * Registra de una vez una lista de animales indicando el tamaño de los lotes JDBC.
+     *
+     * @param animales   los animales a registrar.
+     * @param tamanoLote el número de inserciones por lote.
+     * @return el número de animales registrados.
+     * @throws IllegalStateException si alguna familia se sigue modificando a la vez tras varios intentos.
+     */
+    public int registrarAnimales(List<Animal> animales, int tamanoLote) {
+        try {
+            return ReintentosOptimistas.ejecutar("AnimalService.registrarAnimales",
+                    () -> animalDAO.saveAnimals(animales, tamanoLote));
+        } finally {
+            consultas.olvidar();
+        }
+    }
+
+    /**
+     * Obtiene el shard en el que se registraría un animal, según su familia. Los animales de un mismo shard
+     * se registran en una sola transacción, de modo que, si fallan, no queda registrado ninguno.
+     *
+     * @param animal el animal, con los datos de su familia asignados.
+     * @return el nombre del shard.
+     */
+    public String obtenerShard(Animal animal) {
+        return animalDAO.findShard(animal.getFamilia());
     }
 
     /**
@@ -43,17 +122,176 @@ public class AnimalService {
      * @return una lista de animales que coinciden con la especie.
      */
     public List<Animal> buscarPorEspecie(String especie) {
-        return animalDAO.findByEspecie(especie);
+        return consultas.ejecutar(() -> animalDAO.findByEspecie(especie), "AnimalService.buscarPorEspecie", especie);
+    }
+
+    /**
+     * Busca animales según su especie trayendo también la familia que acoge a cada uno.
+     *
+     * @param especie la especie de los animales a buscar.
+     * @return una lista de animales, con su familia cargada, que coinciden con la especie.
+     */
+    public List<Animal> buscarPorEspecieConFamilia(String especie) {
+        return consultas.ejecutar(() -> animalDAO.findByEspecieWithFamilia(especie),
+                "AnimalService.buscarPorEspecieConFamilia", especie);
+    }
+
+    /**
+     * Busca animales según su especie y devuelve solo los datos necesarios para listarlos.
+     *
+     * @param especie la especie de los animales a buscar.
+     * @return una lista de resúmenes de los animales que coinciden con la especie.
+     */
+    public List<AnimalResumen> buscarResumenPorEspecie(String especie) {
+        return consultas.ejecutar(() -> animalDAO.findResumenByEspecie(especie),
+                "AnimalService.buscarResumenPorEspecie", especie);
+    }
+
+    /**
+     * Obtiene una página de resúmenes de los animales de una especie, ordenados por ID, a continuación del ID indicado.
+     *
+     * @param especie      la especie de los animales.
+     * @param ultimoId     el ID del último animal ya obtenido, o {@code null} para la primera página.
+     * @param tamanoPagina el número máximo de animales de la página.
+     * @return los resúmenes de la página; una lista con menos de {@code tamanoPagina} indica que no hay más.
+     */
+    public List<AnimalResumen> buscarResumenPorEspecie(String especie, Long ultimoId, int tamanoPagina) {
+        return consultas.ejecutar(() -> animalDAO.findResumenByEspecieAfter(especie, ultimoId, tamanoPagina),
+                "AnimalService.buscarResumenPorEspecie", especie, ultimoId, tamanoPagina);
+    }
+
+    /**
+     * Busca animales por palabras de su nombre o su descripción, del más al menos relevante.
+     * No hace falta escribir las palabras exactas: se ignoran mayúsculas, tildes y palabras como "con" o "de",
+     * y se encuentran también el femenino y el plural ("perra blanca" encuentra "perros blancos").
+     *
+     * @param texto  las palabras a buscar, por ejemplo "perro blanco con mancha".
+     * @param pagina el número de la página de resultados, empezando por 1,
+     *               con {@value #TAMANO_PAGINA_BUSQUEDA} animales por página.
+     * @return la página de resultados, con el número total de animales encontrados.
+     * @throws IllegalArgumentException si el texto está vacío o la página es menor que 1
+     *                                  o mayor que {@value #PAGINA_MAXIMA_BUSQUEDA}.
+     */
+    public ResultadoBusqueda buscarTexto(String texto, int pagina) {
+        if (texto == null || texto.trim().isEmpty()) {
+            throw new IllegalArgumentException("El texto de búsqueda no puede estar vacío");
+        }
+        if (pagina < 1 || pagina > PAGINA_MAXIMA_BUSQUEDA) {
+            throw new IllegalArgumentException("La página debe estar entre 1 y " + PAGINA_MAXIMA_BUSQUEDA);
+        }
+        String palabras = texto.trim();
+        return consultas.ejecutar(() -> animalDAO.searchByTexto(palabras, pagina, TAMANO_PAGINA_BUSQUEDA),
+                "AnimalService.buscarTexto", palabras, pagina);
+    }
+
+    /**
+     * Vuelve a generar el índice de la búsqueda de texto completo con todos los animales registrados.
+     * Debe ejecutarse una vez tras activar la búsqueda sobre una base de datos con animales ya registrados.
+     */
+    public void reconstruirIndiceBusqueda() {
+        animalDAO.rebuildIndex();
+    }
+
+    /**
+     * Busca los animales que se encuentran en un estado concreto.
+     *
+     * @param estado el estado de los animales a buscar.
+     * @return una lista de resúmenes de los animales en ese estado.
+     */
+    public List<AnimalResumen> buscarPorEstado(EstadoAnimal estado) {
+        return consultas.ejecutar(() -> animalDAO.findResumenByEstado(estado), "AnimalService.buscarPorEstado", estado);
+    }
+
+    /**
+     * Obtiene una página de resúmenes de los animales en un estado, ordenados por ID, a continuación del ID indicado.
+     *
+     * @param estado       el estado de los animales.
+     * @param ultimoId     el ID del último animal ya obtenido, o {@code null} para la primera página.
+     * @param tamanoPagina el número máximo de animales de la página.
+     * @return los resúmenes de la página; una lista con menos de {@code tamanoPagina} indica que no hay más.
+     */
+    public List<AnimalResumen> buscarPorEstado(EstadoAnimal estado, Long ultimoId, int tamanoPagina) {
+        return consultas.ejecutar(() -> animalDAO.findResumenByEstadoAfter(estado, ultimoId, tamanoPagina),
+                "AnimalService.buscarPorEstado", estado, ultimoId, tamanoPagina);
+    }
+
+    /**
+     * Obtiene el historial de cambios de estado de un animal, del más antiguo al más reciente.
+     *
+     * @param id el ID del animal.
+     * @return los cambios de estado del animal.
+     */
+    public List<CambioEstado> obtenerHistorialEstados(Long id) {
+        return animalDAO.findHistorialEstados(id);
     }
 
     /**
      * Actualiza el estado de un animal en la base de datos.
+     * Solo se permiten los cambios de estado definidos en {@link EstadoAnimal#puedeCambiarA(EstadoAnimal)}.
+     * Si otro puesto modifica el animal a la vez, se vuelve a leer su estado y se repite la comprobación.
      *
      * @param id          el ID del animal a actualizar.
      * @param nuevoEstado el nuevo estado del animal.
+     * @throws NoEncontradoException si no existe ningún animal con ese ID.
+     * @throws IllegalStateException si el animal no puede pasar de su estado actual al nuevo,
+     *                               o si su estado ha cambiado mientras se actualizaba.
      */
-    public void actualizarEstado(Long id, String nuevoEstado) {
-        animalDAO.updateEstado(id, nuevoEstado);
+    public void actualizarEstado(Long id, EstadoAnimal nuevoEstado) {
+        try {
+            ReintentosOptimistas.ejecutar("AnimalService.actualizarEstado", () -> {
+                EstadoAnimal estadoActual = animalDAO.findEstadoById(id);
+                if (estadoActual == null) {
+                    throw new NoEncontradoException("No existe ningún animal con ID " + id);
+                }
+                if (!estadoActual.puedeCambiarA(nuevoEstado)) {
+                    throw new IllegalStateException("Un animal en estado \"" + estadoActual
+                            + "\" no puede pasar a \"" + nuevoEstado + "\"");
+                }
+                if (!animalDAO.updateEstado(id, estadoActual, nuevoEstado)) {
+                    throw new IllegalStateException("El estado del animal " + id + " ha cambiado mientras se actualizaba");
+                }
+            });
+        } finally {
+            consultas.olvidar();
+        }
+    }
+
+    /**
+     * Cambia de una vez el estado de varios animales, por ejemplo al vacunar o dar en adopción a un grupo.
+     * Los animales no se cargan: se actualizan con sentencias masivas por bloques.
+     * Los animales cuyo estado actual no permite pasar al nuevo se quedan como están.
+     *
+     * @param ids    los IDs de los animales a actualizar.
+     * @param estado el nuevo estado de los animales.
+     * @return el número de animales actualizados.
+     */
+    public int actualizarEstadoMasivo(Collection<Long> ids, EstadoAnimal estado) {
+        try {
+            return animalDAO.updateEstadoMasivo(ids, estado);
+        } finally {
+            consultas.olvidar();
+        }
+    }
+
+    /**
+     * Cambia el estado de todos los animales de una especie que se encuentran en un estado concreto.
+     *
+     * @param especie      la especie de los animales a actualizar.
+     * @param estadoActual el estado en el que deben encontrarse los animales.
+     * @param nuevoEstado  el nuevo estado de los animales.
+     * @return el número de animales actualizados.
+     * @throws IllegalStateException si los animales no pueden pasar del estado actual al nuevo.
+     */
+    public int actualizarEstadoPorEspecie(String especie, EstadoAnimal estadoActual, EstadoAnimal nuevoEstado) {
+        if (!estadoActual.puedeCambiarA(nuevoEstado)) {
+            throw new IllegalStateException("Un animal en estado \"" + estadoActual
+                    + "\" no puede pasar a \"" + nuevoEstado + "\"");
+        }
+        try {
+            return animalDAO.updateEstadoByEspecie(especie, estadoActual, nuevoEstado);
+        } finally {
+            consultas.olvidar();
+        }
     }
 
     /**
@@ -64,9 +302,20 @@ public class AnimalService {
      * @param nombreFamilia el nombre de la nueva familia.
      * @param edadFamilia   la edad del responsable de la familia.
      * @param ciudadFamilia la ciudad de la nueva familia.
+     * @throws NoEncontradoException si no existe ningún animal con ese ID.
+     * @throws IllegalStateException si la nueva familia está en otro shard que el animal,
+     *                               o si la familia se sigue modificando a la vez tras varios intentos.
      */
     public void actualizarFamilia(Long id, String nombreFamilia, int edadFamilia, String ciudadFamilia) {
-        animalDAO.updateFamilia(id, nombreFamilia, edadFamilia, ciudadFamilia);
+        try {
+            if (animalDAO.findEstadoById(id) == null) {
+                throw new NoEncontradoException("No existe ningún animal con ID " + id);
+            }
+            ReintentosOptimistas.ejecutar("AnimalService.actualizarFamilia",
+                    () -> animalDAO.updateFamilia(id, nombreFamilia, edadFamilia, ciudadFamilia));
+        } finally {
+            consultas.olvidar();
+        }
     }
 
     /**
@@ -77,4 +326,33 @@ public class AnimalService {
     public List<Animal> obtenerTodosLosAnimales() {
         return animalDAO.findAll();
     }
+
+    /**
+     * Recorre todos los animales registrados sin cargarlos todos en memoria.
+     *
+     * @param consumidor la acción que se ejecuta con cada animal.
+     */
+    public void recorrerTodosLosAnimales(Consumer<Animal> consumidor) {
+        animalDAO.forEachAnimal(consumidor);
+    }
+
+    /**
+     * Recorre los resúmenes de todos los animales registrados sin cargarlos todos en memoria.
+     *
+     * @param consumidor la acción que se ejecuta con cada resumen.
+     */
+    public void recorrerResumenAnimales(Consumer<AnimalResumen> consumidor) {
+        animalDAO.forEachResumen(consumidor);
+    }
+
+    /**
+     * Obtiene una página de animales ordenados por ID, a continuación del ID indicado.
+     *
+     * @param ultimoId     el ID del último animal ya obtenido, o {@code null} para la primera página.
+     * @param tamanoPagina el número máximo de animales de la página.
+     * @return los animales de la página; una lista vacía indica que no hay más.
+     */
+    public List<Animal> obtenerAnimalesDespuesDe(Long ultimoId, int tamanoPagina) {
+        return animalDAO.findAllAfter(ultimoId, tamanoPagina);
+    }
 }
@@ -0,0 +1,220 @@
+package com.refugio.service;
+
+import com.refugio.model.Animal;
+import com.refugio.model.AnimalResumen;
+import com.refugio.model.CambioEstado;
+import com.refugio.model.EstadoAnimal;
+import com.refugio.model.ResultadoBusqueda;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Versión asíncrona de {@link AnimalService}.
+ * Cada operación se ejecuta en un hilo virtual a través de un {@link EjecutorBaseDatos}, que limita
+ * cuántas operaciones usan la base de datos a la vez, y devuelve un {@link CompletableFuture} con su resultado.
+ * Permite lanzar cientos de consultas en paralelo sin bloquear al hilo que las lanza.
+ * Las búsquedas iguales que llegan a la vez se juntan en una sola tarea del ejecutor con {@link ConsultasCompartidas},
+ * para que no ocupen varios permisos de la base de datos esperando el mismo resultado.
+ */
+public class AnimalServiceAsync {
+
+    /**
+     * Servicio que realiza cada operación de forma síncrona.
+     */
+    private final AnimalService animalService;
+
+    /**
+     * Ejecutor en el que se lanzan las operaciones.
+     */
+    private final EjecutorBaseDatos ejecutor;
+
+    /**
+     * Búsquedas en curso, compartidas con los demás servicios.
+     */
+    private final ConsultasCompartidas consultas = ConsultasCompartidas.compartidas();
+
+    /**
+     * Constructor que usa un nuevo {@link AnimalService} y el ejecutor compartido.
+     */
+    public AnimalServiceAsync() {
+        this(new AnimalService(), EjecutorBaseDatos.compartido());
+    }
+
+    /**
+     * Constructor que usa el servicio y el ejecutor indicados.
+     *
+     * @param animalService el servicio que realiza cada operación.
+     * @param ejecutor      el ejecutor en el que se lanzan las operaciones.
+     */
+    public AnimalServiceAsync(AnimalService animalService, EjecutorBaseDatos ejecutor) {
+        this.animalService = animalService;
+        this.ejecutor = ejecutor;
+    }
+
+    /**
+     * Registra un nuevo animal en la base de datos. Si la familia asociada no existe, se crea.
+     *
+     * @param animal        el animal a registrar.
+     * @param nombreFamilia el nombre de la familia que acoge al animal.
+     * @param edadFamilia   la edad del responsable de la familia.
+     * @param ciudadFamilia la ciudad donde reside la familia.
+     * @return un futuro con {@code true} si el animal se ha registrado, o {@code false} si no se ha podido guardar.
+     */
+    public CompletableFuture<Boolean> registrarAnimal(Animal animal, String nombreFamilia, int edadFamilia, String ciudadFamilia) {
+        return ejecutor.ejecutar(() -> animalService.registrarAnimal(animal, nombreFamilia, edadFamilia, ciudadFamilia));
+    }
+
+    /**
+     * Registra de una vez una lista de animales.
+     *
+     * @param animales los animales a registrar.
+     * @return el número futuro de animales registrados.
+     */
+    public CompletableFuture<Integer> registrarAnimales(List<Animal> animales) {
+        return ejecutor.ejecutar(() -> animalService.registrarAnimales(animales));
+    }
+
+    /**
+     * Busca animales según su especie.
+     *
+     * @param especie la especie de los animales a buscar.
+     * @return la lista futura de animales que coinciden con la especie.
+     */
+    public CompletableFuture<List<Animal>> buscarPorEspecie(String especie) {
+        return consultas.ejecutarAsync(() -> ejecutor.ejecutar(() -> animalService.buscarPorEspecie(especie)),
+                "AnimalServiceAsync.buscarPorEspecie", especie);
+    }
+
+    /**
+     * Busca animales según su especie trayendo también la familia que acoge a cada uno.
+     *
+     * @param especie la especie de los animales a buscar.
+     * @return la lista futura de animales, con su familia cargada, que coinciden con la especie.
+     */
+    public CompletableFuture<List<Animal>> buscarPorEspecieConFamilia(String especie) {
+        return consultas.ejecutarAsync(() -> ejecutor.ejecutar(() -> animalService.buscarPorEspecieConFamilia(especie)),
+                "AnimalServiceAsync.buscarPorEspecieConFamilia", especie);
+    }
+
+    /**
+     * Busca animales según su especie y devuelve solo los datos necesarios para listarlos.
+     *
+     * @param especie la especie de los animales a buscar.
+     * @return la lista futura de resúmenes de los animales que coinciden con la especie.
+     */
+    public CompletableFuture<List<AnimalResumen>> buscarResumenPorEspecie(String especie) {
+        return consultas.ejecutarAsync(() -> ejecutor.ejecutar(() -> animalService.buscarResumenPorEspecie(especie)),
+                "AnimalServiceAsync.buscarResumenPorEspecie", especie);
+    }
+
+    /**
+     * Busca los animales que se encuentran en un estado concreto.
+     *
+     * @param estado el estado de los animales a buscar.
+     * @return la lista futura de resúmenes de los animales en ese estado.
+     */
+    public CompletableFuture<List<AnimalResumen>> buscarPorEstado(EstadoAnimal estado) {
+        return consultas.ejecutarAsync(() -> ejecutor.ejecutar(() -> animalService.buscarPorEstado(estado)),
+                "AnimalServiceAsync.buscarPorEstado", estado);
+    }
+
+    /**
+     * Obtiene una página de resúmenes de los animales de una especie, ordenados por ID, a continuación del ID indicado.
+     *
+     * @param especie      la especie de los animales.
+     * @param ultimoId     el ID del último animal ya obtenido, o {@code null} para la primera página.
+     * @param tamanoPagina el número máximo de animales de la página.
+     * @return los resúmenes futuros de la página.
+     */
+    public CompletableFuture<List<AnimalResumen>> buscarResumenPorEspecie(String especie, Long ultimoId, int tamanoPagina) {
+        return consultas.ejecutarAsync(
+                () -> ejecutor.ejecutar(() -> animalService.buscarResumenPorEspecie(especie, ultimoId, tamanoPagina)),
+                "AnimalServiceAsync.buscarResumenPorEspecie", especie, ultimoId, tamanoPagina);
+    }
+
+    /**
+     * Obtiene una página de resúmenes de los animales en un estado, ordenados por ID, a continuación del ID indicado.
+     *
+     * @param estado       el estado de los animales.
+     * @param ultimoId     el ID del último animal ya obtenido, o {@code null} para la primera página.
+     * @param tamanoPagina el número máximo de animales de la página.
+     * @return los resúmenes futuros de la página.
+     */
+    public CompletableFuture<List<AnimalResumen>> buscarPorEstado(EstadoAnimal estado, Long ultimoId, int tamanoPagina) {
+        return consultas.ejecutarAsync(
+                () -> ejecutor.ejecutar(() -> animalService.buscarPorEstado(estado, ultimoId, tamanoPagina)),
+                "AnimalServiceAsync.buscarPorEstado", estado, ultimoId, tamanoPagina);
+    }
+
+    /**
+     * Busca animales por palabras de su nombre o su descripción, por páginas.
+     *
+     * @param texto  las palabras a buscar.
+     * @param pagina el número de la página de resultados, empezando por 1.
+     * @return la página futura de resultados. Termina con {@link IllegalArgumentException} si el texto está vacío
+     * o la página es menor que 1.
+     */
+    public CompletableFuture<ResultadoBusqueda> buscarTexto(String texto, int pagina) {
+        return consultas.ejecutarAsync(() -> ejecutor.ejecutar(() -> animalService.buscarTexto(texto, pagina)),
+                "AnimalServiceAsync.buscarTexto", texto, pagina);
+    }
+
+    /**
+     * Obtiene el historial de cambios de estado de un animal, del más antiguo al más reciente.
+     *
+     * @param id el ID del animal.
+     * @return los cambios de estado futuros del animal.
+     */
+    public CompletableFuture<List<CambioEstado>> obtenerHistorialEstados(Long id) {
+        return ejecutor.ejecutar(() -> animalService.obtenerHistorialEstados(id));
+    }
+
+    /**
+     * Actualiza el estado de un animal. El futuro termina con {@link IllegalArgumentException} si el animal
+     * no existe, o con {@link IllegalStateException} si el cambio de estado no está permitido.
+     *
+     * @param id          el ID del animal a actualizar.
+     * @param nuevoEstado el nuevo estado del animal.
+     * @return un futuro que se completa cuando el estado está actualizado.
+     */
+    public CompletableFuture<Void> actualizarEstado(Long id, EstadoAnimal nuevoEstado) {
+        return ejecutor.ejecutar(() -> animalService.actualizarEstado(id, nuevoEstado));
+    }
+
+    /**
+     * Cambia de una vez el estado de varios animales.
+     *
+     * @param ids    los IDs de los animales a actualizar.
+     * @param estado el nuevo estado de los animales.
+     * @return el número futuro de animales actualizados.
+     */
+    public CompletableFuture<Integer> actualizarEstadoMasivo(Collection<Long> ids, EstadoAnimal estado) {
+        return ejecutor.ejecutar(() -> animalService.actualizarEstadoMasivo(ids, estado));
+    }
+
+    /**
+     * Actualiza los datos de la familia que acoge a un animal. Si la familia no existe, se crea.
+     *
+     * @param id            el ID del animal cuya familia se va a actualizar.
+     * @param nombreFamilia el nombre de la nueva familia.
+     * @param edadFamilia   la edad del responsable de la familia.
+     * @param ciudadFamilia la ciudad de la nueva familia.
+     * @return un futuro que se completa cuando la familia está actualizada.
+     */
+    public CompletableFuture<Void> actualizarFamilia(Long id, String nombreFamilia, int edadFamilia, String ciudadFamilia) {
+        return ejecutor.ejecutar(() -> animalService.actualizarFamilia(id, nombreFamilia, edadFamilia, ciudadFamilia));
+    }
+
+    /**
+     * Obtiene una página de animales ordenados por ID, a continuación del ID indicado.
+     *
+     * @param ultimoId     el ID del último animal ya obtenido, o {@code null} para la primera página.
+     * @param tamanoPagina el número máximo de animales de la página.
+     * @return los animales futuros de la página; una lista vacía indica que no hay más.
+     */
+    public CompletableFuture<List<Animal>> obtenerAnimalesDespuesDe(Long ultimoId, int tamanoPagina) {
+        return ejecutor.ejecutar(() -> animalService.obtenerAnimalesDespuesDe(ultimoId, tamanoPagina));
+    }
+}
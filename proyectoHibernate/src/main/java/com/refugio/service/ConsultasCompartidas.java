@@ -0,0 +1,280 @@
+package com.refugio.service;
+
+import com.refugio.dao.HibernateUtil;
+import com.refugio.dao.Metricas;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Supplier;
+
+/**
+ * Junta las lecturas iguales que llegan a la vez: la primera ejecuta la consulta y las demás esperan su resultado
+ * en lugar de lanzar la misma consulta contra la base de datos, de modo que en un pico de peticiones repetidas
+ * (por ejemplo muchos puestos buscando perros a la vez) la base de datos recibe una sola. Dos lecturas son iguales
+ * si son la misma operación con los mismos parámetros. Cada lectura que se ahorra se cuenta en {@link Metricas}.
+ * <p>
+ * Opcionalmente, el resultado se sigue sirviendo durante un tiempo tras terminar la consulta, configurado con la
+ * propiedad de sistema {@value #PROPIEDAD_MEMORIA} en milisegundos (0 por defecto: solo se juntan las lecturas que
+ * coinciden en el tiempo). Los errores nunca se guardan. Las escrituras de los servicios llaman a {@link #olvidar()}
+ * para que las lecturas posteriores no reciban un resultado anterior a ellas, y un hilo que acaba de escribir
+ * y lee de los primarios para ver sus cambios ({@link HibernateUtil#isLecturaPropia()}) no comparte sus lecturas,
+ * que podrían juntarse con una lanzada contra una réplica.
+ * <p>
+ * Quienes comparten una lectura reciben el mismo resultado, con las mismas entidades desconectadas,
+ * así que debe tratarse como de solo lectura. Una lectura síncrona espera la de otro hilo como mucho el tiempo
+ * de la propiedad {@value #PROPIEDAD_ESPERA} en milisegundos (30 segundos por defecto); si se agota, por ejemplo
+ * porque la consulta compartida se ha quedado bloqueada, ejecuta la suya propia.
+ */
+public class ConsultasCompartidas {
+
+    /**
+     * Propiedad de sistema con el tiempo, en milisegundos, durante el que se sirve el resultado de una consulta
+     * ya terminada.
+     */
+    public static final String PROPIEDAD_MEMORIA = "refugio.consultas.memoria_ms";
+
+    /**
+     * Propiedad de sistema con el tiempo máximo, en milisegundos, que una lectura síncrona espera la de otro hilo.
+     */
+    public static final String PROPIEDAD_ESPERA = "refugio.consultas.espera_ms";
+
+    /**
+     * Tiempo máximo por defecto que una lectura síncrona espera la de otro hilo, igual al del ejecutor asíncrono.
+     */
+    private static final long ESPERA_POR_DEFECTO_MS = 30000;
+
+    /**
+     * Instancia compartida por los servicios, creada la primera vez que se usa.
+     */
+    private static volatile ConsultasCompartidas compartidas;
+
+    /**
+     * Consultas en curso o cuyo resultado aún se sirve, indexadas por operación y parámetros.
+     */
+    private final ConcurrentMap<List<Object>, Consulta> consultas = new ConcurrentHashMap<>();
+
+    /**
+     * Tiempo, en nanosegundos, durante el que se sirve el resultado de una consulta ya terminada.
+     */
+    private final long memoriaNanos;
+
+    /**
+     * Tiempo máximo, en nanosegundos, que una lectura síncrona espera la de otro hilo.
+     */
+    private final long esperaNanos;
+
+    /**
+     * Crea un juntador de lecturas que espera las de otros hilos el tiempo máximo por defecto.
+     *
+     * @param memoriaMillis el tiempo, en milisegundos, durante el que se sirve el resultado de una consulta
+     *                      ya terminada, o 0 para juntar solo las lecturas que coinciden en el tiempo.
+     */
+    public ConsultasCompartidas(long memoriaMillis) {
+        this(memoriaMillis, ESPERA_POR_DEFECTO_MS);
+    }
+
+    /**
+     * Crea un juntador de lecturas.
+     *
+     * @param memoriaMillis el tiempo, en milisegundos, durante el que se sirve el resultado de una consulta
+     *                      ya terminada, o 0 para juntar solo las lecturas que coinciden en el tiempo.
+     * @param esperaMillis  el tiempo máximo, en milisegundos, que una lectura síncrona espera la de otro hilo
+     *                      antes de ejecutar la suya.
+     */
+    public ConsultasCompartidas(long memoriaMillis, long esperaMillis) {
+        this.memoriaNanos = TimeUnit.MILLISECONDS.toNanos(memoriaMillis);
+        this.esperaNanos = TimeUnit.MILLISECONDS.toNanos(esperaMillis);
+    }
+
+    /**
+     * Proporciona la instancia compartida, con los tiempos de {@value #PROPIEDAD_MEMORIA}
+     * y {@value #PROPIEDAD_ESPERA}.
+     * Todos los servicios deben usar la misma para que las lecturas de unos se junten con las de otros
+     * y las escrituras de cualquiera las invaliden.
+     *
+     * @return la instancia compartida.
+     */
+    public static ConsultasCompartidas compartidas() {
+        ConsultasCompartidas actual = compartidas;
+        if (actual == null) {
+            synchronized (ConsultasCompartidas.class) {
+                actual = compartidas;
+                if (actual == null) {
+                    actual = new ConsultasCompartidas(Long.getLong(PROPIEDAD_MEMORIA, 0),
+                            Long.getLong(PROPIEDAD_ESPERA, ESPERA_POR_DEFECTO_MS));
+                    compartidas = actual;
+                }
+            }
+        }
+        return actual;
+    }
+
+    /**
+     * Ejecuta una lectura en este hilo o, si ya hay una igual en curso, espera su resultado. Si la espera supera
+     * el tiempo máximo, ejecuta la lectura en este hilo sin compartirla.
+     *
+     * @param consulta   la lectura a ejecutar.
+     * @param operacion  el nombre de la operación (por ejemplo {@code AnimalService.buscarPorEspecie}).
+     * @param parametros los parámetros de la lectura, que deben implementar {@code equals} y {@code hashCode}.
+     * @param <T>        el tipo del resultado.
+     * @return el resultado de la lectura.
+     * @throws RuntimeException      la excepción con la que ha terminado la lectura.
+     * @throws IllegalStateException si el hilo se interrumpe mientras espera la lectura de otro.
+     */
+    public <T> T ejecutar(Supplier<T> consulta, String operacion, Object... parametros) {
+        if (HibernateUtil.isLecturaPropia()) {
+            return consulta.get();
+        }
+        List<Object> clave = clave(operacion, parametros);
+        Consulta nueva = new Consulta();
+        Consulta actual = buscar(clave, nueva, operacion);
+        if (actual == nueva) {
+            T valor;
+            try {
+                valor = consulta.get();
+            } catch (RuntimeException | Error e) {
+                terminar(clave, nueva, null, e);
+                throw e;
+            }
+            terminar(clave, nueva, valor, null);
+            return valor;
+        }
+        try {
+            return resultado(actual.resultado.get(esperaNanos, TimeUnit.NANOSECONDS));
+        } catch (TimeoutException e) {
+            // La lectura compartida tarda demasiado: se deja de esperar y se consulta directamente
+            return consulta.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrumpido mientras esperaba la lectura " + operacion, e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            if (e.getCause() instanceof Error) {
+                throw (Error) e.getCause();
+            }
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    /**
+     * Lanza una lectura asíncrona o, si ya hay una igual en curso, se suma a ella. Cada llamada recibe su propio
+     * futuro, de modo que cancelarlo o limitar su tiempo no afecta a quienes comparten la lectura.
+     *
+     * @param consulta   la función que lanza la lectura y devuelve su resultado futuro.
+     * @param operacion  el nombre de la operación.
+     * @param parametros los parámetros de la lectura, que deben implementar {@code equals} y {@code hashCode}.
+     * @param <T>        el tipo del resultado.
+     * @return el resultado futuro de la lectura.
+     */
+    public <T> CompletableFuture<T> ejecutarAsync(Supplier<CompletableFuture<T>> consulta, String operacion,
+                                                  Object... parametros) {
+        if (HibernateUtil.isLecturaPropia()) {
+            return consulta.get();
+        }
+        List<Object> clave = clave(operacion, parametros);
+        Consulta nueva = new Consulta();
+        Consulta actual = buscar(clave, nueva, operacion);
+        if (actual == nueva) {
+            try {
+                consulta.get().whenComplete((valor, error) -> terminar(clave, nueva, valor, error));
+            } catch (RuntimeException e) {
+                terminar(clave, nueva, null, e);
+            }
+        }
+        return actual.resultado.thenApply(ConsultasCompartidas::resultado);
+    }
+
+    /**
+     * Olvida todas las lecturas en curso y los resultados guardados: las lecturas que empiecen a partir de ahora
+     * vuelven a consultar la base de datos. Las que ya esperan una lectura en curso siguen esperándola.
+     */
+    public void olvidar() {
+        consultas.clear();
+    }
+
+    /**
+     * Busca una lectura igual que se pueda compartir o, si no la hay, registra la nueva.
+     *
+     * @param clave     la operación y sus parámetros.
+     * @param nueva     la lectura que se registra si no hay ninguna que compartir.
+     * @param operacion el nombre de la operación, para las métricas.
+     * @return la lectura que se comparte, o {@code nueva} si la debe ejecutar quien llama.
+     */
+    private Consulta buscar(List<Object> clave, Consulta nueva, String operacion) {
+        while (true) {
+            Consulta actual = consultas.putIfAbsent(clave, nueva);
+            if (actual == null) {
+                return nueva;
+            }
+            if (actual.vigente()) {
+                Metricas.registrarConsultaCompartida(operacion);
+                return actual;
+            }
+            consultas.remove(clave, actual);
+        }
+    }
+
+    /**
+     * Entrega el resultado de una lectura a quienes la esperan y decide si se sigue sirviendo.
+     */
+    private void terminar(List<Object> clave, Consulta consulta, Object valor, Throwable error) {
+        if (error != null) {
+            consultas.remove(clave, consulta);
+            consulta.resultado.completeExceptionally(error instanceof CompletionException && error.getCause() != null
+                    ? error.getCause() : error);
+            return;
+        }
+        if (memoriaNanos > 0) {
+            consulta.caducidad = System.nanoTime() + memoriaNanos;
+        }
+        consulta.resultado.complete(valor);
+        if (memoriaNanos <= 0) {
+            consultas.remove(clave, consulta);
+        }
+    }
+
+    private static List<Object> clave(String operacion, Object... parametros) {
+        List<Object> clave = new ArrayList<>(parametros.length + 1);
+        clave.add(operacion);
+        clave.addAll(Arrays.asList(parametros));
+        return clave;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T resultado(Object valor) {
+        return (T) valor;
+    }
+
+    /**
+     * Lectura en curso o terminada, con su resultado futuro.
+     */
+    private final class Consulta {
+
+        final CompletableFuture<Object> resultado = new CompletableFuture<>();
+
+        /**
+         * Momento, en {@link System#nanoTime()}, hasta el que se sirve el resultado; se fija antes de completarlo.
+         */
+        volatile long caducidad;
+
+        /**
+         * Indica si la lectura se puede compartir: sigue en curso, o ha terminado bien y su resultado se sirve aún.
+         */
+        boolean vigente() {
+            if (!resultado.isDone()) {
+                return true;
+            }
+            return memoriaNanos > 0 && !resultado.isCompletedExceptionally() && System.nanoTime() - caducidad < 0;
+        }
+    }
+}
@@ -0,0 +1,243 @@
+package com.refugio.service;
+
+import com.refugio.dao.HibernateUtil;
+import com.refugio.dao.PoolMetrics;
+
+import java.time.Duration;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Ejecuta operaciones de base de datos de forma asíncrona, cada una en su propio hilo virtual.
+ * Un semáforo del tamaño del pool de conexiones limita cuántas operaciones usan la base de datos a la vez;
+ * el resto esperan sin ocupar hilos de plataforma. Cuando ya hay demasiadas operaciones esperando,
+ * las nuevas se rechazan de inmediato con {@link RejectedExecutionException} para que quien las lanza frene.
+ * Cuando una operación supera el tiempo máximo, o se cancela desde el {@link CompletableFuture} devuelto,
+ * el futuro termina con {@link TimeoutException} o {@link CancellationException}, pero la operación solo se descarta
+ * si aún esperaba su permiso: la que ya usa la base de datos nunca se interrumpe y sigue hasta confirmar o deshacer
+ * su transacción. Así una escritura no queda a medias, aunque quien la lanzó ya no sepa cómo ha terminado.
+ */
+public class EjecutorBaseDatos implements AutoCloseable {
+
+    /**
+     * Concurrencia máxima cuando no se puede consultar el tamaño del pool.
+     */
+    private static final int CONCURRENCIA_POR_DEFECTO = 10;
+
+    /**
+     * Operaciones que pueden esperar por cada conexión del pool antes de empezar a rechazar nuevas.
+     */
+    private static final int PENDIENTES_POR_CONEXION = 100;
+
+    /**
+     * Tiempo máximo por defecto de cada operación, igual al tiempo de espera de conexión del pool.
+     */
+    private static final Duration TIMEOUT_POR_DEFECTO = Duration.ofSeconds(30);
+
+    /**
+     * Estado de una operación que espera su permiso.
+     */
+    private static final int ESPERANDO = 0;
+
+    /**
+     * Estado de una operación que ya tiene su permiso y usa la base de datos.
+     */
+    private static final int EN_CURSO = 1;
+
+    /**
+     * Estado de una operación cancelada o agotada antes de obtener su permiso, que ya no se ejecutará.
+     */
+    private static final int ABANDONADA = 2;
+
+    /**
+     * Instancia compartida por los servicios asíncronos, creada la primera vez que se usa.
+     */
+    private static volatile EjecutorBaseDatos compartido;
+
+    /**
+     * Ejecutor que lanza un hilo virtual por operación.
+     */
+    private final ExecutorService ejecutor = Executors.newVirtualThreadPerTaskExecutor();
+
+    /**
+     * Permisos para usar la base de datos, uno por conexión del pool.
+     */
+    private final Semaphore permisos;
+
+    /**
+     * Número máximo de operaciones aceptadas que aún no han terminado.
+     */
+    private final int maxPendientes;
+
+    /**
+     * Tiempo máximo que se espera el resultado de cada operación, incluida la espera por un permiso.
+     */
+    private final Duration timeout;
+
+    /**
+     * Operaciones aceptadas que aún no han terminado: esperan su permiso o lo tienen y no lo han devuelto.
+     */
+    private final AtomicInteger pendientes = new AtomicInteger();
+
+    /**
+     * Operaciones rechazadas por haber demasiadas pendientes.
+     */
+    private final LongAdder rechazadas = new LongAdder();
+
+    /**
+     * Crea un ejecutor con los límites indicados.
+     *
+     * @param maxConcurrencia el número máximo de operaciones que usan la base de datos a la vez.
+     * @param maxPendientes   el número máximo de operaciones aceptadas que aún no han terminado.
+     * @param timeout         el tiempo máximo de cada operación.
+     */
+    public EjecutorBaseDatos(int maxConcurrencia, int maxPendientes, Duration timeout) {
+        this.permisos = new Semaphore(maxConcurrencia, true);
+        this.maxPendientes = maxPendientes;
+        this.timeout = timeout;
+    }
+
+    /**
+     * Proporciona el ejecutor compartido, con tantos permisos como conexiones suman los pools de todos los shards.
+     * Todos los servicios asíncronos deben usar el mismo ejecutor para que el límite sea global.
+     *
+     * @return el ejecutor compartido.
+     */
+    public static EjecutorBaseDatos compartido() {
+        EjecutorBaseDatos actual = compartido;
+        if (actual == null) {
+            synchronized (EjecutorBaseDatos.class) {
+                actual = compartido;
+                if (actual == null) {
+                    int conexiones = conexionesMaximas();
+                    actual = new EjecutorBaseDatos(conexiones, conexiones * PENDIENTES_POR_CONEXION, TIMEOUT_POR_DEFECTO);
+                    compartido = actual;
+                }
+            }
+        }
+        return actual;
+    }
+
+    /**
+     * Suma las conexiones máximas de los pools de todos los shards.
+     */
+    private static int conexionesMaximas() {
+        int conexiones = 0;
+        for (String shard : HibernateUtil.getShards()) {
+            PoolMetrics metricas = HibernateUtil.getPoolMetrics(shard);
+            conexiones += metricas != null ? metricas.getConexionesMaximas() : CONCURRENCIA_POR_DEFECTO;
+        }
+        return conexiones;
+    }
+
+    /**
+     * Ejecuta una operación que devuelve un resultado.
+     *
+     * @param operacion la operación a ejecutar.
+     * @param <T>       el tipo del resultado.
+     * @return el resultado futuro de la operación. Termina con {@link RejectedExecutionException} si hay
+     * demasiadas operaciones pendientes, o con {@link TimeoutException} si la operación tarda demasiado;
+     * en ese caso, si la operación ya había empezado, sigue hasta terminar y su resultado se pierde.
+     */
+    public <T> CompletableFuture<T> ejecutar(Supplier<T> operacion) {
+        if (pendientes.incrementAndGet() > maxPendientes) {
+            pendientes.decrementAndGet();
+            rechazadas.increment();
+            return CompletableFuture.failedFuture(new RejectedExecutionException(
+                    "Demasiadas operaciones pendientes en la base de datos (" + maxPendientes + ")"));
+        }
+
+        CompletableFuture<T> resultado = new CompletableFuture<>();
+        // Deja de contar como pendiente quien la saque de ESPERANDO: la tarea al terminar o, si se abandona antes
+        // de obtener el permiso, quien la abandona
+        AtomicInteger estado = new AtomicInteger(ESPERANDO);
+        Future<?> tarea;
+        try {
+            tarea = ejecutor.submit(() -> {
+                try {
+                    permisos.acquire();
+                } catch (InterruptedException e) {
+                    if (estado.compareAndSet(ESPERANDO, ABANDONADA)) {
+                        pendientes.decrementAndGet();
+                        resultado.completeExceptionally(new CancellationException("Operación cancelada mientras esperaba"));
+                    }
+                    return;
+                }
+                if (!estado.compareAndSet(ESPERANDO, EN_CURSO)) {
+                    // La operación se ha cancelado o ha agotado su tiempo mientras esperaba el permiso
+                    permisos.release();
+                    return;
+                }
+                try {
+                    resultado.complete(operacion.get());
+                } catch (Throwable e) {
+                    resultado.completeExceptionally(e);
+                } finally {
+                    permisos.release();
+                    pendientes.decrementAndGet();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            pendientes.decrementAndGet();
+            return CompletableFuture.failedFuture(e);
+        }
+
+        resultado.whenComplete((valor, error) -> {
+            // Solo se descarta la operación que aún no ha empezado; la que está en curso termina su transacción
+            if (estado.compareAndSet(ESPERANDO, ABANDONADA)) {
+                pendientes.decrementAndGet();
+                tarea.cancel(true);
+            }
+        });
+        return resultado.orTimeout(timeout.toNanos(), TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Ejecuta una operación que no devuelve resultado.
+     *
+     * @param operacion la operación a ejecutar.
+     * @return un futuro que se completa cuando termina la operación.
+     */
+    public CompletableFuture<Void> ejecutar(Runnable operacion) {
+        return ejecutar(() -> {
+            operacion.run();
+            return null;
+        });
+    }
+
+    /**
+     * Obtiene el número de operaciones aceptadas que aún no han terminado.
+     *
+     * @return las operaciones pendientes.
+     */
+    public int getPendientes() {
+        return pendientes.get();
+    }
+
+    /**
+     * Obtiene el número de operaciones rechazadas por haber demasiadas pendientes.
+     *
+     * @return las operaciones rechazadas.
+     */
+    public long getRechazadas() {
+        return rechazadas.sum();
+    }
+
+    /**
+     * Deja de aceptar operaciones y espera a que terminen las que están en curso.
+     */
+    @Override
+    public void close() {
+        ejecutor.close();
+    }
+}
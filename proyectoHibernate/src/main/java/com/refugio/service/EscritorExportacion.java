@@ -0,0 +1,307 @@
+package com.refugio.service;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Codifica filas de valores en CSV o JSON directamente en UTF-8 sobre un buffer de bytes que se vuelca a un canal
+ * cuando se llena. No se construye ningún texto intermedio por fila: los números se escriben dígito a dígito
+ * y los textos carácter a carácter, escapando lo necesario sobre la marcha.
+ * Los buffers son directos, de {@value #TAMANO_BUFFER} bytes, y se reutilizan entre exportaciones.
+ * Cada escritor pertenece a un solo hilo.
+ */
+final class EscritorExportacion implements Closeable {
+
+    /**
+     * Tamaño de cada buffer, en bytes.
+     */
+    static final int TAMANO_BUFFER = 256 * 1024;
+
+    /**
+     * Número máximo de buffers libres que se guardan para reutilizarlos.
+     */
+    private static final int BUFFERS_RESERVADOS = 8;
+
+    /**
+     * Buffers libres, compartidos por todos los escritores.
+     */
+    private static final BlockingQueue<ByteBuffer> buffersLibres = new ArrayBlockingQueue<>(BUFFERS_RESERVADOS);
+
+    /**
+     * Bytes que ocupa como máximo un carácter en UTF-8 o un escape JSON ({@code \u001f}).
+     */
+    private static final int MAXIMO_POR_CARACTER = 6;
+
+    private static final byte[] HEX = "0123456789abcdef".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] NULL = "null".getBytes(StandardCharsets.US_ASCII);
+
+    private final WritableByteChannel canal;
+    private final FormatoExportacion formato;
+    private ByteBuffer buffer;
+
+    /**
+     * Nombres de las columnas ya codificados: la cabecera en CSV y {@code "columna":} en JSON.
+     */
+    private final byte[][] columnas;
+
+    /**
+     * Espacio para escribir los dígitos de un número de derecha a izquierda.
+     */
+    private final byte[] digitos = new byte[20];
+
+    private long filas;
+
+    /**
+     * Crea un escritor y escribe el principio del documento: la cabecera en CSV o el corchete de apertura en JSON.
+     *
+     * @param canal    el canal en el que se escriben los bytes.
+     * @param formato  el formato de salida.
+     * @param columnas los nombres de las columnas, en el orden de los valores de cada fila.
+     * @throws IOException si falla la escritura en el canal.
+     */
+    EscritorExportacion(WritableByteChannel canal, FormatoExportacion formato, List<String> columnas) throws IOException {
+        this.canal = canal;
+        this.formato = formato;
+        this.buffer = obtenerBuffer();
+        this.columnas = new byte[columnas.size()][];
+        for (int i = 0; i < columnas.size(); i++) {
+            String columna = formato == FormatoExportacion.JSON ? "\"" + columnas.get(i) + "\":" : columnas.get(i);
+            this.columnas[i] = columna.getBytes(StandardCharsets.UTF_8);
+        }
+
+        if (formato == FormatoExportacion.CSV) {
+            for (int i = 0; i < this.columnas.length; i++) {
+                if (i > 0) {
+                    escribirByte((byte) ',');
+                }
+                escribirBytes(this.columnas[i]);
+            }
+            escribirByte((byte) '\r');
+            escribirByte((byte) '\n');
+        } else {
+            escribirByte((byte) '[');
+        }
+    }
+
+    /**
+     * Escribe una fila. Los valores pueden ser números enteros, textos, enumerados (se escribe su nombre) o nulos.
+     *
+     * @param valores los valores de la fila, en el orden de las columnas.
+     * @throws IOException si falla la escritura en el canal.
+     */
+    void escribirFila(Object[] valores) throws IOException {
+        if (formato == FormatoExportacion.CSV) {
+            for (int i = 0; i < valores.length; i++) {
+                if (i > 0) {
+                    escribirByte((byte) ',');
+                }
+                escribirValorCsv(valores[i]);
+            }
+            escribirByte((byte) '\r');
+            escribirByte((byte) '\n');
+        } else {
+            if (filas > 0) {
+                escribirByte((byte) ',');
+            }
+            escribirByte((byte) '\n');
+            escribirByte((byte) '{');
+            for (int i = 0; i < valores.length; i++) {
+                if (i > 0) {
+                    escribirByte((byte) ',');
+                }
+                escribirBytes(columnas[i]);
+                escribirValorJson(valores[i]);
+            }
+            escribirByte((byte) '}');
+        }
+        filas++;
+    }
+
+    /**
+     * Escribe el final del documento y vuelca al canal los bytes pendientes.
+     *
+     * @throws IOException si falla la escritura en el canal.
+     */
+    void terminar() throws IOException {
+        if (formato == FormatoExportacion.JSON) {
+            escribirByte((byte) '\n');
+            escribirByte((byte) ']');
+            escribirByte((byte) '\n');
+        }
+        volcar();
+    }
+
+    /**
+     * Obtiene el número de filas escritas.
+     *
+     * @return el número de filas escritas.
+     */
+    long getFilas() {
+        return filas;
+    }
+
+    /**
+     * Devuelve el buffer para que lo reutilicen otras exportaciones. No cierra el canal.
+     */
+    @Override
+    public void close() {
+        if (buffer != null) {
+            buffer.clear();
+            buffersLibres.offer(buffer);
+            buffer = null;
+        }
+    }
+
+    private void escribirValorCsv(Object valor) throws IOException {
+        if (valor == null) {
+            return;
+        }
+        if (valor instanceof Long || valor instanceof Integer) {
+            escribirNumero(((Number) valor).longValue());
+            return;
+        }
+        String texto = valor instanceof Enum ? ((Enum<?>) valor).name() : valor.toString();
+        if (!necesitaComillas(texto)) {
+            escribirTexto(texto, false);
+            return;
+        }
+        escribirByte((byte) '"');
+        escribirTexto(texto, false);
+        escribirByte((byte) '"');
+    }
+
+    private void escribirValorJson(Object valor) throws IOException {
+        if (valor == null) {
+            escribirBytes(NULL);
+            return;
+        }
+        if (valor instanceof Long || valor instanceof Integer) {
+            escribirNumero(((Number) valor).longValue());
+            return;
+        }
+        String texto = valor instanceof Enum ? ((Enum<?>) valor).name() : valor.toString();
+        escribirByte((byte) '"');
+        escribirTexto(texto, true);
+        escribirByte((byte) '"');
+    }
+
+    private static boolean necesitaComillas(String texto) {
+        for (int i = 0; i < texto.length(); i++) {
+            char c = texto.charAt(i);
+            if (c == ',' || c == '"' || c == '\n' || c == '\r') {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Escribe un texto en UTF-8. En CSV se duplican las comillas; en JSON se escapan las comillas,
+     * las barras invertidas y los caracteres de control.
+     */
+    private void escribirTexto(String texto, boolean json) throws IOException {
+        for (int i = 0; i < texto.length(); i++) {
+            if (buffer.remaining() < MAXIMO_POR_CARACTER) {
+                volcar();
+            }
+            char c = texto.charAt(i);
+            if (c == '"') {
+                buffer.put(json ? (byte) '\\' : (byte) '"').put((byte) '"');
+            } else if (c < 0x20 && json) {
+                escribirControlJson(c);
+            } else if (c == '\\' && json) {
+                buffer.put((byte) '\\').put((byte) '\\');
+            } else if (c < 0x80) {
+                buffer.put((byte) c);
+            } else if (c < 0x800) {
+                buffer.put((byte) (0xC0 | (c >> 6)))
+                        .put((byte) (0x80 | (c & 0x3F)));
+            } else if (Character.isHighSurrogate(c) && i + 1 < texto.length()
+                    && Character.isLowSurrogate(texto.charAt(i + 1))) {
+                int punto = Character.toCodePoint(c, texto.charAt(++i));
+                buffer.put((byte) (0xF0 | (punto >> 18)))
+                        .put((byte) (0x80 | ((punto >> 12) & 0x3F)))
+                        .put((byte) (0x80 | ((punto >> 6) & 0x3F)))
+                        .put((byte) (0x80 | (punto & 0x3F)));
+            } else if (Character.isSurrogate(c)) {
+                // Sustituto sin pareja: no se puede codificar
+                buffer.put((byte) '?');
+            } else {
+                buffer.put((byte) (0xE0 | (c >> 12)))
+                        .put((byte) (0x80 | ((c >> 6) & 0x3F)))
+                        .put((byte) (0x80 | (c & 0x3F)));
+            }
+        }
+    }
+
+    private void escribirControlJson(char c) {
+        buffer.put((byte) '\\');
+        switch (c) {
+            case '\n':
+                buffer.put((byte) 'n');
+                break;
+            case '\r':
+                buffer.put((byte) 'r');
+                break;
+            case '\t':
+                buffer.put((byte) 't');
+                break;
+            default:
+                buffer.put((byte) 'u').put((byte) '0').put((byte) '0')
+                        .put(HEX[c >> 4]).put(HEX[c & 0xF]);
+        }
+    }
+
+    private void escribirNumero(long numero) throws IOException {
+        if (buffer.remaining() < digitos.length + 1) {
+            volcar();
+        }
+        if (numero == Long.MIN_VALUE) {
+            escribirTexto(Long.toString(numero), false);
+            return;
+        }
+        if (numero < 0) {
+            buffer.put((byte) '-');
+            numero = -numero;
+        }
+        int posicion = digitos.length;
+        do {
+            digitos[--posicion] = (byte) ('0' + numero % 10);
+            numero /= 10;
+        } while (numero != 0);
+        buffer.put(digitos, posicion, digitos.length - posicion);
+    }
+
+    private void escribirByte(byte b) throws IOException {
+        if (!buffer.hasRemaining()) {
+            volcar();
+        }
+        buffer.put(b);
+    }
+
+    private void escribirBytes(byte[] bytes) throws IOException {
+        if (buffer.remaining() < bytes.length) {
+            volcar();
+        }
+        buffer.put(bytes);
+    }
+
+    private void volcar() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            canal.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    private static ByteBuffer obtenerBuffer() {
+        ByteBuffer libre = buffersLibres.poll();
+        return libre != null ? libre : ByteBuffer.allocateDirect(TAMANO_BUFFER);
+    }
+}
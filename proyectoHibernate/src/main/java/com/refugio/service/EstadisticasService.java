@@ -0,0 +1,223 @@
+package com.refugio.service;
+
+import com.refugio.dao.ContadoresAnimales;
+import com.refugio.dao.EstadisticasDAO;
+import com.refugio.model.EstadoAnimal;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Servicio que proporciona los totales de animales para el panel del refugio: por especie, por estado
+ * y por ciudad de la familia que los acoge.
+ * Los métodos {@code obtener...} leen los contadores en memoria, sin consultar la base de datos;
+ * los métodos {@code calcular...} hacen la consulta agrupada en la base de datos.
+ * Tras {@link #iniciar()}, los contadores se concilian en segundo plano con la base de datos cada cierto tiempo,
+ * y antes si una escritura se ha confirmado durante una conciliación. Al terminar hay que cerrar el servicio
+ * para detener la conciliación.
+ */
+public class EstadisticasService implements AutoCloseable {
+
+    /**
+     * Intervalo por defecto entre dos conciliaciones de los contadores.
+     */
+    public static final Duration INTERVALO_CONCILIACION = Duration.ofMinutes(5);
+
+    /**
+     * Cada cuánto se comprueba si los contadores están desajustados y deben conciliarse antes de tiempo.
+     */
+    private static final Duration INTERVALO_COMPROBACION = Duration.ofSeconds(5);
+
+    /**
+     * DAO de las consultas agrupadas y de los contadores en memoria.
+     */
+    private final EstadisticasDAO estadisticasDAO;
+
+    /**
+     * Hilo que concilia los contadores en segundo plano.
+     */
+    private final ScheduledExecutorService planificador;
+
+    /**
+     * Intervalo máximo entre dos conciliaciones, en nanosegundos.
+     */
+    private final long intervaloNanos;
+
+    /**
+     * Indica si ya se ha programado la conciliación en segundo plano.
+     */
+    private final AtomicBoolean iniciado = new AtomicBoolean();
+
+    /**
+     * Momento de la última conciliación, según {@link System#nanoTime()}.
+     * Solo lo usa el hilo de conciliación.
+     */
+    private long ultimaConciliacion;
+
+    /**
+     * Constructor que concilia los contadores con la base de datos cada {@link #INTERVALO_CONCILIACION}.
+     */
+    public EstadisticasService() {
+        this(INTERVALO_CONCILIACION);
+    }
+
+    /**
+     * Constructor que concilia los contadores con la base de datos con el intervalo indicado.
+     *
+     * @param intervalo el tiempo máximo entre dos conciliaciones.
+     */
+    public EstadisticasService(Duration intervalo) {
+        this.estadisticasDAO = new EstadisticasDAO();
+        this.intervaloNanos = intervalo.toNanos();
+        this.ultimaConciliacion = System.nanoTime() - intervaloNanos;
+        this.planificador = Executors.newSingleThreadScheduledExecutor(
+                Thread.ofPlatform().name("conciliacion-estadisticas").daemon().factory());
+    }
+
+    /**
+     * Empieza la conciliación en segundo plano. La primera se hace en cuanto se llama;
+     * las llamadas siguientes no tienen efecto.
+     */
+    public void iniciar() {
+        if (!iniciado.compareAndSet(false, true)) {
+            return;
+        }
+        long comprobacion = Math.min(INTERVALO_COMPROBACION.toMillis(), TimeUnit.NANOSECONDS.toMillis(intervaloNanos));
+        planificador.scheduleWithFixedDelay(this::conciliarSiHaceFalta, 0, comprobacion, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Obtiene el número de animales de cada especie.
+     *
+     * @return los animales por especie, ordenadas alfabéticamente.
+     */
+    public Map<String, Long> obtenerPorEspecie() {
+        return contadores().getPorEspecie();
+    }
+
+    /**
+     * Obtiene el número de animales de una especie.
+     *
+     * @param especie la especie.
+     * @return el número de animales de la especie.
+     */
+    public long obtenerPorEspecie(String especie) {
+        return contadores().getPorEspecie(especie);
+    }
+
+    /**
+     * Obtiene el número de animales en cada estado.
+     *
+     * @return los animales por estado, con todos los estados.
+     */
+    public Map<EstadoAnimal, Long> obtenerPorEstado() {
+        return contadores().getPorEstado();
+    }
+
+    /**
+     * Obtiene el número de animales en un estado.
+     *
+     * @param estado el estado.
+     * @return el número de animales en el estado.
+     */
+    public long obtenerPorEstado(EstadoAnimal estado) {
+        return contadores().getPorEstado(estado);
+    }
+
+    /**
+     * Obtiene el número de animales acogidos en cada ciudad.
+     *
+     * @return los animales por ciudad, ordenadas alfabéticamente.
+     */
+    public Map<String, Long> obtenerPorCiudad() {
+        return contadores().getPorCiudad();
+    }
+
+    /**
+     * Obtiene el número de animales acogidos en una ciudad.
+     *
+     * @param ciudad la ciudad.
+     * @return el número de animales de la ciudad.
+     */
+    public long obtenerPorCiudad(String ciudad) {
+        return contadores().getPorCiudad(ciudad);
+    }
+
+    /**
+     * Obtiene el número total de animales del refugio.
+     *
+     * @return el número total de animales.
+     */
+    public long obtenerTotal() {
+        return contadores().getTotal();
+    }
+
+    /**
+     * Cuenta en la base de datos los animales de cada especie.
+     *
+     * @return los animales por especie, ordenadas alfabéticamente.
+     */
+    public Map<String, Long> calcularPorEspecie() {
+        return estadisticasDAO.countByEspecie();
+    }
+
+    /**
+     * Cuenta en la base de datos los animales en cada estado.
+     *
+     * @return los animales por estado, con todos los estados.
+     */
+    public Map<EstadoAnimal, Long> calcularPorEstado() {
+        return estadisticasDAO.countByEstado();
+    }
+
+    /**
+     * Cuenta en la base de datos los animales acogidos en cada ciudad.
+     *
+     * @return los animales por ciudad, ordenadas alfabéticamente.
+     */
+    public Map<String, Long> calcularPorCiudad() {
+        return estadisticasDAO.countByCiudad();
+    }
+
+    /**
+     * Concilia en este momento los contadores en memoria con la base de datos.
+     *
+     * @return la suma de las diferencias corregidas, en valor absoluto; 0 si los contadores eran correctos.
+     */
+    public long conciliar() {
+        return estadisticasDAO.reconcileCounters();
+    }
+
+    /**
+     * Detiene la conciliación en segundo plano.
+     */
+    @Override
+    public void close() {
+        planificador.shutdownNow();
+    }
+
+    private ContadoresAnimales contadores() {
+        return estadisticasDAO.getContadores();
+    }
+
+    /**
+     * Concilia los contadores si están desajustados o si ha pasado el intervalo desde la última conciliación.
+     * Los errores se registran sin detener las siguientes conciliaciones.
+     */
+    private void conciliarSiHaceFalta() {
+        long ahora = System.nanoTime();
+        if (!contadores().isDesajustados() && ahora - ultimaConciliacion < intervaloNanos) {
+            return;
+        }
+        try {
+            conciliar();
+            ultimaConciliacion = ahora;
+        } catch (RuntimeException e) {
+            e.printStackTrace();
+        }
+    }
+}
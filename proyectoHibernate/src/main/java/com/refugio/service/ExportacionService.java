@@ -0,0 +1,166 @@
+package com.refugio.service;
+
+import com.refugio.dao.AnimalDAO;
+import com.refugio.dao.FamiliaDAO;
+import com.refugio.dao.Metricas;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Servicio que exporta los animales y las familias a ficheros CSV o JSON, opcionalmente comprimidos con gzip.
+ * Las filas se leen de la base de datos con un cursor y se codifican según llegan en buffers de bytes
+ * que se escriben en el fichero con un {@link FileChannel}, de modo que la memoria usada no depende
+ * del número de filas. El fichero se escribe primero con la extensión {@code .tmp} y se renombra al terminar,
+ * para que nunca quede a medias un fichero con el nombre final.
+ */
+public class ExportacionService {
+
+    /**
+     * Tamaño del buffer del compresor gzip, en bytes.
+     */
+    private static final int TAMANO_BUFFER_GZIP = 64 * 1024;
+
+    /**
+     * DAO para leer los animales.
+     */
+    private AnimalDAO animalDAO;
+
+    /**
+     * DAO para leer las familias.
+     */
+    private FamiliaDAO familiaDAO;
+
+    /**
+     * Constructor que inicializa los DAO de animales y familias.
+     */
+    public ExportacionService() {
+        this.animalDAO = new AnimalDAO();
+        this.familiaDAO = new FamiliaDAO();
+    }
+
+    /**
+     * Exporta todos los animales, en orden de ID. El fichero se comprime con gzip si su nombre termina en {@code .gz}.
+     *
+     * @param destino el fichero de destino; si existe, se sustituye.
+     * @param formato el formato del fichero.
+     * @return el número de animales exportados.
+     * @throws IOException si no se puede escribir el fichero.
+     */
+    public long exportarAnimales(Path destino, FormatoExportacion formato) throws IOException {
+        return exportarAnimales(destino, formato, esGzip(destino));
+    }
+
+    /**
+     * Exporta todos los animales, en orden de ID.
+     *
+     * @param destino   el fichero de destino; si existe, se sustituye.
+     * @param formato   el formato del fichero.
+     * @param comprimir si el fichero se comprime con gzip.
+     * @return el número de animales exportados.
+     * @throws IOException si no se puede escribir el fichero.
+     */
+    public long exportarAnimales(Path destino, FormatoExportacion formato, boolean comprimir) throws IOException {
+        return exportar("ExportacionService.exportarAnimales", destino, formato, comprimir,
+                AnimalDAO.COLUMNAS_FILA, animalDAO::forEachFila);
+    }
+
+    /**
+     * Exporta todas las familias, en orden de ID. El fichero se comprime con gzip si su nombre termina en {@code .gz}.
+     *
+     * @param destino el fichero de destino; si existe, se sustituye.
+     * @param formato el formato del fichero.
+     * @return el número de familias exportadas.
+     * @throws IOException si no se puede escribir el fichero.
+     */
+    public long exportarFamilias(Path destino, FormatoExportacion formato) throws IOException {
+        return exportarFamilias(destino, formato, esGzip(destino));
+    }
+
+    /**
+     * Exporta todas las familias, en orden de ID.
+     *
+     * @param destino   el fichero de destino; si existe, se sustituye.
+     * @param formato   el formato del fichero.
+     * @param comprimir si el fichero se comprime con gzip.
+     * @return el número de familias exportadas.
+     * @throws IOException si no se puede escribir el fichero.
+     */
+    public long exportarFamilias(Path destino, FormatoExportacion formato, boolean comprimir) throws IOException {
+        return exportar("ExportacionService.exportarFamilias", destino, formato, comprimir,
+                FamiliaDAO.COLUMNAS_FILA, familiaDAO::forEachFila);
+    }
+
+    private static boolean esGzip(Path destino) {
+        return destino.getFileName().toString().endsWith(".gz");
+    }
+
+    /**
+     * Escribe en un fichero temporal las filas que recorre el DAO y, si todo va bien, lo renombra al destino.
+     *
+     * @param operacion el nombre de la operación en las métricas.
+     * @param destino   el fichero de destino.
+     * @param formato   el formato del fichero.
+     * @param comprimir si el fichero se comprime con gzip.
+     * @param columnas  los nombres de las columnas de las filas.
+     * @param recorrido el recorrido del DAO que entrega cada fila.
+     * @return el número de filas exportadas.
+     * @throws IOException si no se puede escribir el fichero.
+     */
+    private long exportar(String operacion, Path destino, FormatoExportacion formato, boolean comprimir,
+                          List<String> columnas, Consumer<Consumer<Object[]>> recorrido) throws IOException {
+        Path temporal = destino.resolveSibling(destino.getFileName() + ".tmp");
+        try {
+            long filas = Metricas.medir(operacion, () -> {
+                try {
+                    return escribir(temporal, formato, comprimir, columnas, recorrido);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+            Files.move(temporal, destino, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            return filas;
+        } catch (UncheckedIOException e) {
+            Files.deleteIfExists(temporal);
+            throw e.getCause();
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(temporal);
+            throw e;
+        }
+    }
+
+    private static long escribir(Path fichero, FormatoExportacion formato, boolean comprimir,
+                                 List<String> columnas, Consumer<Consumer<Object[]>> recorrido) throws IOException {
+        // El GZIPOutputStream se cierra antes que el fichero, también si falla, para liberar la memoria nativa
+        // de su compresor sin esperar al recolector de basura; al cerrarlo se escribe el final del formato gzip
+        try (FileChannel canalFichero = FileChannel.open(fichero,
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+             GZIPOutputStream gzip = comprimir
+                     ? new GZIPOutputStream(Channels.newOutputStream(canalFichero), TAMANO_BUFFER_GZIP)
+                     : null) {
+            WritableByteChannel canal = gzip != null ? Channels.newChannel(gzip) : canalFichero;
+
+            try (EscritorExportacion escritor = new EscritorExportacion(canal, formato, columnas)) {
+                recorrido.accept(fila -> {
+                    try {
+                        escritor.escribirFila(fila);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+                escritor.terminar();
+                return escritor.getFilas();
+            }
+        }
+    }
+}
@@ -6,6 +6,7 @@ import com.refugio.model.Familia;
 /**
  * Servicio que proporciona métodos para gestionar las familias en el refugio.
  * Actúa como intermediario entre el controlador y el DAO de familias.
+ * Las lecturas iguales que llegan a la vez se juntan en una sola consulta con {@link ConsultasCompartidas}.
  */
 public class FamiliaService {
 
@@ -14,11 +15,17 @@ public class FamiliaService {
      */
     private FamiliaDAO familiaDAO;
 
+    /**
+     * Lecturas en curso, compartidas con los demás servicios.
+     */
+    private final ConsultasCompartidas consultas;
+
     /**
      * Constructor que inicializa el DAO de familias.
      */
     public FamiliaService() {
         this.familiaDAO = new FamiliaDAO();
+        this.consultas = ConsultasCompartidas.compartidas();
     }
 
     /**
@@ -28,6 +35,6 @@ public class FamiliaService {
      * @return la familia encontrada, o {@code null} si no existe.
      */
     public Familia obtenerFamiliaPorId(long id) {
-        return familiaDAO.findById(id);
+        return consultas.ejecutar(() -> familiaDAO.findById(id), "FamiliaService.obtenerFamiliaPorId", id);
     }
 }
@@ -0,0 +1,58 @@
+package com.refugio.service;
+
+import com.refugio.model.Familia;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Versión asíncrona de {@link FamiliaService}.
+ * Cada operación se ejecuta en un hilo virtual a través de un {@link EjecutorBaseDatos}
+ * y devuelve un {@link CompletableFuture} con su resultado. Las lecturas iguales que llegan a la vez se juntan
+ * en una sola tarea del ejecutor con {@link ConsultasCompartidas}, para que no ocupen varios permisos de la base de datos.
+ */
+public class FamiliaServiceAsync {
+
+    /**
+     * Servicio que realiza cada operación de forma síncrona.
+     */
+    private final FamiliaService familiaService;
+
+    /**
+     * Ejecutor en el que se lanzan las operaciones.
+     */
+    private final EjecutorBaseDatos ejecutor;
+
+    /**
+     * Lecturas en curso, compartidas con los demás servicios.
+     */
+    private final ConsultasCompartidas consultas = ConsultasCompartidas.compartidas();
+
+    /**
+     * Constructor que usa un nuevo {@link FamiliaService} y el ejecutor compartido.
+     */
+    public FamiliaServiceAsync() {
+        this(new FamiliaService(), EjecutorBaseDatos.compartido());
+    }
+
+    /**
+     * Constructor que usa el servicio y el ejecutor indicados.
+     *
+     * @param familiaService el servicio que realiza cada operación.
+     * @param ejecutor       el ejecutor en el que se lanzan las operaciones.
+     */
+    public FamiliaServiceAsync(FamiliaService familiaService, EjecutorBaseDatos ejecutor) {
+        this.familiaService = familiaService;
+        this.ejecutor = ejecutor;
+    }
+
+    /**
+     * Obtiene una familia de la base de datos según su ID.
+     *
+     * @param id el ID de la familia a buscar.
+     * @return la familia futura, o {@code null} si no existe.
+     */
+    public CompletableFuture<Familia> obtenerFamiliaPorId(long id) {
+        return consultas.ejecutarAsync(() -> ejecutor.ejecutar(() -> familiaService.obtenerFamiliaPorId(id)),
+                "FamiliaServiceAsync.obtenerFamiliaPorId", id);
+    }
+}
@@ -0,0 +1,35 @@
+package com.refugio.service;
+
+/**
+ * Formatos en los que se pueden exportar los animales y las familias.
+ */
+public enum FormatoExportacion {
+
+    /**
+     * Valores separados por comas, con una fila de cabecera y los textos entre comillas cuando hace falta (RFC 4180).
+     */
+    CSV("csv"),
+
+    /**
+     * Array JSON con un objeto por fila, uno en cada línea.
+     */
+    JSON("json");
+
+    /**
+     * Extensión habitual de los ficheros del formato, sin punto.
+     */
+    private final String extension;
+
+    FormatoExportacion(String extension) {
+        this.extension = extension;
+    }
+
+    /**
+     * Obtiene la extensión habitual de los ficheros del formato.
+     *
+     * @return la extensión, sin punto.
+     */
+    public String getExtension() {
+        return extension;
+    }
+}
@@ -0,0 +1,546 @@
+package com.refugio.service;
+
+import com.refugio.dao.Metricas;
+import com.refugio.model.Animal;
+import com.refugio.model.ErrorImportacion;
+import com.refugio.model.EstadoAnimal;
+import com.refugio.model.Familia;
+import com.refugio.model.ResultadoImportacion;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Servicio que importa animales desde ficheros CSV, como los que envían los refugios colaboradores.
+ * El fichero debe tener una cabecera con las columnas {@link #COLUMNAS}, en cualquier orden; la descripción
+ * y el estado son opcionales y, si no se indica el estado, el animal se registra como recién abandonado.
+ * <p>
+ * El fichero se proyecta en memoria y se parte en bloques que se analizan en paralelo, uno por procesador.
+ * Los animales de cada bloque se agrupan en lotes que pasan por una cola acotada a los hilos de escritura,
+ * que registran los animales de cada shard con {@link AnimalService#registrarAnimales(List, int)} en una transacción
+ * que se confirma o se deshace entera; si los escritores no dan abasto, la cola se llena y el análisis espera.
+ * Las familias se resuelven por nombre con el índice compartido del DAO,
+ * de modo que cada familia se busca en la base de datos una sola vez en toda la importación.
+ * <p>
+ * Las filas con datos no válidos, o que la base de datos rechaza, se devuelven como errores con su número de línea
+ * sin detener la importación. Los lotes registrados se apuntan en un fichero {@code .progreso} junto al importado:
+ * si la importación se interrumpe, al repetirla con el mismo fichero se omiten los lotes ya registrados.
+ * Si se interrumpe entre que un lote se confirma y se apunta, ese lote se registra dos veces.
+ */
+public class ImportacionService {
+
+    /**
+     * Columnas del fichero de importación.
+     */
+    public static final List<String> COLUMNAS = List.of(
+            "nombre", "especie", "edad", "descripcion", "estado", "familia", "edad_familia", "ciudad_familia");
+
+    /**
+     * Número de hilos de escritura por defecto. Cada uno usa una conexión del pool mientras registra un lote.
+     */
+    public static final int HILOS_ESCRITURA_POR_DEFECTO = 4;
+
+    /**
+     * Número de animales por lote por defecto; cada lote se registra en una transacción.
+     */
+    public static final int TAMANO_LOTE_POR_DEFECTO = 500;
+
+    /**
+     * Tamaño mínimo por defecto de cada bloque del fichero que se analiza en paralelo, en bytes.
+     */
+    public static final long TAMANO_BLOQUE_POR_DEFECTO = 8L * 1024 * 1024;
+
+    /**
+     * Lotes que pueden esperar en la cola por cada hilo de escritura.
+     */
+    private static final int LOTES_EN_COLA_POR_ESCRITOR = 2;
+
+    /**
+     * Número máximo de errores que se guardan en el resultado; del resto solo se cuenta el total.
+     */
+    private static final int MAX_ERRORES_GUARDADOS = 1000;
+
+    /**
+     * Tamaño máximo de la cabecera del fichero, en bytes.
+     */
+    private static final int TAMANO_MAXIMO_CABECERA = 64 * 1024;
+
+    /**
+     * Longitud máxima de la descripción de un animal, la de su columna en la base de datos.
+     */
+    private static final int LONGITUD_MAXIMA_DESCRIPCION = 500;
+
+    /**
+     * Marca el final de la cola de lotes para los hilos de escritura.
+     */
+    private static final Lote FIN = new Lote(-1, -1, 0);
+
+    /**
+     * Servicio con el que se registran los animales.
+     */
+    private AnimalService animalService;
+
+    private final int hilosEscritura;
+    private final int tamanoLote;
+    private final long tamanoBloque;
+
+    /**
+     * Constructor que usa el número de hilos y los tamaños de lote y de bloque por defecto.
+     */
+    public ImportacionService() {
+        this(HILOS_ESCRITURA_POR_DEFECTO, TAMANO_LOTE_POR_DEFECTO, TAMANO_BLOQUE_POR_DEFECTO);
+    }
+
+    /**
+     * Constructor que indica el número de hilos de escritura y los tamaños de lote y de bloque.
+     * Para reanudar una importación interrumpida hay que usar los mismos tamaños.
+     *
+     * @param hilosEscritura el número de hilos que registran lotes a la vez.
+     * @param tamanoLote     el número de animales que se registran en cada transacción.
+     * @param tamanoBloque   el tamaño mínimo de cada bloque del fichero que se analiza en paralelo, en bytes.
+     * @throws IllegalArgumentException si algún valor no es positivo.
+     */
+    public ImportacionService(int hilosEscritura, int tamanoLote, long tamanoBloque) {
+        if (hilosEscritura <= 0 || tamanoLote <= 0 || tamanoBloque <= 0) {
+            throw new IllegalArgumentException("Los hilos y los tamaños de lote y de bloque deben ser positivos");
+        }
+        this.animalService = new AnimalService();
+        this.hilosEscritura = hilosEscritura;
+        this.tamanoLote = tamanoLote;
+        this.tamanoBloque = tamanoBloque;
+    }
+
+    /**
+     * Importa los animales de un fichero CSV. Si hay una importación interrumpida del mismo fichero,
+     * la reanuda; al terminar se borra el fichero de progreso.
+     *
+     * @param fichero el fichero CSV.
+     * @return el resumen de la importación, con los errores de las filas rechazadas.
+     * @throws IOException              si no se puede leer el fichero o escribir el progreso.
+     * @throws IllegalArgumentException si a la cabecera le falta alguna columna obligatoria.
+     */
+    public ResultadoImportacion importar(Path fichero) throws IOException {
+        try {
+            return Metricas.medir("ImportacionService.importar", () -> {
+                try {
+                    return new Importacion(fichero).ejecutar();
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * Obtiene el fichero en el que se apunta el progreso de la importación de un fichero.
+     *
+     * @param fichero el fichero importado.
+     * @return el fichero de progreso.
+     */
+    public static Path getFicheroProgreso(Path fichero) {
+        return fichero.resolveSibling(fichero.getFileName() + ".progreso");
+    }
+
+    /**
+     * Estado de una importación en curso, compartido por los hilos de análisis y de escritura.
+     */
+    private class Importacion {
+
+        private final Path fichero;
+        private final long inicio = System.nanoTime();
+        private final BlockingQueue<Lote> cola = new ArrayBlockingQueue<>(hilosEscritura * LOTES_EN_COLA_POR_ESCRITOR);
+        private final LongAdder filasLeidas = new LongAdder();
+        private final LongAdder filasImportadas = new LongAdder();
+        private final LongAdder filasOmitidas = new LongAdder();
+        private final List<ErrorImportacion> errores = new ArrayList<>();
+        private long totalErrores;
+        private ProgresoImportacion progreso;
+
+        /**
+         * Error al apuntar el progreso o al repartir un lote entre los shards, que detiene la lectura
+         * y la escritura de lotes: una {@link IOException} o una {@link RuntimeException}.
+         */
+        private volatile Exception fallo;
+
+        /**
+         * Posición de cada columna de {@link #COLUMNAS} en el fichero, o -1 si no está.
+         */
+        private int[] posiciones;
+
+        Importacion(Path fichero) {
+            this.fichero = fichero;
+        }
+
+        ResultadoImportacion ejecutar() throws IOException {
+            try (FileChannel canal = FileChannel.open(fichero, StandardOpenOption.READ)) {
+                LectorCsv.Bloque datos = leerCabecera(canal);
+                List<LectorCsv.Bloque> bloques = LectorCsv.dividir(canal, datos.inicio, datos.primeraLinea, tamanoBloque);
+
+                String firma = "tamano=" + canal.size() + " modificado=" + Files.getLastModifiedTime(fichero).toMillis()
+                        + " bloque=" + tamanoBloque + " lote=" + tamanoLote;
+                progreso = ProgresoImportacion.abrir(getFicheroProgreso(fichero), firma);
+                try {
+                    procesar(canal, bloques);
+                } catch (IOException | RuntimeException e) {
+                    progreso.close();
+                    throw e;
+                }
+                progreso.eliminar();
+            }
+
+            errores.sort(Comparator.comparingLong(ErrorImportacion::getLinea));
+            return new ResultadoImportacion(filasLeidas.sum(), filasImportadas.sum(), filasOmitidas.sum(),
+                    totalErrores, errores, Duration.ofNanos(System.nanoTime() - inicio));
+        }
+
+        /**
+         * Lee la cabecera y comprueba que tiene las columnas obligatorias.
+         *
+         * @return la posición y la línea en las que empiezan los datos.
+         */
+        private LectorCsv.Bloque leerCabecera(FileChannel canal) throws IOException {
+            long tamano = Math.min(canal.size(), TAMANO_MAXIMO_CABECERA);
+            MappedByteBuffer cabecera = canal.map(FileChannel.MapMode.READ_ONLY, 0, tamano);
+            // Marca de orden de bytes de UTF-8
+            if (tamano >= 3 && cabecera.get(0) == (byte) 0xEF && cabecera.get(1) == (byte) 0xBB && cabecera.get(2) == (byte) 0xBF) {
+                cabecera.position(3);
+            }
+
+            LectorCsv lector = new LectorCsv(cabecera, 1);
+            List<String> campos = new ArrayList<>();
+            if (!lector.siguiente(campos) || (!lector.terminaEnLinea() && tamano < canal.size())) {
+                throw new IllegalArgumentException("El fichero no tiene una cabecera válida");
+            }
+
+            posiciones = new int[COLUMNAS.size()];
+            for (int i = 0; i < posiciones.length; i++) {
+                posiciones[i] = -1;
+                for (int j = 0; j < campos.size(); j++) {
+                    if (campos.get(j).trim().toLowerCase(Locale.ROOT).equals(COLUMNAS.get(i))) {
+                        posiciones[i] = j;
+                    }
+                }
+                boolean opcional = COLUMNAS.get(i).equals("descripcion") || COLUMNAS.get(i).equals("estado");
+                if (posiciones[i] < 0 && !opcional) {
+                    throw new IllegalArgumentException("Falta la columna " + COLUMNAS.get(i) + " en la cabecera");
+                }
+            }
+            return new LectorCsv.Bloque(-1, cabecera.position(), canal.size(), lector.getLinea());
+        }
+
+        /**
+         * Analiza los bloques en paralelo y registra sus lotes con los hilos de escritura.
+         */
+        private void procesar(FileChannel canal, List<LectorCsv.Bloque> bloques) throws IOException {
+            int hilosAnalisis = Math.max(1, Math.min(Runtime.getRuntime().availableProcessors(), bloques.size()));
+            ExecutorService analizadores = Executors.newFixedThreadPool(hilosAnalisis,
+                    Thread.ofPlatform().name("importacion-analisis-", 1).factory());
+            ExecutorService escritores = Executors.newFixedThreadPool(hilosEscritura,
+                    Thread.ofPlatform().name("importacion-escritura-", 1).factory());
+            try {
+                List<Future<?>> escrituras = new ArrayList<>();
+                for (int i = 0; i < hilosEscritura; i++) {
+                    escrituras.add(escritores.submit(() -> {
+                        escribir();
+                        return null;
+                    }));
+                }
+
+                List<Future<?>> analisis = new ArrayList<>();
+                for (LectorCsv.Bloque bloque : bloques) {
+                    analisis.add(analizadores.submit(() -> {
+                        analizar(canal, bloque);
+                        return null;
+                    }));
+                }
+                try {
+                    esperar(analisis);
+                } finally {
+                    // Los escritores terminan cuando han registrado todos los lotes anteriores
+                    analizadores.shutdownNow();
+                    for (int i = 0; i < hilosEscritura; i++) {
+                        cola.put(FIN);
+                    }
+                }
+                esperar(escrituras);
+                if (fallo instanceof IOException) {
+                    throw (IOException) fallo;
+                }
+                if (fallo != null) {
+                    throw (RuntimeException) fallo;
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Importación interrumpida");
+            } finally {
+                analizadores.shutdownNow();
+                escritores.shutdownNow();
+            }
+        }
+
+        private void esperar(List<Future<?>> tareas) throws IOException, InterruptedException {
+            for (Future<?> tarea : tareas) {
+                try {
+                    tarea.get();
+                } catch (ExecutionException e) {
+                    if (e.getCause() instanceof IOException) {
+                        throw (IOException) e.getCause();
+                    }
+                    if (e.getCause() instanceof RuntimeException) {
+                        throw (RuntimeException) e.getCause();
+                    }
+                    throw new IOException(e.getCause());
+                }
+            }
+        }
+
+        /**
+         * Lee los registros de un bloque, los convierte en animales y envía los lotes a la cola.
+         */
+        private void analizar(FileChannel canal, LectorCsv.Bloque bloque) throws IOException, InterruptedException {
+            MappedByteBuffer datos = canal.map(FileChannel.MapMode.READ_ONLY, bloque.inicio, bloque.fin - bloque.inicio);
+            LectorCsv lector = new LectorCsv(datos, bloque.primeraLinea);
+            List<String> campos = new ArrayList<>();
+            Lote lote = new Lote(bloque.indice, 0, tamanoLote);
+            while (true) {
+                long linea = lector.getLinea();
+                if (!lector.siguiente(campos)) {
+                    break;
+                }
+                if (campos.size() == 1 && campos.get(0).trim().isEmpty()) {
+                    continue;
+                }
+                filasLeidas.increment();
+                try {
+                    lote.anadir(crearAnimal(campos), linea);
+                } catch (IllegalArgumentException e) {
+                    registrarError(linea, e.getMessage());
+                    continue;
+                }
+                if (lote.tamano == tamanoLote) {
+                    if (!enviar(lote)) {
+                        return;
+                    }
+                    lote = new Lote(bloque.indice, lote.numero + 1, tamanoLote);
+                }
+            }
+            if (lote.tamano > 0) {
+                enviar(lote);
+            }
+        }
+
+        /**
+         * Envía un lote a la cola, o lo cuenta como omitido si ya se registró en una importación anterior.
+         *
+         * @return {@code false} si la escritura ha fallado y no tiene sentido seguir leyendo el bloque.
+         */
+        private boolean enviar(Lote lote) throws InterruptedException {
+            if (fallo != null) {
+                return false;
+            }
+            if (progreso.estaCompletado(lote.bloque, lote.numero)) {
+                filasOmitidas.add(lote.tamano);
+            } else {
+                cola.put(lote);
+            }
+            return true;
+        }
+
+        /**
+         * Registra los lotes de la cola hasta encontrar el final. Si no se puede repartir un lote entre los shards
+         * o apuntar el progreso, sigue vaciando la cola sin registrar nada para que el análisis no se quede esperando.
+         */
+        private void escribir() throws InterruptedException {
+            for (Lote lote = cola.take(); lote != FIN; lote = cola.take()) {
+                if (fallo != null) {
+                    continue;
+                }
+                try {
+                    for (Lote parte : lote.porShard(animalService)) {
+                        filasImportadas.add(registrar(parte));
+                    }
+                    progreso.completar(lote.bloque, lote.numero);
+                } catch (IOException | RuntimeException e) {
+                    fallo = e;
+                }
+            }
+        }
+
+        /**
+         * Registra un lote de animales de un mismo shard, que se confirma o se deshace entero.
+         */
+        private int registrar(Lote lote) {
+            int guardados;
+            try {
+                guardados = animalService.registrarAnimales(lote.animales, tamanoLote);
+            } catch (RuntimeException e) {
+                guardados = 0;
+            }
+            if (guardados != lote.tamano) {
+                // Se ha deshecho el lote entero: se registra animal a animal para saber qué filas fallan
+                guardados = registrarUnoAUno(lote);
+            }
+            return guardados;
+        }
+
+        private int registrarUnoAUno(Lote lote) {
+            int guardados = 0;
+            for (int i = 0; i < lote.tamano; i++) {
+                try {
+                    if (animalService.registrarAnimales(List.of(lote.animales.get(i)), 1) == 1) {
+                        guardados++;
+                    } else {
+                        registrarError(lote.lineas[i], "La base de datos ha rechazado el animal");
+                    }
+                } catch (RuntimeException e) {
+                    registrarError(lote.lineas[i], e.getMessage());
+                }
+            }
+            return guardados;
+        }
+
+        private synchronized void registrarError(long linea, String mensaje) {
+            totalErrores++;
+            if (errores.size() < MAX_ERRORES_GUARDADOS) {
+                errores.add(new ErrorImportacion(linea, mensaje));
+            }
+        }
+
+        /**
+         * Convierte los campos de una fila en un animal con los datos de su familia.
+         *
+         * @throws IllegalArgumentException si algún campo no es válido.
+         */
+        private Animal crearAnimal(List<String> campos) {
+            if (campos.size() < maximaPosicion() + 1) {
+                throw new IllegalArgumentException("La fila tiene " + campos.size() + " campos y se esperaban al menos "
+                        + (maximaPosicion() + 1));
+            }
+            Animal animal = new Animal();
+            animal.setNombre(obligatorio(campos, "nombre"));
+            animal.setEspecie(obligatorio(campos, "especie"));
+            animal.setEdad(entero(campos, "edad"));
+
+            String descripcion = opcional(campos, "descripcion");
+            if (descripcion != null && descripcion.length() > LONGITUD_MAXIMA_DESCRIPCION) {
+                throw new IllegalArgumentException("La descripción supera los " + LONGITUD_MAXIMA_DESCRIPCION + " caracteres");
+            }
+            animal.setDescripcion(descripcion);
+
+            String estado = opcional(campos, "estado");
+            try {
+                animal.setEstado(estado == null ? EstadoAnimal.RECIEN_ABANDONADO
+                        : EstadoAnimal.valueOf(estado.trim().toUpperCase(Locale.ROOT).replace(' ', '_')));
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Estado desconocido: " + estado);
+            }
+
+            // Solo los datos de la familia: al registrar el animal se busca o se crea la familia con ese nombre
+            Familia familia = new Familia();
+            familia.setNombre(obligatorio(campos, "familia"));
+            familia.setEdad(entero(campos, "edad_familia"));
+            familia.setCiudad(obligatorio(campos, "ciudad_familia"));
+            animal.setFamilia(familia);
+            return animal;
+        }
+
+        private int maximaPosicion() {
+            int maxima = 0;
+            for (int posicion : posiciones) {
+                maxima = Math.max(maxima, posicion);
+            }
+            return maxima;
+        }
+
+        private String opcional(List<String> campos, String columna) {
+            int posicion = posiciones[COLUMNAS.indexOf(columna)];
+            String valor = posicion >= 0 ? campos.get(posicion) : null;
+            return valor == null || valor.trim().isEmpty() ? null : valor;
+        }
+
+        private String obligatorio(List<String> campos, String columna) {
+            String valor = opcional(campos, columna);
+            if (valor == null) {
+                throw new IllegalArgumentException("Falta el valor de " + columna);
+            }
+            return valor.trim();
+        }
+
+        private int entero(List<String> campos, String columna) {
+            String valor = obligatorio(campos, columna);
+            try {
+                int entero = Integer.parseInt(valor);
+                if (entero < 0) {
+                    throw new IllegalArgumentException("El valor de " + columna + " no puede ser negativo: " + valor);
+                }
+                return entero;
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("El valor de " + columna + " no es un número entero: " + valor);
+            }
+        }
+    }
+
+    /**
+     * Animales consecutivos de un bloque que se registran en una misma transacción.
+     * Los lotes se numeran dentro de su bloque, de modo que el mismo fichero siempre da los mismos lotes.
+     */
+    private static final class Lote {
+
+        final int bloque;
+        final int numero;
+        final List<Animal> animales;
+
+        /**
+         * Línea del fichero de cada animal, para informar de los errores.
+         */
+        final long[] lineas;
+        int tamano;
+
+        Lote(int bloque, int numero, int capacidad) {
+            this.bloque = bloque;
+            this.numero = numero;
+            this.animales = new ArrayList<>(capacidad);
+            this.lineas = new long[capacidad];
+        }
+
+        void anadir(Animal animal, long linea) {
+            animales.add(animal);
+            lineas[tamano++] = linea;
+        }
+
+        /**
+         * Parte el lote en uno por cada shard de sus animales, en el orden del fichero.
+         */
+        List<Lote> porShard(AnimalService animalService) {
+            Map<String, Lote> partes = new LinkedHashMap<>();
+            for (int i = 0; i < tamano; i++) {
+                Animal animal = animales.get(i);
+                partes.computeIfAbsent(animalService.obtenerShard(animal), shard -> new Lote(bloque, numero, tamano))
+                        .anadir(animal, lineas[i]);
+            }
+            return partes.size() <= 1 ? List.of(this) : new ArrayList<>(partes.values());
+        }
+    }
+}
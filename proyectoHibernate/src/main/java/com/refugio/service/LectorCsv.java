@@ -0,0 +1,197 @@
+package com.refugio.service;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Lee registros CSV (RFC 4180, separados por comas, en UTF-8) de un fichero proyectado en memoria.
+ * {@link #dividir(FileChannel, long, long, long)} parte el fichero en bloques que terminan al final de un registro,
+ * y cada bloque se lee con su propio lector, de modo que varios hilos pueden analizar el fichero a la vez.
+ * Cada lector pertenece a un solo hilo.
+ */
+final class LectorCsv {
+
+    /**
+     * Tamaño de cada ventana del fichero que se proyecta en memoria al buscar los límites de los bloques.
+     */
+    private static final long TAMANO_VENTANA = 64L * 1024 * 1024;
+
+    private final ByteBuffer datos;
+
+    /**
+     * Bytes del campo que se está leyendo.
+     */
+    private byte[] campo = new byte[256];
+    private int longitudCampo;
+
+    /**
+     * Número de la línea en la que empieza el siguiente registro.
+     */
+    private long linea;
+
+    /**
+     * Crea un lector de los registros de un bloque.
+     *
+     * @param datos        los bytes del bloque, desde su posición hasta su límite.
+     * @param primeraLinea el número de línea del fichero en el que empieza el bloque.
+     */
+    LectorCsv(ByteBuffer datos, long primeraLinea) {
+        this.datos = datos;
+        this.linea = primeraLinea;
+    }
+
+    /**
+     * Obtiene el número de la línea del fichero en la que empieza el siguiente registro.
+     *
+     * @return el número de línea, contando desde 1.
+     */
+    long getLinea() {
+        return linea;
+    }
+
+    /**
+     * Lee el siguiente registro. Una línea vacía se lee como un registro con un único campo vacío.
+     *
+     * @param campos la lista en la que se dejan los campos del registro; se vacía antes de leer.
+     * @return {@code false} si no quedan registros en el bloque.
+     */
+    boolean siguiente(List<String> campos) {
+        campos.clear();
+        if (!datos.hasRemaining()) {
+            return false;
+        }
+        boolean enComillas = false;
+        while (datos.hasRemaining()) {
+            byte b = datos.get();
+            if (enComillas) {
+                if (b != '"') {
+                    if (b == '\n') {
+                        linea++;
+                    }
+                    anadir(b);
+                } else if (datos.hasRemaining() && datos.get(datos.position()) == '"') {
+                    // Comillas dobles dentro de un texto entre comillas
+                    datos.get();
+                    anadir(b);
+                } else {
+                    enComillas = false;
+                }
+            } else if (b == '"') {
+                enComillas = true;
+            } else if (b == ',') {
+                campos.add(terminarCampo());
+            } else if (b == '\n') {
+                linea++;
+                break;
+            } else if (b != '\r') {
+                anadir(b);
+            }
+        }
+        campos.add(terminarCampo());
+        return true;
+    }
+
+    /**
+     * Indica si el último registro leído terminaba con un salto de línea.
+     *
+     * @return {@code true} si el registro estaba completo.
+     */
+    boolean terminaEnLinea() {
+        return datos.position() > 0 && datos.get(datos.position() - 1) == '\n';
+    }
+
+    private void anadir(byte b) {
+        if (longitudCampo == campo.length) {
+            campo = Arrays.copyOf(campo, campo.length * 2);
+        }
+        campo[longitudCampo++] = b;
+    }
+
+    private String terminarCampo() {
+        String texto = new String(campo, 0, longitudCampo, StandardCharsets.UTF_8);
+        longitudCampo = 0;
+        return texto;
+    }
+
+    /**
+     * Parte los datos de un fichero CSV en bloques de al menos {@code tamanoBloque} bytes que terminan al final
+     * de un registro. Para no cortar un texto entre comillas que contiene saltos de línea hay que recorrer
+     * todo el fichero siguiendo las comillas, pero es un recorrido secuencial de bytes sin decodificar,
+     * mucho más rápido que analizar los registros.
+     *
+     * @param canal        el fichero.
+     * @param inicio       la posición en la que empiezan los datos, después de la cabecera.
+     * @param primeraLinea el número de línea en el que empiezan los datos.
+     * @param tamanoBloque el tamaño mínimo de cada bloque, en bytes.
+     * @return los bloques, en el orden del fichero.
+     * @throws IOException si no se puede leer el fichero.
+     */
+    static List<Bloque> dividir(FileChannel canal, long inicio, long primeraLinea, long tamanoBloque) throws IOException {
+        List<Bloque> bloques = new ArrayList<>();
+        long tamano = canal.size();
+        long inicioBloque = inicio;
+        long lineaBloque = primeraLinea;
+        long linea = primeraLinea;
+        boolean enComillas = false;
+        for (long ventana = inicio; ventana < tamano; ventana += TAMANO_VENTANA) {
+            MappedByteBuffer datos = canal.map(FileChannel.MapMode.READ_ONLY, ventana, Math.min(TAMANO_VENTANA, tamano - ventana));
+            for (int i = 0, n = datos.limit(); i < n; i++) {
+                byte b = datos.get(i);
+                if (b == '"') {
+                    enComillas = !enComillas;
+                } else if (b == '\n') {
+                    linea++;
+                    long fin = ventana + i + 1;
+                    if (!enComillas && fin - inicioBloque >= tamanoBloque) {
+                        bloques.add(new Bloque(bloques.size(), inicioBloque, fin, lineaBloque));
+                        inicioBloque = fin;
+                        lineaBloque = linea;
+                    }
+                }
+            }
+        }
+        if (inicioBloque < tamano) {
+            bloques.add(new Bloque(bloques.size(), inicioBloque, tamano, lineaBloque));
+        }
+        return bloques;
+    }
+
+    /**
+     * Parte de un fichero CSV que se puede leer de forma independiente.
+     */
+    static final class Bloque {
+
+        /**
+         * Posición del bloque en el fichero, empezando por 0.
+         */
+        final int indice;
+
+        /**
+         * Posición del primer byte del bloque.
+         */
+        final long inicio;
+
+        /**
+         * Posición siguiente al último byte del bloque.
+         */
+        final long fin;
+
+        /**
+         * Número de la línea del fichero en la que empieza el bloque.
+         */
+        final long primeraLinea;
+
+        Bloque(int indice, long inicio, long fin, long primeraLinea) {
+            this.indice = indice;
+            this.inicio = inicio;
+            this.fin = fin;
+            this.primeraLinea = primeraLinea;
+        }
+    }
+}
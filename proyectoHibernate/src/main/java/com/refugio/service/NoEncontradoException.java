@@ -0,0 +1,20 @@
+package com.refugio.service;
+
+/**
+ * Excepción que lanzan los servicios cuando el animal o la familia sobre los que se pide una operación no existen.
+ * Extiende {@link IllegalArgumentException} porque el ID recibido no es válido, pero permite distinguir este caso
+ * de los demás datos no válidos, por ejemplo para responder {@code 404} en la API.
+ */
+public class NoEncontradoException extends IllegalArgumentException {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Crea la excepción con el mensaje indicado.
+     *
+     * @param mensaje el mensaje, que indica qué no se ha encontrado.
+     */
+    public NoEncontradoException(String mensaje) {
+        super(mensaje);
+    }
+}
@@ -0,0 +1,123 @@
+package com.refugio.service;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Fichero en el que una importación apunta los lotes que ya ha registrado, para que si se interrumpe
+ * la siguiente importación del mismo fichero no los vuelva a registrar.
+ * La primera línea es la firma de la importación: el tamaño y la fecha de modificación del fichero importado
+ * y los tamaños de bloque y de lote, que determinan qué filas forman cada lote. Si la firma no coincide,
+ * el progreso anterior se descarta. Cada línea siguiente es un lote registrado, con la forma {@code bloque:lote}.
+ */
+final class ProgresoImportacion implements AutoCloseable {
+
+    private final Path fichero;
+    private final FileChannel canal;
+
+    /**
+     * Lotes registrados, como {@code bloque << 32 | lote}.
+     */
+    private final Set<Long> completados = ConcurrentHashMap.newKeySet();
+
+    private ProgresoImportacion(Path fichero, FileChannel canal) {
+        this.fichero = fichero;
+        this.canal = canal;
+    }
+
+    /**
+     * Abre el fichero de progreso y carga los lotes ya registrados si la firma coincide; si no, lo empieza de nuevo.
+     *
+     * @param fichero el fichero de progreso.
+     * @param firma   la firma de la importación.
+     * @return el progreso de la importación.
+     * @throws IOException si no se puede leer o escribir el fichero.
+     */
+    static ProgresoImportacion abrir(Path fichero, String firma) throws IOException {
+        if (Files.exists(fichero)) {
+            String contenido = new String(Files.readAllBytes(fichero), StandardCharsets.UTF_8);
+            // Solo cuentan las líneas completas; la última puede haber quedado a medias
+            int fin = contenido.lastIndexOf('\n') + 1;
+            String[] lineas = contenido.substring(0, fin).split("\n");
+            if (fin > 0 && lineas[0].equals(firma)) {
+                FileChannel canal = FileChannel.open(fichero, StandardOpenOption.WRITE);
+                canal.truncate(contenido.substring(0, fin).getBytes(StandardCharsets.UTF_8).length);
+                canal.position(canal.size());
+                ProgresoImportacion progreso = new ProgresoImportacion(fichero, canal);
+                for (int i = 1; i < lineas.length; i++) {
+                    progreso.cargar(lineas[i]);
+                }
+                return progreso;
+            }
+        }
+        ProgresoImportacion progreso = new ProgresoImportacion(fichero, FileChannel.open(fichero,
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE));
+        progreso.escribir(firma);
+        return progreso;
+    }
+
+    /**
+     * Indica si un lote ya se registró en una importación anterior.
+     *
+     * @param bloque el índice del bloque.
+     * @param lote   el índice del lote dentro del bloque.
+     * @return {@code true} si el lote ya está registrado.
+     */
+    boolean estaCompletado(int bloque, int lote) {
+        return completados.contains(clave(bloque, lote));
+    }
+
+    /**
+     * Apunta que un lote se ha registrado.
+     *
+     * @param bloque el índice del bloque.
+     * @param lote   el índice del lote dentro del bloque.
+     * @throws IOException si no se puede escribir el fichero.
+     */
+    synchronized void completar(int bloque, int lote) throws IOException {
+        completados.add(clave(bloque, lote));
+        escribir(bloque + ":" + lote);
+    }
+
+    /**
+     * Cierra y borra el fichero de progreso, cuando la importación ha terminado.
+     *
+     * @throws IOException si no se puede borrar el fichero.
+     */
+    void eliminar() throws IOException {
+        close();
+        Files.deleteIfExists(fichero);
+    }
+
+    @Override
+    public void close() throws IOException {
+        canal.close();
+    }
+
+    private void cargar(String linea) {
+        int separador = linea.indexOf(':');
+        try {
+            completados.add(clave(Integer.parseInt(linea.substring(0, separador)), Integer.parseInt(linea.substring(separador + 1))));
+        } catch (RuntimeException e) {
+            // Línea que no es de un lote: se ignora
+        }
+    }
+
+    private void escribir(String linea) throws IOException {
+        ByteBuffer bytes = ByteBuffer.wrap((linea + "\n").getBytes(StandardCharsets.UTF_8));
+        while (bytes.hasRemaining()) {
+            canal.write(bytes);
+        }
+    }
+
+    private static long clave(int bloque, int lote) {
+        return (long) bloque << 32 | (lote & 0xFFFFFFFFL);
+    }
+}
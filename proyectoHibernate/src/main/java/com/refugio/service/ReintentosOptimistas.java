@@ -0,0 +1,90 @@
+package com.refugio.service;
+
+import com.refugio.dao.Metricas;
+
+import javax.persistence.OptimisticLockException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Supplier;
+
+/**
+ * Repite las operaciones que fallan porque otra transacción ha modificado a la vez el mismo animal o la misma familia.
+ * Entre intentos se espera un tiempo aleatorio que crece con cada intento, hasta {@value #ESPERA_MAXIMA_MILLIS} ms,
+ * para que las transacciones en conflicto no vuelvan a coincidir. Cada conflicto y cada reintento se cuentan
+ * en {@link Metricas}.
+ */
+final class ReintentosOptimistas {
+
+    /**
+     * Número máximo de intentos de una operación.
+     */
+    static final int MAX_INTENTOS = 8;
+
+    /**
+     * Espera máxima, en milisegundos, antes del segundo intento.
+     */
+    private static final long ESPERA_INICIAL_MILLIS = 5;
+
+    /**
+     * Espera máxima, en milisegundos, entre dos intentos.
+     */
+    private static final long ESPERA_MAXIMA_MILLIS = 200;
+
+    private ReintentosOptimistas() {
+    }
+
+    /**
+     * Ejecuta una operación y la repite mientras falle por un conflicto de versión.
+     * La operación debe volver a leer lo que necesite en cada intento.
+     *
+     * @param operacion el nombre de la operación en las métricas.
+     * @param accion    la operación a ejecutar.
+     * @param <T>       el tipo del resultado.
+     * @return el resultado de la operación.
+     * @throws IllegalStateException si la operación sigue en conflicto tras {@value #MAX_INTENTOS} intentos.
+     */
+    static <T> T ejecutar(String operacion, Supplier<T> accion) {
+        for (int intento = 1; ; intento++) {
+            try {
+                return accion.get();
+            } catch (OptimisticLockException e) {
+                Metricas.registrarConflicto(operacion);
+                if (intento >= MAX_INTENTOS || !esperar(intento)) {
+                    throw new IllegalStateException("Los datos se han modificado a la vez desde otro puesto; "
+                            + "inténtalo de nuevo", e);
+                }
+                Metricas.registrarReintento(operacion);
+            }
+        }
+    }
+
+    /**
+     * Ejecuta una operación que no devuelve resultado y la repite mientras falle por un conflicto de versión.
+     *
+     * @param operacion el nombre de la operación en las métricas.
+     * @param accion    la operación a ejecutar.
+     * @throws IllegalStateException si la operación sigue en conflicto tras {@value #MAX_INTENTOS} intentos.
+     */
+    static void ejecutar(String operacion, Runnable accion) {
+        ejecutar(operacion, () -> {
+            accion.run();
+            return null;
+        });
+    }
+
+    /**
+     * Espera antes del siguiente intento un tiempo aleatorio entre 0 y el doble de la espera máxima anterior.
+     *
+     * @param intento el número del intento que acaba de fallar.
+     * @return {@code false} si el hilo se ha interrumpido durante la espera.
+     */
+    private static boolean esperar(int intento) {
+        long tope = Math.min(ESPERA_MAXIMA_MILLIS, ESPERA_INICIAL_MILLIS << (intento - 1));
+        try {
+            Thread.sleep(ThreadLocalRandom.current().nextLong(tope + 1));
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+}
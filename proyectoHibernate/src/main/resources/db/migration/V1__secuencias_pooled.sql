@@ -0,0 +1,13 @@
+-- Los IDs de animales y familias pasan de columnas AUTO_INCREMENT a secuencias con optimizador pooled
+-- (allocationSize = 50). MySQL no tiene secuencias, así que Hibernate las emula con una tabla de una fila.
+-- Cada secuencia se inicializa por encima del mayor ID existente; el optimizador pooled toma
+-- next_val como límite superior del primer bloque, de ahí el margen de 50.
+-- Ejecutar con la aplicación detenida.
+
+CREATE TABLE IF NOT EXISTS animales_seq (next_val BIGINT);
+DELETE FROM animales_seq;
+INSERT INTO animales_seq (next_val) SELECT COALESCE(MAX(id), 0) + 50 FROM animales;
+
+CREATE TABLE IF NOT EXISTS familias_seq (next_val BIGINT);
+DELETE FROM familias_seq;
+INSERT INTO familias_seq (next_val) SELECT COALESCE(MAX(id), 0) + 50 FROM familias;
@@ -0,0 +1,14 @@
+-- El nombre identifica a cada familia. Antes de crear el índice único se reasignan los animales
+-- de las familias duplicadas a la de menor ID y se eliminan los duplicados.
+
+UPDATE animales a
+    JOIN familias f ON f.id = a.familia_id
+    JOIN (SELECT nombre, MIN(id) AS id FROM familias GROUP BY nombre) unica ON unica.nombre = f.nombre
+SET a.familia_id = unica.id
+WHERE a.familia_id <> unica.id;
+
+DELETE f FROM familias f
+    JOIN (SELECT nombre, MIN(id) AS id FROM familias GROUP BY nombre) unica ON unica.nombre = f.nombre
+WHERE f.id <> unica.id;
+
+CREATE UNIQUE INDEX uk_familias_nombre ON familias (nombre);
@@ -0,0 +1,19 @@
+-- El estado de cada animal pasa de texto libre a un código numérico de un byte (EstadoAnimal).
+-- Los textos que no corresponden a ningún estado conocido vuelven al estado inicial, "recién abandonado".
+
+ALTER TABLE animales ADD COLUMN estado_codigo TINYINT NULL;
+
+UPDATE animales SET estado_codigo = CASE LOWER(TRIM(estado))
+    WHEN 'en tratamiento' THEN 2
+    WHEN 'vacunado' THEN 3
+    WHEN 'acogida' THEN 4
+    WHEN 'acogido' THEN 4
+    WHEN 'adoptado' THEN 5
+    ELSE 1
+END;
+
+ALTER TABLE animales MODIFY estado_codigo TINYINT NOT NULL;
+ALTER TABLE animales DROP COLUMN estado;
+
+CREATE INDEX idx_animales_estado ON animales (estado_codigo);
+CREATE INDEX idx_animales_especie_estado ON animales (especie, estado_codigo);
@@ -0,0 +1,6 @@
+-- Columnas de versión para el bloqueo optimista de animales y familias.
+-- Las filas existentes empiezan en la versión 0.
+
+ALTER TABLE animales ADD COLUMN version BIGINT NOT NULL DEFAULT 0;
+
+ALTER TABLE familias ADD COLUMN version BIGINT NOT NULL DEFAULT 0;
@@ -0,0 +1,4 @@
+-- Índice para listar los animales de una especie por páginas ordenadas por ID (paginación por clave),
+-- sin ordenar todos los animales de la especie en cada página.
+
+CREATE INDEX idx_animales_especie_id ON animales (especie, id);
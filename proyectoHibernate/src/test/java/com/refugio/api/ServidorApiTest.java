@@ -0,0 +1,93 @@
+package com.refugio.api;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.refugio.dao.Metricas;
+import org.junit.jupiter.api.Test;
+import static com.refugio.dao.DatosPrueba.unica;
+import static org.junit.jupiter.api.Assertions.*;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+
+public class ServidorApiTest {
+
+    @Test
+    public void testServidorApi() throws Exception {
+        String especie = unica("Api");
+        ObjectMapper json = new ObjectMapper();
+        HttpClient cliente = HttpClient.newHttpClient();
+
+        try (ServidorApi api = new ServidorApi(0, Duration.ofSeconds(10))) {
+            String base = "http://localhost:" + api.getPuerto();
+            HttpResponse<String> respuesta = cliente.send(HttpRequest.newBuilder(URI.create(base + "/animales"))
+                    .POST(HttpRequest.BodyPublishers.ofString("{\"nombre\":\"Lola\",\"especie\":\"" + especie
+                            + "\",\"edad\":3,\"familia\":{\"nombre\":\"Guerrero\",\"edad\":36,\"ciudad\":\"Sevilla\"}}"))
+                    .build(), HttpResponse.BodyHandlers.ofString());
+            assertEquals(201, respuesta.statusCode());
+            JsonNode animal = json.readTree(respuesta.body());
+            long id = animal.get("id").asLong();
+            long familia = animal.get("familia").get("id").asLong();
+            assertEquals("RECIEN_ABANDONADO", animal.get("estado").asText());
+
+            // Los campos que no caben en su columna se rechazan sin llegar a la base de datos
+            assertEquals(400, cliente.send(HttpRequest.newBuilder(URI.create(base + "/animales"))
+                    .POST(HttpRequest.BodyPublishers.ofString("{\"nombre\":\"" + "x".repeat(300) + "\",\"especie\":\""
+                            + especie + "\",\"edad\":3,\"familia\":{\"nombre\":\"Guerrero\",\"edad\":36,\"ciudad\":\"Sevilla\"}}"))
+                    .build(), HttpResponse.BodyHandlers.ofString()).statusCode());
+            assertEquals(400, cliente.send(HttpRequest.newBuilder(URI.create(base + "/animales"))
+                    .POST(HttpRequest.BodyPublishers.ofString("{\"nombre\":\"Lola\",\"especie\":\"" + especie
+                            + "\",\"edad\":3,\"descripcion\":\"" + "x".repeat(501)
+                            + "\",\"familia\":{\"nombre\":\"Guerrero\",\"edad\":36,\"ciudad\":\"Sevilla\"}}"))
+                    .build(), HttpResponse.BodyHandlers.ofString()).statusCode());
+
+            JsonNode lista = json.readTree(cliente.send(HttpRequest.newBuilder(URI.create(base + "/animales?especie=" + especie))
+                    .build(), HttpResponse.BodyHandlers.ofString()).body());
+            assertEquals(1, lista.get("animales").size());
+            assertEquals("Lola", lista.get("animales").get(0).get("nombre").asText());
+            assertTrue(lista.get("siguiente").isNull());
+
+            assertEquals(204, cliente.send(HttpRequest.newBuilder(URI.create(base + "/animales/" + id + "/estado"))
+                    .PUT(HttpRequest.BodyPublishers.ofString("{\"estado\":\"VACUNADO\"}")).build(),
+                    HttpResponse.BodyHandlers.ofString()).statusCode());
+            // El cambio no está permitido
+            assertEquals(409, cliente.send(HttpRequest.newBuilder(URI.create(base + "/animales/" + id + "/estado"))
+                    .PUT(HttpRequest.BodyPublishers.ofString("{\"estado\":\"RECIEN_ABANDONADO\"}")).build(),
+                    HttpResponse.BodyHandlers.ofString()).statusCode());
+
+            JsonNode historial = json.readTree(cliente.send(HttpRequest.newBuilder(URI.create(base + "/animales/" + id + "/historial"))
+                    .build(), HttpResponse.BodyHandlers.ofString()).body());
+            assertEquals("VACUNADO", historial.get("cambios").get(0).get("estadoNuevo").asText());
+
+            JsonNode datosFamilia = json.readTree(cliente.send(HttpRequest.newBuilder(URI.create(base + "/familias/" + familia))
+                    .build(), HttpResponse.BodyHandlers.ofString()).body());
+            assertEquals("Guerrero", datosFamilia.get("nombre").asText());
+
+            // El animal no existe
+            assertEquals(404, cliente.send(HttpRequest.newBuilder(URI.create(base + "/animales/" + (id + 1_000_000) + "/estado"))
+                    .PUT(HttpRequest.BodyPublishers.ofString("{\"estado\":\"VACUNADO\"}")).build(),
+                    HttpResponse.BodyHandlers.ofString()).statusCode());
+            assertEquals(404, cliente.send(HttpRequest.newBuilder(URI.create(base + "/animales/" + (id + 1_000_000) + "/familia"))
+                    .PUT(HttpRequest.BodyPublishers.ofString("{\"nombre\":\"Guerrero\",\"edad\":36,\"ciudad\":\"Sevilla\"}"))
+                    .build(), HttpResponse.BodyHandlers.ofString()).statusCode());
+            assertEquals(400, cliente.send(HttpRequest.newBuilder(URI.create(base + "/animales/uno/historial")).build(),
+                    HttpResponse.BodyHandlers.ofString()).statusCode());
+            assertEquals(400, cliente.send(HttpRequest.newBuilder(URI.create(base + "/animales?tamano=1000")).build(),
+                    HttpResponse.BodyHandlers.ofString()).statusCode());
+            assertEquals(400, cliente.send(HttpRequest.newBuilder(URI.create(base + "/animales?especie=" + especie + "&estado=VACUNADO"))
+                    .build(), HttpResponse.BodyHandlers.ofString()).statusCode());
+            assertEquals(400, cliente.send(HttpRequest.newBuilder(URI.create(base + "/animales/buscar?texto=lola&pagina=2147483647"))
+                    .build(), HttpResponse.BodyHandlers.ofString()).statusCode());
+            // Ningún shard genera ese ID, así que la familia no existe
+            assertEquals(404, cliente.send(HttpRequest.newBuilder(URI.create(base + "/familias/" + Long.MAX_VALUE)).build(),
+                    HttpResponse.BodyHandlers.ofString()).statusCode());
+            assertEquals(404, cliente.send(HttpRequest.newBuilder(URI.create(base + "/perros")).build(),
+                    HttpResponse.BodyHandlers.ofString()).statusCode());
+        }
+        String metricas = Metricas.exportar();
+        assertTrue(metricas.contains("refugio_http_peticiones_seconds_count"));
+        assertTrue(metricas.contains("ruta=\"/animales/{id}/estado\""));
+    }
+}
@@ -1,9 +1,25 @@
 package com.refugio.dao;
 
 import com.refugio.model.Animal;
+import com.refugio.model.CambioEstado;
+import com.refugio.model.EstadoAnimal;
+import com.refugio.model.Familia;
+import com.refugio.service.AnimalService;
+import org.hibernate.Cache;
 import org.junit.jupiter.api.Test;
+import javax.persistence.OptimisticLockException;
 import static org.junit.jupiter.api.Assertions.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
 
 public class AnimalDAOTest {
 
@@ -11,72 +27,296 @@ public class AnimalDAOTest {
     public void testSaveAndFindByEspecie() {
         AnimalDAO animalDAO = new AnimalDAO();
 
-        Animal animal = new Animal();
-        animal.setNombre("Paco");
-        animal.setEspecie("Podenco");
-        animal.setEdad(14);
-        animal.setDescripcion("Perro blanco con mancha en la cara negra");
-        animal.setEstado("recién abandonado");
+        Animal animal = DatosPrueba.animal("Paco", "Podenco", 14, "Perro blanco con mancha en la cara negra");
 
         String nombreFamilia = "Guerrero";
         int edadFamilia = 36;
         String ciudadFamilia = "Sevilla";
 
-        animalDAO.saveAnimal(animal, nombreFamilia, edadFamilia, ciudadFamilia);
+        assertTrue(animalDAO.saveAnimal(animal, nombreFamilia, edadFamilia, ciudadFamilia));
 
         List<Animal> perros = animalDAO.findByEspecie("Podenco");
         assertFalse(perros.isEmpty());
         assertEquals("Paco", perros.get(0).getNombre());
+
+        // El ID se asigna antes de confirmar: solo el resultado indica si el animal se ha guardado
+        String especie = DatosPrueba.unica("Rechazado");
+        Animal rechazado = DatosPrueba.animal("x".repeat(300), especie, 3, null);
+        assertFalse(animalDAO.saveAnimal(rechazado, nombreFamilia, edadFamilia, ciudadFamilia));
+        assertNotNull(rechazado.getId());
+        assertTrue(animalDAO.findByEspecie(especie).isEmpty());
     }
 
     @Test
     public void testUpdateEstado() {
         AnimalDAO animalDAO = new AnimalDAO();
+        String especie = DatosPrueba.unica("Podenco");
+        Animal animal = DatosPrueba.animal("Paco", especie, 14, "Perro blanco con mancha en la cara negra");
+        assertTrue(animalDAO.saveAnimal(animal, "Guerrero", 36, "Sevilla"));
+        Long animalId = animal.getId();
+        Cache cache = HibernateUtil.getSessionFactory().getCache();
 
-        Animal animal = new Animal();
-        animal.setNombre("Paco");
-        animal.setEspecie("Podenco");
-        animal.setEdad(14);
-        animal.setDescripcion("Perro blanco con mancha en la cara negra");
-        animal.setEstado("recién abandonado");
-
-        animalDAO.saveAnimal(animal, "Guerrero", 36, "Sevilla");
+        // Sin el animal en caché, el cambio es una sola sentencia UPDATE por ID
+        cache.evictEntityData(Animal.class, animalId);
+        ContadorSentencias.reiniciar();
+        animalDAO.updateEstado(animalId, EstadoAnimal.ACOGIDA);
+        assertEquals(1, ContadorSentencias.getSentencias());
+        assertFalse(cache.containsEntity(Animal.class, animalId));
+        assertEquals(EstadoAnimal.ACOGIDA, animalDAO.findByEspecie(especie).get(0).getEstado());
 
-        List<Animal> perros = animalDAO.findByEspecie("Podenco");
-        Long animalId = perros.get(0).getId();
+        // Con el animal en caché, se modifica la entidad cacheada, también con una sola sentencia
+        assertEquals(EstadoAnimal.ACOGIDA, animalDAO.findEstadoById(animalId));
+        assertTrue(cache.containsEntity(Animal.class, animalId));
+        ContadorSentencias.reiniciar();
+        animalDAO.updateEstado(animalId, EstadoAnimal.VACUNADO);
+        assertEquals(1, ContadorSentencias.getSentencias());
+        assertEquals(EstadoAnimal.VACUNADO, animalDAO.findEstadoById(animalId));
 
-        String nuevoEstado = "Acogida";
-        animalDAO.updateEstado(animalId, nuevoEstado);
+        // El cambio condicional sin caché lleva el estado esperado en la sentencia
+        cache.evictEntityData(Animal.class, animalId);
+        ContadorSentencias.reiniciar();
+        assertTrue(animalDAO.updateEstado(animalId, EstadoAnimal.VACUNADO, EstadoAnimal.EN_TRATAMIENTO));
+        assertEquals(1, ContadorSentencias.getSentencias());
+        ContadorSentencias.reiniciar();
+        assertFalse(animalDAO.updateEstado(animalId, EstadoAnimal.VACUNADO, EstadoAnimal.ACOGIDA));
+        assertEquals(1, ContadorSentencias.getSentencias());
+        assertEquals(EstadoAnimal.EN_TRATAMIENTO, animalDAO.findEstadoById(animalId));
 
-        List<Animal> perrosActualizados = animalDAO.findByEspecie("Podenco");
-        assertEquals(nuevoEstado, perrosActualizados.get(0).getEstado());
+        // Solo el cambio por ID sin condición no conoce el estado anterior
+        assertEquals(Arrays.asList(null, EstadoAnimal.ACOGIDA, EstadoAnimal.VACUNADO),
+                animalDAO.findHistorialEstados(animalId).stream().map(CambioEstado::getEstadoAnterior).collect(Collectors.toList()));
     }
 
     @Test
     public void testUpdateFamilia() {
         AnimalDAO animalDAO = new AnimalDAO();
+        String especie = DatosPrueba.unica("Podenco");
+        Animal animal = DatosPrueba.animal("Paco", especie, 14, "Perro blanco con mancha en la cara negra");
+        assertTrue(animalDAO.saveAnimal(animal, "Guerrero", 36, "Sevilla"));
+        Long animalId = animal.getId();
 
-        Animal animal = new Animal();
-        animal.setNombre("Paco");
-        animal.setEspecie("Podenco");
-        animal.setEdad(14);
-        animal.setDescripcion("Perro blanco con mancha en la cara negra");
-        animal.setEstado("recién abandonado");
+        // Sin el animal en caché, la familia se cambia por ID
+        HibernateUtil.getSessionFactory().getCache().evictEntityData(Animal.class, animalId);
+        animalDAO.updateFamilia(animalId, "Nueva Familia", 40, "Madrid");
+        Familia familia = animalDAO.findByEspecieWithFamilia(especie).get(0).getFamilia();
+        assertEquals("Nueva Familia", familia.getNombre());
+        assertEquals(40, familia.getEdad());
+        assertEquals("Madrid", familia.getCiudad());
 
-        animalDAO.saveAnimal(animal, "Guerrero", 36, "Sevilla");
+        // Con el animal en caché, se modifica la entidad cacheada
+        animalDAO.findEstadoById(animalId);
+        animalDAO.updateFamilia(animalId, "Guerrero", 36, "Sevilla");
+        assertEquals("Guerrero", animalDAO.findByEspecieWithFamilia(especie).get(0).getFamilia().getNombre());
+    }
 
-        List<Animal> perros = animalDAO.findByEspecie("Podenco");
-        Long animalId = perros.get(0).getId();
+    @Test
+    public void testSaveAnimals() {
+        AnimalDAO animalDAO = new AnimalDAO();
+        String especie = DatosPrueba.unica("Camada");
+
+        List<Animal> camada = new ArrayList<>();
+        for (int i = 0; i < 120; i++) {
+            camada.add(DatosPrueba.animalConFamilia("Cachorro " + i, especie, "Guerrero", "Sevilla"));
+        }
+
+        assertEquals(120, animalDAO.saveAnimals(camada, 25));
+
+        List<Animal> guardados = animalDAO.findByEspecie(especie);
+        assertEquals(120, guardados.size());
+    }
+
+    @Test
+    public void testConsultasConstantesAlCrecerFamilias() {
+        AnimalDAO animalDAO = new AnimalDAO();
+
+        for (int numeroFamilias : new int[]{1, 10, 50}) {
+            String especie = DatosPrueba.unica("Especie");
+            List<Animal> animales = new ArrayList<>();
+            for (int i = 0; i < numeroFamilias; i++) {
+                animales.add(DatosPrueba.animalConFamilia("Animal " + i, especie, especie + " Familia " + i, "Sevilla"));
+            }
+            animalDAO.saveAnimals(animales);
+
+            ContadorSentencias.reiniciar();
+            assertEquals(numeroFamilias, animalDAO.findByEspecie(especie).size());
+            assertEquals(1, ContadorSentencias.getSentencias());
+
+            ContadorSentencias.reiniciar();
+            assertEquals(numeroFamilias, animalDAO.findResumenByEspecie(especie).size());
+            assertEquals(1, ContadorSentencias.getSentencias());
+
+            ContadorSentencias.reiniciar();
+            List<Animal> conFamilia = animalDAO.findByEspecieWithFamilia(especie);
+            assertEquals(numeroFamilias, conFamilia.size());
+            assertNotNull(conFamilia.get(0).getFamilia().getCiudad());
+            assertEquals(1, ContadorSentencias.getSentencias());
+        }
+    }
+
+    @Test
+    public void testRegistrosConcurrentesSinFamiliasDuplicadas() throws Exception {
+        registrarConcurrentemente(new AnimalDAO());
+    }
+
+    @Test
+    public void testRegistrosConcurrentesConInsercionSinConflicto() throws Exception {
+        // H2 en modo MySQL entiende INSERT ... ON DUPLICATE KEY UPDATE
+        AnimalDAO animalDAO = new AnimalDAO(true);
+        Animal cacheado = DatosPrueba.animal("Cacheado", DatosPrueba.unica("Cacheado"), 2, null);
+        assertTrue(animalDAO.saveAnimal(cacheado, DatosPrueba.unica("Familia Cacheada"), 40, "Sevilla"));
+        Long familiaCacheada = animalDAO.findByEspecieWithFamilia(cacheado.getEspecie()).get(0).getFamilia().getId();
+        Cache cache = HibernateUtil.getSessionFactory().getCache();
+        assertTrue(cache.containsEntity(Familia.class, familiaCacheada));
+
+        registrarConcurrentemente(animalDAO);
+
+        // Las familias insertadas no han vaciado la región de caché de las familias
+        assertTrue(cache.containsEntity(Familia.class, familiaCacheada));
+    }
+
+    /**
+     * Registra animales de cinco familias nuevas desde varios hilos a la vez y comprueba que
+     * se guardan todos y que cada familia se crea una sola vez.
+     */
+    private static void registrarConcurrentemente(AnimalDAO animalDAO) throws Exception {
+        String especie = DatosPrueba.unica("Concurrente");
+        int hilos = 8;
+        int animalesPorHilo = 25;
+        int numeroFamilias = 5;
+
+        ExecutorService ejecutor = Executors.newFixedThreadPool(hilos);
+        CountDownLatch salida = new CountDownLatch(1);
+        List<Future<?>> tareas = new ArrayList<>();
+        for (int h = 0; h < hilos; h++) {
+            int hilo = h;
+            tareas.add(ejecutor.submit(() -> {
+                salida.await();
+                for (int i = 0; i < animalesPorHilo; i++) {
+                    Animal animal = DatosPrueba.animal("Animal " + hilo + "-" + i, especie, 2, null);
+                    assertTrue(animalDAO.saveAnimal(animal, especie + " Familia " + (i % numeroFamilias), 40, "Sevilla"));
+                }
+                return null;
+            }));
+        }
+        salida.countDown();
+        for (Future<?> tarea : tareas) {
+            tarea.get();
+        }
+        ejecutor.shutdown();
+
+        List<Animal> guardados = animalDAO.findByEspecieWithFamilia(especie);
+        assertEquals(hilos * animalesPorHilo, guardados.size());
+
+        Set<Long> familias = guardados.stream()
+                .map(animal -> animal.getFamilia().getId())
+                .collect(Collectors.toSet());
+        assertEquals(numeroFamilias, familias.size());
+    }
+
+    @Test
+    public void testActualizacionesConcurrentesSinPerderCambios() throws Exception {
+        AnimalDAO animalDAO = new AnimalDAO();
+        AnimalService animalService = new AnimalService();
+        String especie = DatosPrueba.unica("Optimista");
+        String nombreFamilia = especie + " Familia";
+        int hilos = 4;
+        int cambiosPorHilo = 5;
+
+        List<Long> ids = new ArrayList<>();
+        for (int h = 0; h < hilos; h++) {
+            Animal animal = DatosPrueba.animal("Animal " + h, especie, 2, null);
+            animalService.registrarAnimal(animal, nombreFamilia, 30, "Sevilla");
+            ids.add(animal.getId());
+        }
+        Long compartido = ids.get(0);
+
+        // Cada hilo cambia la edad de la misma familia a valores que solo él usa, y el estado del mismo animal
+        // solo si sigue en el estado que ha leído; anota los cambios que se confirman y los que chocan con otro
+        ExecutorService ejecutor = Executors.newFixedThreadPool(hilos);
+        CountDownLatch salida = new CountDownLatch(1);
+        List<Integer> edades = Collections.synchronizedList(new ArrayList<>());
+        List<List<EstadoAnimal>> transiciones = Collections.synchronizedList(new ArrayList<>());
+        AtomicInteger conflictos = new AtomicInteger();
+        List<Future<?>> tareas = new ArrayList<>();
+        for (int h = 0; h < hilos; h++) {
+            int hilo = h;
+            tareas.add(ejecutor.submit(() -> {
+                salida.await();
+                for (int i = 1; i <= cambiosPorHilo; i++) {
+                    int edad = 100 * (hilo + 1) + i;
+                    try {
+                        animalService.actualizarFamilia(ids.get(hilo), nombreFamilia, edad, "Sevilla");
+                        edades.add(edad);
+                    } catch (IllegalStateException e) {
+                        conflictos.incrementAndGet();
+                    }
+
+                    EstadoAnimal actual = animalDAO.findEstadoById(compartido);
+                    EstadoAnimal nuevo = actual.getEstadosSiguientes().iterator().next();
+                    try {
+                        if (animalDAO.updateEstado(compartido, actual, nuevo)) {
+                            transiciones.add(List.of(actual, nuevo));
+                        } else {
+                            conflictos.incrementAndGet();
+                        }
+                    } catch (OptimisticLockException e) {
+                        conflictos.incrementAndGet();
+                    }
+                }
+                return null;
+            }));
+        }
+        salida.countDown();
+        for (Future<?> tarea : tareas) {
+            tarea.get();
+        }
+        ejecutor.shutdown();
+        assertEquals(2 * hilos * cambiosPorHilo, edades.size() + transiciones.size() + conflictos.get());
+
+        // Cada cambio confirmado de la familia ha partido del anterior: la versión ha subido una vez por cambio
+        // y la edad final es la de uno de ellos
+        Familia familia = animalDAO.findByEspecieWithFamilia(especie).get(0).getFamilia();
+        assertFalse(edades.isEmpty());
+        assertEquals(edades.size(), familia.getVersion());
+        assertTrue(edades.contains(familia.getEdad()));
+
+        // Cada cambio de estado confirmado está en el historial, y cada uno sale del estado en que dejó al animal
+        // el anterior
+        List<CambioEstado> historial = animalDAO.findHistorialEstados(compartido);
+        assertFalse(transiciones.isEmpty());
+        assertEquals(transiciones.size(), historial.size());
+        EstadoAnimal estado = EstadoAnimal.RECIEN_ABANDONADO;
+        for (CambioEstado cambio : historial) {
+            assertEquals(estado, cambio.getEstadoAnterior());
+            assertTrue(transiciones.remove(List.of(cambio.getEstadoAnterior(), cambio.getEstadoNuevo())));
+            estado = cambio.getEstadoNuevo();
+        }
+        assertEquals(estado, animalDAO.findEstadoById(compartido));
+    }
+
+    @Test
+    public void testUpdateEstadoMasivo() {
+        AnimalDAO animalDAO = new AnimalDAO();
+        String especie = DatosPrueba.unica("Masivo");
+
+        List<Animal> animales = new ArrayList<>();
+        for (int i = 0; i < 1200; i++) {
+            Animal animal = DatosPrueba.animalConFamilia("Animal " + i, especie, "Guerrero", "Sevilla");
+            animal.setEstado(i % 2 == 0 ? EstadoAnimal.RECIEN_ABANDONADO : EstadoAnimal.ACOGIDA);
+            animales.add(animal);
+        }
+        animalDAO.saveAnimals(animales);
 
-        String nuevaFamilia = "Nueva Familia";
-        int nuevaEdad = 40;
-        String nuevaCiudad = "Madrid";
+        // Se rellena la caché de consultas para comprobar que la actualización masiva la invalida
+        assertEquals(1200, animalDAO.findByEspecie(especie).size());
 
-        animalDAO.updateFamilia(animalId, nuevaFamilia, nuevaEdad, nuevaCiudad);
+        assertEquals(600, animalDAO.updateEstadoByEspecie(especie, EstadoAnimal.RECIEN_ABANDONADO, EstadoAnimal.VACUNADO));
+        List<Animal> actualizados = animalDAO.findByEspecie(especie);
+        assertEquals(600, actualizados.stream().filter(a -> a.getEstado() == EstadoAnimal.VACUNADO).count());
+        assertEquals(600, actualizados.stream().filter(a -> a.getEstado() == EstadoAnimal.ACOGIDA).count());
 
-        List<Animal> perrosActualizados = animalDAO.findByEspecie("Podenco");
-        assertEquals(nuevaFamilia, perrosActualizados.get(0).getFamilia().getNombre());
-        assertEquals(nuevaEdad, perrosActualizados.get(0).getFamilia().getEdad());
-        assertEquals(nuevaCiudad, perrosActualizados.get(0).getFamilia().getCiudad());
+        List<Long> ids = actualizados.stream().map(Animal::getId).collect(Collectors.toList());
+        assertEquals(1200, animalDAO.updateEstadoMasivo(ids, EstadoAnimal.ADOPTADO));
+        assertTrue(animalDAO.findByEspecie(especie).stream().allMatch(a -> a.getEstado() == EstadoAnimal.ADOPTADO));
     }
-}
\ No newline at end of file
+}
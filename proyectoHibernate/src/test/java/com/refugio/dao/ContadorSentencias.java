@@ -0,0 +1,38 @@
+package com.refugio.dao;
+
+import org.hibernate.resource.jdbc.spi.StatementInspector;
+
+/**
+ * Cuenta las sentencias SQL que Hibernate prepara en cada hilo, para comprobar cuántas consultas hace
+ * una operación sin contar las que lanzan a la vez los hilos en segundo plano (el historial de estados,
+ * la conciliación de los contadores...). Se instala en las pruebas con la propiedad
+ * {@code hibernate.session_factory.statement_inspector} de {@code hibernate.properties}.
+ */
+public class ContadorSentencias implements StatementInspector {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final ThreadLocal<int[]> sentencias = ThreadLocal.withInitial(() -> new int[1]);
+
+    /**
+     * Pone a cero la cuenta del hilo actual.
+     */
+    public static void reiniciar() {
+        sentencias.get()[0] = 0;
+    }
+
+    /**
+     * Obtiene el número de sentencias preparadas por el hilo actual desde la última vez que se puso a cero.
+     *
+     * @return el número de sentencias.
+     */
+    public static int getSentencias() {
+        return sentencias.get()[0];
+    }
+
+    @Override
+    public String inspect(String sql) {
+        sentencias.get()[0]++;
+        return sql;
+    }
+}
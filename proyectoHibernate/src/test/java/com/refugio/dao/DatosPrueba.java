@@ -0,0 +1,65 @@
+package com.refugio.dao;
+
+import com.refugio.model.Animal;
+import com.refugio.model.EstadoAnimal;
+import com.refugio.model.Familia;
+
+/**
+ * Datos de prueba compartidos por las pruebas de los DAO, los servicios y la API. Los animales se crean
+ * recién abandonados y sin guardar; cada prueba usa una especie propia (por ejemplo con {@link #unica(String)})
+ * para no ver los animales de las demás, porque todas comparten la misma base de datos.
+ */
+public final class DatosPrueba {
+
+    private DatosPrueba() {
+    }
+
+    /**
+     * Genera un nombre que no se repite entre pruebas, para especies, familias o ciudades.
+     *
+     * @param prefijo el principio del nombre.
+     * @return el prefijo seguido de un número distinto en cada llamada.
+     */
+    public static String unica(String prefijo) {
+        return prefijo + System.nanoTime();
+    }
+
+    /**
+     * Crea un animal recién abandonado sin familia.
+     *
+     * @param nombre      el nombre del animal.
+     * @param especie     la especie del animal.
+     * @param edad        la edad del animal.
+     * @param descripcion la descripción del animal, o {@code null}.
+     * @return el animal, sin guardar.
+     */
+    public static Animal animal(String nombre, String especie, int edad, String descripcion) {
+        Animal animal = new Animal();
+        animal.setNombre(nombre);
+        animal.setEspecie(especie);
+        animal.setEdad(edad);
+        animal.setDescripcion(descripcion);
+        animal.setEstado(EstadoAnimal.RECIEN_ABANDONADO);
+        return animal;
+    }
+
+    /**
+     * Crea un animal recién abandonado acogido por una familia nueva de 40 años, para los registros masivos.
+     *
+     * @param nombre        el nombre del animal.
+     * @param especie       la especie del animal.
+     * @param nombreFamilia el nombre de la familia.
+     * @param ciudad        la ciudad de la familia.
+     * @return el animal con su familia, sin guardar.
+     */
+    public static Animal animalConFamilia(String nombre, String especie, String nombreFamilia, String ciudad) {
+        Familia familia = new Familia();
+        familia.setNombre(nombreFamilia);
+        familia.setEdad(40);
+        familia.setCiudad(ciudad);
+
+        Animal animal = animal(nombre, especie, 3, null);
+        animal.setFamilia(familia);
+        return animal;
+    }
+}
@@ -0,0 +1,210 @@
+package com.refugio.dao;
+
+import com.refugio.model.Animal;
+import com.refugio.model.AnimalResumen;
+import com.refugio.model.EstadoAnimal;
+import com.refugio.model.Familia;
+import com.refugio.model.ResultadoImportacion;
+import com.refugio.service.ImportacionService;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import static com.refugio.dao.DatosPrueba.animal;
+import static com.refugio.dao.DatosPrueba.animalConFamilia;
+import static com.refugio.dao.DatosPrueba.unica;
+import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.assumeFalse;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.Collectors;
+
+/**
+ * Pruebas con dos shards en bases de datos H2 en memoria, el del sur con una réplica que no recibe
+ * las escrituras del primario, de modo que se nota qué lecturas van a cada uno. Los shards se leen al arrancar
+ * Hibernate, así que esta clase debe lanzarse en su propia JVM (por ejemplo con {@code reuseForks=false}
+ * en Surefire); si otra prueba ya ha arrancado Hibernate en la misma JVM, se omite.
+ */
+public class ShardsTest {
+
+    /**
+     * Hilo creado antes de ninguna escritura, que no hereda las lecturas propias del hilo de las pruebas.
+     */
+    private static ExecutorService otroHilo;
+
+    @BeforeAll
+    public static void configurarShards() throws Exception {
+        assumeFalse(HibernateUtil.isIniciado(), "Hibernate ya está arrancado con otra configuración");
+        System.setProperty("hibernate.connection.driver_class", "org.h2.Driver");
+        System.setProperty("hibernate.connection.username", "sa");
+        System.setProperty("hibernate.connection.password", "");
+        System.setProperty("hibernate.dialect", "org.hibernate.dialect.H2Dialect");
+        System.setProperty("hibernate.search.backend.directory.type", "local-heap");
+        System.setProperty(HibernateUtil.PROPIEDAD_SHARDS, "norte,sur");
+        System.setProperty("refugio.shard.norte.hibernate.connection.url", "jdbc:h2:mem:norte;MODE=MySQL;DB_CLOSE_DELAY=-1");
+        System.setProperty("refugio.shard.norte.ciudades", "Bilbao,Lugo");
+        System.setProperty("refugio.shard.sur.hibernate.connection.url", "jdbc:h2:mem:sur;MODE=MySQL;DB_CLOSE_DELAY=-1");
+        System.setProperty("refugio.shard.sur.ciudades", "Sevilla,Málaga,Valencia");
+        System.setProperty("refugio.shard.sur.refugio.replicas", "sur2");
+        System.setProperty("refugio.replica.sur2.hibernate.connection.url", "jdbc:h2:mem:sur2;MODE=MySQL;DB_CLOSE_DELAY=-1");
+        // La réplica no toca el esquema salvo que se le indique; H2 no tiene SHOW REPLICA STATUS
+        System.setProperty("refugio.replica.sur2.hibernate.hbm2ddl.auto", "update");
+        System.setProperty("refugio.replicas.consulta_retraso", "SELECT 0");
+
+        otroHilo = Executors.newSingleThreadExecutor();
+        otroHilo.submit(() -> { }).get();
+    }
+
+    @AfterAll
+    public static void terminar() {
+        if (otroHilo != null) {
+            otroHilo.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testRepartoEntreShards() {
+        AnimalDAO animalDAO = new AnimalDAO();
+        String especie = unica("Reparto");
+        String[] ciudades = {"Sevilla", "Bilbao", "Valencia", "Lugo", "Madrid"};
+
+        assertEquals(List.of("norte", "sur"), HibernateUtil.getShards());
+        for (int i = 0; i < ciudades.length; i++) {
+            animalDAO.saveAnimal(animal("Viajero" + i, especie, i + 1, null), "Reparto" + ciudades[i], 30, ciudades[i]);
+        }
+
+        List<Animal> animales = animalDAO.findByEspecieWithFamilia(especie);
+        assertEquals(ciudades.length, animales.size());
+        for (int i = 0; i < animales.size(); i++) {
+            Animal animal = animales.get(i);
+            assertEquals(HibernateUtil.getShardPorCiudad(animal.getFamilia().getCiudad()), HibernateUtil.getShardPorId(animal.getId()));
+            assertEquals(HibernateUtil.getShardPorId(animal.getId()), HibernateUtil.getShardPorId(animal.getFamilia().getId()));
+            if (i > 0) {
+                assertTrue(animales.get(i - 1).getId() < animal.getId());
+            }
+        }
+        assertEquals("norte", HibernateUtil.getShardPorCiudad("Bilbao"));
+        assertEquals("sur", HibernateUtil.getShardPorCiudad("Sevilla"));
+        // Los IDs del norte, primer shard, van antes que los del sur
+        assertEquals("norte", HibernateUtil.getShardPorId(animales.get(0).getId()));
+        assertEquals("sur", HibernateUtil.getShardPorId(animales.get(animales.size() - 1).getId()));
+    }
+
+    @Test
+    public void testCambioDeFamiliaEntreShards() {
+        AnimalDAO animalDAO = new AnimalDAO();
+        String especie = unica("Mudanza");
+        Animal animal = animalConFamilia("Nómada", especie, especie + " Norte", "Bilbao");
+        assertEquals(1, animalDAO.saveAnimals(List.of(animal), 1));
+
+        // Un animal no puede pasar a una familia de otro shard
+        assertThrows(IllegalStateException.class,
+                () -> animalDAO.updateFamilia(animal.getId(), especie + " Sur", 40, "Sevilla"));
+        animalDAO.updateFamilia(animal.getId(), especie + " Lugo", 40, "Lugo");
+        assertEquals(especie + " Lugo", animalDAO.findByEspecieWithFamilia(especie).get(0).getFamilia().getNombre());
+    }
+
+    @Test
+    public void testSaveAnimalsEnVariosShards() {
+        AnimalDAO animalDAO = new AnimalDAO();
+        String especie = unica("VariosShards");
+
+        List<Animal> animales = new ArrayList<>();
+        for (int i = 0; i < 6; i++) {
+            animales.add(animalConFamilia("Animal " + i, especie, especie + " Familia " + (i % 2), i % 2 == 0 ? "Lugo" : "Málaga"));
+        }
+        assertEquals(6, animalDAO.saveAnimals(animales, 2));
+        for (Animal animal : animalDAO.findByEspecieWithFamilia(especie)) {
+            assertEquals(animalDAO.findShard(animal.getFamilia()), HibernateUtil.getShardPorId(animal.getId()));
+        }
+
+        // Si falla el segundo shard, el primero queda confirmado
+        List<Animal> fallidos = new ArrayList<>();
+        fallidos.add(animalConFamilia("Norteño", especie, especie + " Familia 0", "Lugo"));
+        fallidos.add(animalConFamilia("x".repeat(300), especie, especie + " Familia 1", "Málaga"));
+        assertEquals(1, animalDAO.saveAnimals(fallidos, 2));
+        assertEquals(7, animalDAO.findByEspecie(especie).size());
+    }
+
+    @Test
+    public void testPaginasPorClaveEntreShards() {
+        AnimalDAO animalDAO = new AnimalDAO();
+        String especie = unica("Paginas");
+        List<Animal> animales = new ArrayList<>();
+        for (int i = 0; i < 7; i++) {
+            Animal animal = animalConFamilia("Animal " + i, especie, especie + (i < 3 ? " Norte" : " Sur"), i < 3 ? "Lugo" : "Málaga");
+            animal.setEstado(i % 2 == 0 ? EstadoAnimal.ADOPTADO : EstadoAnimal.RECIEN_ABANDONADO);
+            animales.add(animal);
+        }
+        assertEquals(7, animalDAO.saveAnimals(animales, 10));
+
+        // Las páginas de 2 recorren el norte y siguen por el sur sin saltarse ni repetir animales
+        List<Long> recorridos = new ArrayList<>();
+        Long ultimo = null;
+        List<AnimalResumen> pagina;
+        do {
+            pagina = animalDAO.findResumenByEspecieAfter(especie, ultimo, 2);
+            pagina.forEach(resumen -> recorridos.add(resumen.getId()));
+            ultimo = pagina.isEmpty() ? ultimo : pagina.get(pagina.size() - 1).getId();
+        } while (pagina.size() == 2);
+        assertEquals(animalDAO.findResumenByEspecie(especie).stream().map(AnimalResumen::getId).collect(Collectors.toList()),
+                recorridos);
+
+        List<AnimalResumen> adoptados = animalDAO.findResumenByEstadoAfter(EstadoAnimal.ADOPTADO, recorridos.get(0) - 1, 100);
+        assertEquals(4, adoptados.stream().filter(resumen -> resumen.getEspecie().equals(especie)).count());
+    }
+
+    @Test
+    public void testImportacionSinDuplicarAlFallarUnShard(@TempDir Path directorio) throws IOException {
+        AnimalDAO animalDAO = new AnimalDAO();
+        String especie = unica("ImportadoShards");
+        StringBuilder csv = new StringBuilder("nombre,especie,edad,familia,edad_familia,ciudad_familia\n");
+        for (int i = 0; i < 4; i++) {
+            csv.append("Norte ").append(i).append(',').append(especie).append(",2,").append(especie).append(" Norte,40,Bilbao\n");
+        }
+        for (int i = 0; i < 3; i++) {
+            csv.append("Sur ").append(i).append(',').append(especie).append(",3,").append(especie).append(" Sur,40,Sevilla\n");
+        }
+        // La base de datos rechaza el nombre, demasiado largo, y con él la transacción del sur
+        csv.append("x".repeat(300)).append(',').append(especie).append(",3,").append(especie).append(" Sur,40,Sevilla\n");
+        Path fichero = directorio.resolve("shards.csv");
+        Files.write(fichero, csv.toString().getBytes(StandardCharsets.UTF_8));
+
+        // Un único lote con animales de los dos shards
+        ResultadoImportacion resultado = new ImportacionService(1, 100, 1 << 20).importar(fichero);
+
+        assertEquals(8, resultado.getFilasLeidas());
+        assertEquals(7, resultado.getFilasImportadas());
+        assertEquals(1, resultado.getTotalErrores());
+        assertEquals(9, resultado.getErrores().get(0).getLinea());
+        assertEquals(7, animalDAO.findByEspecie(especie).size());
+    }
+
+    @Test
+    public void testLecturaPropiaTrasEscritura() throws Exception {
+        AnimalDAO animalDAO = new AnimalDAO();
+        String especie = unica("Replica");
+        String shard = HibernateUtil.getShardPorCiudad("Sevilla");
+
+        animalDAO.saveAnimal(animal("Eco", especie, 2, null), "Guerrero", 36, "Sevilla");
+
+        // Justo después de escribir, el hilo lee del primario aunque el shard tenga réplicas
+        assertTrue(HibernateUtil.isLecturaPropia());
+        assertSame(HibernateUtil.getSessionFactory(shard), HibernateUtil.getReplicaSessionFactory(shard));
+        assertEquals(1, animalDAO.findByEspecie(especie).size());
+        assertEquals(1, animalDAO.findResumenByEspecie(especie).size());
+
+        // Los demás hilos leen de la réplica, que no ha recibido el animal
+        assertFalse(otroHilo.submit(HibernateUtil::isLecturaPropia).get());
+        assertNotSame(HibernateUtil.getSessionFactory(shard), otroHilo.submit(() -> HibernateUtil.getReplicaSessionFactory(shard)).get());
+        assertEquals(0, otroHilo.submit(() -> animalDAO.findByEspecie(especie).size()).get());
+        // El norte no tiene réplicas
+        assertSame(HibernateUtil.getSessionFactory("norte"), otroHilo.submit(() -> HibernateUtil.getReplicaSessionFactory("norte")).get());
+    }
+}
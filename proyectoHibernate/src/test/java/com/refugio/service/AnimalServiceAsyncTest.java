@@ -0,0 +1,68 @@
+package com.refugio.service;
+
+import com.refugio.model.AnimalResumen;
+import org.junit.jupiter.api.Test;
+import static com.refugio.dao.DatosPrueba.animal;
+import static com.refugio.dao.DatosPrueba.unica;
+import static org.junit.jupiter.api.Assertions.*;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+public class AnimalServiceAsyncTest {
+
+    @Test
+    public void testConsultasAsincronas() throws Exception {
+        AnimalServiceAsync animalServiceAsync = new AnimalServiceAsync();
+        String especie = unica("Asincrona");
+
+        animalServiceAsync.registrarAnimal(animal("Paco", especie, 14, null), "Guerrero", 36, "Sevilla").get();
+
+        List<CompletableFuture<List<AnimalResumen>>> consultas = new ArrayList<>();
+        for (int i = 0; i < 300; i++) {
+            consultas.add(animalServiceAsync.buscarResumenPorEspecie(especie));
+        }
+        for (CompletableFuture<List<AnimalResumen>> consulta : consultas) {
+            assertEquals(1, consulta.get().size());
+        }
+
+        EjecutorBaseDatos ejecutor = new EjecutorBaseDatos(1, 2, Duration.ofMillis(200));
+        CountDownLatch bloqueo = new CountDownLatch(1);
+        AtomicBoolean interrumpida = new AtomicBoolean();
+        AtomicBoolean terminada = new AtomicBoolean();
+        try {
+            CompletableFuture<Void> lenta = ejecutor.ejecutar(() -> {
+                try {
+                    bloqueo.await();
+                    terminada.set(true);
+                } catch (InterruptedException e) {
+                    interrumpida.set(true);
+                    Thread.currentThread().interrupt();
+                }
+            });
+            ejecutor.ejecutar(() -> { });
+
+            ExecutionException rechazo = assertThrows(ExecutionException.class, () -> ejecutor.ejecutar(() -> { }).get());
+            assertTrue(rechazo.getCause() instanceof RejectedExecutionException);
+            assertEquals(1, ejecutor.getRechazadas());
+
+            ExecutionException timeout = assertThrows(ExecutionException.class, lenta::get);
+            assertTrue(timeout.getCause() instanceof TimeoutException);
+        } finally {
+            // Cerrar el ejecutor espera a la operación en curso
+            bloqueo.countDown();
+            ejecutor.close();
+        }
+
+        // Agotar el tiempo no interrumpe la operación en curso, que termina igualmente
+        assertFalse(interrumpida.get());
+        assertTrue(terminada.get());
+        assertEquals(0, ejecutor.getPendientes());
+    }
+}
@@ -0,0 +1,96 @@
+package com.refugio.service;
+
+import com.refugio.model.Animal;
+import com.refugio.model.CambioEstado;
+import com.refugio.model.EstadoAnimal;
+import com.refugio.model.ResultadoBusqueda;
+import org.junit.jupiter.api.Test;
+import static com.refugio.dao.DatosPrueba.animal;
+import static com.refugio.dao.DatosPrueba.unica;
+import static org.junit.jupiter.api.Assertions.*;
+import java.util.List;
+import java.util.stream.Collectors;
+
+public class AnimalServiceTest {
+
+    @Test
+    public void testBusquedaTexto() {
+        AnimalService animalService = new AnimalService();
+        String marca = unica("chip");
+        String[][] animales = {
+                {"Paco", "Perro blanco con mancha en la cara negra " + marca},
+                {"Nube", "Gata blanca muy cariñosa " + marca},
+                {"Tizón", "Gato negro sin manchas " + marca},
+        };
+        for (String[] datos : animales) {
+            animalService.registrarAnimal(animal(datos[0], "Busqueda", 3, datos[1]), "Busqueda Familia", 40, "Sevilla");
+        }
+        for (int i = 0; i < 9; i++) {
+            animalService.registrarAnimal(animal("Relleno " + i, "Busqueda", 3, "Animal tranquilo " + marca),
+                    "Busqueda Familia", 40, "Sevilla");
+        }
+
+        ResultadoBusqueda resultado = animalService.buscarTexto(marca, 1);
+        assertEquals(12, resultado.getTotal());
+        assertEquals(2, resultado.getTotalPaginas());
+        assertEquals(AnimalService.TAMANO_PAGINA_BUSQUEDA, resultado.getAnimales().size());
+        assertEquals(2, animalService.buscarTexto(marca, 2).getAnimales().size());
+
+        // Sin tildes, en femenino y con palabras vacías: el perro con más palabras en común va primero
+        List<Animal> ordenados = animalService.buscarTexto("perra blanca con manchas " + marca, 1).getAnimales();
+        assertEquals("Paco", ordenados.get(0).getNombre());
+        assertTrue(ordenados.get(0).getDescripcion().endsWith(marca));
+
+        // Las coincidencias en el nombre se encuentran igual que en la descripción
+        assertEquals("Tizón", animalService.buscarTexto("tizon", 1).getAnimales().get(0).getNombre());
+
+        animalService.reconstruirIndiceBusqueda();
+        assertEquals(12, animalService.buscarTexto(marca, 1).getTotal());
+        assertThrows(IllegalArgumentException.class, () -> animalService.buscarTexto("  ", 1));
+    }
+
+    @Test
+    public void testTransicionesDeEstado() {
+        AnimalService animalService = new AnimalService();
+        String especie = unica("Transiciones");
+
+        Animal animal = animal("Paco", especie, 14, null);
+        animalService.registrarAnimal(animal, "Guerrero", 36, "Sevilla");
+        Long animalId = animal.getId();
+
+        assertThrows(IllegalStateException.class, () -> animalService.actualizarEstado(animalId, EstadoAnimal.ADOPTADO));
+        animalService.actualizarEstado(animalId, EstadoAnimal.VACUNADO);
+        animalService.actualizarEstado(animalId, EstadoAnimal.ADOPTADO);
+
+        assertTrue(animalService.buscarPorEstado(EstadoAnimal.ADOPTADO).stream()
+                .anyMatch(resumen -> resumen.getId().equals(animalId)));
+        assertThrows(IllegalArgumentException.class, () -> animalService.actualizarEstado(-1L, EstadoAnimal.VACUNADO));
+    }
+
+    @Test
+    public void testHistorialEstados() {
+        AnimalService animalService = new AnimalService();
+        String especie = unica("Historial");
+
+        Animal trufa = animal("Trufa", especie, 4, null);
+        Animal canela = animal("Canela", especie, 4, null);
+        animalService.registrarAnimal(trufa, "Guerrero", 36, "Sevilla");
+        animalService.registrarAnimal(canela, "Guerrero", 36, "Sevilla");
+
+        animalService.actualizarEstado(trufa.getId(), EstadoAnimal.VACUNADO);
+        assertEquals(2, animalService.actualizarEstadoMasivo(List.of(trufa.getId(), canela.getId()), EstadoAnimal.ACOGIDA));
+        assertEquals(2, animalService.actualizarEstadoPorEspecie(especie, EstadoAnimal.ACOGIDA, EstadoAnimal.VACUNADO));
+        animalService.actualizarEstado(trufa.getId(), EstadoAnimal.EN_TRATAMIENTO);
+
+        List<CambioEstado> historialTrufa = animalService.obtenerHistorialEstados(trufa.getId());
+        assertEquals(List.of(EstadoAnimal.RECIEN_ABANDONADO, EstadoAnimal.VACUNADO, EstadoAnimal.ACOGIDA, EstadoAnimal.VACUNADO),
+                historialTrufa.stream().map(CambioEstado::getEstadoAnterior).collect(Collectors.toList()));
+        assertEquals(List.of(EstadoAnimal.VACUNADO, EstadoAnimal.ACOGIDA, EstadoAnimal.VACUNADO, EstadoAnimal.EN_TRATAMIENTO),
+                historialTrufa.stream().map(CambioEstado::getEstadoNuevo).collect(Collectors.toList()));
+        assertTrue(historialTrufa.stream().allMatch(cambio -> cambio.getAnimalId() == trufa.getId() && cambio.getFecha() != null));
+
+        List<CambioEstado> historialCanela = animalService.obtenerHistorialEstados(canela.getId());
+        assertEquals(List.of(EstadoAnimal.ACOGIDA, EstadoAnimal.VACUNADO),
+                historialCanela.stream().map(CambioEstado::getEstadoNuevo).collect(Collectors.toList()));
+    }
+}
@@ -0,0 +1,109 @@
+package com.refugio.service;
+
+import com.refugio.dao.Metricas;
+import io.micrometer.core.instrument.Counter;
+import org.junit.jupiter.api.Test;
+import static com.refugio.dao.DatosPrueba.unica;
+import static org.junit.jupiter.api.Assertions.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class ConsultasCompartidasTest {
+
+    @Test
+    public void testConsultasCompartidas() throws Exception {
+        ConsultasCompartidas consultas = new ConsultasCompartidas(0);
+        String operacion = unica("buscarPorEspecie");
+        AtomicInteger ejecuciones = new AtomicInteger();
+        CountDownLatch empezada = new CountDownLatch(1);
+        CountDownLatch liberar = new CountDownLatch(1);
+        int hilos = 8;
+
+        ExecutorService ejecutor = Executors.newFixedThreadPool(hilos);
+        try {
+            List<Future<List<String>>> resultados = new ArrayList<>();
+            resultados.add(ejecutor.submit(() -> consultas.ejecutar(() -> {
+                ejecuciones.incrementAndGet();
+                empezada.countDown();
+                try {
+                    liberar.await();
+                } catch (InterruptedException e) {
+                    throw new IllegalStateException(e);
+                }
+                return List.of("Perro");
+            }, operacion, "Perro")));
+            empezada.await();
+            for (int i = 1; i < hilos; i++) {
+                resultados.add(ejecutor.submit(() -> consultas.ejecutar(() -> {
+                    ejecuciones.incrementAndGet();
+                    return List.of("otra");
+                }, operacion, "Perro")));
+            }
+            // Los demás hilos se juntan a la consulta en curso mientras la primera sigue bloqueada
+            long limite = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+            while (consultasCompartidas(operacion) < hilos - 1) {
+                assertTrue(System.nanoTime() - limite < 0, "Los hilos no se han juntado a la consulta en curso");
+                Thread.onSpinWait();
+            }
+            liberar.countDown();
+            for (Future<List<String>> resultado : resultados) {
+                assertEquals(List.of("Perro"), resultado.get());
+            }
+        } finally {
+            ejecutor.shutdown();
+        }
+        assertEquals(1, ejecuciones.get());
+
+        // Quien espera una consulta bloqueada más del tiempo máximo ejecuta la suya
+        ConsultasCompartidas conEspera = new ConsultasCompartidas(0, 50);
+        CountDownLatch bloqueada = new CountDownLatch(1);
+        CountDownLatch desbloquear = new CountDownLatch(1);
+        ExecutorService otro = Executors.newSingleThreadExecutor();
+        try {
+            Future<String> primera = otro.submit(() -> conEspera.ejecutar(() -> {
+                bloqueada.countDown();
+                try {
+                    desbloquear.await();
+                } catch (InterruptedException e) {
+                    throw new IllegalStateException(e);
+                }
+                return "bloqueada";
+            }, "buscarPorEspecie", "Conejo"));
+            bloqueada.await();
+            assertEquals("propia", conEspera.ejecutar(() -> "propia", "buscarPorEspecie", "Conejo"));
+            desbloquear.countDown();
+            assertEquals("bloqueada", primera.get());
+        } finally {
+            otro.shutdown();
+        }
+
+        // Sin memoria, una consulta terminada no se vuelve a servir; los errores llegan a quien la lanza
+        assertEquals("nueva", consultas.ejecutar(() -> "nueva", "buscarPorEspecie", "Perro"));
+        assertThrows(IllegalStateException.class, () -> consultas.ejecutar(() -> {
+            throw new IllegalStateException("fallo");
+        }, "buscarPorEspecie", "Gato"));
+        assertEquals("Gato", consultas.ejecutar(() -> "Gato", "buscarPorEspecie", "Gato"));
+
+        // Con memoria, el resultado se sirve hasta que una escritura lo olvida
+        ConsultasCompartidas conMemoria = new ConsultasCompartidas(60000);
+        assertEquals("primera", conMemoria.ejecutar(() -> "primera", "obtenerFamiliaPorId", 1L));
+        assertEquals("primera", conMemoria.ejecutar(() -> "segunda", "obtenerFamiliaPorId", 1L));
+        assertEquals("otra familia", conMemoria.ejecutar(() -> "otra familia", "obtenerFamiliaPorId", 2L));
+        assertEquals("primera", conMemoria.ejecutarAsync(() -> CompletableFuture.completedFuture("tercera"),
+                "obtenerFamiliaPorId", 1L).get());
+        conMemoria.olvidar();
+        assertEquals("cuarta", conMemoria.ejecutar(() -> "cuarta", "obtenerFamiliaPorId", 1L));
+    }
+
+    private static double consultasCompartidas(String operacion) {
+        Counter contador = Metricas.getRegistro().find("refugio.consultas.compartidas").tag("operacion", operacion).counter();
+        return contador != null ? contador.count() : 0;
+    }
+}
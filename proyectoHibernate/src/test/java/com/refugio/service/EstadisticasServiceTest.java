@@ -0,0 +1,53 @@
+package com.refugio.service;
+
+import com.refugio.model.Animal;
+import com.refugio.model.EstadoAnimal;
+import org.junit.jupiter.api.Test;
+import static com.refugio.dao.DatosPrueba.animal;
+import static com.refugio.dao.DatosPrueba.unica;
+import static org.junit.jupiter.api.Assertions.*;
+import java.util.ArrayList;
+import java.util.List;
+
+public class EstadisticasServiceTest {
+
+    @Test
+    public void testEstadisticas() {
+        AnimalService animalService = new AnimalService();
+        String especie = unica("Estadistica");
+        String ciudad = unica("Ciudad");
+
+        try (EstadisticasService estadisticasService = new EstadisticasService()) {
+            estadisticasService.conciliar();
+            assertEquals(estadisticasService.calcularPorEstado(), estadisticasService.obtenerPorEstado());
+            long recienAbandonados = estadisticasService.obtenerPorEstado(EstadoAnimal.RECIEN_ABANDONADO);
+
+            List<Long> ids = new ArrayList<>();
+            for (int i = 0; i < 3; i++) {
+                Animal animal = animal("Animal " + i, especie, 1, null);
+                animalService.registrarAnimal(animal, especie + " Familia", 30, ciudad);
+                ids.add(animal.getId());
+            }
+            animalService.actualizarEstado(ids.get(0), EstadoAnimal.VACUNADO);
+
+            // Los contadores ya reflejan los cambios sin consultar la base de datos
+            assertEquals(3, estadisticasService.obtenerPorEspecie(especie));
+            assertEquals(3, estadisticasService.obtenerPorCiudad(ciudad));
+            assertEquals(recienAbandonados + 2, estadisticasService.obtenerPorEstado(EstadoAnimal.RECIEN_ABANDONADO));
+            assertEquals(estadisticasService.calcularPorEspecie(), estadisticasService.obtenerPorEspecie());
+            assertEquals(estadisticasService.calcularPorEstado(), estadisticasService.obtenerPorEstado());
+
+            // Los cambios de familia y de ciudad de una familia también se cuentan sin conciliar
+            String otraCiudad = ciudad + " Norte";
+            animalService.actualizarFamilia(ids.get(1), especie + " Otra Familia", 35, otraCiudad);
+            assertEquals(2, estadisticasService.obtenerPorCiudad(ciudad));
+            assertEquals(1, estadisticasService.obtenerPorCiudad(otraCiudad));
+            String terceraCiudad = ciudad + " Sur";
+            animalService.actualizarFamilia(ids.get(0), especie + " Familia", 30, terceraCiudad);
+            assertEquals(0, estadisticasService.obtenerPorCiudad(ciudad));
+            assertEquals(2, estadisticasService.obtenerPorCiudad(terceraCiudad));
+            assertEquals(estadisticasService.calcularPorCiudad(), estadisticasService.obtenerPorCiudad());
+            assertEquals(0, estadisticasService.conciliar());
+        }
+    }
+}
@@ -0,0 +1,46 @@
+package com.refugio.service;
+
+import com.refugio.model.Animal;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import static com.refugio.dao.DatosPrueba.animal;
+import static com.refugio.dao.DatosPrueba.unica;
+import static org.junit.jupiter.api.Assertions.*;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.zip.GZIPInputStream;
+
+public class ExportacionServiceTest {
+
+    @Test
+    public void testExportacion(@TempDir Path directorio) throws IOException {
+        AnimalService animalService = new AnimalService();
+        ExportacionService exportacionService = new ExportacionService();
+        String especie = unica("Exportado");
+
+        Animal animal = animal("Ñoño", especie, 4, "Dice \"guau\", salta\ny corre");
+        animalService.registrarAnimal(animal, especie + " Familia", 40, "Cádiz");
+
+        Path csv = directorio.resolve("animales.csv");
+        long filas = exportacionService.exportarAnimales(csv, FormatoExportacion.CSV);
+        String contenido = new String(Files.readAllBytes(csv), StandardCharsets.UTF_8);
+        assertTrue(contenido.startsWith("id,nombre,especie,edad,descripcion,estado,familia_id\r\n"));
+        assertTrue(contenido.contains(animal.getId() + ",Ñoño," + especie + ",4,\"Dice \"\"guau\"\", salta\ny corre\",RECIEN_ABANDONADO,"
+                + animal.getFamilia().getId() + "\r\n"));
+        assertEquals(filas, contenido.split("\r\n").length - 1);
+        assertFalse(Files.exists(directorio.resolve("animales.csv.tmp")));
+
+        Path json = directorio.resolve("familias.json.gz");
+        exportacionService.exportarFamilias(json, FormatoExportacion.JSON);
+        try (InputStream entrada = new GZIPInputStream(Files.newInputStream(json))) {
+            String familias = new String(entrada.readAllBytes(), StandardCharsets.UTF_8);
+            assertTrue(familias.startsWith("[\n{"));
+            assertTrue(familias.endsWith("}\n]\n"));
+            assertTrue(familias.contains("{\"id\":" + animal.getFamilia().getId() + ",\"nombre\":\"" + especie
+                    + " Familia\",\"edad\":40,\"ciudad\":\"Cádiz\"}"));
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package com.refugio.service;
+
+import com.refugio.dao.AnimalDAO;
+import com.refugio.model.Animal;
+import com.refugio.model.ErrorImportacion;
+import com.refugio.model.EstadoAnimal;
+import com.refugio.model.ResultadoImportacion;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import static com.refugio.dao.DatosPrueba.unica;
+import static org.junit.jupiter.api.Assertions.*;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+public class ImportacionServiceTest {
+
+    @Test
+    public void testImportacion(@TempDir Path directorio) throws IOException {
+        AnimalDAO animalDAO = new AnimalDAO();
+        String especie = unica("Importado");
+        StringBuilder csv = new StringBuilder("nombre,especie,edad,descripcion,estado,familia,edad_familia,ciudad_familia\r\n");
+        for (int i = 1; i <= 30; i++) {
+            csv.append("Animal ").append(i).append(',').append(especie).append(',').append(i % 10).append(',')
+                    .append("\"Llegó el día ").append(i).append(",\ncon \"\"collar\"\"\"")
+                    .append(',').append(i % 2 == 0 ? "vacunado" : "").append(',')
+                    .append(especie).append(" Familia ").append(i % 3).append(",40,Málaga\r\n");
+        }
+        csv.append("Sin edad,").append(especie).append(",joven,,,").append(especie).append(" Familia 0,40,Málaga\r\n");
+        csv.append("\r\n");
+        csv.append("Sin familia,").append(especie).append(",3,,,,40,Málaga\r\n");
+        Path fichero = directorio.resolve("intake.csv");
+        Files.write(fichero, csv.toString().getBytes(StandardCharsets.UTF_8));
+
+        // Un lote ya registrado por una importación interrumpida anterior
+        String firma = "tamano=" + Files.size(fichero) + " modificado=" + Files.getLastModifiedTime(fichero).toMillis()
+                + " bloque=200 lote=4";
+        Files.write(ImportacionService.getFicheroProgreso(fichero), (firma + "\n0:0\n1:").getBytes(StandardCharsets.UTF_8));
+
+        ResultadoImportacion resultado = new ImportacionService(3, 4, 200).importar(fichero);
+
+        assertEquals(32, resultado.getFilasLeidas());
+        assertTrue(resultado.getFilasOmitidas() > 0);
+        assertEquals(30, resultado.getFilasImportadas() + resultado.getFilasOmitidas());
+        assertEquals(2, resultado.getTotalErrores());
+        List<ErrorImportacion> errores = resultado.getErrores();
+        assertEquals(62, errores.get(0).getLinea());
+        assertTrue(errores.get(0).getMensaje().contains("edad"));
+        assertEquals(64, errores.get(1).getLinea());
+        assertTrue(errores.get(1).getMensaje().contains("familia"));
+        assertFalse(Files.exists(ImportacionService.getFicheroProgreso(fichero)));
+
+        List<Animal> importados = animalDAO.findByEspecie(especie);
+        assertEquals(resultado.getFilasImportadas(), importados.size());
+        Animal ultimo = importados.stream().filter(a -> a.getNombre().equals("Animal 30")).findFirst().orElseThrow();
+        assertEquals("Llegó el día 30,\ncon \"collar\"", ultimo.getDescripcion());
+        assertEquals(EstadoAnimal.VACUNADO, ultimo.getEstado());
+        Set<String> familias = animalDAO.findByEspecieWithFamilia(especie).stream()
+                .map(a -> a.getFamilia().getNombre() + "/" + a.getFamilia().getCiudad())
+                .collect(Collectors.toSet());
+        assertEquals(3, familias.size());
+        assertTrue(familias.contains(especie + " Familia 0/Málaga"));
+    }
+}